@@ -4,6 +4,9 @@ import java.awt.image.BufferedImage;
 import java.io.UnsupportedEncodingException;
 
 import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeSequence;
 
 /**
  * Interface representing a QR code generator.
@@ -37,8 +40,40 @@ public interface IQrCodeGenerator {
      *
      * @return The generated QR code image with default values.
      * @throws UnsupportedEncodingException If text encoding fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
      */
-    BufferedImage toImage( ) throws Exception;
+    BufferedImage toImage( ) throws UnsupportedEncodingException, QrCodeGeneratorException;
+
+    /**
+     * Encodes the QR code without rendering it, for renderers working from the modules themselves.
+     * <p>
+     * This method was added after the interface was published: the default implementation throws, so that existing
+     * implementations keep compiling.
+     * </p>
+     *
+     * @return The compact, read-only module matrix of the QR code, with its version, mask and error correction level.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     * @throws UnsupportedOperationException If the implementation only renders images.
+     */
+    default QrCodeMatrix toMatrix( ) throws QrCodeGeneratorException {
+        throw new UnsupportedOperationException( getClass( ).getName( ) + " does not expose its modules" );
+    }
+
+    /**
+     * Encodes the QR code over as few symbols as possible, none above the maximum version of the builder. A payload
+     * too long for one symbol is split over a Structured Append sequence of up to 16 symbols.
+     *
+     * <p>
+     * Like {@link #toMatrix()}, the default implementation throws.
+     * </p>
+     *
+     * @return The symbols, in reading order, with the parity of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in 16 symbols of the maximum version.
+     * @throws UnsupportedOperationException If the implementation only renders images.
+     */
+    default QrCodeSequence toSequence( ) throws QrCodeGeneratorException {
+        throw new UnsupportedOperationException( getClass( ).getName( ) + " does not expose its modules" );
+    }
 
 }
 
@@ -0,0 +1,107 @@
+package fr.paris.lutece.plugins.qrcode.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The progress of a batch command saved to disk, from which an interrupted run is resumed.
+ * <p>
+ * A checkpoint is only saved once everything it counts is stored: the codes of the rows already processed are
+ * written, and the rejected rows are flushed to the rejects file, whose size is recorded so that the rows rejected
+ * after the checkpoint can be discarded on resume. The file is replaced atomically.
+ * </p>
+ */
+final class BatchCheckpoint {
+
+    private static final String KEY_ROWS = "rows";
+    private static final String KEY_GENERATED = "generated";
+    private static final String KEY_REJECTED = "rejected";
+    private static final String KEY_REJECTS_SIZE = "rejects.size";
+    private static final String KEY_VOLUME = "volume";
+    private static final String KEY_COMPLETE = "complete";
+
+    /**
+     * The number of input rows processed, header excluded.
+     */
+    long rows;
+
+    /**
+     * The number of codes generated.
+     */
+    long generated;
+
+    /**
+     * The number of rows rejected.
+     */
+    long rejected;
+
+    /**
+     * The size of the rejects file, in bytes.
+     */
+    long rejectsSize;
+
+    /**
+     * The index of the next ZIP volume.
+     */
+    int volume;
+
+    /**
+     * Whether the whole input was processed.
+     */
+    boolean complete;
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param file The checkpoint file.
+     * @return The checkpoint, or {@code null} if the file does not exist.
+     * @throws IOException If the file cannot be read or is invalid.
+     */
+    static BatchCheckpoint load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        BatchCheckpoint checkpoint = new BatchCheckpoint();
+        try {
+            checkpoint.rows = Long.parseLong(properties.getProperty(KEY_ROWS, "0"));
+            checkpoint.generated = Long.parseLong(properties.getProperty(KEY_GENERATED, "0"));
+            checkpoint.rejected = Long.parseLong(properties.getProperty(KEY_REJECTED, "0"));
+            checkpoint.rejectsSize = Long.parseLong(properties.getProperty(KEY_REJECTS_SIZE, "0"));
+            checkpoint.volume = Integer.parseInt(properties.getProperty(KEY_VOLUME, "0"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint " + file, e);
+        }
+        checkpoint.complete = Boolean.parseBoolean(properties.getProperty(KEY_COMPLETE));
+        return checkpoint;
+    }
+
+    /**
+     * Writes the checkpoint, replacing the previous one.
+     *
+     * @param file The checkpoint file.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_ROWS, Long.toString(rows));
+        properties.setProperty(KEY_GENERATED, Long.toString(generated));
+        properties.setProperty(KEY_REJECTED, Long.toString(rejected));
+        properties.setProperty(KEY_REJECTS_SIZE, Long.toString(rejectsSize));
+        properties.setProperty(KEY_VOLUME, Integer.toString(volume));
+        properties.setProperty(KEY_COMPLETE, Boolean.toString(complete));
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "QR code batch checkpoint");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
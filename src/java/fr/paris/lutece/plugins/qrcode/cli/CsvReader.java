@@ -0,0 +1,191 @@
+package fr.paris.lutece.plugins.qrcode.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of CSV rows (RFC 4180), decoding a channel through fixed-size buffers: the memory used does not
+ * depend on the size of the input, only on the length of the longest row.
+ * <p>
+ * Fields may be quoted with {@code "}, a quote inside a quoted field being doubled; quoted fields may span several
+ * lines. Rows end with {@code LF} or {@code CRLF}, blank lines are skipped and a leading byte order mark is ignored.
+ * Malformed input in the charset is reported, never replaced.
+ * </p>
+ */
+final class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int END = -1;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final char delimiter;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> fields = new ArrayList<>();
+    private boolean endOfInput;
+    private boolean finished;
+    private boolean started;
+    private long bytesRead;
+    private long rowCount;
+
+    /**
+     * Constructs a reader.
+     *
+     * @param channel The channel the CSV text is read from. It is closed with the reader.
+     * @param charset The charset of the text.
+     * @param delimiter The character separating the fields.
+     */
+    CsvReader(ReadableByteChannel channel, Charset charset, char delimiter) {
+        this.channel = channel;
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.delimiter = delimiter;
+        chars.flip();
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return The fields of the row, or {@code null} at the end of the input.
+     * @throws IOException If reading fails, if the input is malformed in the charset, or if a quoted field is not
+     *         terminated.
+     */
+    String[] readRow() throws IOException {
+        int c = read();
+        if (!started) {
+            started = true;
+            if (c == BYTE_ORDER_MARK) {
+                c = read();
+            }
+        }
+        while (c == '\n' || c == '\r') {
+            c = read();
+        }
+        if (c == END) {
+            return null;
+        }
+        fields.clear();
+        field.setLength(0);
+        boolean fieldStart = true;
+        while (true) {
+            if (c == '"' && fieldStart) {
+                c = readQuoted();
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+                c = read();
+            } else if (c == '\n' || c == '\r' || c == END) {
+                fields.add(field.toString());
+                rowCount++;
+                return fields.toArray(new String[fields.size()]);
+            } else {
+                field.append((char) c);
+                fieldStart = false;
+                c = read();
+            }
+        }
+    }
+
+    /**
+     * Reads a quoted field, after its opening quote.
+     *
+     * @return The character following the closing quote.
+     */
+    private int readQuoted() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == END) {
+                throw new IOException("Unterminated quoted field in row " + (rowCount + 1));
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    return c;
+                }
+            }
+            field.append((char) c);
+        }
+    }
+
+    /**
+     * Returns the number of bytes read from the channel so far.
+     *
+     * @return The number of bytes read.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of rows read so far, blank lines excluded.
+     *
+     * @return The number of rows.
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Reads the next character.
+     *
+     * @return The character, or {@link #END} at the end of the input.
+     */
+    private int read() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return END;
+        }
+        return chars.get();
+    }
+
+    /**
+     * Decodes the next characters of the input.
+     *
+     * @return {@code false} at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0 && !finished) {
+            if (!endOfInput) {
+                int count = channel.read(bytes);
+                if (count < 0) {
+                    endOfInput = true;
+                } else {
+                    bytesRead += count;
+                }
+            }
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            bytes.compact();
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (endOfInput && !result.isOverflow()) {
+                decoder.flush(chars);
+                finished = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,686 @@
+package fr.paris.lutece.plugins.qrcode.cli;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+import fr.paris.lutece.plugins.qrcode.service.SymbolType;
+import fr.paris.lutece.plugins.qrcode.service.batch.DirectoryBatchSink;
+import fr.paris.lutece.plugins.qrcode.service.batch.IQrCodeBatchSink;
+import fr.paris.lutece.plugins.qrcode.service.batch.QrCodeBatchGenerator;
+import fr.paris.lutece.plugins.qrcode.service.batch.QrCodeBatchResult;
+import fr.paris.lutece.plugins.qrcode.service.batch.ZipBatchSink;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+
+/**
+ * Command line generator of one QR code per row of a CSV file, written to ZIP archives or to a sharded directory
+ * tree (see {@link DirectoryBatchSink}).
+ * <p>
+ * The first row of the file names the columns. Each following row is a QR code: the message column (the first one
+ * by default) is the message, and every other column, except the optional id column naming the output files, is
+ * added as a query parameter, like {@link fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder#addParameter}. Without
+ * an id column, the files are named after the row numbers. Ids are made safe for file systems and archives; an id
+ * already used by an earlier row, or equal to it once made safe, is followed by the number of its row, so that no
+ * output overwrites another one.
+ * </p>
+ * <p>
+ * The input is streamed through a buffered channel and the codes are generated on all the cores by a
+ * {@link QrCodeBatchGenerator}, a bounded number at a time, then streamed to the output: the memory used does not
+ * depend on the size of the input, apart from the names already given when an id column is used. The rows that cannot be encoded are copied to a rejects file in the same CSV
+ * format, so that they can be fixed and run again. Progress and throughput are reported on the standard error.
+ * </p>
+ * <p>
+ * A checkpoint is saved regularly (see {@link BatchCheckpoint}), and {@code --resume} restarts an interrupted run
+ * after the last one. ZIP outputs are split in volumes of {@code --volume-rows} rows, each completed volume being a
+ * checkpoint, since an archive cannot be resumed once interrupted.
+ * </p>
+ */
+public final class QrCodeBatchCommand {
+
+    /**
+     * Exit status of a run where every row was generated.
+     */
+    public static final int EXIT_SUCCESS = 0;
+
+    /**
+     * Exit status of a run that completed with rejected rows.
+     */
+    public static final int EXIT_REJECTED = 1;
+
+    /**
+     * Exit status of a run stopped by an error, or of invalid arguments.
+     */
+    public static final int EXIT_ERROR = 2;
+
+    private static final String USAGE = "Usage: java " + QrCodeBatchCommand.class.getName()
+            + " --input FILE --output PATH [options]\n"
+            + "  --input FILE           CSV file, with a header row naming the columns\n"
+            + "  --output PATH          ZIP archive if the name ends with .zip, directory otherwise\n"
+            + "  --format NAME          png (default), svg, gif, bmp, eps, zpl or text\n"
+            + "  --level LEVEL          L, M (default), Q or H\n"
+            + "  --scale N              size of a module in pixels (default 10)\n"
+            + "  --border N             size of the quiet zone in modules (default 4, 2 for Micro QR)\n"
+            + "  --symbol TYPE          qr (default), micro or smallest\n"
+            + "  --threads N            number of worker threads (default: number of cores)\n"
+            + "  --message-column NAME  column holding the message (default: the first one)\n"
+            + "  --id-column NAME       column naming the output files (default: the row numbers)\n"
+            + "  --delimiter CHAR       field delimiter, or 'tab' (default ,)\n"
+            + "  --charset NAME         charset of the input (default UTF-8)\n"
+            + "  --shards N             directory levels between the output directory and the files (default 2)\n"
+            + "  --volume-rows N        rows per ZIP volume, 0 for a single archive (default 100000)\n"
+            + "  --checkpoint-rows N    rows between the checkpoints of a directory output (default 10000)\n"
+            + "  --progress SECONDS     interval of the progress reports, 0 for none (default 5)\n"
+            + "  --rejects FILE         rejected rows (default: the output followed by .rejects.csv)\n"
+            + "  --resume               restart after the last checkpoint of a previous run";
+
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String PART_EXTENSION = ".part";
+    private static final int ROW_NUMBER_DIGITS = 9;
+    private static final int MAX_NAME_LENGTH = 200;
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final PrintStream log;
+
+    private Path input;
+    private Path output;
+    private boolean zip;
+    private OutputFormat format = OutputFormat.PNG;
+    private CorrectionLevel correctionLevel = CorrectionLevel.MEDIUM;
+    private int scale = RenderOptions.DEFAULT_SCALE;
+    private int border = -1;
+    private SymbolType symbolType = SymbolType.QR_CODE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String messageColumn;
+    private String idColumn;
+    private char delimiter = ',';
+    private Charset charset = StandardCharsets.UTF_8;
+    private int shardLevels = 2;
+    private long volumeRows = 100000;
+    private long checkpointRows = 10000;
+    private long progressInterval = TimeUnit.SECONDS.toNanos(5);
+    private Path rejects;
+    private Path checkpointFile;
+    private boolean resume;
+    private boolean help;
+
+    private BatchCheckpoint checkpoint;
+    private int messageIndex;
+    private int idIndex = -1;
+    private String[] header;
+
+    /**
+     * The rows submitted to the generator and not yet delivered, in input order.
+     */
+    private final ArrayDeque<String[]> pendingRows = new ArrayDeque<>();
+    private String[] currentRow;
+    private String currentName;
+
+    /**
+     * The output names given so far, when an id column names the files.
+     */
+    private final Set<String> names = new HashSet<>();
+    private IQrCodeBatchSink directorySink;
+    private ZipBatchSink zipSink;
+    private Path zipVolume;
+    private long volumeRowCount;
+    private FileChannel rejectsChannel;
+    private Writer rejectsWriter;
+    private long startTime;
+    private long startRows;
+    private long lastReportTime;
+    private long lastReportRows;
+    private long outputBytes;
+
+    /**
+     * Constructs a command.
+     *
+     * @param log The stream of the progress reports and of the errors.
+     */
+    private QrCodeBatchCommand(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * Runs the command and exits with its status.
+     *
+     * @param args The arguments of the command, see {@code --help}.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.err));
+    }
+
+    /**
+     * Runs the command, e.g. from a scheduler running in the same JVM.
+     *
+     * @param args The arguments of the command, see {@code --help}.
+     * @param log The stream of the progress reports and of the errors.
+     * @return The exit status: {@link #EXIT_SUCCESS}, {@link #EXIT_REJECTED} or {@link #EXIT_ERROR}.
+     */
+    public static int run(String[] args, PrintStream log) {
+        QrCodeBatchCommand command = new QrCodeBatchCommand(log);
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            log.println("Error: " + e.getMessage());
+            log.println(USAGE);
+            return EXIT_ERROR;
+        }
+        if (command.help) {
+            log.println(USAGE);
+            return EXIT_SUCCESS;
+        }
+        try {
+            return command.execute();
+        } catch (IOException e) {
+            log.println("Error: " + e);
+        } catch (UncheckedIOException e) {
+            log.println("Error: " + e.getCause());
+        }
+        log.println("Run again with --resume to restart after the last checkpoint");
+        return EXIT_ERROR;
+    }
+
+    /**
+     * Parses the arguments.
+     *
+     * @throws IllegalArgumentException If an argument is invalid.
+     */
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ("--help".equals(option)) {
+                help = true;
+                return;
+            }
+            if ("--resume".equals(option)) {
+                resume = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--input":
+                    input = Paths.get(value);
+                    break;
+                case "--output":
+                    output = Paths.get(value);
+                    break;
+                case "--format":
+                    format = OutputFormat.forName(value);
+                    if (format == null) {
+                        throw new IllegalArgumentException("Unknown format: " + value);
+                    }
+                    break;
+                case "--level":
+                    correctionLevel = parseLevel(value);
+                    break;
+                case "--scale":
+                    scale = (int) parseNumber(option, value, 1);
+                    break;
+                case "--border":
+                    border = (int) parseNumber(option, value, 0);
+                    break;
+                case "--symbol":
+                    symbolType = parseSymbolType(value);
+                    break;
+                case "--threads":
+                    threads = (int) parseNumber(option, value, 1);
+                    break;
+                case "--message-column":
+                    messageColumn = value;
+                    break;
+                case "--id-column":
+                    idColumn = value;
+                    break;
+                case "--delimiter":
+                    delimiter = parseDelimiter(value);
+                    break;
+                case "--charset":
+                    charset = Charset.forName(value);
+                    break;
+                case "--shards":
+                    shardLevels = (int) parseNumber(option, value, 0);
+                    if (shardLevels > DirectoryBatchSink.MAX_SHARD_LEVELS) {
+                        throw new IllegalArgumentException("At most " + DirectoryBatchSink.MAX_SHARD_LEVELS
+                                + " shard levels");
+                    }
+                    break;
+                case "--volume-rows":
+                    volumeRows = parseNumber(option, value, 0);
+                    break;
+                case "--checkpoint-rows":
+                    checkpointRows = parseNumber(option, value, 1);
+                    break;
+                case "--progress":
+                    progressInterval = TimeUnit.SECONDS.toNanos(parseNumber(option, value, 0));
+                    break;
+                case "--rejects":
+                    rejects = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (input == null || output == null) {
+            throw new IllegalArgumentException("--input and --output are required");
+        }
+        zip = output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(ZIP_EXTENSION);
+        if (rejects == null) {
+            rejects = output.resolveSibling(output.getFileName() + ".rejects.csv");
+        }
+        checkpointFile = output.resolveSibling(output.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Generates the codes of the input, from the checkpoint when resuming.
+     *
+     * @return The exit status.
+     * @throws IOException If reading the input or writing the outputs fails.
+     */
+    private int execute() throws IOException {
+        checkpoint = resume ? BatchCheckpoint.load(checkpointFile) : null;
+        if (checkpoint != null && checkpoint.complete) {
+            log.println("Nothing to resume: the batch is complete");
+            return checkpoint.rejected > 0 ? EXIT_REJECTED : EXIT_SUCCESS;
+        }
+        if (checkpoint == null) {
+            checkpoint = new BatchCheckpoint();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (CsvReader reader = new CsvReader(FileChannel.open(input, StandardOpenOption.READ), charset, delimiter)) {
+            readHeader(reader);
+            for (long row = 0; row < checkpoint.rows; row++) {
+                String[] skipped = reader.readRow();
+                if (skipped == null) {
+                    throw new IOException("The input has fewer rows than the checkpoint: " + checkpoint.rows);
+                }
+                // Names are given in input order, so the resumed rows get the names of an uninterrupted run
+                fileName(skipped, row + 1);
+            }
+            if (checkpoint.rows > 0) {
+                log.println("Resuming after row " + checkpoint.rows);
+            }
+            openRejects();
+            if (!zip) {
+                directorySink = new DirectoryBatchSink(output, format, shardLevels, result -> fileName());
+            }
+
+            startTime = System.nanoTime();
+            lastReportTime = startTime;
+            startRows = checkpoint.rows;
+            lastReportRows = startRows;
+            long total = Files.size(input);
+            QrCodeBatchGenerator generator = new QrCodeBatchGenerator()
+                    .withCorrectionLevel(correctionLevel)
+                    .withSymbolType(symbolType)
+                    .withScale(scale);
+            if (border >= 0) {
+                generator.withSize(scale, border);
+            }
+            generator.withFormat(format)
+                    .withExecutor(pool)
+                    .withMaxInFlight(threads * IN_FLIGHT_PER_THREAD)
+                    .withOrderedResults(true)
+                    .generate(() -> new RowIterator(reader), result -> accept(result, reader, total));
+
+            closeVolume();
+            checkpoint.complete = true;
+            saveCheckpoint();
+            report(reader, total);
+        } finally {
+            pool.shutdownNow();
+            closeQuietly();
+        }
+        log.println(String.format(Locale.ROOT, "Done: %,d codes, %,d rejected rows%s", checkpoint.generated,
+                checkpoint.rejected, checkpoint.rejected > 0 ? " in " + rejects : ""));
+        return checkpoint.rejected > 0 ? EXIT_REJECTED : EXIT_SUCCESS;
+    }
+
+    /**
+     * Reads the header row and finds the message and id columns.
+     */
+    private void readHeader(CsvReader reader) throws IOException {
+        header = reader.readRow();
+        if (header == null) {
+            throw new IOException("Empty input: " + input);
+        }
+        messageIndex = messageColumn == null ? 0 : column(messageColumn);
+        idIndex = idColumn == null ? -1 : column(idColumn);
+        if (idIndex == messageIndex) {
+            throw new IOException("The id column cannot be the message column");
+        }
+    }
+
+    /**
+     * Returns the index of a column of the header.
+     */
+    private int column(String name) throws IOException {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IOException("No column " + name + " in the header of " + input);
+    }
+
+    /**
+     * Opens the rejects file: from scratch with the header row, or truncated to its size at the checkpoint.
+     */
+    private void openRejects() throws IOException {
+        rejectsChannel = FileChannel.open(rejects, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        boolean resumed = checkpoint.rejectsSize > 0 && rejectsChannel.size() >= checkpoint.rejectsSize;
+        rejectsChannel.truncate(resumed ? checkpoint.rejectsSize : 0);
+        rejectsChannel.position(rejectsChannel.size());
+        rejectsWriter = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(rejectsChannel), charset));
+        if (!resumed) {
+            writeRow(rejectsWriter, header);
+        }
+    }
+
+    /**
+     * Handles the result of a row: writes the code or rejects the row, then saves a checkpoint and reports the
+     * progress when due.
+     */
+    private void accept(QrCodeBatchResult result, CsvReader reader, long total) throws IOException {
+        currentRow = pendingRows.poll();
+        currentName = fileName(currentRow, checkpoint.rows + 1);
+        if (result.isSuccess()) {
+            if (zip) {
+                openVolume();
+                zipSink.accept(result);
+            } else {
+                directorySink.accept(result);
+            }
+            outputBytes += result.getData().length;
+            checkpoint.generated++;
+        } else {
+            writeRow(rejectsWriter, currentRow);
+            checkpoint.rejected++;
+            log.println("Row " + (checkpoint.rows + 1) + " rejected: " + result.getError().getMessage());
+        }
+        checkpoint.rows++;
+        volumeRowCount++;
+
+        if (zip) {
+            if (volumeRows > 0 && volumeRowCount == volumeRows) {
+                closeVolume();
+                saveCheckpoint();
+            }
+        } else if (checkpoint.rows % checkpointRows == 0) {
+            saveCheckpoint();
+        }
+        if (progressInterval > 0 && System.nanoTime() - lastReportTime >= progressInterval) {
+            report(reader, total);
+        }
+    }
+
+    /**
+     * Opens the next ZIP volume if none is open. The volume is written under a temporary name until it is complete.
+     */
+    private void openVolume() throws IOException {
+        if (zipSink != null) {
+            return;
+        }
+        String name = output.getFileName().toString();
+        if (volumeRows > 0) {
+            String base = name.substring(0, name.length() - ZIP_EXTENSION.length());
+            name = String.format(Locale.ROOT, "%s-%05d%s", base, checkpoint.volume, ZIP_EXTENSION);
+        }
+        zipVolume = output.resolveSibling(name);
+        Path parent = zipVolume.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        zipSink = new ZipBatchSink(Files.newOutputStream(partOf(zipVolume)), format, result -> fileName());
+    }
+
+    /**
+     * Completes the current ZIP volume, if any, and gives it its final name.
+     */
+    private void closeVolume() throws IOException {
+        volumeRowCount = 0;
+        if (zipSink == null) {
+            return;
+        }
+        zipSink.close();
+        zipSink = null;
+        Files.move(partOf(zipVolume), zipVolume, StandardCopyOption.REPLACE_EXISTING);
+        checkpoint.volume++;
+    }
+
+    /**
+     * Flushes the rejected rows and saves the checkpoint.
+     */
+    private void saveCheckpoint() throws IOException {
+        rejectsWriter.flush();
+        checkpoint.rejectsSize = rejectsChannel.position();
+        checkpoint.save(checkpointFile);
+    }
+
+    /**
+     * Reports the progress: rows processed, codes generated, rows rejected and throughput.
+     */
+    private void report(CsvReader reader, long total) {
+        long now = System.nanoTime();
+        double interval = Math.max(now - lastReportTime, 1) / 1e9;
+        double elapsed = Math.max(now - startTime, 1) / 1e9;
+        long rows = checkpoint.rows;
+        log.println(String.format(Locale.ROOT,
+                "%,d rows (%.1f%%), %,d codes, %,d rejected, %,.0f rows/s (%,.0f overall), %.1f MB written", rows,
+                total == 0 ? 100.0 : reader.getBytesRead() * 100.0 / total, checkpoint.generated,
+                checkpoint.rejected, (rows - lastReportRows) / interval, (rows - startRows) / elapsed,
+                outputBytes / 1e6));
+        lastReportTime = now;
+        lastReportRows = rows;
+    }
+
+    /**
+     * Returns the name of the output file of the current row.
+     */
+    private String fileName() {
+        return currentName;
+    }
+
+    /**
+     * Gives its output file name to a row, whether it is generated or rejected: its id, made safe for a file
+     * system, or its number. A name already given to an earlier row is followed by the row number.
+     */
+    private String fileName(String[] row, long number) {
+        StringBuilder numbered = new StringBuilder(ROW_NUMBER_DIGITS).append(number);
+        while (numbered.length() < ROW_NUMBER_DIGITS) {
+            numbered.insert(0, '0');
+        }
+        if (idIndex < 0) {
+            // Row numbers are unique
+            return numbered.toString();
+        }
+        String name = numbered.toString();
+        if (idIndex < row.length && !row[idIndex].isEmpty()) {
+            String id = row[idIndex];
+            char[] safeName = new char[Math.min(id.length(), MAX_NAME_LENGTH)];
+            for (int i = 0; i < safeName.length; i++) {
+                char c = id.charAt(i);
+                boolean safe = c < 0x80 && (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.');
+                safeName[i] = safe && (i > 0 || c != '.') ? c : '_';
+            }
+            name = new String(safeName);
+        }
+        String unique = name;
+        for (int attempt = 1; !names.add(unique); attempt++) {
+            unique = name + '-' + number + (attempt > 1 ? "-" + attempt : "");
+        }
+        return unique;
+    }
+
+    /**
+     * Closes the files left open by an error. The current ZIP volume keeps its temporary name.
+     */
+    private void closeQuietly() {
+        try {
+            if (zipSink != null) {
+                zipSink.close();
+            }
+            if (rejectsWriter != null) {
+                rejectsWriter.close();
+            } else if (rejectsChannel != null) {
+                rejectsChannel.close();
+            }
+        } catch (IOException e) {
+            log.println("Error: " + e);
+        }
+    }
+
+    /**
+     * Returns the temporary path of a ZIP volume being written.
+     */
+    private static Path partOf(Path volume) {
+        return volume.resolveSibling(volume.getFileName() + PART_EXTENSION);
+    }
+
+    /**
+     * Writes a CSV row, quoting the fields that need it.
+     */
+    private void writeRow(Writer writer, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            String field = fields[i];
+            if (field.indexOf(delimiter) >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                    || field.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Parses a correction level, from its name or its initial.
+     */
+    private static CorrectionLevel parseLevel(String value) {
+        for (CorrectionLevel level : CorrectionLevel.values()) {
+            if (level.name().equalsIgnoreCase(value) || level.name().substring(0, 1).equalsIgnoreCase(value)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown correction level: " + value);
+    }
+
+    /**
+     * Parses a symbol type: {@code qr}, {@code micro} or {@code smallest}.
+     */
+    private static SymbolType parseSymbolType(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "qr":
+                return SymbolType.QR_CODE;
+            case "micro":
+                return SymbolType.MICRO_QR;
+            case "smallest":
+                return SymbolType.SMALLEST;
+            default:
+                throw new IllegalArgumentException("Unknown symbol type: " + value);
+        }
+    }
+
+    /**
+     * Parses a number of an option.
+     */
+    private static long parseNumber(String option, String value, long min) {
+        long number;
+        try {
+            number = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + option + ": " + value, e);
+        }
+        if (number < min || number > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value of " + option + " out of range: " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Parses the field delimiter: a single character, or {@code tab}.
+     */
+    private static char parseDelimiter(String value) {
+        if ("tab".equalsIgnoreCase(value)) {
+            return '\t';
+        }
+        if (value.length() != 1 || value.charAt(0) == '"' || value.charAt(0) == '\n' || value.charAt(0) == '\r') {
+            throw new IllegalArgumentException("Invalid delimiter: " + value);
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * Iterator over the payloads of the rows, keeping each row until its result is delivered.
+     */
+    private final class RowIterator implements Iterator<QrCodePayload> {
+
+        private final CsvReader reader;
+        private String[] next;
+
+        RowIterator(CsvReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = reader.readRow();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public QrCodePayload next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] row = next;
+            next = null;
+            pendingRows.add(row);
+            Map<String, String> parameters = new LinkedHashMap<>();
+            for (int i = 0; i < row.length && i < header.length; i++) {
+                if (i != messageIndex && i != idIndex) {
+                    parameters.put(header[i], row[i]);
+                }
+            }
+            return new QrCodePayload(messageIndex < row.length ? row[messageIndex] : "", parameters);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+/**
+ * Enum representing the encoders that can turn a payload into a QR code symbol.
+ */
+public enum EncoderBackend {
+    /**
+     * The reference encoder of the {@code io.nayuki:qrcodegen} library. Masks are always chosen by the full penalty
+     * rules, unless a fixed mask is set.
+     */
+    QRCODEGEN,
+
+    /**
+     * The encoder of this library ({@link fr.paris.lutece.plugins.qrcode.service.encode.QrCodeEncoder}), working on
+     * bitboards. With the {@link MaskSelection#PENALTY} selection, its symbols are identical to the reference ones.
+     */
+    NATIVE
+}
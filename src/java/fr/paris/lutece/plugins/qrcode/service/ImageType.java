@@ -0,0 +1,23 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+/**
+ * Enum representing the kind of raster produced when a QR code is rendered as an image.
+ */
+public enum ImageType {
+    /**
+     * 32-bit RGB image ({@link java.awt.image.BufferedImage#TYPE_INT_RGB}), 4 bytes per pixel.
+     * Any color can be drawn on it, which makes it the type used for QR codes with a logo.
+     */
+    RGB,
+
+    /**
+     * 8-bit grayscale image ({@link java.awt.image.BufferedImage#TYPE_BYTE_GRAY}), 1 byte per pixel.
+     * The foreground and background colors are converted to their luminance.
+     */
+    GRAY,
+
+    /**
+     * 1-bit image ({@link java.awt.image.BufferedImage#TYPE_BYTE_BINARY}) with a two color palette, 8 pixels per byte.
+     */
+    BINARY
+}
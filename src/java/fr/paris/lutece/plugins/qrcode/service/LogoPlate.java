@@ -0,0 +1,46 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+/**
+ * The backing plate drawn under the logo, in the background color of the QR code.
+ * <p>
+ * A plate separates the logo from the modules around it, which helps the scanners that are disturbed by a logo
+ * touching the dark modules. It extends the logo by {@link #PADDING} of its side on each side; the hidden area,
+ * plate included, is taken into account when choosing the version and the correction level of the symbols.
+ * </p>
+ */
+public enum LogoPlate {
+
+    /**
+     * No plate: the logo is drawn straight over the modules.
+     */
+    NONE,
+
+    /**
+     * A square plate.
+     */
+    SQUARE,
+
+    /**
+     * A square plate with rounded corners.
+     */
+    ROUNDED;
+
+    /**
+     * The margin of the plate around the logo, relative to the side of the logo.
+     */
+    public static final double PADDING = 0.1;
+
+    /**
+     * The radius of the corners of the {@link #ROUNDED} plates, relative to their side.
+     */
+    public static final double CORNER_RADIUS = 0.2;
+
+    /**
+     * Returns the side of the area hidden by a logo and its plate, relative to the side of the logo alone.
+     *
+     * @return {@code 1} without plate, {@code 1 + 2 * PADDING} otherwise.
+     */
+    public double getCoverageFactor() {
+        return this == NONE ? 1 : 1 + 2 * PADDING;
+    }
+}
@@ -1,11 +1,33 @@
 package fr.paris.lutece.plugins.qrcode.service;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import fr.paris.lutece.plugins.qrcode.service.cache.LogoCache;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoScaler;
 
 /**
  * This class is responsible for handling the logo that will be embedded into the QR code.
  * It allows for setting a custom scale for the logo's size relative to the QR code and provides
  * access to the logo image as an {@link InputStream}.
+ * <p>
+ * The logo stream is read and decoded only once, on first use. The scaled variants of the logo are kept in the
+ * shared {@link LogoCache}, keyed by the digest of the logo content, so that the same logo rendered many times
+ * at the same size is only rescaled once.
+ * </p>
  */
 public class LogoQrCode {
 
@@ -14,6 +36,21 @@ public class LogoQrCode {
      */
     private static final double DEFAULT_SCALE = 0.2;
 
+    /**
+     * Algorithm used to compute the identity of the logo content.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * Number of leading bytes searched for the root element of an SVG logo.
+     */
+    private static final int SVG_SNIFF_LENGTH = 1024;
+
+    /**
+     * The UTF-8 byte order mark, read as ISO-8859-1.
+     */
+    private static final String UTF8_BOM = "\u00EF\u00BB\u00BF";
+
     /**
      * The scale factor to adjust the logo's size relative to the QR code.
      * It determines how large or small the logo will be placed in the center of the QR code.
@@ -26,9 +63,39 @@ public class LogoQrCode {
      */
     private InputStream logo;
 
+    /**
+     * The raw content of the logo, read from the input stream on first use.
+     */
+    private byte[] content;
+
+    /**
+     * The hexadecimal digest of the logo content, used as the logo identity.
+     */
+    private String digest;
+
+    /**
+     * The decoded logo, as premultiplied ARGB pixels. It is never modified nor exposed once decoded.
+     */
+    private int[] pixels;
+
+    /**
+     * The width of the decoded logo.
+     */
+    private int width;
+
+    /**
+     * The height of the decoded logo.
+     */
+    private int height;
+
+    /**
+     * The logo content as a {@code data:} URI, computed on demand.
+     */
+    private String dataUri;
+
     /**
      * Constructs a {@link LogoQrCode} with a custom scale factor and the logo input stream.
-     * 
+     *
      * @param scale The scale factor for the logo size (e.g., 0.2 for 20% of QR code size).
      * @param logo The input stream representing the logo image to be embedded.
      */
@@ -39,7 +106,7 @@ public class LogoQrCode {
 
     /**
      * Constructs a {@link LogoQrCode} with the default scale factor (0.2) and the logo input stream.
-     * 
+     *
      * @param logo The input stream representing the logo image to be embedded.
      */
     public LogoQrCode(InputStream logo) {
@@ -49,7 +116,7 @@ public class LogoQrCode {
 
     /**
      * Returns the scale factor for the logo relative to the QR code size.
-     * 
+     *
      * @return The scale factor for the logo.
      */
     public double getScale() {
@@ -58,10 +125,191 @@ public class LogoQrCode {
 
     /**
      * Returns the input stream representing the logo image to be embedded in the QR code.
-     * 
+     * <p>
+     * Once the logo has been read, a new stream over the buffered content is returned on each call.
+     * </p>
+     *
      * @return The input stream for the logo image.
      */
-    public InputStream getLogo() {
+    public synchronized InputStream getLogo() {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
         return logo;
     }
+
+    /**
+     * Returns the hexadecimal digest of the logo content, which identifies the logo regardless of the
+     * {@link LogoQrCode} instance it comes from.
+     *
+     * @return The digest of the logo content.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    public String getDigest() throws QrCodeGeneratorException {
+        loadContent();
+        return digest;
+    }
+
+    /**
+     * Returns the logo content as a {@code data:} URI, suitable for embedding in SVG or HTML documents.
+     * The URI is computed once; the logo is not decoded.
+     *
+     * @return The data URI of the logo.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    public synchronized String toDataUri() throws QrCodeGeneratorException {
+        if (dataUri == null) {
+            loadContent();
+            dataUri = "data:" + mimeType(content) + ";base64," + Base64.getEncoder().encodeToString(content);
+        }
+        return dataUri;
+    }
+
+    /**
+     * Returns the logo scaled to the given size, from the shared {@link LogoCache} when available.
+     *
+     * @param width The width of the scaled logo.
+     * @param height The height of the scaled logo.
+     * @return The scaled logo, a {@link BufferedImage#TYPE_INT_ARGB_PRE} image. The returned image is shared and must
+     *         not be modified.
+     * @throws QrCodeGeneratorException If the logo cannot be read or decoded.
+     */
+    public BufferedImage getScaledLogo(int width, int height) throws QrCodeGeneratorException {
+        load();
+        return LogoCache.getInstance().get(digest, width, height, () -> scale(width, height));
+    }
+
+    /**
+     * Reads the logo stream, once, and computes its digest.
+     *
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    private synchronized void loadContent() throws QrCodeGeneratorException {
+        if (content != null) {
+            return;
+        }
+        try {
+            content = readFully(logo);
+        } catch (IOException e) {
+            throw new QrCodeGeneratorException("Error reading logo file for QR code generation", e);
+        }
+        digest = digest(content);
+    }
+
+    /**
+     * Reads and decodes the logo stream, once.
+     *
+     * @throws QrCodeGeneratorException If the logo cannot be read or decoded.
+     */
+    private synchronized void load() throws QrCodeGeneratorException {
+        if (pixels != null) {
+            return;
+        }
+        loadContent();
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(content));
+        } catch (IOException e) {
+            throw new QrCodeGeneratorException("Error reading logo file for QR code generation", e);
+        }
+        if (image == null) {
+            throw new QrCodeGeneratorException("Unsupported image format for QR code logo");
+        }
+        width = image.getWidth();
+        height = image.getHeight();
+        pixels = LogoScaler.toPremultiplied(image);
+    }
+
+    /**
+     * Scales the decoded logo to the given size.
+     *
+     * @param targetWidth The target width.
+     * @param targetHeight The target height.
+     * @return A new image containing the scaled logo.
+     */
+    private BufferedImage scale(int targetWidth, int targetHeight) {
+        return LogoScaler.toImage(LogoScaler.scale(pixels, width, height, targetWidth, targetHeight), targetWidth,
+                targetHeight);
+    }
+
+    /**
+     * Reads the whole content of a stream and closes it.
+     *
+     * @param in The stream to read.
+     * @return The content of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Guesses the MIME type of the logo from its content: SVG documents are recognized by their markup, the other
+     * formats by the {@link ImageIO} reader accepting them.
+     *
+     * @param data The logo content.
+     * @return The MIME type of the logo, {@code application/octet-stream} if no reader recognizes it.
+     */
+    private static String mimeType(byte[] data) {
+        if (isSvg(data)) {
+            return "image/svg+xml";
+        }
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            while (readers.hasNext()) {
+                String[] types = readers.next().getOriginatingProvider().getMIMETypes();
+                if (types != null && types.length > 0) {
+                    return types[0];
+                }
+            }
+        } catch (IOException e) {
+            // Not an image ImageIO can identify
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Returns {@code true} if the content starts like an SVG document: markup, after an optional byte order mark and
+     * white space, with an {@code svg} element near the start.
+     *
+     * @param data The logo content.
+     * @return {@code true} for SVG content.
+     */
+    private static boolean isSvg(byte[] data) {
+        String head = new String(data, 0, Math.min(data.length, SVG_SNIFF_LENGTH), StandardCharsets.ISO_8859_1);
+        int start = head.startsWith(UTF8_BOM) ? UTF8_BOM.length() : 0;
+        while (start < head.length() && Character.isWhitespace(head.charAt(start))) {
+            start++;
+        }
+        return head.startsWith("<", start) && head.indexOf("<svg", start) >= 0;
+    }
+
+    /**
+     * Computes the hexadecimal digest of the logo content.
+     *
+     * @param data The logo content.
+     * @return The hexadecimal digest.
+     * @throws QrCodeGeneratorException If the digest algorithm is not available.
+     */
+    private static String digest(byte[] data) throws QrCodeGeneratorException {
+        try {
+            byte[] hash = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(data);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new QrCodeGeneratorException("Unable to compute the QR code logo digest", e);
+        }
+    }
 }
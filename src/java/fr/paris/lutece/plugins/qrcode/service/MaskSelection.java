@@ -0,0 +1,26 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+/**
+ * Enum representing the ways the {@link EncoderBackend#NATIVE} encoder chooses the mask of a symbol when no fixed
+ * mask is set.
+ */
+public enum MaskSelection {
+    /**
+     * The eight masks are scored with the four penalty rules of ISO/IEC 18004 over rows and columns, and the lowest
+     * score wins, as the reference encoder does.
+     */
+    PENALTY,
+
+    /**
+     * Same scoring as {@link #PENALTY}, with the eight masks scored in parallel on the common fork-join pool for the
+     * versions from 10 up. The result is the same; the latency of large symbols is lower at the cost of more CPU.
+     */
+    PARALLEL,
+
+    /**
+     * Heuristic scoring: the runs and finder-like patterns are only searched in the rows, not in the columns. About
+     * twice as fast as {@link #PENALTY}; the chosen mask may differ from the reference one, which keeps the symbol
+     * valid but may make it slightly harder to scan.
+     */
+    FAST
+}
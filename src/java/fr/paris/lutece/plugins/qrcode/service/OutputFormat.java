@@ -0,0 +1,110 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+import java.util.Locale;
+
+/**
+ * Enum representing the serialized formats a QR code can be written to.
+ * <p>
+ * Each format has a writer in the {@link fr.paris.lutece.plugins.qrcode.service.render.QrCodeWriterRegistry},
+ * registered under the {@link #getName() name} of the format. Only the PNG and SVG outputs draw the logo.
+ * </p>
+ */
+public enum OutputFormat {
+    /**
+     * 1-bit PNG image, streamed from the module matrix.
+     */
+    PNG("image/png", "png"),
+
+    /**
+     * SVG vector document.
+     */
+    SVG("image/svg+xml", "svg"),
+
+    /**
+     * GIF image with a two color palette.
+     */
+    GIF("image/gif", "gif"),
+
+    /**
+     * Uncompressed 1-bit BMP image.
+     */
+    BMP("image/bmp", "bmp"),
+
+    /**
+     * Encapsulated PostScript vector document, one point per pixel.
+     */
+    EPS("application/postscript", "eps"),
+
+    /**
+     * ZPL II label for Zebra printers, with the symbol as a graphic field of one dot per pixel.
+     */
+    ZPL("application/x-zpl", "zpl"),
+
+    /**
+     * UTF-8 text made of half block characters, for terminals and logs.
+     */
+    TEXT("text/plain; charset=UTF-8", "txt");
+
+    /**
+     * The MIME type of the format.
+     */
+    private final String contentType;
+
+    /**
+     * The usual file extension of the format, without the dot.
+     */
+    private final String extension;
+
+    /**
+     * Constructs an {@link OutputFormat}.
+     * 
+     * @param contentType The MIME type of the format.
+     * @param extension The usual file extension of the format.
+     */
+    OutputFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the format with the given name.
+     * 
+     * @param name The name of the format, in any case, e.g. {@code gif}.
+     * @return The format, or {@code null} if no format has this name.
+     */
+    public static OutputFormat forName(String name) {
+        for (OutputFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the format, under which its writer is registered.
+     * 
+     * @return The name of the format in lower case, e.g. {@code png}.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the MIME type of the format.
+     * 
+     * @return The MIME type, e.g. {@code image/png}.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the usual file extension of the format.
+     * 
+     * @return The file extension without the dot, e.g. {@code png}.
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -4,6 +4,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import fr.paris.lutece.plugins.qrcode.IQrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.cache.IRenderCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.ISymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.metrics.IQrCodeMetricsListener;
+import fr.paris.lutece.plugins.qrcode.service.metrics.QrCodeMetrics;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
 
 /**
  * Builder class for constructing instances of {@link QrCodeGenerator}.
@@ -44,6 +51,108 @@ public class QrCodeBuilder {
      */
     protected LogoQrCode logo = null;
 
+    /**
+     * The backing plate drawn under the logo. Defaults to {@link LogoPlate#NONE}.
+     */
+    protected LogoPlate logoPlate = LogoPlate.NONE;
+
+    /**
+     * An optional cache of encoded symbols shared between generators.
+     * Defaults to {@code null} (every render encodes the payload).
+     */
+    protected ISymbolCache symbolCache = null;
+
+    /**
+     * An optional cache of serialized QR codes, used by {@link QrCodeTemplate#render(String, Map)}.
+     * Defaults to {@code null} (every render serializes the QR code).
+     */
+    protected IRenderCache renderCache = null;
+
+    /**
+     * The symbology of the symbols. Defaults to {@link SymbolType#QR_CODE}.
+     */
+    protected SymbolType symbolType = SymbolType.QR_CODE;
+
+    /**
+     * The encoder turning the payloads into symbols. Defaults to the reference encoder.
+     */
+    protected EncoderBackend encoderBackend = EncoderBackend.QRCODEGEN;
+
+    /**
+     * The mask applied to the symbols, between 0 and 7, or -1 to let the encoder choose it. Defaults to -1.
+     */
+    protected int mask = -1;
+
+    /**
+     * The way the native encoder chooses the masks. Defaults to {@link MaskSelection#PENALTY}.
+     */
+    protected MaskSelection maskSelection = MaskSelection.PENALTY;
+
+    /**
+     * The largest version of the symbols of a Structured Append sequence. Defaults to 40.
+     */
+    protected int maxVersion = QrCodeSpec.MAX_VERSION;
+
+    /**
+     * Flag indicating whether the kanji mode may be used for the characters of the Shift JIS kanji set.
+     * Defaults to {@code false}.
+     */
+    protected boolean kanjiMode = false;
+
+    /**
+     * Flag indicating whether the scheme and host of the message are converted to upper case, so that URLs fit
+     * the compact alphanumeric mode better. Defaults to {@code false}.
+     */
+    protected boolean urlCanonicalization = false;
+
+    /**
+     * The size of one module of the rendered images, in pixels.
+     * Defaults to {@link RenderOptions#DEFAULT_SCALE}.
+     */
+    protected int scale = RenderOptions.DEFAULT_SCALE;
+
+    /**
+     * The size of the quiet zone around the rendered symbol, in modules.
+     * Defaults to {@link RenderOptions#DEFAULT_BORDER}.
+     */
+    protected int border = RenderOptions.DEFAULT_BORDER;
+
+    /**
+     * Flag indicating whether the border was set with {@link #withBorder(int)}; otherwise Micro QR symbols are
+     * rendered with their own quiet zone of {@link MicroQrSpec#QUIET_ZONE} modules. Defaults to {@code false}.
+     */
+    protected boolean borderSet = false;
+
+    /**
+     * The RGB color of the dark modules.
+     * Defaults to black.
+     */
+    protected int foreground = RenderOptions.BLACK;
+
+    /**
+     * The RGB color of the light modules and of the quiet zone.
+     * Defaults to white.
+     */
+    protected int background = RenderOptions.WHITE;
+
+    /**
+     * The kind of raster produced by {@link QrCodeGenerator#toImage()}.
+     * Defaults to {@link ImageType#RGB}.
+     */
+    protected ImageType imageType = ImageType.RGB;
+
+    /**
+     * The format of the QR codes serialized by {@link QrCodeTemplate#render(String, Map)}.
+     * Defaults to {@link OutputFormat#PNG}.
+     */
+    protected OutputFormat format = OutputFormat.PNG;
+
+    /**
+     * The listener receiving the measures of the generation, or {@code null} to take none.
+     * Defaults to {@link QrCodeMetrics#getDefaultListener()}.
+     */
+    protected IQrCodeMetricsListener metricsListener = QrCodeMetrics.getDefaultListener();
+
     /**
      * Constructs a new {@link QrCodeBuilder} with the specified message.
      * 
@@ -53,6 +162,13 @@ public class QrCodeBuilder {
         this.message = message;
     }
 
+    /**
+     * Constructs a new {@link QrCodeBuilder} without message, to build a {@link QrCodeTemplate}.
+     */
+    public QrCodeBuilder() {
+        this(null);
+    }
+
     /**
      * Adds a single parameter to be included in the QR code's message.
      * The parameter will be appended to the URL query string in the format {@code key=value}.
@@ -104,6 +220,231 @@ public class QrCodeBuilder {
         return this;
     }
 
+    /**
+     * Sets the backing plate drawn under the logo, in the background color. The plate hides more modules than the
+     * logo alone, which is taken into account when choosing the version and the correction level.
+     * 
+     * @param logoPlate The backing plate of the logo.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withLogoPlate(LogoPlate logoPlate) {
+        this.logoPlate = logoPlate;
+        return this;
+    }
+
+    /**
+     * Sets a cache of encoded symbols, so that payloads already encoded with the same correction level are not
+     * encoded again. The same cache is typically shared by all the builders of an application.
+     * 
+     * @param symbolCache The {@link ISymbolCache} to use, or {@code null} to disable caching.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withSymbolCache(ISymbolCache symbolCache) {
+        this.symbolCache = symbolCache;
+        return this;
+    }
+
+    /**
+     * Sets a cache of serialized QR codes, so that the same QR code rendered again with the same configuration is
+     * served from the cache by {@link QrCodeTemplate#render(String, Map)} and its variants.
+     * 
+     * @param renderCache The {@link IRenderCache} to use, e.g. a
+     *        {@link fr.paris.lutece.plugins.qrcode.service.cache.DiskRenderCache}, or {@code null} to disable it.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withRenderCache(IRenderCache renderCache) {
+        this.renderCache = renderCache;
+        return this;
+    }
+
+    /**
+     * Sets the symbology of the symbols. Micro QR symbols ({@link SymbolType#MICRO_QR}, or
+     * {@link SymbolType#SMALLEST} for the payloads fitting in one) take 13 to 17 modules instead of at least 21
+     * and, unless a border is set with {@link #withBorder(int)}, are rendered with a quiet zone of 2 modules
+     * instead of 4. They are always built by their own encoder, whatever the {@link EncoderBackend}, mask and mask
+     * selection, and are never drawn under a logo: with a logo, {@link SymbolType#SMALLEST} falls back to QR code
+     * symbols where the logo is drawn.
+     *
+     * @param symbolType The symbology, {@link SymbolType#QR_CODE} by default.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withSymbolType(SymbolType symbolType) {
+        this.symbolType = symbolType;
+        return this;
+    }
+
+    /**
+     * Sets the encoder turning the payloads into symbols.
+     *
+     * @param encoderBackend The encoder, {@link EncoderBackend#QRCODEGEN} by default.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withEncoderBackend(EncoderBackend encoderBackend) {
+        this.encoderBackend = encoderBackend;
+        return this;
+    }
+
+    /**
+     * Sets a fixed mask, which skips the scoring of the eight masks. Any mask gives a valid symbol, though not
+     * always the easiest to scan. Micro QR symbols always choose among their own four masks.
+     *
+     * @param mask The mask, between 0 and 7, or -1 to let the encoder choose it.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     * @throws IllegalArgumentException If the mask is out of range.
+     */
+    public QrCodeBuilder withMask(int mask) {
+        if (mask < -1 || mask > 7) {
+            throw new IllegalArgumentException("Mask value out of range");
+        }
+        this.mask = mask;
+        return this;
+    }
+
+    /**
+     * Sets the way the masks are chosen. Only {@link MaskSelection#PENALTY} is available with the
+     * {@link EncoderBackend#QRCODEGEN} encoder.
+     *
+     * @param maskSelection The mask selection.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withMaskSelection(MaskSelection maskSelection) {
+        this.maskSelection = maskSelection;
+        return this;
+    }
+
+    /**
+     * Sets the largest version of the symbols when a payload is split over a Structured Append sequence (see
+     * {@link QrCodeTemplate#toSequence(String, Map)}). Lower versions give smaller symbols, easier to print and to
+     * scan, at the cost of more symbols. The single symbols of the other methods are not limited.
+     *
+     * @param maxVersion The largest version, between 1 and 40.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     * @throws IllegalArgumentException If the version is out of range.
+     */
+    public QrCodeBuilder withMaxVersion(int maxVersion) {
+        if (maxVersion < QrCodeSpec.MIN_VERSION || maxVersion > QrCodeSpec.MAX_VERSION) {
+            throw new IllegalArgumentException("Version out of range");
+        }
+        this.maxVersion = maxVersion;
+        return this;
+    }
+
+    /**
+     * Allows the kanji mode for the characters of the Shift JIS kanji set, which encodes them in 13 bits instead of
+     * the 24 bits of their UTF-8 form. Some readers do not support mixing kanji and UTF-8 byte segments.
+     * 
+     * @param kanjiMode {@code true} to allow the kanji mode.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withKanjiMode(boolean kanjiMode) {
+        this.kanjiMode = kanjiMode;
+        return this;
+    }
+
+    /**
+     * Converts the case insensitive parts of a URL message (scheme, host and percent escapes) to upper case, so that
+     * more of the URL can be encoded in the compact alphanumeric mode. Messages that are not absolute URLs are left
+     * untouched.
+     * 
+     * @param urlCanonicalization {@code true} to canonicalise URL messages.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withUrlCanonicalization(boolean urlCanonicalization) {
+        this.urlCanonicalization = urlCanonicalization;
+        return this;
+    }
+
+    /**
+     * Sets the size of one module of the rendered images.
+     * 
+     * @param scale The size of one module, in pixels. Must be positive.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withScale(int scale) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        this.scale = scale;
+        return this;
+    }
+
+    /**
+     * Sets the size of the quiet zone around the rendered symbol, for QR code and Micro QR symbols alike. The QR
+     * code specification asks for at least 4 modules, and 2 modules around Micro QR symbols.
+     * 
+     * @param border The size of the quiet zone, in modules. Must not be negative.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withBorder(int border) {
+        if (border < 0) {
+            throw new IllegalArgumentException("Border must not be negative: " + border);
+        }
+        this.border = border;
+        this.borderSet = true;
+        return this;
+    }
+
+    /**
+     * Sets the colors of the rendered images. Readers need a strong contrast between both colors, with modules
+     * darker than the background.
+     * 
+     * @param foreground The RGB color of the dark modules (e.g. {@code 0x000000}).
+     * @param background The RGB color of the light modules and of the quiet zone (e.g. {@code 0xFFFFFF}).
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withColors(int foreground, int background) {
+        this.foreground = foreground & 0xFFFFFF;
+        this.background = background & 0xFFFFFF;
+        return this;
+    }
+
+    /**
+     * Sets the kind of raster produced by {@link QrCodeGenerator#toImage()}. {@link ImageType#GRAY} and
+     * {@link ImageType#BINARY} take 4 and 32 times less memory than the default {@link ImageType#RGB}. When a logo
+     * is set, {@link ImageType#BINARY} falls back to {@link ImageType#RGB} so that the logo keeps its colors.
+     * 
+     * @param imageType The kind of raster to produce.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withImageType(ImageType imageType) {
+        this.imageType = imageType;
+        return this;
+    }
+
+    /**
+     * Sets the format of the QR codes serialized by {@link QrCodeTemplate#render(String, Map)}.
+     * 
+     * @param format The output format.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withFormat(OutputFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Sets the listener receiving the latency of each stage of the generation, the symbols produced, the output
+     * sizes, the cache accesses and the failures. Without listener, no measure is taken.
+     * 
+     * @param metricsListener The {@link IQrCodeMetricsListener} to notify, or {@code null} to disable metrics.
+     * @return The current {@link QrCodeBuilder} instance for method chaining.
+     */
+    public QrCodeBuilder withMetricsListener(IQrCodeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    /**
+     * Builds and returns an immutable, thread-safe {@link QrCodeTemplate} from the current builder configuration:
+     * error correction level, logo, symbol cache, symbol type, encoding options, scale, border, colors, image type
+     * and output format. The message and the parameters of the builder are not part of the template.
+     * 
+     * @return A new {@link QrCodeTemplate} instance configured according to the builder's properties.
+     */
+    public QrCodeTemplate buildTemplate() {
+        return new QrCodeTemplate(this);
+    }
+
     /**
      * Builds and returns an instance of {@link QrCodeGenerator} based on the current builder configuration.
      * The configuration includes the message, parameters, error correction level, and logo handler.
@@ -1,19 +1,22 @@
 package fr.paris.lutece.plugins.qrcode.service;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.HashMap;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 import fr.paris.lutece.plugins.qrcode.IQrCodeGenerator;
-import io.nayuki.qrcodegen.QrCode;
-import io.nayuki.qrcodegen.QrCode.Ecc;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.render.IQrCodeWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeWriterRegistry;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
 
 /**
  * Concrete implementation of the {@link IQrCodeGenerator} interface for generating QR codes.
@@ -21,37 +24,30 @@ import io.nayuki.qrcodegen.QrCode.Ecc;
  * This class allows creating a QR code from a message, adding query parameters to the URL encoded in the QR code,
  * and placing a logo at the center of the QR code image.
  * </p>
+ * <p>
+ * The encoding and rendering are delegated to a {@link QrCodeTemplate} holding the configuration of the builder.
+ * A generator keeps no state between calls; to render many messages with the same configuration, build a
+ * {@link QrCodeTemplate} once with {@link QrCodeBuilder#buildTemplate()} instead.
+ * </p>
  */
 public class QrCodeGenerator implements IQrCodeGenerator {
 
-    /**
-     * The default scale factor for the QR code image (size).
-     */
-    private static final int DEFAULT_QRCODE_SCALE = 10;
-
-    /**
-     * The default border size for the QR code image.
-     */
-    private static final int DEFAULT_QRCODE_BORDER = 4;
-
-    private BufferedImage qrCodeImage;
-    private Map<String, String> parameters = new HashMap<>();
-    private boolean withParameters;
-    private String message;
-    private CorrectionLevel correctionLevel;
-    private LogoQrCode logo;
+    private final QrCodeTemplate template;
+    private final Map<String, String> parameters;
+    private final boolean withParameters;
+    private final String message;
 
     /**
      * Private constructor used by the {@link QrCodeBuilder} to create an instance of QRcodeGenerator.
+     * The parameters of the builder are copied, so later changes to the builder do not affect the generator.
      * 
      * @param builder The {@link QrCodeBuilder} instance that initializes the QRcodeGenerator.
      */
     protected QrCodeGenerator(QrCodeBuilder builder) {
+        this.template = builder.buildTemplate();
         this.message = builder.message;
-        this.parameters = builder.parameters;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(builder.parameters));
         this.withParameters = builder.withParameters;
-        this.correctionLevel = builder.correctionLevel;
-        this.logo = builder.logo;
     }
 
     /**
@@ -75,32 +71,30 @@ public class QrCodeGenerator implements IQrCodeGenerator {
      */
     @Override
     public CorrectionLevel getCorrectionLevel() {
-        return correctionLevel;
+        return template.getCorrectionLevel();
     }
 
     /**
-     * Generates the text (message + parameters) to be encoded in the QR code.
+     * Returns the template this generator renders with.
      * 
-     * @return The generated text string.
-     * @throws UnsupportedEncodingException If URL encoding fails.
-     */
-    private String generate() throws UnsupportedEncodingException {
-        StringBuilder sb = new StringBuilder();
-        sb.append(message);
-        if (withParameters) {
-            sb.append("?");
-            for (Map.Entry<String, String> entry : parameters.entrySet()) {
-                sb.append(URLEncoder.encode(entry.getKey(), "UTF-8"));
-                sb.append("=");
-                sb.append(URLEncoder.encode(entry.getValue(), "UTF-8"));
-                sb.append("&");
-            }
-        }
-        return sb.toString();
+     * @return The template holding the configuration of the builder.
+     */
+    public QrCodeTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Generates the payload (message + parameters) to be encoded in the QR code, as UTF-8 bytes.
+     * 
+     * @return The generated payload.
+     */
+    private byte[] generate() {
+        return template.rawPayload(message, withParameters ? parameters : null);
     }
 
     /**
-     * Generates the QR code image using the specified scale and border size.
+     * Generates the QR code image using the specified scale and border size, with the colors and image type of the
+     * builder.
      * 
      * @param scale The scale of the image (size of the QR code).
      * @param border The size of the QR code's border.
@@ -109,11 +103,7 @@ public class QrCodeGenerator implements IQrCodeGenerator {
      * @throws QrCodeGeneratorException If QR code image generation fails.
      */
     public BufferedImage toImage(int scale, int border) throws UnsupportedEncodingException, QrCodeGeneratorException {
-        this.qrCodeImage = QrCode.encodeText(generate(), adaptCorrectionLevel()).toImage(scale, border);
-        if (this.logo != null) {
-            addLogoToQRCode( );
-        }
-        return this.qrCodeImage;
+        return template.toImage(generate(), renderOptions(scale, border));
     }
 
     /**
@@ -123,50 +113,151 @@ public class QrCodeGenerator implements IQrCodeGenerator {
      */
     @Override
     public BufferedImage toImage() throws UnsupportedEncodingException, QrCodeGeneratorException {
-        return toImage(DEFAULT_QRCODE_SCALE, DEFAULT_QRCODE_BORDER);
+        return template.toImage(generate(), template.getRenderOptions());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The error correction level of the matrix may be higher than the requested one when a logo is drawn over the
+     * symbol or when a higher level fits in the same version.
+     * </p>
+     */
+    @Override
+    public QrCodeMatrix toMatrix() throws QrCodeGeneratorException {
+        return template.encode(generate(), template.getRenderOptions());
     }
 
     /**
-     * Adds a logo to the QR code image with a specific scale factor.
-     * The logo will be centered within the QR code.
+     * Writes the QR code as a PNG image using the specified scale and border size.
+     * <p>
+     * Without a logo, a 1-bit PNG is streamed straight from the module matrix, without building the image in
+     * memory. With a logo, the image is rendered with {@link #toImage(int, int)} and encoded by {@link ImageIO}.
+     * </p>
      * 
-     * @param logoFile The logo image file to be added to the QR code.
-     * @param scale The scale factor to adjust the logo size relative to the QR code.
-     * @throws QrCodeGeneratorException If an error occurs while adding the logo.
-     */
-    private void addLogoToQRCode( ) throws QrCodeGeneratorException {
-        BufferedImage logo = null;
-        try {
-            logo = ImageIO.read(this.logo.getLogo());
-        } catch (IOException e) {
-            throw new QrCodeGeneratorException("Error reading logo file for QR code generation", e);
-        }
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @param scale The scale of the image (size of the QR code).
+     * @param border The size of the QR code's border.
+     * @throws IOException If text encoding or writing to the stream fails.
+     * @throws QrCodeGeneratorException If QR code image generation fails.
+     */
+    public void writePng(OutputStream out, int scale, int border) throws IOException, QrCodeGeneratorException {
+        template.writePng(generate(), renderOptions(scale, border), out);
+    }
+
+    /**
+     * Writes the QR code as a PNG image with the scale and border size of the builder.
+     * 
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @throws IOException If text encoding or writing to the stream fails.
+     * @throws QrCodeGeneratorException If QR code image generation fails.
+     */
+    public void writePng(OutputStream out) throws IOException, QrCodeGeneratorException {
+        template.writePng(generate(), template.getRenderOptions(), out);
+    }
 
-        int qrWidth = this.qrCodeImage.getWidth();
-        int qrHeight = this.qrCodeImage.getHeight();
-        int logoWidth = (int) (qrWidth * this.logo.getScale());
-        int logoHeight = (int) (qrHeight * this.logo.getScale());
+    /**
+     * Writes the QR code as a PNG image with the scale and border size of the builder.
+     * 
+     * @param channel The channel the PNG is written to. It is not closed.
+     * @throws IOException If text encoding or writing to the channel fails.
+     * @throws QrCodeGeneratorException If QR code image generation fails.
+     */
+    public void writePng(WritableByteChannel channel) throws IOException, QrCodeGeneratorException {
+        writePng(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Writes the QR code as an SVG document using the specified scale and border size.
+     * Horizontal runs of dark modules are merged into single path segments, and no AWT class is involved.
+     * 
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @param scale The size of one module in the width and height of the document, in pixels.
+     * @param border The size of the QR code's border.
+     * @param embedLogo {@code true} to embed the logo, if any, as a data URI.
+     * @throws IOException If text encoding or appending to the destination fails.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    public void writeSvg(Appendable out, int scale, int border, boolean embedLogo)
+            throws IOException, QrCodeGeneratorException {
+        template.writeSvg(generate(), renderOptions(scale, border), embedLogo, out);
+    }
+
+    /**
+     * Writes the QR code as an SVG document with the scale and border size of the builder, embedding the logo if
+     * any.
+     * 
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @throws IOException If text encoding or appending to the destination fails.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    public void writeSvg(Appendable out) throws IOException, QrCodeGeneratorException {
+        template.writeSvg(generate(), template.getRenderOptions(), true, out);
+    }
+
+    /**
+     * Writes the QR code in a format of the {@link QrCodeWriterRegistry}, with the scale, border size and colors of
+     * the builder. The logo is only drawn by {@link #writePng(OutputStream)} and {@link #writeSvg(Appendable)}.
+     * 
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @param format The name of the format, e.g. {@code gif}, {@code zpl} or {@code text}.
+     * @throws IOException If text encoding or writing to the stream fails.
+     * @throws QrCodeGeneratorException If QR code generation fails.
+     * @throws IllegalArgumentException If no writer is registered for the format.
+     */
+    public void write(OutputStream out, String format) throws IOException, QrCodeGeneratorException {
+        IQrCodeWriter writer = QrCodeWriterRegistry.getInstance().getWriter(format);
+        if (writer == null) {
+            throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+        write(out, writer);
+    }
 
-        Image scaledLogo = logo.getScaledInstance(logoWidth, logoHeight, Image.SCALE_SMOOTH);
-        BufferedImage scaledLogoImage = new BufferedImage(logoWidth, logoHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = scaledLogoImage.createGraphics();
-        g2d.drawImage(scaledLogo, 0, 0, null);
-        g2d.dispose();
+    /**
+     * Writes the QR code with a writer, with the scale, border size and colors of the builder. The logo is not
+     * drawn.
+     * 
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @param writer The writer of the output format.
+     * @throws IOException If text encoding or writing to the stream fails.
+     * @throws QrCodeGeneratorException If QR code generation fails.
+     */
+    public void write(OutputStream out, IQrCodeWriter writer) throws IOException, QrCodeGeneratorException {
+        template.write(generate(), template.getRenderOptions(), writer, out);
+    }
 
-        int x = (qrWidth - logoWidth) / 2;
-        int y = (qrHeight - logoHeight) / 2;
+    /**
+     * {@inheritDoc}
+     *
+     * @see QrCodeTemplate#toSequence(String, Map)
+     */
+    @Override
+    public QrCodeSequence toSequence() throws QrCodeGeneratorException {
+        return template.encodeSequence(generate());
+    }
 
-        Graphics2D g = this.qrCodeImage.createGraphics();
-        g.drawImage(scaledLogoImage, x, y, null);
-        g.dispose();
+    /**
+     * Returns the segment plan of the payload: its segments of mixed modes, the smallest version holding them and
+     * their size in bits. This is the plan of the symbol returned by {@link #toMatrix()}, a Micro QR one or one
+     * escalated for the logo as the case may be.
+     * 
+     * @return The segment plan of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     * @see QrCodeTemplate#getSegmentPlan(String, Map)
+     */
+    public SegmentPlan getSegmentPlan() throws QrCodeGeneratorException {
+        return template.getSegmentPlan(generate());
     }
 
     /**
-     * Adapts the error correction level of the QR code using the {@link CorrectionLevel} enum.
+     * Builds the rendering options for the given scale and border size, with the colors of the builder.
      * 
-     * @return The error correction level adapted for QR code generation.
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @return The rendering options.
      */
-    private Ecc adaptCorrectionLevel() {
-        return QrCode.Ecc.valueOf(this.getCorrectionLevel().name());
+    private RenderOptions renderOptions(int scale, int border) {
+        RenderOptions options = template.getRenderOptions();
+        return new RenderOptions(scale, border, options.getForeground(), options.getBackground());
     }
 }
@@ -0,0 +1,366 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+import java.awt.image.BufferedImage;
+import java.nio.LongBuffer;
+
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeRasterizer;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Compact, immutable representation of an encoded QR code or Micro QR symbol.
+ * <p>
+ * The modules are packed one bit per module in {@code long} words, row by row, so a version 40 symbol only takes a
+ * few kilobytes. A single matrix can be rendered at any scale and border, which makes it the unit stored by the
+ * symbol caches.
+ * </p>
+ * <p>
+ * Renderers read the modules without unpacking them: {@link #nextDark(int, int)} and {@link #nextLight(int, int)}
+ * skip whole words of light or dark modules, {@link #forEachDarkRun(DarkRunConsumer)} visits the horizontal runs of
+ * dark modules, and {@link #getModules()} exposes the packed words as a read-only buffer.
+ * </p>
+ */
+public final class QrCodeMatrix {
+
+    /**
+     * Receives the horizontal runs of dark modules of a matrix.
+     */
+    @FunctionalInterface
+    public interface DarkRunConsumer {
+
+        /**
+         * Receives one run of dark modules.
+         *
+         * @param y The row of the run.
+         * @param x The column of the first module of the run.
+         * @param length The number of modules of the run, at least 1.
+         */
+        void accept(int y, int x, int length);
+    }
+
+    /**
+     * The width and height of the symbol, in modules.
+     */
+    private final int size;
+
+    /**
+     * The version of the symbol.
+     */
+    private final int version;
+
+    /**
+     * The mask pattern applied to the symbol.
+     */
+    private final int mask;
+
+    /**
+     * The error correction level of the symbol.
+     */
+    private final CorrectionLevel correctionLevel;
+
+    /**
+     * The number of data bits of the symbol (segment headers included, padding excluded), or -1 if unknown.
+     */
+    private final int dataBitCount;
+
+    /**
+     * The number of {@code long} words used by one row.
+     */
+    private final int wordsPerRow;
+
+    /**
+     * The packed modules, row by row; a set bit is a dark module.
+     */
+    private final long[] modules;
+
+    /**
+     * Whether the symbol is a Micro QR symbol.
+     */
+    private final boolean micro;
+
+    /**
+     * Constructs a matrix from its packed modules.
+     *
+     * @param size The width and height of the symbol, in modules.
+     * @param version The version of the symbol.
+     * @param mask The mask pattern applied to the symbol.
+     * @param correctionLevel The error correction level of the symbol.
+     * @param dataBitCount The number of data bits of the symbol, or -1 if unknown.
+     * @param modules The packed modules, row by row.
+     * @param micro {@code true} for a Micro QR symbol.
+     */
+    private QrCodeMatrix(int size, int version, int mask, CorrectionLevel correctionLevel, int dataBitCount,
+            long[] modules, boolean micro) {
+        this.size = size;
+        this.version = version;
+        this.mask = mask;
+        this.correctionLevel = correctionLevel;
+        this.dataBitCount = dataBitCount;
+        this.wordsPerRow = (size + 63) >>> 6;
+        this.modules = modules;
+        this.micro = micro;
+    }
+
+    /**
+     * Packs the modules of an encoded QR code into a new matrix.
+     *
+     * @param qrCode The encoded QR code.
+     * @return The compact matrix of the QR code.
+     */
+    public static QrCodeMatrix of(QrCode qrCode) {
+        return of(qrCode, -1);
+    }
+
+    /**
+     * Packs the modules of an encoded QR code into a new matrix.
+     *
+     * @param qrCode The encoded QR code.
+     * @param dataBitCount The number of data bits of the QR code, or -1 if unknown.
+     * @return The compact matrix of the QR code.
+     */
+    public static QrCodeMatrix of(QrCode qrCode, int dataBitCount) {
+        int size = qrCode.size;
+        int wordsPerRow = (size + 63) >>> 6;
+        long[] modules = new long[wordsPerRow * size];
+        for (int y = 0; y < size; y++) {
+            int offset = y * wordsPerRow;
+            for (int x = 0; x < size; x++) {
+                if (qrCode.getModule(x, y)) {
+                    modules[offset + (x >>> 6)] |= 1L << (x & 63);
+                }
+            }
+        }
+        return new QrCodeMatrix(size, qrCode.version, qrCode.mask,
+                CorrectionLevel.valueOf(qrCode.errorCorrectionLevel.name()), dataBitCount, modules, false);
+    }
+
+    /**
+     * Wraps the packed modules of a symbol built by another encoder.
+     *
+     * @param version The version of the symbol.
+     * @param mask The mask pattern applied to the symbol.
+     * @param correctionLevel The error correction level of the symbol.
+     * @param dataBitCount The number of data bits of the symbol, or -1 if unknown.
+     * @param modules The modules, row by row, each row starting on a new {@code long} word, bit {@code x & 63} of
+     *        word {@code x >>> 6} being the module of column {@code x}, and the bits beyond the last column clear. The
+     *        array is kept as is and must not be modified.
+     * @return The matrix of the symbol.
+     */
+    public static QrCodeMatrix of(int version, int mask, CorrectionLevel correctionLevel, int dataBitCount,
+            long[] modules) {
+        int size = version * 4 + 17;
+        if (modules.length != ((size + 63) >>> 6) * size) {
+            throw new IllegalArgumentException("Invalid module array length for version " + version);
+        }
+        return new QrCodeMatrix(size, version, mask, correctionLevel, dataBitCount, modules, false);
+    }
+
+    /**
+     * Wraps the packed modules of a Micro QR symbol.
+     *
+     * @param version The version of the symbol, from 1 (M1) to 4 (M4).
+     * @param mask The mask pattern applied to the symbol, between 0 and 3.
+     * @param correctionLevel The error correction level of the symbol.
+     * @param dataBitCount The number of data bits of the symbol, or -1 if unknown.
+     * @param modules The modules, row by row, with the same layout as in
+     *        {@link #of(int, int, CorrectionLevel, int, long[])}. The array is kept as is and must not be modified.
+     * @return The matrix of the symbol.
+     */
+    public static QrCodeMatrix ofMicro(int version, int mask, CorrectionLevel correctionLevel, int dataBitCount,
+            long[] modules) {
+        int size = MicroQrSpec.getSize(version);
+        if (modules.length != size) {
+            throw new IllegalArgumentException("Invalid module array length for version M" + version);
+        }
+        return new QrCodeMatrix(size, version, mask, correctionLevel, dataBitCount, modules, true);
+    }
+
+    /**
+     * Returns the width and height of the symbol.
+     *
+     * @return The size of the symbol, in modules.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the version of the symbol.
+     *
+     * @return The version, between 1 and 40, or between 1 and 4 for a Micro QR symbol (M1 to M4).
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Indicates whether the symbol is a Micro QR symbol.
+     *
+     * @return {@code true} for a Micro QR symbol, {@code false} for a QR code symbol.
+     */
+    public boolean isMicro() {
+        return micro;
+    }
+
+    /**
+     * Returns the size of the quiet zone the specification requires around the symbol.
+     *
+     * @return 4 modules for a QR code symbol, 2 modules for a Micro QR symbol.
+     */
+    public int getQuietZone() {
+        return micro ? MicroQrSpec.QUIET_ZONE : RenderOptions.DEFAULT_BORDER;
+    }
+
+    /**
+     * Returns the mask pattern applied to the symbol.
+     *
+     * @return The mask, between 0 and 7, or between 0 and 3 for a Micro QR symbol.
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Returns the error correction level of the symbol.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the number of data bits of the symbol: the encoded segments with their mode indicators and character
+     * count fields, excluding the terminator and the padding.
+     *
+     * @return The number of data bits, or -1 if unknown.
+     */
+    public int getDataBitCount() {
+        return dataBitCount;
+    }
+
+    /**
+     * Returns the color of the module at the given coordinates.
+     *
+     * @param x The column of the module; out of bounds coordinates are light.
+     * @param y The row of the module; out of bounds coordinates are light.
+     * @return {@code true} if the module is dark, {@code false} otherwise.
+     */
+    public boolean isDark(int x, int y) {
+        if (x < 0 || x >= size || y < 0 || y >= size) {
+            return false;
+        }
+        return ((modules[y * wordsPerRow + (x >>> 6)] >>> (x & 63)) & 1L) != 0;
+    }
+
+    /**
+     * Returns the first dark module of a row at or after a column.
+     *
+     * @param y The row, between 0 and {@code size - 1}.
+     * @param x The column the search starts from; values from {@code size} return {@code size}.
+     * @return The column of the first dark module at or after {@code x}, or {@link #getSize()} if there is none.
+     */
+    public int nextDark(int y, int x) {
+        return next(y, x, 0L);
+    }
+
+    /**
+     * Returns the first light module of a row at or after a column.
+     *
+     * @param y The row, between 0 and {@code size - 1}.
+     * @param x The column the search starts from; values from {@code size} return {@code size}.
+     * @return The column of the first light module at or after {@code x}, or {@link #getSize()} if the row is dark
+     *         up to its end.
+     */
+    public int nextLight(int y, int x) {
+        return next(y, x, -1L);
+    }
+
+    /**
+     * Returns the first module of a row at or after a column whose bit differs from {@code skip}.
+     *
+     * @param skip {@code 0} to look for a dark module, {@code -1} to look for a light module.
+     */
+    private int next(int y, int x, long skip) {
+        if (x >= size) {
+            return size;
+        }
+        int offset = y * wordsPerRow;
+        int word = x >>> 6;
+        long bits = (modules[offset + word] ^ skip) & (-1L << (x & 63));
+        while (bits == 0) {
+            if (++word == wordsPerRow) {
+                return size;
+            }
+            bits = modules[offset + word] ^ skip;
+        }
+        return Math.min(size, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    /**
+     * Visits the horizontal runs of dark modules of a row, from left to right.
+     *
+     * @param y The row, between 0 and {@code size - 1}.
+     * @param consumer The consumer of the runs.
+     */
+    public void forEachDarkRun(int y, DarkRunConsumer consumer) {
+        int x = nextDark(y, 0);
+        while (x < size) {
+            int end = nextLight(y, x);
+            consumer.accept(y, x, end - x);
+            x = nextDark(y, end);
+        }
+    }
+
+    /**
+     * Visits the horizontal runs of dark modules of the symbol, row by row from top to bottom.
+     *
+     * @param consumer The consumer of the runs.
+     */
+    public void forEachDarkRun(DarkRunConsumer consumer) {
+        for (int y = 0; y < size; y++) {
+            forEachDarkRun(y, consumer);
+        }
+    }
+
+    /**
+     * Returns the number of {@code long} words holding one row of the packed modules.
+     *
+     * @return The number of words per row, {@code (size + 63) / 64}.
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Returns the packed modules, without copying them.
+     *
+     * @return A read-only buffer of {@code wordsPerRow * size} words, each row starting on a new word, bit
+     *         {@code x & 63} of word {@code x >>> 6} being the module of column {@code x}; a set bit is a dark
+     *         module and the bits beyond the last column are clear.
+     */
+    public LongBuffer getModules() {
+        return LongBuffer.wrap(modules).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the estimated memory used by the packed modules.
+     *
+     * @return The size of the packed modules, in bytes.
+     */
+    public int getSizeInBytes() {
+        return modules.length * Long.BYTES;
+    }
+
+    /**
+     * Renders the symbol as an image, with black dark modules and white light modules.
+     *
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @return A new RGB image of the symbol.
+     */
+    public BufferedImage toImage(int scale, int border) {
+        return QrCodeRasterizer.render(this, scale, border);
+    }
+}
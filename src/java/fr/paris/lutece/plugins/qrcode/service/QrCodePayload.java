@@ -0,0 +1,64 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The per-code part of a QR code: the message and its query parameters.
+ * <p>
+ * Payloads are used when many QR codes sharing the same configuration (correction level, logo, scale, ...) are
+ * generated together. Instances are immutable.
+ * </p>
+ */
+public final class QrCodePayload {
+
+    /**
+     * The message that will be encoded in the QR code.
+     */
+    private final String message;
+
+    /**
+     * The parameters appended to the message, in insertion order.
+     */
+    private final Map<String, String> parameters;
+
+    /**
+     * Constructs a payload without parameters.
+     * 
+     * @param message The message that will be encoded in the QR code.
+     */
+    public QrCodePayload(String message) {
+        this(message, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructs a payload with parameters.
+     * 
+     * @param message The message that will be encoded in the QR code.
+     * @param parameters The parameters appended to the message in the URL query string.
+     */
+    public QrCodePayload(String message, Map<String, String> parameters) {
+        this.message = message;
+        this.parameters = parameters.isEmpty() ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+    }
+
+    /**
+     * Returns the message that will be encoded in the QR code.
+     * 
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the parameters appended to the message.
+     * 
+     * @return An unmodifiable map of the parameters.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+}
@@ -0,0 +1,73 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The symbols of a payload split over a Structured Append sequence, in reading order.
+ * <p>
+ * A payload holding in one symbol gives a sequence of one plain symbol, without Structured Append header. Otherwise
+ * each symbol carries its position, the number of symbols and the parity of the whole payload, so that readers
+ * supporting Structured Append reassemble the payload whatever the order in which the symbols are scanned.
+ * </p>
+ */
+public final class QrCodeSequence {
+
+    /**
+     * The symbols, in reading order.
+     */
+    private final List<QrCodeMatrix> symbols;
+
+    /**
+     * The parity of the whole payload.
+     */
+    private final int parity;
+
+    /**
+     * Constructs a sequence.
+     *
+     * @param symbols The symbols, in reading order.
+     * @param parity The parity of the whole payload.
+     */
+    QrCodeSequence(List<QrCodeMatrix> symbols, int parity) {
+        this.symbols = Collections.unmodifiableList(symbols);
+        this.parity = parity;
+    }
+
+    /**
+     * Returns the symbols of the sequence.
+     *
+     * @return An unmodifiable list of symbols, in reading order.
+     */
+    public List<QrCodeMatrix> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the number of symbols of the sequence.
+     *
+     * @return The number of symbols, from 1 to 16.
+     */
+    public int size() {
+        return symbols.size();
+    }
+
+    /**
+     * Returns {@code true} if the symbols carry a Structured Append header, that is if there are several of them.
+     *
+     * @return {@code true} for a Structured Append sequence, {@code false} for a single plain symbol.
+     */
+    public boolean isStructuredAppend() {
+        return symbols.size() > 1;
+    }
+
+    /**
+     * Returns the parity of the whole payload: the exclusive or of all its bytes as encoded, written in the header
+     * of each symbol. The characters encoded in kanji mode count as their Shift JIS bytes.
+     *
+     * @return The parity, between 0 and 255.
+     */
+    public int getParity() {
+        return parity;
+    }
+}
@@ -0,0 +1,978 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.cache.IRenderCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.ISymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolKey;
+import fr.paris.lutece.plugins.qrcode.service.encode.LogoSafeArea;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.PayloadEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import fr.paris.lutece.plugins.qrcode.service.encode.StructuredAppend;
+import fr.paris.lutece.plugins.qrcode.service.metrics.IQrCodeMetricsListener;
+import fr.paris.lutece.plugins.qrcode.service.metrics.QrCodeStage;
+import fr.paris.lutece.plugins.qrcode.service.render.IQrCodeWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoCompositor;
+import fr.paris.lutece.plugins.qrcode.service.render.PngWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeRasterizer;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeWriterRegistry;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+import fr.paris.lutece.plugins.qrcode.service.render.SvgWriter;
+import io.nayuki.qrcodegen.QrCode;
+import io.nayuki.qrcodegen.QrCode.Ecc;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Immutable, reusable QR code configuration: correction level, symbol type, logo, scale, border, colors and output
+ * format.
+ * <p>
+ * A template is built once with {@link QrCodeBuilder#buildTemplate()} and then renders any number of messages
+ * with {@link #render(String, Map)}. It holds no per-call state, so a single instance can be shared by all the
+ * threads of an application, e.g. stored in a static field and used by every request of a servlet. The logo is
+ * decoded once for the whole life of the template, and the scaled logos are kept in the shared logo cache.
+ * </p>
+ * <p>
+ * When a metrics listener is configured, each stage of the generation is timed and reported to it; otherwise no
+ * clock is read and no wrapper is allocated.
+ * </p>
+ */
+public final class QrCodeTemplate {
+
+    /**
+     * Symbol cache option flag of the kanji mode.
+     */
+    private static final int OPTION_KANJI = 1;
+
+    /**
+     * Symbol cache option flag of the symbols escalated for a logo. The border and the logo scale are stored in the
+     * upper bits of the options.
+     */
+    private static final int OPTION_LOGO = 2;
+
+    /**
+     * Symbol cache option flag of the masks chosen by the fast heuristic. A fixed mask is stored in bits 2 to 4.
+     */
+    private static final int OPTION_FAST_MASK = 1 << 5;
+
+    /**
+     * Symbol cache option flag of the templates encoding the payloads that fit in a Micro QR symbol as such.
+     */
+    private static final int OPTION_MICRO = 1 << 6;
+
+    private static final int OPTION_MASK_SHIFT = 2;
+    private static final int OPTION_BORDER_SHIFT = 8;
+    private static final int OPTION_LOGO_SCALE_SHIFT = 16;
+
+    /**
+     * Resolution of the logo scale stored in the symbol cache options.
+     */
+    private static final int LOGO_SCALE_RESOLUTION = 1 << 20;
+    private static final int MAX_CACHED_BORDER = 255;
+
+    /**
+     * Version of the layout of the render cache keys, to change when the rendering changes.
+     */
+    private static final int RENDER_KEY_VERSION = 5;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The digests computing the render cache keys, reused by each thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final CorrectionLevel correctionLevel;
+    private final LogoQrCode logo;
+    private final LogoPlate logoPlate;
+
+    /**
+     * The side of the area hidden by the logo and its plate, relative to the side of the whole image.
+     */
+    private final double coveredScale;
+    private final ISymbolCache symbolCache;
+    private final boolean kanjiMode;
+    private final boolean urlCanonicalization;
+    private final RenderOptions renderOptions;
+    private final ImageType imageType;
+    private final OutputFormat format;
+    private final IQrCodeMetricsListener metrics;
+    private final IRenderCache renderCache;
+    private final LogoSafeArea logoSafeArea;
+    private final EncoderBackend encoderBackend;
+    private final int mask;
+    private final MaskSelection maskSelection;
+    private final int maxVersion;
+    private final SymbolType symbolType;
+
+    /**
+     * The rendering options of the Micro QR symbols, with their own quiet zone, or {@code null} if they are
+     * rendered with the border of the template.
+     */
+    private final RenderOptions microRenderOptions;
+
+    /**
+     * Constructs a template from the configuration of a builder. The message and the parameters of the builder are
+     * not part of the template.
+     *
+     * @param builder The {@link QrCodeBuilder} holding the configuration.
+     * @throws IllegalArgumentException If the logo is so large that no QR code would stay decodable, if the mask
+     *         selection is not supported by the encoder, or if Micro QR symbols are requested with a logo or at a
+     *         correction level they do not have.
+     */
+    QrCodeTemplate(QrCodeBuilder builder) {
+        this.correctionLevel = builder.correctionLevel;
+        this.logo = builder.logo;
+        this.logoPlate = builder.logoPlate;
+        this.coveredScale = logo == null ? 0 : logo.getScale() * logoPlate.getCoverageFactor();
+        this.symbolCache = builder.symbolCache;
+        this.kanjiMode = builder.kanjiMode;
+        this.urlCanonicalization = builder.urlCanonicalization;
+        this.renderOptions = new RenderOptions(builder.scale, builder.border, builder.foreground, builder.background);
+        this.imageType = builder.imageType;
+        this.format = builder.format;
+        this.metrics = builder.metricsListener;
+        this.renderCache = builder.renderCache;
+        this.encoderBackend = builder.encoderBackend;
+        this.mask = builder.mask;
+        this.maskSelection = builder.maskSelection;
+        this.maxVersion = builder.maxVersion;
+        this.symbolType = builder.symbolType;
+        this.microRenderOptions = symbolType == SymbolType.QR_CODE || builder.borderSet ? null
+                : new RenderOptions(builder.scale, MicroQrSpec.QUIET_ZONE, builder.foreground, builder.background);
+        if (symbolType == SymbolType.MICRO_QR && logo != null) {
+            throw new IllegalArgumentException("Micro QR symbols cannot hold a logo");
+        }
+        if (symbolType == SymbolType.MICRO_QR && !MicroQrSpec.isSupported(MicroQrSpec.MAX_VERSION, correctionLevel)) {
+            throw new IllegalArgumentException("Level " + correctionLevel + " not available in Micro QR symbols");
+        }
+        if (encoderBackend == EncoderBackend.QRCODEGEN && maskSelection != MaskSelection.PENALTY) {
+            throw new IllegalArgumentException("Mask selection " + maskSelection + " requires the native encoder");
+        }
+        this.logoSafeArea = logo == null ? null : new LogoSafeArea(renderOptions.getBorder(), coveredScale);
+        if (logoSafeArea != null && !logoSafeArea.isSupported(correctionLevel)) {
+            throw new IllegalArgumentException("Logo too large for any QR code to stay decodable: scale "
+                    + coveredScale + " with a border of " + renderOptions.getBorder());
+        }
+    }
+
+    /**
+     * Returns the error correction level of the QR codes.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the scale, border and colors of the QR codes.
+     *
+     * @return The rendering options.
+     */
+    public RenderOptions getRenderOptions() {
+        return renderOptions;
+    }
+
+    /**
+     * Returns the logo drawn at the center of the QR codes.
+     *
+     * @return The logo, or {@code null} for none.
+     */
+    public LogoQrCode getLogo() {
+        return logo;
+    }
+
+    /**
+     * Returns the backing plate drawn under the logo.
+     *
+     * @return The backing plate of the logo.
+     */
+    public LogoPlate getLogoPlate() {
+        return logoPlate;
+    }
+
+    /**
+     * Indicates whether the kanji mode may be used for the characters of the Shift JIS kanji set.
+     *
+     * @return {@code true} if the kanji mode is allowed.
+     */
+    public boolean isKanjiMode() {
+        return kanjiMode;
+    }
+
+    /**
+     * Returns the symbology of the symbols.
+     *
+     * @return The symbol type.
+     */
+    public SymbolType getSymbolType() {
+        return symbolType;
+    }
+
+    /**
+     * Returns the format of the QR codes serialized by {@link #render(String, Map)}.
+     *
+     * @return The output format.
+     */
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Renders a QR code in the output format of the template.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The serialized QR code.
+     * @throws IOException If the serialization fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public byte[] render(String message, Map<String, String> parameters) throws IOException, QrCodeGeneratorException {
+        byte[] payload = payload(message, parameters);
+        if (renderCache == null) {
+            return serialize(payload);
+        }
+        String key = renderKey(payload);
+        byte[] content = renderCache.get(key);
+        if (content == null) {
+            content = serialize(payload);
+            renderCache.put(key, content);
+        }
+        return content;
+    }
+
+    /**
+     * Renders a QR code in the output format of the template.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public void render(String message, Map<String, String> parameters, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        if (renderCache == null) {
+            serialize(payload(message, parameters), out);
+            return;
+        }
+        out.write(render(message, parameters));
+    }
+
+    /**
+     * Renders a QR code in the output format of the template to a channel. With a render cache, hits are copied
+     * from the cache to the channel by the operating system (e.g. with {@code sendfile} to a socket).
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param channel The channel the QR code is written to. It is not closed.
+     * @throws IOException If writing to the channel fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public void render(String message, Map<String, String> parameters, WritableByteChannel channel)
+            throws IOException, QrCodeGeneratorException {
+        byte[] content;
+        if (renderCache == null) {
+            content = serialize(payload(message, parameters));
+        } else {
+            byte[] payload = payload(message, parameters);
+            String key = renderKey(payload);
+            if (renderCache.transferTo(key, channel) >= 0) {
+                return;
+            }
+            content = serialize(payload);
+            renderCache.put(key, content);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Renders a QR code as an image.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return A new image of the QR code.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public BufferedImage toImage(String message, Map<String, String> parameters) throws QrCodeGeneratorException {
+        return toImage(payload(message, parameters), renderOptions);
+    }
+
+    /**
+     * Writes a QR code as a PNG image.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public void writePng(String message, Map<String, String> parameters, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        writePng(payload(message, parameters), renderOptions, out);
+    }
+
+    /**
+     * Writes a QR code as an SVG document, embedding the logo if any.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @throws IOException If appending to the destination fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    public void writeSvg(String message, Map<String, String> parameters, Appendable out)
+            throws IOException, QrCodeGeneratorException {
+        writeSvg(payload(message, parameters), renderOptions, true, out);
+    }
+
+    /**
+     * Writes a QR code with a writer of the {@link QrCodeWriterRegistry}, from its module matrix. The logo is not
+     * drawn, and the symbol is encoded as if there were none.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param writer The writer of the output format.
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     */
+    public void write(String message, Map<String, String> parameters, IQrCodeWriter writer, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        write(payload(message, parameters), renderOptions, writer, out);
+    }
+
+    /**
+     * Encodes a QR code without rendering it.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The encoded symbol.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     */
+    public QrCodeMatrix toMatrix(String message, Map<String, String> parameters) throws QrCodeGeneratorException {
+        return encode(payload(message, parameters), renderOptions);
+    }
+
+    /**
+     * Encodes a payload over as few symbols as possible, none above the maximum version of the template. A payload
+     * too long for one symbol is split over a Structured Append sequence of up to 16 symbols, encoded in parallel.
+     * <p>
+     * The symbols are encoded as if no logo were drawn over them. The symbols of a Structured Append sequence are
+     * always QR code symbols built by the {@link EncoderBackend#NATIVE} encoder, the only one writing the
+     * Structured Append header (Micro QR symbols have none), and are not stored in the symbol cache.
+     * </p>
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The symbols, in reading order.
+     * @throws QrCodeGeneratorException If the payload does not fit in 16 symbols of the maximum version.
+     */
+    public QrCodeSequence toSequence(String message, Map<String, String> parameters)
+            throws QrCodeGeneratorException {
+        return encodeSequence(payload(message, parameters));
+    }
+
+    /**
+     * Returns the segment plan of a payload: its segments of mixed modes, the smallest version holding them and
+     * their size in bits. This is the plan of the symbol returned by {@link #toMatrix(String, Map)}: without a logo,
+     * a Micro QR one when the symbol type allows it and the payload fits (see {@link SegmentPlan#isMicro()}); with
+     * a logo, the version and the correction level escalated by the {@link LogoSafeArea}.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The segment plan of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code, or in a Micro QR symbol when only
+     *         those are allowed.
+     */
+    public SegmentPlan getSegmentPlan(String message, Map<String, String> parameters)
+            throws QrCodeGeneratorException {
+        return getSegmentPlan(payload(message, parameters));
+    }
+
+    /**
+     * Returns the segment plan of the symbol of a payload rendered with the options of the template.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @return The segment plan of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code, or in a Micro QR symbol when only
+     *         those are allowed.
+     * @see #getSegmentPlan(String, Map)
+     */
+    SegmentPlan getSegmentPlan(byte[] payload) throws QrCodeGeneratorException {
+        return plan(payload, logoSafeArea(renderOptions));
+    }
+
+    /**
+     * Prepares the template for QR codes of the given versions, typically from the initialization of the plugin, so
+     * that the first requests are not slowed down by the loading and the compilation of the encoding code.
+     * <p>
+     * For each version, a payload filling a symbol of that version is encoded and written in the output format of
+     * the template, without the logo. With the {@link EncoderBackend#NATIVE} encoder, its symbol templates are
+     * also computed for the correction level of the template and the levels above it (see
+     * {@link QrCodeEncoder#warmUp(int[], CorrectionLevel[])}). Neither the caches nor the metrics listener are
+     * involved. The versions that cannot hold the payload under the logo are skipped.
+     * </p>
+     *
+     * @param versions The versions to prepare.
+     * @throws IOException If the serialization fails.
+     * @throws IllegalArgumentException If a version is out of range.
+     */
+    public void warmUp(int... versions) throws IOException {
+        if (encoderBackend == EncoderBackend.NATIVE) {
+            CorrectionLevel[] levels = CorrectionLevel.values();
+            QrCodeEncoder.warmUp(versions, Arrays.copyOfRange(levels, correctionLevel.ordinal(), levels.length));
+        }
+        IQrCodeWriter writer = QrCodeWriterRegistry.getInstance().getWriter(format);
+        LogoSafeArea safeArea = logoSafeArea(renderOptions);
+        for (int version : versions) {
+            int countBits = QrCodeSpec.getCharCountBits(QrSegment.Mode.BYTE, version);
+            byte[] payload = new byte[(QrCodeSpec.getNumDataCodewords(version, correctionLevel) * 8 - 4 - countBits)
+                    / 8];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) ('a' + i % 26);
+            }
+            QrCodeMatrix matrix;
+            try {
+                matrix = encodeSymbol(payload, safeArea);
+            } catch (QrCodeGeneratorException e) {
+                continue;
+            }
+            writer.write(matrix, renderOptions, new ByteArrayOutputStream());
+        }
+    }
+
+    /**
+     * Serializes a payload in the output format of the template.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @return The serialized QR code.
+     * @throws IOException If the serialization fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    private byte[] serialize(byte[] payload) throws IOException, QrCodeGeneratorException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serialize(payload, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Serializes a payload in the output format of the template.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    private void serialize(byte[] payload, OutputStream out) throws IOException, QrCodeGeneratorException {
+        if (format == OutputFormat.SVG) {
+            Writer writer = new OutputStreamWriter(out, PayloadEncoder.CHARSET);
+            writeSvg(payload, renderOptions, true, writer);
+            writer.flush();
+        } else if (format == OutputFormat.PNG) {
+            writePng(payload, renderOptions, out);
+        } else {
+            write(payload, renderOptions, QrCodeWriterRegistry.getInstance().getWriter(format), out);
+        }
+    }
+
+    /**
+     * Computes the render cache key of a payload: a digest of the payload and of everything in the template that
+     * changes the serialized QR code.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @return The hexadecimal key.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    private String renderKey(byte[] payload) throws QrCodeGeneratorException {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        ByteBuffer header = ByteBuffer.allocate(80);
+        header.putInt(RENDER_KEY_VERSION).putInt(correctionLevel.ordinal()).putInt(kanjiMode ? 1 : 0)
+                .putInt(encoderBackend.ordinal()).putInt(mask).putInt(maskSelection.ordinal())
+                .putInt(renderOptions.getScale()).putInt(renderOptions.getBorder())
+                .putInt(renderOptions.getForeground()).putInt(renderOptions.getBackground())
+                .putInt(imageType.ordinal()).putInt(format.ordinal()).putInt(symbolType.ordinal())
+                .putDouble(logo == null ? 0 : logo.getScale()).putInt(logoPlate.ordinal()).putInt(payload.length);
+        digest.update(header.array(), 0, header.position());
+        digest.update(payload);
+        if (logo != null) {
+            digest.update(logo.getDigest().getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Assembles the payload of a QR code. Empty parameters are the same as no parameters.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The UTF-8 bytes of the payload.
+     */
+    byte[] payload(String message, Map<String, String> parameters) {
+        return rawPayload(message, parameters == null || parameters.isEmpty() ? null : parameters);
+    }
+
+    /**
+     * Assembles the payload of a QR code; empty parameters still append a {@code ?} to the message.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return The UTF-8 bytes of the payload.
+     */
+    byte[] rawPayload(String message, Map<String, String> parameters) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        String text = urlCanonicalization ? PayloadEncoder.canonicalizeUrl(message) : message;
+        byte[] payload = PayloadEncoder.encode(text, parameters);
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.PAYLOAD, System.nanoTime() - start);
+        }
+        return payload;
+    }
+
+    /**
+     * Renders a payload as an image, with the logo if any.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param options The scale, border and colors of the image.
+     * @return A new image of the QR code.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    BufferedImage toImage(byte[] payload, RenderOptions options) throws QrCodeGeneratorException {
+        ImageType type = logo != null && imageType == ImageType.BINARY ? ImageType.RGB : imageType;
+        QrCodeMatrix matrix = encode(payload, options);
+        long start = metrics == null ? 0 : System.nanoTime();
+        BufferedImage image = QrCodeRasterizer.render(matrix, renderOptions(matrix, options), type);
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.RENDER, System.nanoTime() - start);
+        }
+        if (logo != null) {
+            addLogo(image);
+        }
+        return image;
+    }
+
+    /**
+     * Writes a payload as a PNG image.
+     * <p>
+     * Without a logo, a 1-bit PNG is streamed straight from the module matrix, without building the image in
+     * memory. With a logo, the image is rendered with {@link #toImage(byte[], RenderOptions)} and encoded by
+     * {@link ImageIO}.
+     * </p>
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param options The scale, border and colors of the image.
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    void writePng(byte[] payload, RenderOptions options, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        BufferedImage image = logo != null ? toImage(payload, options) : null;
+        QrCodeMatrix matrix = logo != null ? null : encode(payload, options);
+        long start = metrics == null ? 0 : System.nanoTime();
+        CountingOutputStream counter = metrics == null ? null : new CountingOutputStream(out);
+        OutputStream target = counter == null ? out : counter;
+        if (image != null) {
+            ImageIO.write(image, "png", target);
+        } else {
+            PngWriter.write(matrix, renderOptions(matrix, options), target);
+        }
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.SERIALIZE, System.nanoTime() - start);
+            metrics.onOutput(OutputFormat.PNG, counter.count);
+        }
+    }
+
+    /**
+     * Writes a payload as an SVG document.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param options The scale, border and colors of the document.
+     * @param embedLogo {@code true} to embed the logo, if any, as a data URI.
+     * @param out The destination of the document.
+     * @throws IOException If appending to the destination fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code or the logo cannot be read.
+     */
+    void writeSvg(byte[] payload, RenderOptions options, boolean embedLogo, Appendable out)
+            throws IOException, QrCodeGeneratorException {
+        QrCodeMatrix matrix = embedLogo ? encode(payload, options) : encode(payload, null);
+        String logoDataUri = null;
+        if (embedLogo && logo != null) {
+            try {
+                logoDataUri = logo.toDataUri();
+            } catch (QrCodeGeneratorException e) {
+                throw failure(QrCodeStage.LOGO, e);
+            }
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        CountingAppendable counter = metrics == null ? null : new CountingAppendable(out);
+        SvgWriter.write(matrix, renderOptions(matrix, options), logoDataUri, logoDataUri == null ? 0 : logo.getScale(),
+                logoDataUri == null ? LogoPlate.NONE : logoPlate, counter == null ? out : counter);
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.SERIALIZE, System.nanoTime() - start);
+            metrics.onOutput(OutputFormat.SVG, counter.count);
+        }
+    }
+
+    /**
+     * Writes a payload with a writer of the {@link QrCodeWriterRegistry}, without the logo.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param options The scale, border and colors of the document.
+     * @param writer The writer of the output format.
+     * @param out The stream the QR code is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     */
+    void write(byte[] payload, RenderOptions options, IQrCodeWriter writer, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        QrCodeMatrix matrix = encode(payload, null);
+        long start = metrics == null ? 0 : System.nanoTime();
+        CountingOutputStream counter = metrics == null ? null : new CountingOutputStream(out);
+        writer.write(matrix, renderOptions(matrix, options), counter == null ? out : counter);
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.SERIALIZE, System.nanoTime() - start);
+            OutputFormat outputFormat = OutputFormat.forName(writer.getName());
+            if (outputFormat != null) {
+                metrics.onOutput(outputFormat, counter.count);
+            }
+        }
+    }
+
+    /**
+     * Encodes a payload into a QR code symbol, going through the symbol cache when one is configured.
+     * <p>
+     * When the logo is drawn over the symbol, the version and the correction level are escalated as needed for the
+     * symbol to stay decodable (see {@link LogoSafeArea}).
+     * </p>
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param options The scale, border and colors the symbol is rendered with, or {@code null} if the logo is not
+     *        drawn over it.
+     * @return The encoded symbol.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     */
+    QrCodeMatrix encode(byte[] payload, RenderOptions options) throws QrCodeGeneratorException {
+        LogoSafeArea safeArea = logoSafeArea(options);
+        if (metrics == null) {
+            return lookupOrEncode(payload, safeArea);
+        }
+        long start = System.nanoTime();
+        QrCodeMatrix matrix;
+        try {
+            matrix = lookupOrEncode(payload, safeArea);
+        } catch (QrCodeGeneratorException e) {
+            throw failure(QrCodeStage.ENCODE, e);
+        }
+        metrics.onStage(QrCodeStage.ENCODE, System.nanoTime() - start);
+        metrics.onSymbol(matrix);
+        return matrix;
+    }
+
+    /**
+     * Encodes a payload over a sequence of symbols, none above the maximum version of the template.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @return The symbols, in reading order.
+     * @throws QrCodeGeneratorException If the payload does not fit in 16 symbols of the maximum version.
+     */
+    QrCodeSequence encodeSequence(byte[] payload) throws QrCodeGeneratorException {
+        List<SegmentPlan> plans;
+        try {
+            plans = StructuredAppend.plan(payload, correctionLevel, kanjiMode, maxVersion);
+        } catch (QrCodeGeneratorException e) {
+            throw failure(QrCodeStage.ENCODE, e);
+        }
+        // Over the bytes actually encoded: the kanji segments carry Shift JIS bytes, not UTF-8
+        int parity = StructuredAppend.parity(plans);
+        if (plans.size() == 1) {
+            // The smallest version holding the payload is at most the maximum version: a plain symbol
+            return new QrCodeSequence(Collections.singletonList(encode(payload, null)), parity);
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        int total = plans.size();
+        List<QrCodeMatrix> symbols = IntStream.range(0, total).parallel().mapToObj(index -> {
+            SegmentPlan plan = plans.get(index);
+            return QrCodeEncoder.encodeStructuredAppend(plan.getSegments(), index, total, parity,
+                    plan.getCorrectionLevel(), plan.getVersion(), mask, true, maskSelection);
+        }).collect(Collectors.toList());
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.ENCODE, System.nanoTime() - start);
+            for (QrCodeMatrix symbol : symbols) {
+                metrics.onSymbol(symbol);
+            }
+        }
+        return new QrCodeSequence(symbols, parity);
+    }
+
+    /**
+     * Returns the options a symbol is rendered with: Micro QR symbols rendered with the options of the template get
+     * their own quiet zone, unless a border was set on the builder.
+     *
+     * @param matrix The symbol.
+     * @param options The scale, border and colors requested.
+     * @return The rendering options of the symbol.
+     */
+    private RenderOptions renderOptions(QrCodeMatrix matrix, RenderOptions options) {
+        return matrix.isMicro() && options == renderOptions && microRenderOptions != null ? microRenderOptions
+                : options;
+    }
+
+    /**
+     * Returns the safe area of the logo for the given rendering options.
+     *
+     * @param options The scale, border and colors the symbol is rendered with, or {@code null} if the logo is not
+     *        drawn.
+     * @return The safe area of the logo, or {@code null} if there is no logo to draw.
+     */
+    private LogoSafeArea logoSafeArea(RenderOptions options) {
+        if (logoSafeArea == null || options == null) {
+            return null;
+        }
+        if (options.getBorder() == logoSafeArea.getBorder()) {
+            return logoSafeArea;
+        }
+        return new LogoSafeArea(options.getBorder(), coveredScale);
+    }
+
+    /**
+     * Takes the symbol of a payload from the symbol cache, or encodes it.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param safeArea The safe area of the logo drawn over the symbol, or {@code null} if there is none.
+     * @return The encoded symbol.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code.
+     */
+    private QrCodeMatrix lookupOrEncode(byte[] payload, LogoSafeArea safeArea) throws QrCodeGeneratorException {
+        long options = kanjiMode ? OPTION_KANJI : 0;
+        if (mask >= 0) {
+            options |= (mask + 1) << OPTION_MASK_SHIFT;
+        } else if (encoderBackend == EncoderBackend.NATIVE && maskSelection == MaskSelection.FAST) {
+            options |= OPTION_FAST_MASK;
+        }
+        if (symbolType != SymbolType.QR_CODE && safeArea == null) {
+            options |= OPTION_MICRO;
+        }
+        if (safeArea != null) {
+            long scale = Math.round(safeArea.getLogoScale() * LOGO_SCALE_RESOLUTION);
+            if (safeArea.getBorder() > MAX_CACHED_BORDER || scale < 0 || scale > LOGO_SCALE_RESOLUTION) {
+                // Not representable in the options of the key: never cached
+                return encodeSymbol(payload, safeArea);
+            }
+            options |= OPTION_LOGO | (long) safeArea.getBorder() << OPTION_BORDER_SHIFT
+                    | scale << OPTION_LOGO_SCALE_SHIFT;
+        }
+        if (symbolCache == null) {
+            return encodeSymbol(payload, safeArea);
+        }
+        SymbolKey key = new SymbolKey(payload, correctionLevel, options);
+        QrCodeMatrix matrix = symbolCache.get(key);
+        if (metrics != null) {
+            metrics.onCacheAccess(matrix != null);
+        }
+        if (matrix == null) {
+            matrix = encodeSymbol(payload, safeArea);
+            symbolCache.put(key, matrix);
+        }
+        return matrix;
+    }
+
+    /**
+     * Encodes a payload with the optimal segmentation, in the smallest version that holds it.
+     * <p>
+     * Without a logo, the correction level is raised as long as the payload still fits in that version, and the
+     * payloads fitting in a Micro QR symbol are encoded as such unless the symbol type is
+     * {@link SymbolType#QR_CODE}. With a logo, the version and the correction level of the QR code are chosen by
+     * the {@link LogoSafeArea}. QR code symbols are built by the configured {@link EncoderBackend}.
+     * </p>
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param safeArea The safe area of the logo drawn over the symbol, or {@code null} if there is none.
+     * @return The encoded symbol.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code, or in a Micro QR symbol when only
+     *         those are allowed, or if no QR code holding it stays decodable under the logo.
+     */
+    private QrCodeMatrix encodeSymbol(byte[] payload, LogoSafeArea safeArea) throws QrCodeGeneratorException {
+        SegmentPlan plan = plan(payload, safeArea);
+        if (plan.isMicro()) {
+            return MicroQrEncoder.encodeSegments(plan.getSegments(), plan.getCorrectionLevel(), plan.getVersion(),
+                    MicroQrEncoder.AUTO_MASK, true);
+        }
+        // The level chosen for a logo is final; otherwise it is raised as long as the payload still fits
+        boolean boost = safeArea == null;
+        if (encoderBackend == EncoderBackend.NATIVE) {
+            return QrCodeEncoder.encodeSegments(plan.getSegments(), plan.getCorrectionLevel(), plan.getVersion(), mask,
+                    boost, maskSelection);
+        }
+        QrCode qrCode = QrCode.encodeSegments(plan.getSegments(), Ecc.valueOf(plan.getCorrectionLevel().name()),
+                plan.getVersion(), plan.getVersion(), mask, boost);
+        return QrCodeMatrix.of(qrCode, plan.getBitCount());
+    }
+
+    /**
+     * Chooses the segment plan of a payload: a Micro QR plan when the symbol type allows it, there is no logo and
+     * the payload fits; otherwise a QR code plan, escalated for the logo if any.
+     *
+     * @param payload The UTF-8 bytes to encode.
+     * @param safeArea The safe area of the logo drawn over the symbol, or {@code null} if there is none.
+     * @return The segment plan.
+     * @throws QrCodeGeneratorException If the payload does not fit in a QR code, or in a Micro QR symbol when only
+     *         those are allowed.
+     */
+    private SegmentPlan plan(byte[] payload, LogoSafeArea safeArea) throws QrCodeGeneratorException {
+        if (safeArea != null) {
+            return safeArea.plan(payload, correctionLevel, kanjiMode);
+        }
+        if (symbolType != SymbolType.QR_CODE) {
+            SegmentPlan micro = SegmentPlanner.planMicro(payload, correctionLevel, kanjiMode);
+            if (micro != null) {
+                return micro;
+            }
+            if (symbolType == SymbolType.MICRO_QR) {
+                throw new QrCodeGeneratorException("Payload too long for a Micro QR symbol at level "
+                        + correctionLevel + ": " + payload.length + " bytes");
+            }
+        }
+        return SegmentPlanner.plan(payload, correctionLevel, kanjiMode);
+    }
+
+    /**
+     * Draws the logo at the center of an image, on its backing plate if any. The scaled logo is taken from the
+     * shared logo cache, so the logo is only decoded and rescaled once for a given size, and it is blended straight
+     * into the raster of the image.
+     *
+     * @param image The image of the QR code.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    private void addLogo(BufferedImage image) throws QrCodeGeneratorException {
+        int qrWidth = image.getWidth();
+        int qrHeight = image.getHeight();
+        int logoWidth = (int) (qrWidth * logo.getScale());
+        int logoHeight = (int) (qrHeight * logo.getScale());
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        BufferedImage scaledLogoImage;
+        try {
+            scaledLogoImage = logo.getScaledLogo(logoWidth, logoHeight);
+        } catch (QrCodeGeneratorException e) {
+            throw failure(QrCodeStage.LOGO, e);
+        }
+
+        int x = (qrWidth - logoWidth) / 2;
+        int y = (qrHeight - logoHeight) / 2;
+        LogoCompositor.drawLogo(image, scaledLogoImage, x, y, logoPlate, renderOptions.getBackground());
+        if (metrics != null) {
+            metrics.onStage(QrCodeStage.LOGO, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reports a failure to the metrics listener, if any.
+     *
+     * @param stage The stage that failed.
+     * @param exception The failure.
+     * @return The failure, to be thrown by the caller.
+     */
+    private QrCodeGeneratorException failure(QrCodeStage stage, QrCodeGeneratorException exception) {
+        if (metrics != null) {
+            metrics.onFailure(stage, exception);
+        }
+        return exception;
+    }
+
+    /**
+     * Output stream counting the bytes written through it, used when metrics are enabled.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Appendable counting the characters appended through it, used when metrics are enabled.
+     */
+    private static final class CountingAppendable implements Appendable {
+
+        private final Appendable out;
+        private long count;
+
+        CountingAppendable(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq == null ? 4 : csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            out.append(csq, start, end);
+            count += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            out.append(c);
+            count++;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package fr.paris.lutece.plugins.qrcode.service;
+
+/**
+ * Enum representing the symbologies a payload may be encoded in.
+ */
+public enum SymbolType {
+    /**
+     * QR code model 2 symbols, versions 1 to 40 (21 to 177 modules), with a quiet zone of 4 modules.
+     */
+    QR_CODE,
+
+    /**
+     * Micro QR symbols, versions M2 to M4 (13 to 17 modules), with a quiet zone of 2 modules. They hold up to 35
+     * digits, 21 alphanumeric characters or 15 bytes, at the {@link CorrectionLevel#LOW} and
+     * {@link CorrectionLevel#MEDIUM} levels, or {@link CorrectionLevel#QUARTILE} in version M4. Payloads that do
+     * not fit are rejected.
+     */
+    MICRO_QR,
+
+    /**
+     * The smallest symbol holding the payload at the correction level: a Micro QR symbol when the payload fits in
+     * one, a QR code symbol otherwise.
+     */
+    SMALLEST
+}
@@ -0,0 +1,276 @@
+package fr.paris.lutece.plugins.qrcode.service.async;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+
+/**
+ * Non-blocking facade over a {@link QrCodeTemplate}: QR codes are generated on an {@link Executor} and delivered
+ * through {@link CompletableFuture}s, so the calling thread never waits for the encoding nor for the reading of the
+ * logo.
+ * <p>
+ * The executor defaults to a virtual thread per task when the runtime provides them (Java 21 and later), and to a
+ * shared pool of daemon platform threads, twice as many as the processors, otherwise. At most
+ * {@code maxConcurrency} QR codes are generated at the same time, and at most {@code maxPending} are accepted
+ * (running or waiting). Beyond that, or when the executor rejects a task, the returned future fails immediately
+ * with a {@link RejectedExecutionException}, which lets a traffic spike be shed instead of filling the heap with
+ * half-built images.
+ * </p>
+ * <p>
+ * Futures fail with the typed exception of the generation, wrapped in a
+ * {@link java.util.concurrent.CompletionException} as usual: a {@link QrCodeGeneratorException} when the payload
+ * does not fit or the logo cannot be read, an {@link IOException} when the output cannot be written. An
+ * {@link Error} thrown by the generation fails the future as well.
+ * </p>
+ */
+public class QrCodeAsyncGenerator {
+
+    private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
+    private final QrCodeTemplate template;
+    private final Queue<QueuedTask> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private Executor executor = DEFAULT_EXECUTOR;
+    private int maxConcurrency = Runtime.getRuntime().availableProcessors() * 2;
+    private int maxPending = maxConcurrency * 16;
+
+    /**
+     * Constructs an asynchronous generator rendering with the given template.
+     *
+     * @param template The template of the QR codes.
+     */
+    public QrCodeAsyncGenerator(QrCodeTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Sets the executor running the generation tasks. Defaults to virtual threads where available, to a shared pool
+     * of twice as many platform threads as processors otherwise. The tasks the executor rejects fail their future.
+     *
+     * @param executor The executor.
+     * @return The current {@link QrCodeAsyncGenerator} instance for method chaining.
+     */
+    public QrCodeAsyncGenerator withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of QR codes generated at the same time. Defaults to twice the number of processors.
+     *
+     * @param maxConcurrency The maximum number of running generations.
+     * @return The current {@link QrCodeAsyncGenerator} instance for method chaining.
+     */
+    public QrCodeAsyncGenerator withMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of QR codes accepted, running or waiting for a slot. Further requests are rejected.
+     * Defaults to 16 times the default concurrency.
+     *
+     * @param maxPending The maximum number of accepted generations.
+     * @return The current {@link QrCodeAsyncGenerator} instance for method chaining.
+     */
+    public QrCodeAsyncGenerator withMaxPending(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Returns the number of QR codes accepted and not completed yet.
+     *
+     * @return The number of pending generations.
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Renders a QR code in the output format of the template.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return A future completed with the serialized QR code.
+     */
+    public CompletableFuture<byte[]> render(String message, Map<String, String> parameters) {
+        return submit(() -> template.render(message, parameters));
+    }
+
+    /**
+     * Renders a QR code in the output format of the template to a stream, e.g. the output of an asynchronous
+     * servlet response. The stream is written from a worker thread; it is neither flushed nor closed.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @param out The stream the QR code is written to.
+     * @return A future completed once the QR code is written.
+     */
+    public CompletableFuture<Void> render(String message, Map<String, String> parameters, OutputStream out) {
+        return submit(() -> {
+            template.render(message, parameters, out);
+            return null;
+        });
+    }
+
+    /**
+     * Renders a QR code as an image.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, or {@code null} for none.
+     * @return A future completed with the image of the QR code.
+     */
+    public CompletableFuture<BufferedImage> toImage(String message, Map<String, String> parameters) {
+        return submit(() -> template.toImage(message, parameters));
+    }
+
+    /**
+     * Accepts a generation task, or rejects it when too many are pending.
+     *
+     * @param task The generation task.
+     * @return The future of the task.
+     */
+    private <T> CompletableFuture<T> submit(GenerationTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Too many pending QR codes: " + maxPending));
+            return future;
+        }
+        queue.add(new QueuedTask() {
+
+            @Override
+            public void run() {
+                T result = null;
+                Throwable failure = null;
+                try {
+                    if (!future.isDone()) {
+                        result = task.call();
+                    }
+                } catch (Throwable e) {
+                    // Errors too, e.g. an OutOfMemoryError on a large image: the caller must not wait forever
+                    failure = e;
+                } finally {
+                    // Release the slot before completing, so that dependent stages may submit again
+                    running.decrementAndGet();
+                    pending.decrementAndGet();
+                }
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            }
+
+            @Override
+            public void reject(RejectedExecutionException e) {
+                running.decrementAndGet();
+                pending.decrementAndGet();
+                future.completeExceptionally(e);
+            }
+        });
+        drain();
+        return future;
+    }
+
+    /**
+     * Starts queued tasks while fewer than {@code maxConcurrency} are running. Each task releases its slot when
+     * it completes.
+     */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = running.get();
+            if (current >= maxConcurrency) {
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            QueuedTask task = queue.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    task.run();
+                    drain();
+                });
+            } catch (RejectedExecutionException e) {
+                // The executor is saturated or shut down: shed the task like the ones beyond maxPending, never run
+                // it on the calling thread
+                task.reject(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the executor shared by the generators without an executor of their own: a virtual thread per task when
+     * the runtime supports it, a fixed pool of daemon threads, as many as the default concurrency, otherwise.
+     *
+     * @return The default executor.
+     */
+    private static Executor defaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "qrcode-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A task waiting for a running slot.
+     */
+    private interface QueuedTask extends Runnable {
+
+        /**
+         * Fails the task without running it, releasing its slots.
+         *
+         * @param e The rejection of the executor.
+         */
+        void reject(RejectedExecutionException e);
+    }
+
+    /**
+     * A generation task, throwing the typed exceptions of the generation.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface GenerationTask<T> {
+
+        /**
+         * Runs the generation.
+         *
+         * @return The result of the generation.
+         * @throws IOException If the output cannot be written.
+         * @throws QrCodeGeneratorException If the QR code cannot be generated.
+         */
+        T call() throws IOException, QrCodeGeneratorException;
+    }
+}
@@ -0,0 +1,116 @@
+package fr.paris.lutece.plugins.qrcode.service.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+
+/**
+ * Batch sink writing each generated QR code to its own file, in a directory tree sharded by the hash of the file
+ * names so that no directory holds too many files.
+ * <p>
+ * With two shard levels, the code named {@code 42} is written to {@code root/xx/yy/42.png}, where {@code xx} and
+ * {@code yy} are two bytes of the hash of the name in hexadecimal: a batch of ten million codes then puts about 150
+ * files in each of the 65536 leaf directories. Existing files are replaced, so a batch can be run again over the
+ * same tree. Failed results are ignored: the caller handles them. Like every batch sink, this class is not
+ * thread-safe.
+ * </p>
+ */
+public class DirectoryBatchSink implements IQrCodeBatchSink {
+
+    /**
+     * The largest number of shard levels.
+     */
+    public static final int MAX_SHARD_LEVELS = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    private final OutputFormat format;
+    private final int shardLevels;
+    private final Function<QrCodeBatchResult, String> naming;
+
+    /**
+     * The shard directories already created, so that each one is only checked once.
+     */
+    private final Set<String> shards = new HashSet<>();
+    private long fileCount;
+
+    /**
+     * Constructs a sink writing under a directory, which is created if needed.
+     *
+     * @param root The root of the directory tree.
+     * @param format The output format of the batch, giving the extension of the files.
+     * @param shardLevels The number of shard directories between the root and the files, from 0 to
+     *        {@link #MAX_SHARD_LEVELS}.
+     * @param naming The name of the file of each result, without the extension. Names must not contain path
+     *        separators.
+     * @throws IOException If the root directory cannot be created.
+     */
+    public DirectoryBatchSink(Path root, OutputFormat format, int shardLevels,
+            Function<QrCodeBatchResult, String> naming) throws IOException {
+        if (shardLevels < 0 || shardLevels > MAX_SHARD_LEVELS) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.root = Files.createDirectories(root).toAbsolutePath().normalize();
+        this.format = format;
+        this.shardLevels = shardLevels;
+        this.naming = naming;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException If the file cannot be written, or if its name is not a plain file name.
+     */
+    @Override
+    public void accept(QrCodeBatchResult result) throws IOException {
+        if (!result.isSuccess()) {
+            return;
+        }
+        String name = naming.apply(result);
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.startsWith("..")) {
+            throw new IOException("Invalid file name: " + name);
+        }
+        Path directory = root;
+        if (shardLevels > 0) {
+            String shard = shard(name);
+            directory = root.resolve(shard);
+            if (shards.add(shard)) {
+                Files.createDirectories(directory);
+            }
+        }
+        Files.write(directory.resolve(name + '.' + format.getExtension()), result.getData());
+        fileCount++;
+    }
+
+    /**
+     * Returns the number of files written so far.
+     *
+     * @return The number of files.
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Returns the relative path of the shard directory of a name: one byte of its hash per level, in hexadecimal.
+     */
+    private String shard(String name) {
+        int hash = name.hashCode() * 0x9E3779B1;
+        char[] path = new char[shardLevels * 3 - 1];
+        for (int level = 0; level < shardLevels; level++) {
+            int value = (hash >>> (24 - level * 8)) & 0xFF;
+            path[level * 3] = HEX_DIGITS[value >> 4];
+            path[level * 3 + 1] = HEX_DIGITS[value & 0xF];
+            if (level + 1 < shardLevels) {
+                path[level * 3 + 2] = '/';
+            }
+        }
+        return new String(path);
+    }
+}
@@ -0,0 +1,22 @@
+package fr.paris.lutece.plugins.qrcode.service.batch;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a batch generation.
+ * <p>
+ * The sink is always called from the thread that runs the batch, one result at a time, so implementations do not
+ * need to be thread-safe.
+ * </p>
+ */
+@FunctionalInterface
+public interface IQrCodeBatchSink {
+
+    /**
+     * Receives one result of the batch.
+     * 
+     * @param result The generated QR code, or the error that prevented its generation.
+     * @throws IOException If the result cannot be stored; the batch is then stopped.
+     */
+    void accept(QrCodeBatchResult result) throws IOException;
+}
@@ -0,0 +1,369 @@
+package fr.paris.lutece.plugins.qrcode.service.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.SymbolType;
+import fr.paris.lutece.plugins.qrcode.service.cache.ISymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+
+/**
+ * Generates large batches of QR codes sharing the same configuration.
+ * <p>
+ * The payloads are encoded and rendered in parallel on an {@link Executor} (the common {@link ForkJoinPool} by
+ * default). The number of codes being generated or waiting to be delivered is bounded, so the memory used by a
+ * batch does not depend on its size. Results are delivered in input order or in completion order, always from the
+ * thread that runs the batch. The logo is shared by the whole batch and decoded only once, and the output buffers
+ * are reused by each worker thread.
+ * </p>
+ */
+public class QrCodeBatchGenerator {
+
+    /**
+     * The output buffers reused by each worker thread.
+     */
+    private static final ThreadLocal<ReusableOutputStream> BUFFERS = ThreadLocal.withInitial(ReusableOutputStream::new);
+
+    private CorrectionLevel correctionLevel = CorrectionLevel.MEDIUM;
+    private LogoQrCode logo;
+    private ISymbolCache symbolCache;
+    private int scale = RenderOptions.DEFAULT_SCALE;
+    private int border = RenderOptions.DEFAULT_BORDER;
+    private boolean borderSet;
+    private SymbolType symbolType = SymbolType.QR_CODE;
+    private OutputFormat format = OutputFormat.PNG;
+    private Executor executor = ForkJoinPool.commonPool();
+    private int maxInFlight = ForkJoinPool.getCommonPoolParallelism() * 4;
+    private boolean ordered = true;
+
+    /**
+     * Sets the error correction level of the generated QR codes. Defaults to {@link CorrectionLevel#MEDIUM}.
+     *
+     * @param correctionLevel The error correction level.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withCorrectionLevel(CorrectionLevel correctionLevel) {
+        this.correctionLevel = correctionLevel;
+        return this;
+    }
+
+    /**
+     * Sets the logo embedded in all the generated QR codes. It is decoded once for the whole batch.
+     *
+     * @param logo The logo, or {@code null} for none.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withLogo(LogoQrCode logo) {
+        this.logo = logo;
+        return this;
+    }
+
+    /**
+     * Sets a cache of encoded symbols, useful when the batch contains repeated payloads.
+     *
+     * @param symbolCache The symbol cache, or {@code null} for none.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withSymbolCache(ISymbolCache symbolCache) {
+        this.symbolCache = symbolCache;
+        return this;
+    }
+
+    /**
+     * Sets the scale of the generated QR codes, keeping the default quiet zone: 4 modules, or 2 around the Micro QR
+     * symbols. Defaults to a scale of 10.
+     *
+     * @param scale The size of one module, in pixels.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withScale(int scale) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.scale = scale;
+        return this;
+    }
+
+    /**
+     * Sets the scale and border of the generated QR codes. Defaults to a scale of 10 and a border of 4. The border
+     * is used around the Micro QR symbols as well.
+     *
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withSize(int scale, int border) {
+        if (scale <= 0 || border < 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.scale = scale;
+        this.border = border;
+        this.borderSet = true;
+        return this;
+    }
+
+    /**
+     * Sets the symbology of the generated QR codes. Defaults to {@link SymbolType#QR_CODE}.
+     *
+     * @param symbolType The symbol type.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withSymbolType(SymbolType symbolType) {
+        this.symbolType = symbolType;
+        return this;
+    }
+
+    /**
+     * Sets the output format of the generated QR codes. Defaults to {@link OutputFormat#PNG}.
+     *
+     * @param format The output format.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withFormat(OutputFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Sets the executor running the generation tasks. Defaults to the common {@link ForkJoinPool}.
+     *
+     * @param executor The executor.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of QR codes being generated or waiting to be delivered at any time.
+     * Defaults to four times the parallelism of the common {@link ForkJoinPool}.
+     *
+     * @param maxInFlight The maximum number of QR codes in flight.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets whether results are delivered in input order (the default) or as soon as they are generated.
+     *
+     * @param ordered {@code true} for input order, {@code false} for completion order.
+     * @return The current {@link QrCodeBatchGenerator} instance for method chaining.
+     */
+    public QrCodeBatchGenerator withOrderedResults(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Generates a QR code for each payload and delivers the results to the sink.
+     * A failed QR code is delivered as a result holding the error; it does not stop the batch. An {@link Error}
+     * thrown while generating a QR code, e.g. an {@link OutOfMemoryError}, stops it: it is rethrown by this method.
+     *
+     * @param payloads The payloads of the QR codes.
+     * @param sink The receiver of the results, called from the current thread.
+     * @throws IOException If the sink fails; the remaining payloads are not submitted.
+     */
+    public void generate(Iterable<QrCodePayload> payloads, IQrCodeBatchSink sink) throws IOException {
+        Iterator<QrCodeBatchResult> results = new BatchIterator(buildTemplate(), payloads.iterator());
+        while (results.hasNext()) {
+            sink.accept(results.next());
+        }
+    }
+
+    /**
+     * Generates a QR code for each payload, lazily: payloads are consumed as the returned stream is traversed. An
+     * {@link Error} thrown while generating a QR code is rethrown by the traversal of the stream.
+     *
+     * @param payloads The payloads of the QR codes.
+     * @return A sequential stream of the results.
+     */
+    public Stream<QrCodeBatchResult> generate(Stream<QrCodePayload> payloads) {
+        Iterator<QrCodeBatchResult> results = new BatchIterator(buildTemplate(), payloads.iterator());
+        int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, characteristics), false)
+                .onClose(payloads::close);
+    }
+
+    /**
+     * Builds the template shared by all the QR codes of a batch, from the current configuration.
+     *
+     * @return The template of the batch.
+     */
+    private QrCodeTemplate buildTemplate() {
+        QrCodeBuilder builder = new QrCodeBuilder()
+                .withCorrectionLevel(correctionLevel)
+                .withSymbolType(symbolType)
+                .addLogoHandler(logo)
+                .withSymbolCache(symbolCache)
+                .withScale(scale)
+                .withFormat(format);
+        if (borderSet) {
+            builder.withBorder(border);
+        }
+        return builder.buildTemplate();
+    }
+
+    /**
+     * Generates and serializes one QR code. Runs on a worker thread.
+     *
+     * @param template The template of the batch.
+     * @param index The position of the payload in the batch.
+     * @param payload The payload.
+     * @return The result of the generation.
+     */
+    private static QrCodeBatchResult render(QrCodeTemplate template, long index, QrCodePayload payload) {
+        try {
+            ReusableOutputStream buffer = BUFFERS.get();
+            buffer.reset();
+            switch (template.getFormat()) {
+                case SVG:
+                    StringBuilder svg = buffer.text();
+                    template.writeSvg(payload.getMessage(), payload.getParameters(), svg);
+                    return new QrCodeBatchResult(index, payload, svg.toString().getBytes(StandardCharsets.UTF_8), null);
+                case PNG:
+                    template.writePng(payload.getMessage(), payload.getParameters(), buffer);
+                    return new QrCodeBatchResult(index, payload, buffer.toByteArray(), null);
+                default:
+                    template.render(payload.getMessage(), payload.getParameters(), buffer);
+                    return new QrCodeBatchResult(index, payload, buffer.toByteArray(), null);
+            }
+        } catch (IOException | QrCodeGeneratorException | RuntimeException e) {
+            return new QrCodeBatchResult(index, payload, null, e);
+        }
+    }
+
+    /**
+     * Iterator over the results of a batch, submitting the payloads as the results are consumed.
+     */
+    private final class BatchIterator implements Iterator<QrCodeBatchResult> {
+
+        private final QrCodeTemplate template;
+        private final Iterator<QrCodePayload> source;
+        private final BlockingQueue<QrCodeBatchResult> completed = new LinkedBlockingQueue<>();
+
+        /**
+         * The first throwable that escaped a generation task, rethrown by the consuming thread.
+         */
+        private final AtomicReference<Throwable> fatal = new AtomicReference<>();
+        private final Map<Long, QrCodeBatchResult> pending = new HashMap<>();
+        private long submitted;
+        private long delivered;
+
+        BatchIterator(QrCodeTemplate template, Iterator<QrCodePayload> source) {
+            this.template = template;
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delivered < submitted || source.hasNext();
+        }
+
+        @Override
+        public QrCodeBatchResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            while (true) {
+                if (ordered) {
+                    QrCodeBatchResult next = pending.remove(delivered);
+                    if (next != null) {
+                        delivered++;
+                        return next;
+                    }
+                }
+                while (submitted - delivered < maxInFlight && source.hasNext()) {
+                    long index = submitted++;
+                    QrCodePayload payload = source.next();
+                    try {
+                        executor.execute(() -> complete(index, payload));
+                    } catch (RejectedExecutionException e) {
+                        completed.add(render(template, index, payload));
+                    }
+                }
+                QrCodeBatchResult result;
+                try {
+                    result = completed.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    CancellationException cancellation = new CancellationException("QR code batch interrupted");
+                    cancellation.initCause(e);
+                    throw cancellation;
+                }
+                Throwable error = fatal.get();
+                if (error instanceof Error) {
+                    throw (Error) error;
+                } else if (error != null) {
+                    throw new IllegalStateException("QR code generation failed", error);
+                }
+                if (!ordered) {
+                    delivered++;
+                    return result;
+                }
+                pending.put(result.getIndex(), result);
+            }
+        }
+
+        /**
+         * Generates one QR code and queues its result. Runs on a worker thread. A throwable escaping the generation
+         * is kept for the consuming thread, which is woken up by a placeholder result.
+         */
+        private void complete(long index, QrCodePayload payload) {
+            QrCodeBatchResult result;
+            try {
+                result = render(template, index, payload);
+            } catch (Throwable e) {
+                fatal.compareAndSet(null, e);
+                result = new QrCodeBatchResult(index, payload, null, null);
+            }
+            completed.add(result);
+        }
+    }
+
+    /**
+     * Output buffer whose storage is kept between QR codes.
+     */
+    private static final class ReusableOutputStream extends ByteArrayOutputStream {
+
+        private final StringBuilder text = new StringBuilder();
+
+        ReusableOutputStream() {
+            super(8192);
+        }
+
+        StringBuilder text() {
+            text.setLength(0);
+            return text;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package fr.paris.lutece.plugins.qrcode.service.batch;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+
+/**
+ * The outcome of the generation of one QR code of a batch: either the serialized code, or the error that prevented
+ * its generation.
+ */
+public final class QrCodeBatchResult {
+
+    /**
+     * The position of the payload in the batch input, starting at 0.
+     */
+    private final long index;
+
+    /**
+     * The payload of the QR code.
+     */
+    private final QrCodePayload payload;
+
+    /**
+     * The serialized QR code, or {@code null} if the generation failed.
+     */
+    private final byte[] data;
+
+    /**
+     * The error that prevented the generation, or {@code null} if it succeeded.
+     */
+    private final Exception error;
+
+    /**
+     * Constructs a batch result.
+     * 
+     * @param index The position of the payload in the batch input.
+     * @param payload The payload of the QR code.
+     * @param data The serialized QR code, or {@code null} on failure.
+     * @param error The error of the generation, or {@code null} on success.
+     */
+    QrCodeBatchResult(long index, QrCodePayload payload, byte[] data, Exception error) {
+        this.index = index;
+        this.payload = payload;
+        this.data = data;
+        this.error = error;
+    }
+
+    /**
+     * Returns the position of the payload in the batch input.
+     * 
+     * @return The index of the payload, starting at 0.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the payload of the QR code.
+     * 
+     * @return The payload.
+     */
+    public QrCodePayload getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the serialized QR code, in the output format of the batch.
+     * 
+     * @return The bytes of the QR code, or {@code null} if the generation failed.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the error that prevented the generation of the QR code.
+     * 
+     * @return The error, or {@code null} if the generation succeeded.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Indicates whether the QR code was generated.
+     * 
+     * @return {@code true} if the generation succeeded.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
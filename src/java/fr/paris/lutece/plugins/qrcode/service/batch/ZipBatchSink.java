@@ -0,0 +1,89 @@
+package fr.paris.lutece.plugins.qrcode.service.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+
+/**
+ * Batch sink streaming the generated QR codes into a ZIP archive, one entry per code.
+ * <p>
+ * Each code is written as soon as it is received, so the memory used does not depend on the size of the batch.
+ * The PNG and GIF images, already compressed, are stored as they are; the other formats are deflated. Failed
+ * results are ignored: the caller handles them. Like every batch sink, this class is not thread-safe.
+ * </p>
+ */
+public class ZipBatchSink implements IQrCodeBatchSink, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ZipOutputStream zip;
+    private final OutputFormat format;
+    private final Function<QrCodeBatchResult, String> naming;
+    private final CRC32 crc = new CRC32();
+    private long entryCount;
+
+    /**
+     * Constructs a sink writing an archive to a stream.
+     *
+     * @param out The stream the archive is written to. It is closed with the sink.
+     * @param format The output format of the batch, giving the extension of the entries.
+     * @param naming The name of the entry of each result, without the extension. The names must be unique.
+     */
+    public ZipBatchSink(OutputStream out, OutputFormat format, Function<QrCodeBatchResult, String> naming) {
+        this.zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.format = format;
+        this.naming = naming;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws java.util.zip.ZipException If an entry of the same name was already written.
+     */
+    @Override
+    public void accept(QrCodeBatchResult result) throws IOException {
+        if (!result.isSuccess()) {
+            return;
+        }
+        byte[] data = result.getData();
+        ZipEntry entry = new ZipEntry(naming.apply(result) + '.' + format.getExtension());
+        if (format == OutputFormat.PNG || format == OutputFormat.GIF) {
+            crc.reset();
+            crc.update(data, 0, data.length);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+        entryCount++;
+    }
+
+    /**
+     * Returns the number of entries written so far.
+     *
+     * @return The number of entries.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Writes the central directory of the archive and closes the stream.
+     *
+     * @throws IOException If writing to the stream fails.
+     */
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
@@ -0,0 +1,382 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link IRenderCache} storing each serialized QR code in its own file of a local directory, bounded by a total
+ * size.
+ * <p>
+ * Files are named after their key and spread over 256 subdirectories. They are written to a temporary file first
+ * and then atomically renamed, so a reader never sees a partial file. The index of the cached files is rebuilt
+ * from the directory when the cache is created, in modification order, so a restarted node serves its previous
+ * renders right away. Once the total size exceeds the limit, the least recently used files are deleted.
+ * </p>
+ * <p>
+ * Hits are served with {@link FileChannel#transferTo}, which lets the operating system copy the file to the
+ * target channel (e.g. a socket) without going through the Java heap; {@link #map(String)} gives a read-only
+ * memory mapping of a cached file.
+ * </p>
+ */
+public class DiskRenderCache implements IRenderCache {
+
+    /**
+     * Default maximum total size of the cached files: 256 MB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The root directory of the cache.
+     */
+    private final Path directory;
+
+    /**
+     * The maximum total size of the cached files, in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * The size of each cached file, by key, in access order (least recently used first).
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the cached files, in bytes. Guarded by {@link #index}.
+     */
+    private long sizeInBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens a cache in the given directory, bounded to {@link #DEFAULT_MAX_BYTES}.
+     *
+     * @param directory The root directory of the cache. It is created if needed.
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public DiskRenderCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens a cache in the given directory, indexing the files left by a previous instance.
+     *
+     * @param directory The root directory of the cache. It is created if needed.
+     * @param maxBytes The maximum total size of the cached files, in bytes.
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public DiskRenderCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid render cache size: " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Returns the root directory of the cache.
+     *
+     * @return The directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the maximum total size of the cached files.
+     *
+     * @return The size limit, in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return The size, in bytes.
+     */
+    public long getSizeInBytes() {
+        synchronized (index) {
+            return sizeInBytes;
+        }
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return The number of cached QR codes.
+     */
+    public int size() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        if (!lookup(key)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return -1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] get(String key) throws IOException {
+        if (!lookup(key)) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(path(key));
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        }
+    }
+
+    /**
+     * Maps a cached QR code in memory, read-only. The mapping stays valid after the file is evicted.
+     *
+     * @param key The key of the QR code.
+     * @return The mapped content, or {@code null} if the QR code is not cached.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public MappedByteBuffer map(String key) throws IOException {
+        if (!lookup(key)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        Path path = path(key);
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), key, TEMP_SUFFIX);
+        try {
+            Files.write(temp, content);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        List<String> evicted;
+        synchronized (index) {
+            Long previous = index.put(key, (long) content.length);
+            sizeInBytes += content.length - (previous == null ? 0 : previous);
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() throws IOException {
+        List<String> keys;
+        synchronized (index) {
+            keys = new ArrayList<>(index.keySet());
+            index.clear();
+            sizeInBytes = 0;
+        }
+        delete(keys);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Looks a key up in the index, counting the hit or the miss.
+     *
+     * @param key The key of the QR code.
+     * @return {@code true} if the QR code is cached.
+     */
+    private boolean lookup(String key) {
+        boolean found;
+        synchronized (index) {
+            found = index.get(key) != null;
+        }
+        if (found) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return found;
+    }
+
+    /**
+     * Removes from the index a file deleted behind the back of the cache.
+     *
+     * @param key The key of the QR code.
+     */
+    private void forget(String key) {
+        synchronized (index) {
+            Long size = index.remove(key);
+            if (size != null) {
+                sizeInBytes -= size;
+            }
+        }
+        hits.decrementAndGet();
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Removes the least recently used entries from the index until the total size fits. Guarded by {@link #index}.
+     *
+     * @return The keys of the files to delete.
+     */
+    private List<String> evict() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (sizeInBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            sizeInBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    /**
+     * Deletes the files of the given keys, ignoring the files that are already gone or still in use.
+     *
+     * @param keys The keys of the files to delete.
+     */
+    private void delete(List<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(path(key));
+            } catch (IOException e) {
+                // Still open elsewhere (e.g. on Windows): the orphan is indexed again on the next restart
+            }
+        }
+    }
+
+    /**
+     * Indexes the files of the cache directory, oldest first, and removes the temporary files left by an
+     * interrupted write.
+     *
+     * @throws IOException If the directory cannot be read.
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> subdirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path subdirectory : subdirectories) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(subdirectory)) {
+                    for (Path entry : entries) {
+                        if (entry.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                            Files.deleteIfExists(entry);
+                        } else if (isValidKey(entry.getFileName().toString()) && Files.isRegularFile(entry)) {
+                            files.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+        List<BasicFileAttributes> attributes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            attributes.add(Files.readAttributes(file, BasicFileAttributes.class));
+        }
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> attributes.get(a).lastModifiedTime()
+                .compareTo(attributes.get(b).lastModifiedTime()));
+        List<String> evicted;
+        synchronized (index) {
+            for (int i : order) {
+                long size = attributes.get(i).size();
+                index.put(files.get(i).getFileName().toString(), size);
+                sizeInBytes += size;
+            }
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Returns the file of a key.
+     *
+     * @param key The key of the QR code: a hexadecimal digest.
+     * @return The path of the file.
+     */
+    private Path path(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid render cache key: " + key);
+        }
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Indicates whether a key is a lower case hexadecimal digest, which is also a safe file name.
+     *
+     * @param key The key to check.
+     * @return {@code true} if the key is valid.
+     */
+    private static boolean isValidKey(String key) {
+        boolean valid = key.length() > 2;
+        for (int i = 0; i < key.length() && valid; i++) {
+            char c = key.charAt(i);
+            valid = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,64 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Cache of serialized QR codes (finished PNG or SVG documents), keyed by a digest of everything that determines
+ * their content: payload, correction level, scale, border, colors, logo and format.
+ * <p>
+ * Unlike the {@link ISymbolCache}, a hit skips the whole pipeline, rendering and serialization included.
+ * Implementations must be thread-safe.
+ * </p>
+ */
+public interface IRenderCache {
+
+    /**
+     * Writes a cached QR code to a channel.
+     *
+     * @param key The key of the QR code.
+     * @param target The channel the QR code is written to. It is not closed.
+     * @return The number of bytes written, or {@code -1} if the QR code is not cached.
+     * @throws IOException If reading the cache or writing to the channel fails.
+     */
+    long transferTo(String key, WritableByteChannel target) throws IOException;
+
+    /**
+     * Returns a cached QR code.
+     *
+     * @param key The key of the QR code.
+     * @return The serialized QR code, or {@code null} if it is not cached.
+     * @throws IOException If reading the cache fails.
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Stores a serialized QR code.
+     *
+     * @param key The key of the QR code.
+     * @param content The serialized QR code.
+     * @throws IOException If writing to the cache fails.
+     */
+    void put(String key, byte[] content) throws IOException;
+
+    /**
+     * Removes all the cached QR codes.
+     *
+     * @throws IOException If the cache cannot be emptied.
+     */
+    void clear() throws IOException;
+
+    /**
+     * Returns the number of lookups that found a QR code.
+     *
+     * @return The number of cache hits.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups that did not find a QR code.
+     *
+     * @return The number of cache misses.
+     */
+    long getMissCount();
+}
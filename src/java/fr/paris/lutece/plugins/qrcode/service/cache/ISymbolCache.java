@@ -0,0 +1,48 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Cache of encoded QR code symbols, plugged between the payload builder and the renderer.
+ * <p>
+ * Implementations store the compact {@link QrCodeMatrix} of a symbol rather than a rendered image, so one encode
+ * serves every render size. Implementations must be thread-safe.
+ * </p>
+ */
+public interface ISymbolCache {
+
+    /**
+     * Returns the cached symbol for the given key.
+     *
+     * @param key The key of the symbol.
+     * @return The cached symbol, or {@code null} if it is not cached or has expired.
+     */
+    QrCodeMatrix get(SymbolKey key);
+
+    /**
+     * Stores an encoded symbol.
+     *
+     * @param key The key of the symbol.
+     * @param matrix The encoded symbol.
+     */
+    void put(SymbolKey key, QrCodeMatrix matrix);
+
+    /**
+     * Removes all the cached symbols.
+     */
+    void clear();
+
+    /**
+     * Returns the number of lookups that found a symbol.
+     *
+     * @return The number of cache hits.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups that did not find a symbol.
+     *
+     * @return The number of cache misses.
+     */
+    long getMissCount();
+}
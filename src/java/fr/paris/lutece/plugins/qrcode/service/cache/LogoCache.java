@@ -0,0 +1,200 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of scaled logo images shared by all QR code generators.
+ * <p>
+ * Entries are keyed by the identity of the logo (its content digest) and the target width and height, so the
+ * same logo stamped onto many QR codes of the same size is only rescaled once. The cache is bounded by the
+ * estimated size in bytes of the cached rasters and evicts the least recently used entries first.
+ * </p>
+ */
+public final class LogoCache {
+
+    /**
+     * Default upper bound for the cached rasters, in bytes (16 MB).
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Number of bytes used by one pixel of a cached {@link BufferedImage#TYPE_INT_ARGB} raster.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * The shared instance used by {@link fr.paris.lutece.plugins.qrcode.service.LogoQrCode}.
+     */
+    private static final LogoCache INSTANCE = new LogoCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * The cached scaled logos, in access order (least recently used first).
+     */
+    private final Map<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The maximum estimated size of the cached rasters, in bytes.
+     */
+    private long maxBytes;
+
+    /**
+     * The current estimated size of the cached rasters, in bytes.
+     */
+    private long currentBytes;
+
+    /**
+     * Constructs a new {@link LogoCache} bounded to the given size.
+     *
+     * @param maxBytes The maximum estimated size of the cached rasters, in bytes.
+     */
+    public LogoCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the shared instance of the logo cache.
+     *
+     * @return The shared {@link LogoCache}.
+     */
+    public static LogoCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the scaled logo for the given logo identity and size, computing it with the given loader when it is
+     * not cached yet.
+     * <p>
+     * The loader is called outside of the cache lock, so a slow rescale never blocks other renders. Two threads
+     * missing on the same key at the same time may both compute the image; only one of them is kept.
+     * </p>
+     *
+     * @param logoId The identity of the logo (e.g. its content digest).
+     * @param width The width of the scaled logo.
+     * @param height The height of the scaled logo.
+     * @param loader The function computing the scaled logo on a cache miss.
+     * @return The scaled logo image. The returned image is shared and must not be modified.
+     */
+    public BufferedImage get(String logoId, int width, int height, Supplier<BufferedImage> loader) {
+        Key key = new Key(logoId, width, height);
+        synchronized (this) {
+            BufferedImage image = entries.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+        BufferedImage image = loader.get();
+        synchronized (this) {
+            BufferedImage previous = entries.put(key, image);
+            if (previous != null) {
+                currentBytes -= sizeOf(previous);
+            }
+            currentBytes += sizeOf(image);
+            evict();
+        }
+        return image;
+    }
+
+    /**
+     * Sets the maximum estimated size of the cached rasters, evicting entries if needed.
+     *
+     * @param maxBytes The maximum size, in bytes.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Returns the maximum estimated size of the cached rasters.
+     *
+     * @return The maximum size, in bytes.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the current estimated size of the cached rasters.
+     *
+     * @return The current size, in bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the number of scaled logos currently cached.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all the cached scaled logos.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits its size limit.
+     */
+    private void evict() {
+        Iterator<BufferedImage> it = entries.values().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * Estimates the memory used by a cached raster.
+     *
+     * @param image The cached image.
+     * @return The estimated size, in bytes.
+     */
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Cache key made of the logo identity and the target size.
+     */
+    private static final class Key {
+
+        private final String logoId;
+        private final int width;
+        private final int height;
+
+        Key(String logoId, int width, int height) {
+            this.logoId = logoId;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && logoId.equals(other.logoId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(logoId, width, height);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Default in-memory {@link ISymbolCache}, bounded by a number of entries and an optional time to live.
+ * <p>
+ * The least recently used symbols are evicted first once the maximum number of entries is reached. Expired
+ * symbols are dropped when they are looked up.
+ * </p>
+ */
+public class SymbolCache implements ISymbolCache {
+
+    /**
+     * Default maximum number of cached symbols.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The maximum number of cached symbols.
+     */
+    private final int maxEntries;
+
+    /**
+     * The time to live of a cached symbol, in nanoseconds, or {@code 0} for no expiry.
+     */
+    private final long ttlNanos;
+
+    /**
+     * The cached symbols, in access order (least recently used first).
+     */
+    private final Map<SymbolKey, CachedSymbol> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache holding at most {@link #DEFAULT_MAX_ENTRIES} symbols, without expiry.
+     */
+    public SymbolCache() {
+        this(DEFAULT_MAX_ENTRIES, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a cache holding at most the given number of symbols, each for the given time to live.
+     *
+     * @param maxEntries The maximum number of cached symbols.
+     * @param ttl The time to live of a cached symbol, or {@code 0} for no expiry.
+     * @param unit The unit of the time to live.
+     */
+    public SymbolCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("Invalid symbol cache configuration");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<SymbolKey, CachedSymbol>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SymbolKey, CachedSymbol> eldest) {
+                return size() > SymbolCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public QrCodeMatrix get(SymbolKey key) {
+        CachedSymbol entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.matrix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(SymbolKey key, QrCodeMatrix matrix) {
+        CachedSymbol entry = new CachedSymbol(matrix, System.nanoTime());
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of symbols currently cached, including expired ones not yet looked up.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached symbols.
+     *
+     * @return The maximum number of entries.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * A cached symbol and its creation time.
+     */
+    private static final class CachedSymbol {
+
+        private final QrCodeMatrix matrix;
+        private final long created;
+
+        CachedSymbol(QrCodeMatrix matrix, long created) {
+            this.matrix = matrix;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package fr.paris.lutece.plugins.qrcode.service.cache;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+
+/**
+ * Key of an encoded QR code symbol in an {@link ISymbolCache}.
+ * <p>
+ * A symbol is fully determined by the final bytes handed to the encoder and the error correction level, so two
+ * generators producing the same payload share the same cached symbol whatever scale or logo they render with.
+ * </p>
+ */
+public final class SymbolKey {
+
+    /**
+     * The final bytes encoded in the symbol.
+     */
+    private final byte[] payload;
+
+    /**
+     * The error correction level of the symbol.
+     */
+    private final CorrectionLevel correctionLevel;
+
+    /**
+     * The encoding options that change the symbol of a given payload (e.g. the kanji mode).
+     */
+    private final long options;
+
+    /**
+     * The hash code of the key, computed once.
+     */
+    private final int hash;
+
+    /**
+     * Constructs a new {@link SymbolKey}.
+     *
+     * @param payload The final bytes encoded in the symbol. The array is kept as is and must not be modified.
+     * @param correctionLevel The error correction level of the symbol.
+     */
+    public SymbolKey(byte[] payload, CorrectionLevel correctionLevel) {
+        this(payload, correctionLevel, 0);
+    }
+
+    /**
+     * Constructs a new {@link SymbolKey} for a payload encoded with specific options.
+     *
+     * @param payload The final bytes encoded in the symbol. The array is kept as is and must not be modified.
+     * @param correctionLevel The error correction level of the symbol.
+     * @param options The encoding options, as flags defined by the encoder.
+     */
+    public SymbolKey(byte[] payload, CorrectionLevel correctionLevel, long options) {
+        this.payload = Objects.requireNonNull(payload);
+        this.correctionLevel = Objects.requireNonNull(correctionLevel);
+        this.options = options;
+        this.hash = (31 * Arrays.hashCode(payload) + correctionLevel.hashCode()) * 31 + Long.hashCode(options);
+    }
+
+    /**
+     * Returns the final bytes encoded in the symbol.
+     *
+     * @return The payload. The returned array must not be modified.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the error correction level of the symbol.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the encoding options of the symbol.
+     *
+     * @return The encoding options, as flags defined by the encoder.
+     */
+    public long getOptions() {
+        return options;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SymbolKey)) {
+            return false;
+        }
+        SymbolKey other = (SymbolKey) o;
+        return hash == other.hash && options == other.options && correctionLevel == other.correctionLevel
+                && Arrays.equals(payload, other.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
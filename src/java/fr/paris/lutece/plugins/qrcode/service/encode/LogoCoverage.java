@@ -0,0 +1,291 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.Arrays;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+
+/**
+ * The damage done to a QR code symbol by a logo drawn at its center, and whether the symbol stays decodable.
+ * <p>
+ * The logo is a square of {@code logoScale} times the side of the whole image, quiet zone included, centered on
+ * the image, as drawn by the renderers. Every module it touches, even partially, is considered lost. The data and
+ * error correction codewords are laid out in the symbol exactly as the encoder does, so the lost modules are
+ * mapped to the codewords and to the error correction blocks they belong to. The symbol is decodable when:
+ * </p>
+ * <ul>
+ * <li>the finder patterns, their separators, the timing patterns, the format information and the version
+ * information are all clear of the logo (the alignment patterns may be covered);</li>
+ * <li>no block has more damaged codewords than it can correct
+ * ({@link QrCodeSpec#getCorrectableCodewordsPerBlock(int, CorrectionLevel)}).</li>
+ * </ul>
+ */
+public final class LogoCoverage {
+
+    /**
+     * Module that holds no codeword and may be covered: alignment pattern or remainder bit.
+     */
+    private static final int FREE = -1;
+
+    /**
+     * Module of a pattern or information area the decoder needs to locate and read the symbol.
+     */
+    private static final int RESERVED = -2;
+
+    /**
+     * Module not placed yet, while building a codeword map.
+     */
+    private static final int UNASSIGNED = -3;
+
+    private final int version;
+    private final CorrectionLevel correctionLevel;
+    private final int coveredModules;
+    private final int damagedCodewords;
+    private final int maxDamagedCodewordsPerBlock;
+    private final boolean patternsClear;
+
+    /**
+     * Constructs a coverage.
+     */
+    private LogoCoverage(int version, CorrectionLevel correctionLevel, int coveredModules, int damagedCodewords,
+            int maxDamagedCodewordsPerBlock, boolean patternsClear) {
+        this.version = version;
+        this.correctionLevel = correctionLevel;
+        this.coveredModules = coveredModules;
+        this.damagedCodewords = damagedCodewords;
+        this.maxDamagedCodewordsPerBlock = maxDamagedCodewordsPerBlock;
+        this.patternsClear = patternsClear;
+    }
+
+    /**
+     * Computes the damage done by a logo to a symbol.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol.
+     * @param border The width of the quiet zone around the symbol, in modules.
+     * @param logoScale The side of the logo relative to the side of the whole image (e.g. 0.2 for 20%).
+     * @return The coverage of the symbol by the logo.
+     */
+    public static LogoCoverage compute(int version, CorrectionLevel level, int border, double logoScale) {
+        return compute(codewordMap(version), version, level, border, logoScale);
+    }
+
+    /**
+     * Computes the damage done by a logo to a symbol, with the codeword map of its version.
+     *
+     * @param map The codeword map of the version, from {@link #codewordMap(int)}.
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol.
+     * @param border The width of the quiet zone around the symbol, in modules.
+     * @param logoScale The side of the logo relative to the side of the whole image.
+     * @return The coverage of the symbol by the logo.
+     */
+    static LogoCoverage compute(int[] map, int version, CorrectionLevel level, int border, double logoScale) {
+        int size = QrCodeSpec.getSize(version);
+        int side = size + 2 * border;
+        double length = side * Math.max(logoScale, 0);
+        double offset = (side - length) / 2 - border;
+        int from = Math.max(0, (int) Math.floor(offset));
+        int to = Math.min(size - 1, (int) Math.ceil(offset + length) - 1);
+        if (length <= 0 || from > to) {
+            return new LogoCoverage(version, level, 0, 0, 0, true);
+        }
+
+        int numBlocks = QrCodeSpec.getNumBlocks(version, level);
+        boolean[] damaged = new boolean[QrCodeSpec.getNumCodewords(version)];
+        int[] damagedPerBlock = new int[numBlocks];
+        int covered = 0;
+        int damagedCount = 0;
+        int maxPerBlock = 0;
+        boolean patternsClear = true;
+        for (int y = from; y <= to; y++) {
+            for (int x = from; x <= to; x++) {
+                covered++;
+                int codeword = map[y * size + x];
+                if (codeword == RESERVED) {
+                    patternsClear = false;
+                } else if (codeword >= 0 && !damaged[codeword]) {
+                    damaged[codeword] = true;
+                    damagedCount++;
+                    int block = blockOf(codeword, version, level);
+                    maxPerBlock = Math.max(maxPerBlock, ++damagedPerBlock[block]);
+                }
+            }
+        }
+        return new LogoCoverage(version, level, covered, damagedCount, maxPerBlock, patternsClear);
+    }
+
+    /**
+     * Returns the version of the symbol.
+     *
+     * @return The version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the error correction level of the symbol.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the number of modules touched by the logo.
+     *
+     * @return The number of covered modules.
+     */
+    public int getCoveredModules() {
+        return coveredModules;
+    }
+
+    /**
+     * Returns the number of codewords having at least one module covered by the logo.
+     *
+     * @return The number of damaged codewords.
+     */
+    public int getDamagedCodewords() {
+        return damagedCodewords;
+    }
+
+    /**
+     * Returns the largest number of damaged codewords in a single error correction block.
+     *
+     * @return The number of damaged codewords of the most damaged block.
+     */
+    public int getMaxDamagedCodewordsPerBlock() {
+        return maxDamagedCodewordsPerBlock;
+    }
+
+    /**
+     * Returns the number of damaged codewords each block can correct.
+     *
+     * @return The number of correctable codewords per block.
+     */
+    public int getCorrectableCodewordsPerBlock() {
+        return QrCodeSpec.getCorrectableCodewordsPerBlock(version, correctionLevel);
+    }
+
+    /**
+     * Indicates whether the finder, timing, format and version areas are clear of the logo.
+     *
+     * @return {@code true} if the logo only covers data, error correction and alignment modules.
+     */
+    public boolean isPatternsClear() {
+        return patternsClear;
+    }
+
+    /**
+     * Indicates whether the symbol can still be decoded with the logo drawn over it.
+     *
+     * @return {@code true} if the damage is within the error correction capacity of every block.
+     */
+    public boolean isDecodable() {
+        return patternsClear && maxDamagedCodewordsPerBlock <= getCorrectableCodewordsPerBlock();
+    }
+
+    /**
+     * Returns the error correction block of a codeword, in the interleaved order of the symbol: the data codewords
+     * of all blocks, the short blocks having one data codeword less, then the error correction codewords.
+     *
+     * @param codeword The index of the codeword in the symbol.
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol.
+     * @return The index of the block.
+     */
+    static int blockOf(int codeword, int version, CorrectionLevel level) {
+        int numBlocks = QrCodeSpec.getNumBlocks(version, level);
+        int numCodewords = QrCodeSpec.getNumCodewords(version);
+        int numDataCodewords = QrCodeSpec.getNumDataCodewords(version, level);
+        int numShortBlocks = numBlocks - numCodewords % numBlocks;
+        int shortBlockData = numCodewords / numBlocks - QrCodeSpec.getEccCodewordsPerBlock(version, level);
+        if (codeword >= numDataCodewords) {
+            return (codeword - numDataCodewords) % numBlocks;
+        }
+        if (codeword < shortBlockData * numBlocks) {
+            return codeword % numBlocks;
+        }
+        return numShortBlocks + codeword - shortBlockData * numBlocks;
+    }
+
+    /**
+     * Maps each module of a symbol to the index of the codeword it holds, following the placement of the encoder
+     * (two-module wide columns, zigzagging upwards then downwards from the bottom right corner).
+     *
+     * @param version The version of the symbol.
+     * @return The codeword of each module, row by row; {@code -1} for the free modules and {@code -2} for the
+     *         reserved ones.
+     */
+    static int[] codewordMap(int version) {
+        int size = QrCodeSpec.getSize(version);
+        int[] map = new int[size * size];
+        Arrays.fill(map, UNASSIGNED);
+        markFunctionPatterns(map, version, size);
+
+        int dataBits = QrCodeSpec.getNumCodewords(version) * 8;
+        int bit = 0;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                right = 5;
+            }
+            boolean upward = ((right + 1) & 2) == 0;
+            for (int vert = 0; vert < size; vert++) {
+                int y = upward ? size - 1 - vert : vert;
+                for (int j = 0; j < 2; j++) {
+                    int index = y * size + right - j;
+                    if (map[index] == UNASSIGNED) {
+                        // Modules past the last codeword are remainder bits
+                        map[index] = bit < dataBits ? bit >>> 3 : FREE;
+                        bit++;
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Marks the function modules of a symbol.
+     */
+    private static void markFunctionPatterns(int[] map, int version, int size) {
+        // Timing patterns
+        for (int i = 0; i < size; i++) {
+            map[6 * size + i] = RESERVED;
+            map[i * size + 6] = RESERVED;
+        }
+        // Finder patterns with their separators and the format information
+        fill(map, size, 0, 0, 9, 9, RESERVED);
+        fill(map, size, size - 8, 0, 8, 9, RESERVED);
+        fill(map, size, 0, size - 8, 9, 8, RESERVED);
+        // Version information
+        if (version >= 7) {
+            fill(map, size, size - 11, 0, 3, 6, RESERVED);
+            fill(map, size, 0, size - 11, 6, 3, RESERVED);
+        }
+        // Alignment patterns, except over the finder patterns
+        int[] positions = QrCodeSpec.getAlignmentPatternPositions(version);
+        int last = positions.length - 1;
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j <= last; j++) {
+                if (!(i == 0 && j == 0 || i == 0 && j == last || i == last && j == 0)) {
+                    fill(map, size, positions[i] - 2, positions[j] - 2, 5, 5, FREE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills a rectangle of the map. Free modules never override reserved ones.
+     */
+    private static void fill(int[] map, int size, int left, int top, int width, int height, int value) {
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                if (value == RESERVED || map[y * size + x] != RESERVED) {
+                    map[y * size + x] = value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+
+/**
+ * Chooses the symbols that stay decodable under a logo of a given size.
+ * <p>
+ * Drawing a logo over a QR code hides some of its codewords, which must then be recovered by the error correction.
+ * Rather than always using the {@link CorrectionLevel#HIGH} level, the {@link #plan(byte[], CorrectionLevel,
+ * boolean)} method looks for the smallest version, then the highest correction level of that version, whose
+ * {@link LogoCoverage} is decodable and that still holds the payload. The decodability of each version and level
+ * only depends on the logo size and the quiet zone, so it is computed once per instance and shared by all the
+ * payloads. Instances are thread-safe.
+ * </p>
+ */
+public final class LogoSafeArea {
+
+    /**
+     * The correction levels, from the lowest to the highest recovery capacity.
+     */
+    private static final CorrectionLevel[] LEVELS = CorrectionLevel.values();
+
+    private static final int UNKNOWN = 0;
+    private static final int DECODABLE = 1;
+    private static final int NOT_DECODABLE = 2;
+
+    private final int border;
+    private final double logoScale;
+
+    /**
+     * The decodability of each version and level, indexed by {@code version * LEVELS.length + level.ordinal()}.
+     */
+    private final AtomicIntegerArray decodable =
+            new AtomicIntegerArray((QrCodeSpec.MAX_VERSION + 1) * LEVELS.length);
+
+    /**
+     * Constructs the safe area of a logo.
+     *
+     * @param border The width of the quiet zone around the symbols, in modules.
+     * @param logoScale The side of the logo relative to the side of the whole image (e.g. 0.2 for 20%).
+     */
+    public LogoSafeArea(int border, double logoScale) {
+        this.border = border;
+        this.logoScale = logoScale;
+    }
+
+    /**
+     * Returns the width of the quiet zone the safe area was computed for.
+     *
+     * @return The border, in modules.
+     */
+    public int getBorder() {
+        return border;
+    }
+
+    /**
+     * Returns the logo size the safe area was computed for.
+     *
+     * @return The side of the logo relative to the side of the whole image.
+     */
+    public double getLogoScale() {
+        return logoScale;
+    }
+
+    /**
+     * Indicates whether a symbol stays decodable under the logo.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol.
+     * @return {@code true} if the symbol can be decoded with the logo drawn over it.
+     */
+    public boolean isDecodable(int version, CorrectionLevel level) {
+        int index = version * LEVELS.length + level.ordinal();
+        int state = decodable.get(index);
+        if (state == UNKNOWN) {
+            // Computing a version fills all its levels at once, from the same codeword map
+            int[] map = LogoCoverage.codewordMap(version);
+            for (CorrectionLevel other : LEVELS) {
+                boolean result = LogoCoverage.compute(map, version, other, border, logoScale).isDecodable();
+                decodable.set(version * LEVELS.length + other.ordinal(), result ? DECODABLE : NOT_DECODABLE);
+            }
+            state = decodable.get(index);
+        }
+        return state == DECODABLE;
+    }
+
+    /**
+     * Indicates whether at least one symbol of the given correction level or above stays decodable under the logo.
+     *
+     * @param minLevel The lowest acceptable error correction level.
+     * @return {@code false} if the logo is too large for any QR code.
+     */
+    public boolean isSupported(CorrectionLevel minLevel) {
+        for (int version = QrCodeSpec.MIN_VERSION; version <= QrCodeSpec.MAX_VERSION; version++) {
+            for (int rank = minLevel.ordinal(); rank < LEVELS.length; rank++) {
+                if (isDecodable(version, LEVELS[rank])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plans the segments of a payload in the smallest symbol that holds it and stays decodable under the logo. The
+     * correction level of the plan is the highest that fits in that version and keeps the symbol decodable, and is
+     * never below the requested one.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param minLevel The lowest acceptable error correction level.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @return The plan of the payload, with the chosen version and correction level.
+     * @throws QrCodeGeneratorException If the payload does not fit in a version 40 symbol, or if no symbol holding
+     *         it stays decodable under the logo.
+     */
+    public SegmentPlan plan(byte[] payload, CorrectionLevel minLevel, boolean kanji)
+            throws QrCodeGeneratorException {
+        SegmentPlan plan = SegmentPlanner.plan(payload, minLevel, kanji);
+        for (int version = plan.getVersion(); version <= QrCodeSpec.MAX_VERSION; version++) {
+            if (QrCodeSpec.getCharCountGroup(version) != QrCodeSpec.getCharCountGroup(plan.getVersion())) {
+                // The widths of the character count fields changed: plan the segments again for this version
+                try {
+                    plan = SegmentPlanner.plan(payload, minLevel, kanji, version);
+                } catch (QrCodeGeneratorException e) {
+                    break;
+                }
+                version = plan.getVersion();
+            }
+            for (int rank = LEVELS.length - 1; rank >= minLevel.ordinal(); rank--) {
+                CorrectionLevel level = LEVELS[rank];
+                if (plan.getBitCount() <= QrCodeSpec.getNumDataCodewords(version, level) * 8
+                        && isDecodable(version, level)) {
+                    return new SegmentPlan(plan.getSegments(), version, level, plan.getBitCount());
+                }
+            }
+        }
+        throw new QrCodeGeneratorException("Logo too large for a QR code holding the payload: scale " + logoScale
+                + ", " + payload.length + " bytes at correction level " + minLevel);
+    }
+}
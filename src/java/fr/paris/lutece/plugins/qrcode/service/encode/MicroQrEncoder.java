@@ -0,0 +1,321 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.List;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import io.nayuki.qrcodegen.BitBuffer;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Micro QR encoder (ISO/IEC 18004), for versions M2 to M4.
+ * <p>
+ * A Micro QR symbol has a single finder pattern in its upper left corner, timing patterns along its top and left
+ * edges, a single copy of the format information and a single block of codewords, placed in the same two-module
+ * columns as in a QR code. At most 17 modules wide, each row of the symbol fits in one {@code long} word. Of the
+ * four masks, the encoder keeps the one leaving the most dark modules along the right and bottom edges, which
+ * the reader needs to tell the symbol from its background.
+ * </p>
+ * <p>
+ * The fixed parts of each version (function patterns, placement of the data modules and masks) are computed when
+ * the class is loaded; the Reed-Solomon generators are shared with the {@link QrCodeEncoder}.
+ * </p>
+ */
+public final class MicroQrEncoder {
+
+    /**
+     * Value of the mask parameter requesting the mask to be chosen by the encoder.
+     */
+    public static final int AUTO_MASK = -1;
+
+    private static final int MASKS = 4;
+    private static final int SYMBOL_NUMBERS = 8;
+    private static final int FORMAT_MASK = 0x4445;
+    private static final int FINDER_SIZE = 7;
+
+    /**
+     * The 15 format information bits of each symbol number and mask, masked and with their BCH error correction
+     * bits.
+     */
+    private static final int[][] FORMAT_BITS = new int[SYMBOL_NUMBERS][MASKS];
+
+    private static final Layout[] LAYOUTS = new Layout[MicroQrSpec.MAX_VERSION + 1];
+
+    static {
+        for (int symbol = 0; symbol < SYMBOL_NUMBERS; symbol++) {
+            for (int mask = 0; mask < MASKS; mask++) {
+                int data = symbol << 2 | mask;
+                int remainder = data;
+                for (int i = 0; i < 10; i++) {
+                    remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+                }
+                FORMAT_BITS[symbol][mask] = (data << 10 | remainder) ^ FORMAT_MASK;
+            }
+        }
+        for (int version = MicroQrSpec.MIN_VERSION; version <= MicroQrSpec.MAX_VERSION; version++) {
+            LAYOUTS[version] = new Layout(version);
+        }
+    }
+
+    /**
+     * The fixed parts of the symbols of one version.
+     */
+    private static final class Layout {
+
+        final int size;
+
+        /**
+         * The function patterns, by row: finder pattern and timing patterns.
+         */
+        final long[] patternRows;
+
+        /**
+         * The data modules in placement order, as {@code y * size + x}.
+         */
+        final int[] dataModules;
+
+        /**
+         * The dark modules of each mask, by row, restricted to the data modules.
+         */
+        final long[][] maskRows = new long[MASKS][];
+
+        Layout(int version) {
+            size = MicroQrSpec.getSize(version);
+            patternRows = new long[size];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int distance = Math.max(Math.abs(x - 3), Math.abs(y - 3));
+                    boolean finder = x < FINDER_SIZE && y < FINDER_SIZE && distance != 2;
+                    boolean timing = (y == 0 || x == 0) && (x + y) % 2 == 0 && x + y > FINDER_SIZE;
+                    if (finder || timing) {
+                        patternRows[y] |= 1L << x;
+                    }
+                }
+            }
+
+            // Zigzag over the two-module columns from the right, upwards first; the timing column is the leftmost
+            dataModules = new int[size * size - 81 - (size - 9) * 2];
+            int count = 0;
+            boolean upward = true;
+            for (int right = size - 1; right >= 1; right -= 2) {
+                for (int vertical = 0; vertical < size; vertical++) {
+                    int y = upward ? size - 1 - vertical : vertical;
+                    for (int x = right; x >= right - 1; x--) {
+                        if (!isFunction(x, y)) {
+                            dataModules[count++] = y * size + x;
+                        }
+                    }
+                }
+                upward = !upward;
+            }
+
+            for (int mask = 0; mask < MASKS; mask++) {
+                maskRows[mask] = new long[size];
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        if (!isFunction(x, y) && isMasked(mask, x, y)) {
+                            maskRows[mask][y] |= 1L << x;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Indicates whether a module belongs to the function patterns, the separator or the format information.
+         */
+        private static boolean isFunction(int x, int y) {
+            return x <= 8 && y <= 8 || x == 0 || y == 0;
+        }
+
+        /**
+         * Indicates whether a mask inverts a module.
+         */
+        private static boolean isMasked(int mask, int x, int y) {
+            switch (mask) {
+                case 0:
+                    return y % 2 == 0;
+                case 1:
+                    return (y / 2 + x / 3) % 2 == 0;
+                case 2:
+                    return (x * y % 2 + x * y % 3) % 2 == 0;
+                default:
+                    return ((x + y) % 2 + x * y % 3) % 2 == 0;
+            }
+        }
+    }
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private MicroQrEncoder() {
+    }
+
+    /**
+     * Encodes segments in a Micro QR symbol of the given version.
+     *
+     * @param segments The segments to encode, in modes available in the version.
+     * @param level The error correction level of the symbol, available in the version.
+     * @param version The version of the symbol, from 2 (M2) to 4 (M4).
+     * @param mask The mask to apply, between 0 and 3, or {@link #AUTO_MASK} to choose it.
+     * @param boostLevel {@code true} to raise the correction level as long as the segments still fit.
+     * @return The encoded symbol.
+     * @throws IllegalArgumentException If the segments do not fit in the version, or if a value is out of range.
+     */
+    public static QrCodeMatrix encodeSegments(List<QrSegment> segments, CorrectionLevel level, int version, int mask,
+            boolean boostLevel) {
+        if (!MicroQrSpec.isSupported(version, level)) {
+            throw new IllegalArgumentException("Level " + level + " not available in version M" + version);
+        }
+        if (mask < AUTO_MASK || mask >= MASKS) {
+            throw new IllegalArgumentException("Mask value out of range");
+        }
+        int indicatorBits = MicroQrSpec.getModeIndicatorBits(version);
+        BitBuffer[] segmentBits = new BitBuffer[segments.size()];
+        int dataBitCount = 0;
+        for (int i = 0; i < segmentBits.length; i++) {
+            QrSegment segment = segments.get(i);
+            int countBits = MicroQrSpec.getCharCountBits(segment.mode, version);
+            if (countBits == 0) {
+                throw new IllegalArgumentException("Mode " + segment.mode + " not available in version M" + version);
+            }
+            if (segment.numChars >= 1 << countBits) {
+                throw new IllegalArgumentException("Segment too long for version M" + version);
+            }
+            segmentBits[i] = segment.getData();
+            dataBitCount += indicatorBits + countBits + segmentBits[i].bitLength();
+        }
+        if (dataBitCount > MicroQrSpec.getDataBits(version, level)) {
+            throw new IllegalArgumentException("Data too long for version M" + version + " at level " + level);
+        }
+        CorrectionLevel correctionLevel = boostLevel ? boost(version, level, dataBitCount) : level;
+
+        Layout layout = LAYOUTS[version];
+        int capacity = MicroQrSpec.getDataBits(version, correctionLevel);
+        byte[] data = dataCodewords(segments, segmentBits, version, capacity);
+        byte[] ecc = SymbolTemplate.ecc(data, MicroQrSpec.getEccCodewords(version, correctionLevel));
+        long[] rows = layout.patternRows.clone();
+        int module = 0;
+        for (int i = 0; i < capacity; i++, module++) {
+            if ((data[i >>> 3] & (0x80 >>> (i & 7))) != 0) {
+                setModule(layout, rows, layout.dataModules[module]);
+            }
+        }
+        for (int i = 0; i < ecc.length * 8; i++, module++) {
+            if ((ecc[i >>> 3] & (0x80 >>> (i & 7))) != 0) {
+                setModule(layout, rows, layout.dataModules[module]);
+            }
+        }
+
+        int chosen = mask == AUTO_MASK ? selectMask(layout, rows) : mask;
+        long[] maskRows = layout.maskRows[chosen];
+        for (int y = 0; y < rows.length; y++) {
+            rows[y] ^= maskRows[y];
+        }
+        int format = FORMAT_BITS[MicroQrSpec.getSymbolNumber(version, correctionLevel)][chosen];
+        for (int i = 0; i < 8; i++) {
+            rows[i + 1] |= (long) ((format >>> i) & 1) << 8;
+            rows[8] |= (long) ((format >>> (14 - i)) & 1) << (i + 1);
+        }
+        return QrCodeMatrix.ofMicro(version, chosen, correctionLevel, dataBitCount, rows);
+    }
+
+    /**
+     * Returns the highest correction level of a version, from the given one up, whose data capacity still holds the
+     * bits.
+     *
+     * @param version The version of the symbol.
+     * @param level The lowest correction level.
+     * @param dataBitCount The number of data bits of the symbol.
+     * @return The boosted correction level.
+     */
+    public static CorrectionLevel boost(int version, CorrectionLevel level, int dataBitCount) {
+        CorrectionLevel[] levels = CorrectionLevel.values();
+        CorrectionLevel result = level;
+        for (int i = level.ordinal() + 1; i < levels.length; i++) {
+            if (MicroQrSpec.isSupported(version, levels[i])
+                    && dataBitCount <= MicroQrSpec.getDataBits(version, levels[i])) {
+                result = levels[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scores the four masks and returns the best one, the first one on ties: with {@code sum1} and {@code sum2} the
+     * numbers of dark modules along the right and bottom edges, timing patterns excluded, the score is
+     * {@code 16 * min(sum1, sum2) + max(sum1, sum2)}, and the highest score wins.
+     */
+    private static int selectMask(Layout layout, long[] rows) {
+        int size = layout.size;
+        int best = 0;
+        int bestScore = -1;
+        for (int mask = 0; mask < MASKS; mask++) {
+            long[] maskRows = layout.maskRows[mask];
+            int right = 0;
+            for (int y = 1; y < size; y++) {
+                right += (int) (((rows[y] ^ maskRows[y]) >>> (size - 1)) & 1);
+            }
+            int bottom = Long.bitCount((rows[size - 1] ^ maskRows[size - 1]) & ~1L);
+            int score = Math.min(right, bottom) * 16 + Math.max(right, bottom);
+            if (score > bestScore) {
+                best = mask;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Sets a dark module.
+     */
+    private static void setModule(Layout layout, long[] rows, int index) {
+        int y = index / layout.size;
+        rows[y] |= 1L << (index - y * layout.size);
+    }
+
+    /**
+     * Assembles the data codewords: the segments, the terminator, the bit padding and the pad codewords. In version
+     * M3, the last data codeword only has 4 bits, the high bits of the last byte.
+     */
+    private static byte[] dataCodewords(List<QrSegment> segments, BitBuffer[] segmentBits, int version,
+            int capacity) {
+        byte[] data = new byte[(capacity + 7) / 8];
+        int indicatorBits = MicroQrSpec.getModeIndicatorBits(version);
+        int position = 0;
+        for (int s = 0; s < segmentBits.length; s++) {
+            QrSegment segment = segments.get(s);
+            position = appendBits(data, position, MicroQrSpec.getModeIndicator(segment.mode), indicatorBits);
+            position = appendBits(data, position, segment.numChars,
+                    MicroQrSpec.getCharCountBits(segment.mode, version));
+            BitBuffer bits = segmentBits[s];
+            for (int i = 0, length = bits.bitLength(); i < length; i++, position++) {
+                if (bits.getBit(i) != 0) {
+                    data[position >>> 3] |= 0x80 >>> (position & 7);
+                }
+            }
+        }
+        // The terminator and the bit padding are zeros, and are cut short at the end of the capacity
+        position += Math.min(MicroQrSpec.getTerminatorBits(version), capacity - position);
+        position = Math.min(capacity, (position + 7) & ~7);
+        for (int pad = 0xEC; capacity - position >= 8; position += 8, pad ^= 0xEC ^ 0x11) {
+            data[position >>> 3] = (byte) pad;
+        }
+        return data;
+    }
+
+    /**
+     * Appends the low bits of a value to a bit array, most significant bit first.
+     *
+     * @return The new position in the array.
+     */
+    private static int appendBits(byte[] data, int position, int value, int length) {
+        int result = position;
+        for (int i = length - 1; i >= 0; i--, result++) {
+            if (((value >>> i) & 1) != 0) {
+                data[result >>> 3] |= 0x80 >>> (result & 7);
+            }
+        }
+        return result;
+    }
+}
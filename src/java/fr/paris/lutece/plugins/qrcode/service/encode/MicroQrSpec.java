@@ -0,0 +1,224 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Capacity tables of the Micro QR symbols (ISO/IEC 18004), by version and error correction level.
+ * <p>
+ * Versions M1 to M4 are numbered 1 to 4. Version M1 only detects errors, without any correction level, and is never
+ * produced; versions M2 and M3 have the {@link CorrectionLevel#LOW} and {@link CorrectionLevel#MEDIUM} levels, and
+ * version M4 the {@link CorrectionLevel#QUARTILE} level as well. Each symbol has a single block of codewords, the
+ * last data codeword of version M3 being only 4 bits long.
+ * </p>
+ */
+public final class MicroQrSpec {
+
+    /**
+     * The smallest version of a Micro QR symbol produced by the encoder (M2).
+     */
+    public static final int MIN_VERSION = 2;
+
+    /**
+     * The largest version of a Micro QR symbol (M4).
+     */
+    public static final int MAX_VERSION = 4;
+
+    /**
+     * The size of the quiet zone required around a Micro QR symbol, in modules.
+     */
+    public static final int QUIET_ZONE = 2;
+
+    /**
+     * Number of data bits, indexed by {@link CorrectionLevel#ordinal()} then version; 0 when the level is not
+     * available in the version (version M1, whose 20 data bits are only protected by error detection, has none).
+     */
+    private static final int[][] DATA_BITS = {
+        //0, M1, M2, M3,  M4
+        { 0,  0, 40, 84, 128 }, // LOW
+        { 0,  0, 32, 68, 112 }, // MEDIUM
+        { 0,  0,  0,  0,  80 }, // QUARTILE
+        { 0,  0,  0,  0,   0 }, // HIGH
+    };
+
+    /**
+     * Total number of codewords, indexed by version; the 4-bit codewords of versions M1 and M3 count as one.
+     */
+    private static final int[] CODEWORDS = { 0, 5, 10, 17, 24 };
+
+    /**
+     * Widths of the character count fields, indexed by version, for the numeric, alphanumeric, byte and kanji
+     * modes; 0 when the mode is not available in the version.
+     */
+    private static final int[] NUMERIC_COUNT_BITS = { 0, 3, 4, 5, 6 };
+    private static final int[] ALPHANUMERIC_COUNT_BITS = { 0, 0, 3, 4, 5 };
+    private static final int[] BYTE_COUNT_BITS = { 0, 0, 0, 4, 5 };
+    private static final int[] KANJI_COUNT_BITS = { 0, 0, 0, 3, 4 };
+
+    /**
+     * Symbol numbers of the format information, indexed by {@link CorrectionLevel#ordinal()} then version; -1 when
+     * the level is not available in the version.
+     */
+    private static final int[][] SYMBOL_NUMBERS = {
+        { -1, -1, 1, 3, 5 }, // LOW
+        { -1, -1, 2, 4, 6 }, // MEDIUM
+        { -1, -1, -1, -1, 7 }, // QUARTILE
+        { -1, -1, -1, -1, -1 }, // HIGH
+    };
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private MicroQrSpec() {
+    }
+
+    /**
+     * Returns the width and height of a symbol of the given version.
+     *
+     * @param version The version of the symbol, from 1 (M1) to 4 (M4).
+     * @return The size of the symbol, in modules.
+     */
+    public static int getSize(int version) {
+        checkVersion(version);
+        return version * 2 + 9;
+    }
+
+    /**
+     * Indicates whether a correction level is available in a version.
+     *
+     * @param version The version of the symbol, from 2 (M2) to 4 (M4).
+     * @param level The error correction level.
+     * @return {@code true} if symbols of that version may have that level.
+     */
+    public static boolean isSupported(int version, CorrectionLevel level) {
+        return version >= MIN_VERSION && version <= MAX_VERSION && DATA_BITS[level.ordinal()][version] > 0;
+    }
+
+    /**
+     * Returns the number of data bits of a symbol, including the 4 bits of the last data codeword of version M3.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol, available in the version.
+     * @return The data capacity, in bits.
+     */
+    public static int getDataBits(int version, CorrectionLevel level) {
+        checkVersion(version);
+        int bits = DATA_BITS[level.ordinal()][version];
+        if (bits == 0) {
+            throw new IllegalArgumentException("Level " + level + " not available in version M" + version);
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the number of data codewords of a symbol, the 4-bit last codeword of version M3 included.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol, available in the version.
+     * @return The number of data codewords.
+     */
+    public static int getNumDataCodewords(int version, CorrectionLevel level) {
+        return (getDataBits(version, level) + 7) / 8;
+    }
+
+    /**
+     * Returns the number of error correction codewords of a symbol.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol, available in the version.
+     * @return The number of error correction codewords.
+     */
+    public static int getEccCodewords(int version, CorrectionLevel level) {
+        return CODEWORDS[version] - getNumDataCodewords(version, level);
+    }
+
+    /**
+     * Returns the symbol number of a version and a correction level, written in the format information.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level of the symbol, available in the version.
+     * @return The symbol number, between 0 and 7.
+     */
+    public static int getSymbolNumber(int version, CorrectionLevel level) {
+        getDataBits(version, level);
+        return SYMBOL_NUMBERS[level.ordinal()][version];
+    }
+
+    /**
+     * Returns the width of the mode indicators of a version.
+     *
+     * @param version The version of the symbol.
+     * @return The number of bits of a mode indicator, 0 in version M1.
+     */
+    public static int getModeIndicatorBits(int version) {
+        checkVersion(version);
+        return version - 1;
+    }
+
+    /**
+     * Returns the width of the terminator of a version.
+     *
+     * @param version The version of the symbol.
+     * @return The number of bits of the terminator.
+     */
+    public static int getTerminatorBits(int version) {
+        checkVersion(version);
+        return version * 2 + 1;
+    }
+
+    /**
+     * Returns the width of the character count field of a segment.
+     *
+     * @param mode The mode of the segment.
+     * @param version The version of the symbol.
+     * @return The number of bits of the character count field, or 0 if the mode is not available in the version.
+     */
+    public static int getCharCountBits(QrSegment.Mode mode, int version) {
+        checkVersion(version);
+        switch (mode) {
+            case NUMERIC:
+                return NUMERIC_COUNT_BITS[version];
+            case ALPHANUMERIC:
+                return ALPHANUMERIC_COUNT_BITS[version];
+            case BYTE:
+                return BYTE_COUNT_BITS[version];
+            case KANJI:
+                return KANJI_COUNT_BITS[version];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the mode indicator of a segment mode, to be written on {@link #getModeIndicatorBits(int)} bits.
+     *
+     * @param mode The mode of the segment.
+     * @return The mode indicator.
+     * @throws IllegalArgumentException If the mode does not exist in Micro QR symbols.
+     */
+    public static int getModeIndicator(QrSegment.Mode mode) {
+        switch (mode) {
+            case NUMERIC:
+                return 0;
+            case ALPHANUMERIC:
+                return 1;
+            case BYTE:
+                return 2;
+            case KANJI:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Mode " + mode + " not available in Micro QR symbols");
+        }
+    }
+
+    /**
+     * Checks that a version is valid.
+     *
+     * @param version The version to check.
+     */
+    private static void checkVersion(int version) {
+        if (version < 1 || version > MAX_VERSION) {
+            throw new IllegalArgumentException("Micro QR version number out of range");
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Assembles the payload of a QR code (message and query parameters) directly as UTF-8 bytes.
+ * <p>
+ * Parameter keys and values are percent-encoded like {@link java.net.URLEncoder} does with UTF-8, but straight into
+ * a scratch buffer reused by the calling thread: no intermediate {@link String} nor charset lookup is involved, and
+ * the only allocation is the returned array. Parameters are separated by {@code &} without a trailing separator.
+ * </p>
+ */
+public final class PayloadEncoder {
+
+    /**
+     * The charset of the payloads.
+     */
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Initial size of the scratch buffers.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * For each ASCII character, whether it is kept as is by the form URL encoding.
+     */
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    /**
+     * The scratch buffer reused by each thread.
+     */
+    private static final ThreadLocal<PayloadEncoder> ENCODERS = ThreadLocal.withInitial(PayloadEncoder::new);
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    /**
+     * Private constructor: instances are only used through {@link #encode(String, Map)}.
+     */
+    private PayloadEncoder() {
+    }
+
+    /**
+     * Assembles the payload of a QR code: the message, followed by {@code ?} and the percent-encoded parameters
+     * when parameters are given.
+     *
+     * @param message The message, appended as is.
+     * @param parameters The query parameters, or {@code null} for none.
+     * @return The UTF-8 bytes of the payload.
+     */
+    public static byte[] encode(String message, Map<String, String> parameters) {
+        PayloadEncoder encoder = ENCODERS.get();
+        encoder.length = 0;
+        encoder.appendUtf8(String.valueOf(message), false);
+        if (parameters != null) {
+            encoder.append('?');
+            boolean first = true;
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                if (!first) {
+                    encoder.append('&');
+                }
+                first = false;
+                encoder.appendUtf8(entry.getKey(), true);
+                encoder.append('=');
+                encoder.appendUtf8(entry.getValue(), true);
+            }
+        }
+        return Arrays.copyOf(encoder.buffer, encoder.length);
+    }
+
+    /**
+     * Canonicalises an absolute URL so that it fits the QR code alphanumeric mode better: the scheme and the host,
+     * which are case insensitive, are converted to upper case, as well as the hexadecimal digits of the percent
+     * escapes. The path, query and fragment are otherwise left untouched. Messages that are not absolute URLs are
+     * returned as is.
+     *
+     * @param message The message to canonicalise.
+     * @return The canonical message.
+     */
+    public static String canonicalizeUrl(String message) {
+        int schemeEnd = message.indexOf("://");
+        if (schemeEnd <= 0) {
+            return message;
+        }
+        for (int i = 0; i < schemeEnd; i++) {
+            char c = message.charAt(i);
+            if (!(c < 0x80 && (Character.isLetterOrDigit(c) || c == '+' || c == '-' || c == '.'))) {
+                return message;
+            }
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < message.length() && "/?#".indexOf(message.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        // The user information, if any, is case sensitive
+        int hostStart = message.lastIndexOf('@', authorityEnd - 1) + 1;
+        hostStart = Math.max(hostStart, authorityStart);
+        char[] chars = message.toCharArray();
+        for (int i = 0; i < authorityEnd; i++) {
+            if (i < schemeEnd || i >= hostStart) {
+                chars[i] = toUpperCase(chars[i]);
+            }
+        }
+        for (int i = 0; i + 2 < chars.length; i++) {
+            if (chars[i] == '%' && isHexDigit(chars[i + 1]) && isHexDigit(chars[i + 2])) {
+                chars[i + 1] = toUpperCase(chars[i + 1]);
+                chars[i + 2] = toUpperCase(chars[i + 2]);
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Converts an ASCII lower case letter to upper case.
+     */
+    private static char toUpperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c;
+    }
+
+    /**
+     * Indicates whether a character is an ASCII hexadecimal digit.
+     */
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * Appends the UTF-8 bytes of a string, percent-encoding them if requested.
+     *
+     * @param value The string to append.
+     * @param percentEncode {@code true} to apply the form URL encoding.
+     */
+    private void appendUtf8(String value, boolean percentEncode) {
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!percentEncode || UNRESERVED[c]) {
+                    append(c);
+                } else if (c == ' ') {
+                    append('+');
+                } else {
+                    appendByte(c, true);
+                }
+            } else if (c < 0x800) {
+                appendByte(0xC0 | (c >> 6), percentEncode);
+                appendByte(0x80 | (c & 0x3F), percentEncode);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(0xF0 | (cp >> 18), percentEncode);
+                appendByte(0x80 | ((cp >> 12) & 0x3F), percentEncode);
+                appendByte(0x80 | ((cp >> 6) & 0x3F), percentEncode);
+                appendByte(0x80 | (cp & 0x3F), percentEncode);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: replaced like the UTF-8 encoder of the JDK does
+                appendByte('?', percentEncode);
+            } else {
+                appendByte(0xE0 | (c >> 12), percentEncode);
+                appendByte(0x80 | ((c >> 6) & 0x3F), percentEncode);
+                appendByte(0x80 | (c & 0x3F), percentEncode);
+            }
+        }
+    }
+
+    /**
+     * Appends one byte, as a {@code %XX} escape if requested.
+     */
+    private void appendByte(int b, boolean percentEncode) {
+        if (percentEncode) {
+            append('%');
+            append(HEX_DIGITS[(b >> 4) & 0xF]);
+            append(HEX_DIGITS[b & 0xF]);
+        } else {
+            append(b);
+        }
+    }
+
+    /**
+     * Appends one raw byte, growing the buffer if needed.
+     */
+    private void append(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+}
@@ -0,0 +1,522 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.MaskSelection;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import io.nayuki.qrcodegen.BitBuffer;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * QR code encoder working on bitboards: each row (and each column) of the symbol is packed in {@code long} words, so
+ * masks are applied with a few XORs per row and the penalty rules are evaluated with bitwise operations.
+ * <p>
+ * The encoding itself (codewords, Reed-Solomon error correction, interleaving and placement) follows ISO/IEC 18004
+ * and produces the same symbols as the {@code io.nayuki:qrcodegen} reference encoder. Choosing the mask is the most
+ * expensive step of the encoding: the eight masks are scored with the four penalty rules, the same way as the
+ * reference encoder with {@link MaskSelection#PENALTY}, but with the run lengths found with
+ * {@link Long#numberOfTrailingZeros(long)} over the packed lines and the 2x2 blocks counted with
+ * {@link Long#bitCount(long)} over whole words. The masks may also be scored in parallel
+ * ({@link MaskSelection#PARALLEL}), with a cheaper heuristic ({@link MaskSelection#FAST}), or not at all when a
+ * fixed mask is requested.
+ * </p>
+ */
+public final class QrCodeEncoder {
+
+    /**
+     * Value of the mask parameter requesting the mask to be chosen by the encoder.
+     */
+    public static final int AUTO_MASK = -1;
+
+    /**
+     * The smallest version whose masks are scored in parallel by {@link MaskSelection#PARALLEL}.
+     */
+    public static final int PARALLEL_MIN_VERSION = 10;
+
+    private static final int MASKS = 8;
+    private static final int NO_HEADER = -1;
+    private static final int PENALTY_N1 = 3;
+    private static final int PENALTY_N2 = 3;
+    private static final int PENALTY_N3 = 40;
+    private static final int PENALTY_N4 = 10;
+    private static final int FINDER_HISTORY = 7;
+
+    /**
+     * The 15 format information bits of each correction level (by format value) and mask, masked and with their
+     * BCH error correction bits.
+     */
+    private static final int[][] FORMAT_BITS = new int[4][MASKS];
+
+    static {
+        for (int level = 0; level < 4; level++) {
+            for (int mask = 0; mask < MASKS; mask++) {
+                int data = level << 3 | mask;
+                int remainder = data;
+                for (int i = 0; i < 10; i++) {
+                    remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+                }
+                FORMAT_BITS[level][mask] = (data << 10 | remainder) ^ 0x5412;
+            }
+        }
+    }
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private QrCodeEncoder() {
+    }
+
+    /**
+     * Encodes segments in a symbol of the given version.
+     *
+     * @param segments The segments to encode.
+     * @param level The error correction level of the symbol.
+     * @param version The version of the symbol.
+     * @param mask The mask to apply, between 0 and 7, or {@link #AUTO_MASK} to choose it with the selection.
+     * @param boostLevel {@code true} to raise the correction level as long as the segments still fit.
+     * @param selection The way the mask is chosen when it is not fixed.
+     * @return The encoded symbol.
+     * @throws IllegalArgumentException If the segments do not fit in the version, or if the mask is out of range.
+     */
+    public static QrCodeMatrix encodeSegments(List<QrSegment> segments, CorrectionLevel level, int version, int mask,
+            boolean boostLevel, MaskSelection selection) {
+        return encode(segments, NO_HEADER, level, version, mask, boostLevel, selection);
+    }
+
+    /**
+     * Encodes segments as one symbol of a Structured Append sequence, in a symbol of the given version. The
+     * Structured Append header (mode indicator, position of the symbol, number of symbols and parity of the whole
+     * message) is written before the segments.
+     *
+     * @param segments The segments to encode.
+     * @param index The position of the symbol in the sequence, from 0.
+     * @param total The number of symbols of the sequence, from 1 to {@link StructuredAppend#MAX_SYMBOLS}.
+     * @param parity The parity of the whole message, see {@link StructuredAppend#parity(List)}.
+     * @param level The error correction level of the symbol.
+     * @param version The version of the symbol.
+     * @param mask The mask to apply, between 0 and 7, or {@link #AUTO_MASK} to choose it with the selection.
+     * @param boostLevel {@code true} to raise the correction level as long as the segments still fit.
+     * @param selection The way the mask is chosen when it is not fixed.
+     * @return The encoded symbol.
+     * @throws IllegalArgumentException If the segments do not fit in the version, or if a value is out of range.
+     */
+    public static QrCodeMatrix encodeStructuredAppend(List<QrSegment> segments, int index, int total, int parity,
+            CorrectionLevel level, int version, int mask, boolean boostLevel, MaskSelection selection) {
+        if (total < 1 || total > StructuredAppend.MAX_SYMBOLS || index < 0 || index >= total || parity < 0
+                || parity > 0xFF) {
+            throw new IllegalArgumentException("Structured Append header out of range");
+        }
+        int header = StructuredAppend.MODE_INDICATOR << 16 | index << 12 | (total - 1) << 8 | parity;
+        return encode(segments, header, level, version, mask, boostLevel, selection);
+    }
+
+    /**
+     * Encodes segments, after the Structured Append header if there is one.
+     *
+     * @param header The 20 bits of the Structured Append header, or {@link #NO_HEADER}.
+     */
+    private static QrCodeMatrix encode(List<QrSegment> segments, int header, CorrectionLevel level, int version,
+            int mask, boolean boostLevel, MaskSelection selection) {
+        if (mask < AUTO_MASK || mask >= MASKS) {
+            throw new IllegalArgumentException("Mask value out of range");
+        }
+        BitBuffer[] segmentBits = new BitBuffer[segments.size()];
+        int dataBitCount = header == NO_HEADER ? 0 : StructuredAppend.HEADER_BITS;
+        for (int i = 0; i < segmentBits.length; i++) {
+            QrSegment segment = segments.get(i);
+            int countBits = QrCodeSpec.getCharCountBits(segment.mode, version);
+            if (segment.numChars >= 1 << countBits) {
+                throw new IllegalArgumentException("Segment too long for version " + version);
+            }
+            segmentBits[i] = segment.getData();
+            dataBitCount += 4 + countBits + segmentBits[i].bitLength();
+        }
+        if (dataBitCount > QrCodeSpec.getNumDataCodewords(version, level) * 8) {
+            throw new IllegalArgumentException("Data too long for version " + version + " at level " + level);
+        }
+        CorrectionLevel correctionLevel = boostLevel ? boost(version, level, dataBitCount) : level;
+
+        SymbolTemplate template = SymbolTemplate.of(version, correctionLevel);
+        SymbolLayout layout = template.layout;
+        byte[] data = dataCodewords(segments, segmentBits, header, version, template.dataCodewords);
+        byte[] ecc = template.ecc(data);
+        boolean scored = mask == AUTO_MASK;
+        boolean columns = scored && selection != MaskSelection.FAST;
+        long[] rows = layout.patternRows.clone();
+        long[] cols = columns ? layout.patternColumns.clone() : null;
+        for (int i = 0; i < data.length; i++) {
+            placeCodeword(layout, rows, cols, data[i], template.positions[i]);
+        }
+        for (int i = 0; i < ecc.length; i++) {
+            placeCodeword(layout, rows, cols, ecc[i], template.positions[data.length + i]);
+        }
+
+        int chosen = scored ? selectMask(layout, rows, cols, correctionLevel, selection) : mask;
+        long[] maskRows = layout.maskRows[chosen];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] ^= maskRows[i];
+        }
+        drawFormatBits(layout, rows, null, correctionLevel, chosen);
+        return QrCodeMatrix.of(version, chosen, correctionLevel, dataBitCount, rows);
+    }
+
+    /**
+     * Returns the highest correction level, from the given one up, whose data capacity still holds the bits.
+     *
+     * @param version The version of the symbol.
+     * @param level The lowest correction level.
+     * @param dataBitCount The number of data bits of the symbol.
+     * @return The boosted correction level.
+     */
+    public static CorrectionLevel boost(int version, CorrectionLevel level, int dataBitCount) {
+        CorrectionLevel[] levels = CorrectionLevel.values();
+        CorrectionLevel result = level;
+        for (int i = level.ordinal() + 1; i < levels.length; i++) {
+            if (dataBitCount <= QrCodeSpec.getNumDataCodewords(version, levels[i]) * 8) {
+                result = levels[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prepares the encoder for the given versions and correction levels, typically when the application starts: the
+     * fixed parts of the symbols and the Reed-Solomon generators are computed, then a full symbol is encoded for
+     * each pair so that the encoding code is loaded and compiled before the first real request.
+     * <p>
+     * The templates are otherwise computed on first use; calling this method again is cheap.
+     * </p>
+     *
+     * @param versions The versions to prepare.
+     * @param levels The correction levels to prepare.
+     * @throws IllegalArgumentException If a version is out of range.
+     */
+    public static void warmUp(int[] versions, CorrectionLevel[] levels) {
+        for (int version : versions) {
+            if (version < QrCodeSpec.MIN_VERSION || version > QrCodeSpec.MAX_VERSION) {
+                throw new IllegalArgumentException("Version number out of range: " + version);
+            }
+        }
+        for (int version : versions) {
+            int countBits = QrCodeSpec.getCharCountBits(QrSegment.Mode.BYTE, version);
+            for (CorrectionLevel level : levels) {
+                SymbolTemplate template = SymbolTemplate.of(version, level);
+                byte[] bytes = new byte[(template.dataCodewords * 8 - 4 - countBits) / 8];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) (i * 0x9E3779B1 >>> 24);
+                }
+                encodeSegments(Collections.singletonList(QrSegment.makeBytes(bytes)), level, version, AUTO_MASK,
+                        false, MaskSelection.PENALTY);
+            }
+        }
+    }
+
+    /**
+     * Scores the eight masks and returns the one with the lowest penalty, the first one on ties.
+     */
+    private static int selectMask(SymbolLayout layout, long[] rows, long[] cols, CorrectionLevel level,
+            MaskSelection selection) {
+        int[] penalties;
+        if (selection == MaskSelection.PARALLEL && layout.version >= PARALLEL_MIN_VERSION) {
+            penalties = IntStream.range(0, MASKS).parallel()
+                    .map(mask -> penalty(layout, rows, cols, level, mask, new long[rows.length],
+                            new long[cols.length], new int[FINDER_HISTORY]))
+                    .toArray();
+        } else {
+            long[] maskedRows = new long[rows.length];
+            long[] maskedCols = cols == null ? null : new long[cols.length];
+            int[] history = new int[FINDER_HISTORY];
+            penalties = new int[MASKS];
+            for (int mask = 0; mask < MASKS; mask++) {
+                penalties[mask] = penalty(layout, rows, cols, level, mask, maskedRows, maskedCols, history);
+            }
+        }
+        int best = 0;
+        for (int mask = 1; mask < MASKS; mask++) {
+            if (penalties[mask] < penalties[best]) {
+                best = mask;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Computes the penalty score of a symbol with the given mask.
+     *
+     * @param layout The layout of the version.
+     * @param rows The unmasked symbol, by row.
+     * @param cols The unmasked symbol, by column, or {@code null} to skip the rules over the columns.
+     * @param level The error correction level, written in the format information.
+     * @param mask The mask to score.
+     * @param maskedRows A scratch board receiving the masked rows.
+     * @param maskedCols A scratch board receiving the masked columns, or {@code null}.
+     * @param history A scratch array for the finder-like pattern detection.
+     * @return The penalty score.
+     */
+    private static int penalty(SymbolLayout layout, long[] rows, long[] cols, CorrectionLevel level, int mask,
+            long[] maskedRows, long[] maskedCols, int[] history) {
+        long[] maskRows = layout.maskRows[mask];
+        for (int i = 0; i < rows.length; i++) {
+            maskedRows[i] = rows[i] ^ maskRows[i];
+        }
+        if (cols != null) {
+            long[] maskCols = layout.maskColumns[mask];
+            for (int i = 0; i < cols.length; i++) {
+                maskedCols[i] = cols[i] ^ maskCols[i];
+            }
+        }
+        drawFormatBits(layout, maskedRows, cols == null ? null : maskedCols, level, mask);
+
+        int size = layout.size;
+        int words = layout.wordsPerLine;
+        int result = 0;
+        for (int line = 0; line < size; line++) {
+            result += linePenalty(maskedRows, line * words, words, size, history);
+            if (cols != null) {
+                result += linePenalty(maskedCols, line * words, words, size, history);
+            }
+        }
+
+        // 2x2 blocks of the same color
+        int blocks = 0;
+        for (int y = 0; y < size - 1; y++) {
+            int top = y * words;
+            int bottom = top + words;
+            for (int i = 0; i < words; i++) {
+                long a = maskedRows[top + i];
+                long b = maskedRows[bottom + i];
+                long nextA = a >>> 1;
+                long nextB = b >>> 1;
+                if (i + 1 < words) {
+                    nextA |= maskedRows[top + i + 1] << 63;
+                    nextB |= maskedRows[bottom + i + 1] << 63;
+                }
+                long same = ~(a ^ b) & ~(nextA ^ nextB) & ~(a ^ nextA);
+                blocks += Long.bitCount(same & validBits(size - 1 - (i << 6)));
+            }
+        }
+        result += blocks * PENALTY_N2;
+
+        // Balance of dark and light modules
+        int dark = 0;
+        for (long word : maskedRows) {
+            dark += Long.bitCount(word);
+        }
+        int total = size * size;
+        int k = (Math.abs(dark * 20 - total * 10) + total - 1) / total - 1;
+        return result + k * PENALTY_N4;
+    }
+
+    /**
+     * Computes the penalties of the runs of the same color and of the finder-like patterns of one line.
+     *
+     * @param board The board holding the line.
+     * @param offset The index of the first word of the line.
+     * @param words The number of words of a line.
+     * @param size The number of modules of the line.
+     * @param history A scratch array for the finder-like pattern detection.
+     * @return The penalty of the line.
+     */
+    private static int linePenalty(long[] board, int offset, int words, int size, int[] history) {
+        Arrays.fill(history, 0);
+        int result = 0;
+        boolean dark = false;
+        int start = 0;
+        while (true) {
+            int end = nextChange(board, offset, words, size, start, dark);
+            int length = end - start;
+            if (length >= 5) {
+                result += PENALTY_N1 + length - 5;
+            }
+            if (end == size) {
+                return result + finderPenaltyTerminateAndCount(dark, length, history, size) * PENALTY_N3;
+            }
+            finderPenaltyAddHistory(length, history, size);
+            if (!dark) {
+                result += finderPenaltyCountPatterns(history) * PENALTY_N3;
+            }
+            dark = !dark;
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the position of the first module of a line, from the given one, whose color differs from the given
+     * color.
+     *
+     * @return The position of the module, or the size of the line if there is none.
+     */
+    private static int nextChange(long[] board, int offset, int words, int size, int from, boolean dark) {
+        long flip = dark ? -1L : 0L;
+        int i = from >>> 6;
+        if (i >= words) {
+            return size;
+        }
+        long word = (board[offset + i] ^ flip) & (-1L << (from & 63));
+        while (word == 0) {
+            if (++i == words) {
+                return size;
+            }
+            word = board[offset + i] ^ flip;
+        }
+        return Math.min(size, (i << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * Counts the finder-like patterns (dark, light, dark, light, dark runs in 1:1:3:1:1 proportions, with a light
+     * run of 4 on one side) ending at the last run of the history.
+     */
+    private static int finderPenaltyCountPatterns(int[] history) {
+        int n = history[1];
+        boolean core = n > 0 && history[2] == n && history[3] == n * 3 && history[4] == n && history[5] == n;
+        return (core && history[0] >= n * 4 && history[6] >= n ? 1 : 0)
+                + (core && history[6] >= n * 4 && history[0] >= n ? 1 : 0);
+    }
+
+    /**
+     * Ends the last run of a line, adding the light quiet zone after it, and counts the finder-like patterns.
+     */
+    private static int finderPenaltyTerminateAndCount(boolean dark, int length, int[] history, int size) {
+        int runLength = length;
+        if (dark) {
+            finderPenaltyAddHistory(runLength, history, size);
+            runLength = 0;
+        }
+        finderPenaltyAddHistory(runLength + size, history, size);
+        return finderPenaltyCountPatterns(history);
+    }
+
+    /**
+     * Pushes a run at the front of the history, adding the light quiet zone before the first run of the line.
+     */
+    private static void finderPenaltyAddHistory(int length, int[] history, int size) {
+        int runLength = history[0] == 0 ? length + size : length;
+        System.arraycopy(history, 0, history, 1, history.length - 1);
+        history[0] = runLength;
+    }
+
+    /**
+     * Returns the bits of a word below the given limit.
+     */
+    private static long validBits(int limit) {
+        if (limit >= 64) {
+            return -1L;
+        }
+        return limit <= 0 ? 0L : (1L << limit) - 1;
+    }
+
+    /**
+     * Writes the format information (correction level and mask) into the boards.
+     */
+    private static void drawFormatBits(SymbolLayout layout, long[] rows, long[] cols, CorrectionLevel level,
+            int mask) {
+        int bits = FORMAT_BITS[level.getValue()][mask];
+        for (int i = 0; i < 15; i++) {
+            if (((bits >>> i) & 1) != 0) {
+                if (cols != null) {
+                    layout.set(rows, cols, layout.formatModules[i]);
+                    layout.set(rows, cols, layout.formatModulesCopy[i]);
+                } else {
+                    setRow(layout, rows, layout.formatModules[i]);
+                    setRow(layout, rows, layout.formatModulesCopy[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the dark modules of one codeword in the boards.
+     *
+     * @param cols The boards by column, or {@code null} if only the rows are needed.
+     * @param value The codeword.
+     * @param position The interleaved position of the codeword.
+     */
+    private static void placeCodeword(SymbolLayout layout, long[] rows, long[] cols, byte value, int position) {
+        int bits = value & 0xFF;
+        while (bits != 0) {
+            int high = Integer.numberOfLeadingZeros(bits) - 24;
+            bits &= ~(0x80 >>> high);
+            int bit = position * 8 + high;
+            int row = layout.dataRows[bit];
+            rows[row >>> 6] |= 1L << row;
+            if (cols != null) {
+                int column = layout.dataColumns[bit];
+                cols[column >>> 6] |= 1L << column;
+            }
+        }
+    }
+
+    /**
+     * Sets a module in a board by row.
+     */
+    private static void setRow(SymbolLayout layout, long[] rows, int index) {
+        int y = index / layout.size;
+        int x = index - y * layout.size;
+        rows[y * layout.wordsPerLine + (x >>> 6)] |= 1L << (x & 63);
+    }
+
+    /**
+     * Assembles the data codewords: the Structured Append header, the segments, the terminator, the bit padding
+     * and the pad codewords.
+     */
+    private static byte[] dataCodewords(List<QrSegment> segments, BitBuffer[] segmentBits, int header, int version,
+            int capacity) {
+        byte[] data = new byte[capacity];
+        int position = header == NO_HEADER ? 0 : appendBits(data, 0, header, StructuredAppend.HEADER_BITS);
+        for (int s = 0; s < segmentBits.length; s++) {
+            QrSegment segment = segments.get(s);
+            position = appendBits(data, position, modeIndicator(segment.mode), 4);
+            position = appendBits(data, position, segment.numChars,
+                    QrCodeSpec.getCharCountBits(segment.mode, version));
+            BitBuffer bits = segmentBits[s];
+            for (int i = 0, length = bits.bitLength(); i < length; i++, position++) {
+                if (bits.getBit(i) != 0) {
+                    data[position >>> 3] |= 0x80 >>> (position & 7);
+                }
+            }
+        }
+        // The terminator and the bit padding are zeros
+        position = (position + Math.min(4, capacity * 8 - position) + 7) >>> 3;
+        for (int pad = 0xEC; position < capacity; position++, pad ^= 0xEC ^ 0x11) {
+            data[position] = (byte) pad;
+        }
+        return data;
+    }
+
+    /**
+     * Appends the low bits of a value to a bit array, most significant bit first.
+     *
+     * @return The new position in the array.
+     */
+    private static int appendBits(byte[] data, int position, int value, int length) {
+        int result = position;
+        for (int i = length - 1; i >= 0; i--, result++) {
+            if (((value >>> i) & 1) != 0) {
+                data[result >>> 3] |= 0x80 >>> (result & 7);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the mode indicator of a segment mode.
+     */
+    private static int modeIndicator(QrSegment.Mode mode) {
+        switch (mode) {
+            case NUMERIC:
+                return 0x1;
+            case ALPHANUMERIC:
+                return 0x2;
+            case BYTE:
+                return 0x4;
+            case KANJI:
+                return 0x8;
+            default:
+                return 0x7;
+        }
+    }
+}
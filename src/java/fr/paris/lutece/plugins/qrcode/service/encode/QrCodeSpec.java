@@ -0,0 +1,247 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Capacity tables of the QR code model 2 symbols (ISO/IEC 18004), by version and error correction level.
+ */
+public final class QrCodeSpec {
+
+    /**
+     * The smallest version of a QR code symbol.
+     */
+    public static final int MIN_VERSION = 1;
+
+    /**
+     * The largest version of a QR code symbol.
+     */
+    public static final int MAX_VERSION = 40;
+
+    /**
+     * Number of error correction codewords per block, indexed by {@link CorrectionLevel#ordinal()} then version.
+     */
+    private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+        // Version: (note that index 0 is for padding, and is set to an illegal value)
+        //0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40
+        { -1,  7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 }, // LOW
+        { -1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28 }, // MEDIUM
+        { -1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 }, // QUARTILE
+        { -1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 }, // HIGH
+    };
+
+    /**
+     * Number of error correction blocks, indexed by {@link CorrectionLevel#ordinal()} then version.
+     */
+    private static final byte[][] NUM_ERROR_CORRECTION_BLOCKS = {
+        // Version: (note that index 0 is for padding, and is set to an illegal value)
+        //0, 1, 2, 3, 4, 5, 6, 7, 8, 9,10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40
+        { -1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4,  4,  4,  4,  4,  6,  6,  6,  6,  7,  8,  8,  9,  9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25 }, // LOW
+        { -1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5,  5,  8,  9,  9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49 }, // MEDIUM
+        { -1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8,  8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68 }, // QUARTILE
+        { -1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81 }, // HIGH
+    };
+
+    /**
+     * Number of error correction codewords reserved for misdecode protection of the smallest symbols, indexed by
+     * {@link CorrectionLevel#ordinal()} then version (ISO/IEC 18004, table 9). They cannot correct errors.
+     */
+    private static final byte[][] MISDECODE_PROTECTION_CODEWORDS = {
+        { -1, 3, 2, 1 }, // LOW
+        { -1, 2, 0, 0 }, // MEDIUM
+        { -1, 1, 0, 0 }, // QUARTILE
+        { -1, 1, 0, 0 }, // HIGH
+    };
+
+    private static final int[] NUMERIC_COUNT_BITS = { 10, 12, 14 };
+    private static final int[] ALPHANUMERIC_COUNT_BITS = { 9, 11, 13 };
+    private static final int[] BYTE_COUNT_BITS = { 8, 16, 16 };
+    private static final int[] KANJI_COUNT_BITS = { 8, 10, 12 };
+    private static final int[] NUMERIC_REMAINDER_BITS = { 0, 4, 7 };
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private QrCodeSpec() {
+    }
+
+    /**
+     * Returns the width and height of a symbol of the given version.
+     *
+     * @param version The version of the symbol.
+     * @return The size of the symbol, in modules.
+     */
+    public static int getSize(int version) {
+        return version * 4 + 17;
+    }
+
+    /**
+     * Returns the number of modules available for data and error correction codewords in a symbol of the given
+     * version, after excluding the function patterns. The result may not be a multiple of 8.
+     *
+     * @param version The version of the symbol.
+     * @return The number of raw data modules.
+     */
+    public static int getNumRawDataModules(int version) {
+        checkVersion(version);
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int numAlign = version / 7 + 2;
+            result -= (25 * numAlign - 10) * numAlign - 55;
+            if (version >= 7) {
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of codewords (data and error correction) of a symbol of the given version.
+     *
+     * @param version The version of the symbol.
+     * @return The number of codewords.
+     */
+    public static int getNumCodewords(int version) {
+        return getNumRawDataModules(version) / 8;
+    }
+
+    /**
+     * Returns the number of data codewords of a symbol of the given version and error correction level.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level.
+     * @return The number of 8-bit data codewords.
+     */
+    public static int getNumDataCodewords(int version, CorrectionLevel level) {
+        return getNumCodewords(version) - getEccCodewordsPerBlock(version, level) * getNumBlocks(version, level);
+    }
+
+    /**
+     * Returns the number of error correction codewords of each block.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level.
+     * @return The number of error correction codewords per block.
+     */
+    public static int getEccCodewordsPerBlock(int version, CorrectionLevel level) {
+        checkVersion(version);
+        return ECC_CODEWORDS_PER_BLOCK[level.ordinal()][version];
+    }
+
+    /**
+     * Returns the number of error correction blocks.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level.
+     * @return The number of blocks.
+     */
+    public static int getNumBlocks(int version, CorrectionLevel level) {
+        checkVersion(version);
+        return NUM_ERROR_CORRECTION_BLOCKS[level.ordinal()][version];
+    }
+
+    /**
+     * Returns the number of erroneous codewords a block can correct when their positions are unknown to the
+     * decoder, e.g. the codewords hidden by a logo: half of its error correction codewords, less the codewords
+     * reserved for misdecode protection.
+     *
+     * @param version The version of the symbol.
+     * @param level The error correction level.
+     * @return The number of correctable codewords per block.
+     */
+    public static int getCorrectableCodewordsPerBlock(int version, CorrectionLevel level) {
+        int protection = version < MISDECODE_PROTECTION_CODEWORDS[0].length
+                ? MISDECODE_PROTECTION_CODEWORDS[level.ordinal()][version] : 0;
+        return getEccCodewordsPerBlock(version, level) / 2 - protection;
+    }
+
+    /**
+     * Returns the coordinates of the centers of the alignment patterns, in ascending order. The patterns are
+     * placed at every combination of these coordinates, except the three corners occupied by the finder patterns.
+     *
+     * @param version The version of the symbol.
+     * @return The coordinates of the alignment patterns, empty for version 1.
+     */
+    public static int[] getAlignmentPatternPositions(int version) {
+        checkVersion(version);
+        if (version == 1) {
+            return new int[0];
+        }
+        int numAlign = version / 7 + 2;
+        int step = version == 32 ? 26 : (version * 4 + numAlign * 2 + 1) / (numAlign * 2 - 2) * 2;
+        int[] result = new int[numAlign];
+        result[0] = 6;
+        for (int i = numAlign - 1, pos = getSize(version) - 7; i >= 1; i--, pos -= step) {
+            result[i] = pos;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the group of versions sharing the same widths of character count fields: 0 for versions 1 to 9, 1 for
+     * versions 10 to 26 and 2 for versions 27 to 40.
+     *
+     * @param version The version of the symbol.
+     * @return The group of the version.
+     */
+    public static int getCharCountGroup(int version) {
+        checkVersion(version);
+        return version <= 9 ? 0 : (version <= 26 ? 1 : 2);
+    }
+
+    /**
+     * Returns the width of the character count field of a segment.
+     *
+     * @param mode The mode of the segment.
+     * @param version The version of the symbol.
+     * @return The number of bits of the character count field.
+     */
+    public static int getCharCountBits(QrSegment.Mode mode, int version) {
+        int group = getCharCountGroup(version);
+        switch (mode) {
+            case NUMERIC:
+                return NUMERIC_COUNT_BITS[group];
+            case ALPHANUMERIC:
+                return ALPHANUMERIC_COUNT_BITS[group];
+            case BYTE:
+                return BYTE_COUNT_BITS[group];
+            case KANJI:
+                return KANJI_COUNT_BITS[group];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the number of data bits of a segment, excluding its mode indicator and character count field.
+     *
+     * @param mode The mode of the segment.
+     * @param numChars The number of characters (bytes in byte mode) of the segment.
+     * @return The number of data bits.
+     */
+    public static int getDataBits(QrSegment.Mode mode, int numChars) {
+        switch (mode) {
+            case NUMERIC:
+                return numChars / 3 * 10 + NUMERIC_REMAINDER_BITS[numChars % 3];
+            case ALPHANUMERIC:
+                return numChars / 2 * 11 + (numChars % 2) * 6;
+            case BYTE:
+                return numChars * 8;
+            case KANJI:
+                return numChars * 13;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Checks that a version is valid.
+     *
+     * @param version The version to check.
+     */
+    private static void checkVersion(int version) {
+        if (version < MIN_VERSION || version > MAX_VERSION) {
+            throw new IllegalArgumentException("Version number out of range");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.Collections;
+import java.util.List;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * The result of the planning of a payload: its segments, and the smallest version that holds them, in a QR code or
+ * a Micro QR symbol.
+ */
+public final class SegmentPlan {
+
+    /**
+     * The segments of the payload.
+     */
+    private final List<QrSegment> segments;
+
+    /**
+     * The smallest version holding the segments at the requested error correction level.
+     */
+    private final int version;
+
+    /**
+     * The error correction level the plan was made for.
+     */
+    private final CorrectionLevel correctionLevel;
+
+    /**
+     * The number of bits of the segments, headers included.
+     */
+    private final int bitCount;
+
+    /**
+     * Whether the version is a Micro QR version.
+     */
+    private final boolean micro;
+
+    /**
+     * Constructs a segment plan.
+     *
+     * @param segments The segments of the payload.
+     * @param version The smallest version holding the segments.
+     * @param correctionLevel The error correction level the plan was made for.
+     * @param bitCount The number of bits of the segments, headers included.
+     */
+    SegmentPlan(List<QrSegment> segments, int version, CorrectionLevel correctionLevel, int bitCount) {
+        this(segments, version, correctionLevel, bitCount, false);
+    }
+
+    /**
+     * Constructs a segment plan.
+     *
+     * @param segments The segments of the payload.
+     * @param version The smallest version holding the segments.
+     * @param correctionLevel The error correction level the plan was made for.
+     * @param bitCount The number of bits of the segments, headers included.
+     * @param micro {@code true} if the version is a Micro QR version.
+     */
+    SegmentPlan(List<QrSegment> segments, int version, CorrectionLevel correctionLevel, int bitCount,
+            boolean micro) {
+        this.segments = Collections.unmodifiableList(segments);
+        this.version = version;
+        this.correctionLevel = correctionLevel;
+        this.bitCount = bitCount;
+        this.micro = micro;
+    }
+
+    /**
+     * Returns the segments of the payload, in order.
+     *
+     * @return An unmodifiable list of segments.
+     */
+    public List<QrSegment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Returns the smallest version holding the segments.
+     *
+     * @return The version, between 1 and 40, or between 2 and 4 for a Micro QR symbol (M2 to M4).
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Indicates whether the segments are planned for a Micro QR symbol.
+     *
+     * @return {@code true} for a Micro QR symbol, {@code false} for a QR code symbol.
+     */
+    public boolean isMicro() {
+        return micro;
+    }
+
+    /**
+     * Returns the error correction level the plan was made for.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the number of bits of the segments, mode indicators and character count fields included.
+     *
+     * @return The number of data bits.
+     */
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Returns the number of data bits available in a symbol of the chosen version and error correction level.
+     *
+     * @return The data capacity, in bits.
+     */
+    public int getCapacityBits() {
+        if (micro) {
+            return MicroQrSpec.getDataBits(version, correctionLevel);
+        }
+        return QrCodeSpec.getNumDataCodewords(version, correctionLevel) * 8;
+    }
+}
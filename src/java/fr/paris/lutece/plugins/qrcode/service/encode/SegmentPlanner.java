@@ -0,0 +1,394 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import io.nayuki.qrcodegen.BitBuffer;
+import io.nayuki.qrcodegen.QrSegment;
+import io.nayuki.qrcodegen.QrSegment.Mode;
+
+/**
+ * Splits a payload into segments of mixed modes (byte, alphanumeric, numeric and optionally kanji) so that it
+ * takes as few bits as possible.
+ * <p>
+ * The segment boundaries are chosen by dynamic programming over the characters of the payload: for each character
+ * and each mode, the cheapest encoding of the prefix ending in that mode is kept, switching modes whenever the
+ * header of a new segment costs less than staying in a less compact mode. Since the size of the character count
+ * fields depends on the version, the plan is computed once per version range (1-9, 10-26, 27-40) and the smallest
+ * version that holds it is chosen.
+ * </p>
+ * <p>
+ * Micro QR symbols have shorter mode indicators and character count fields, which differ for each version, and
+ * their smallest versions lack some modes: their plans are computed for each version by
+ * {@link #planMicro(byte[], CorrectionLevel, boolean)}.
+ * </p>
+ */
+public final class SegmentPlanner {
+
+    private static final int BYTE = 0;
+    private static final int ALPHANUMERIC = 1;
+    private static final int NUMERIC = 2;
+    private static final int KANJI = 3;
+    private static final Mode[] MODES = { Mode.BYTE, Mode.ALPHANUMERIC, Mode.NUMERIC, Mode.KANJI };
+
+    /**
+     * Costs are counted in sixths of a bit, so that the 5.5 bits of an alphanumeric character and the 3.33 bits of
+     * a numeric character are integers.
+     */
+    private static final int BYTE_COST = 8 * 6;
+    private static final int ALPHANUMERIC_COST = 33;
+    private static final int NUMERIC_COST = 20;
+    private static final int KANJI_COST = 13 * 6;
+    private static final int MODE_INDICATOR_BITS = 4;
+    private static final int INFINITE = Integer.MAX_VALUE / 2;
+
+    /**
+     * The longest payload of a Micro QR symbol, in bytes: 35 digits in version M4.
+     */
+    private static final int MAX_MICRO_PAYLOAD = 35;
+
+    private static final String ALPHANUMERIC_CHARSET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+    private static final String SHIFT_JIS = "Shift_JIS";
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private SegmentPlanner() {
+    }
+
+    /**
+     * Plans the segments of a payload.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param level The error correction level of the symbol.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @return The plan of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in a version 40 symbol.
+     */
+    public static SegmentPlan plan(byte[] payload, CorrectionLevel level, boolean kanji)
+            throws QrCodeGeneratorException {
+        return plan(payload, level, kanji, QrCodeSpec.MIN_VERSION);
+    }
+
+    /**
+     * Plans the segments of a payload in a symbol of at least the given version.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param level The error correction level of the symbol.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @param minVersion The smallest version of the symbol.
+     * @return The plan of the payload.
+     * @throws QrCodeGeneratorException If the payload does not fit in a version 40 symbol.
+     */
+    public static SegmentPlan plan(byte[] payload, CorrectionLevel level, boolean kanji, int minVersion)
+            throws QrCodeGeneratorException {
+        SegmentPlan plan = plan(payload, level, kanji, minVersion, QrCodeSpec.MAX_VERSION, 0);
+        if (plan == null) {
+            throw new QrCodeGeneratorException("Payload too long for a QR code: " + payload.length + " bytes");
+        }
+        return plan;
+    }
+
+    /**
+     * Plans the segments of a payload in a range of versions, leaving room for header bits written before the
+     * segments.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param level The error correction level of the symbol.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @param minVersion The smallest version of the symbol.
+     * @param maxVersion The largest version of the symbol.
+     * @param reservedBits The number of bits taken by the header of the symbol.
+     * @return The plan of the payload, or {@code null} if it does not fit in a symbol of the largest version.
+     */
+    static SegmentPlan plan(byte[] payload, CorrectionLevel level, boolean kanji, int minVersion, int maxVersion,
+            int reservedBits) {
+        int[] starts = characterStarts(payload);
+        int[] kanjiValues = kanji ? kanjiValues(payload, starts) : null;
+        byte[] modes = null;
+        int bitCount = INFINITE;
+        int group = -1;
+        for (int version = minVersion; version <= maxVersion; version++) {
+            int versionGroup = QrCodeSpec.getCharCountGroup(version);
+            if (versionGroup != group) {
+                group = versionGroup;
+                modes = computeModes(payload, starts, kanjiValues, headCosts(version));
+                bitCount = countBits(starts, modes, charCountBits(version), MODE_INDICATOR_BITS);
+            }
+            if (bitCount + reservedBits <= QrCodeSpec.getNumDataCodewords(version, level) * 8) {
+                return new SegmentPlan(makeSegments(payload, starts, kanjiValues, modes), version, level, bitCount);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Plans the segments of a payload in the smallest Micro QR symbol holding it.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param level The error correction level of the symbol.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @return The plan of the payload, or {@code null} if it does not fit in a Micro QR symbol at that level.
+     */
+    public static SegmentPlan planMicro(byte[] payload, CorrectionLevel level, boolean kanji) {
+        if (payload.length > MAX_MICRO_PAYLOAD) {
+            return null;
+        }
+        int[] starts = characterStarts(payload);
+        int[] kanjiValues = kanji ? kanjiValues(payload, starts) : null;
+        for (int version = MicroQrSpec.MIN_VERSION; version <= MicroQrSpec.MAX_VERSION; version++) {
+            if (!MicroQrSpec.isSupported(version, level)) {
+                continue;
+            }
+            int indicatorBits = MicroQrSpec.getModeIndicatorBits(version);
+            int[] countBits = new int[MODES.length];
+            int[] headCosts = new int[MODES.length];
+            for (int m = 0; m < MODES.length; m++) {
+                countBits[m] = MicroQrSpec.getCharCountBits(MODES[m], version);
+                headCosts[m] = countBits[m] == 0 ? -1 : (indicatorBits + countBits[m]) * 6;
+            }
+            byte[] modes = computeModes(payload, starts, kanjiValues, headCosts);
+            if (modes == null) {
+                continue;
+            }
+            int bitCount = countBits(starts, modes, countBits, indicatorBits);
+            if (bitCount <= MicroQrSpec.getDataBits(version, level)) {
+                return new SegmentPlan(makeSegments(payload, starts, kanjiValues, modes), version, level, bitCount,
+                        true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the bits of the optimal segments of a payload in a symbol of the given version, headers included.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @param version The version of the symbol.
+     * @return The number of bits, or {@link Integer#MAX_VALUE} halved if a segment is too long for the version.
+     */
+    static int countBits(byte[] payload, boolean kanji, int version) {
+        int[] starts = characterStarts(payload);
+        int[] kanjiValues = kanji ? kanjiValues(payload, starts) : null;
+        return countBits(starts, computeModes(payload, starts, kanjiValues, headCosts(version)),
+                charCountBits(version), MODE_INDICATOR_BITS);
+    }
+
+    /**
+     * Returns the byte offsets of the characters of a UTF-8 payload, with a final entry at the payload length.
+     */
+    static int[] characterStarts(byte[] payload) {
+        int[] starts = new int[payload.length + 1];
+        int n = 0;
+        int i = 0;
+        while (i < payload.length) {
+            starts[n++] = i;
+            int b = payload[i] & 0xFF;
+            int length = b < 0x80 ? 1 : (b >= 0xF0 ? 4 : (b >= 0xE0 ? 3 : (b >= 0xC0 ? 2 : 1)));
+            i = Math.min(i + length, payload.length);
+        }
+        starts[n] = payload.length;
+        return Arrays.copyOf(starts, n + 1);
+    }
+
+    /**
+     * Computes the 13-bit kanji mode value of each character, or -1 for the characters outside the kanji set.
+     */
+    private static int[] kanjiValues(byte[] payload, int[] starts) {
+        int n = starts.length - 1;
+        int[] values = new int[n];
+        Arrays.fill(values, -1);
+        if (!Charset.isSupported(SHIFT_JIS)) {
+            return values;
+        }
+        Charset sjis = Charset.forName(SHIFT_JIS);
+        for (int i = 0; i < n; i++) {
+            if (starts[i + 1] - starts[i] < 2) {
+                continue;
+            }
+            byte[] encoded = new String(payload, starts[i], starts[i + 1] - starts[i], StandardCharsets.UTF_8)
+                    .getBytes(sjis);
+            if (encoded.length != 2) {
+                continue;
+            }
+            int code = ((encoded[0] & 0xFF) << 8) | (encoded[1] & 0xFF);
+            if (code >= 0x8140 && code <= 0x9FFC) {
+                code -= 0x8140;
+            } else if (code >= 0xE040 && code <= 0xEBBF) {
+                code -= 0xC140;
+            } else {
+                continue;
+            }
+            values[i] = (code >> 8) * 0xC0 + (code & 0xFF);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the widths of the character count fields of a QR code version, by mode.
+     */
+    private static int[] charCountBits(int version) {
+        int[] countBits = new int[MODES.length];
+        for (int m = 0; m < MODES.length; m++) {
+            countBits[m] = QrCodeSpec.getCharCountBits(MODES[m], version);
+        }
+        return countBits;
+    }
+
+    /**
+     * Returns the cost of the header of a segment of each mode in a QR code version, in sixths of a bit.
+     */
+    private static int[] headCosts(int version) {
+        int[] headCosts = new int[MODES.length];
+        for (int m = 0; m < MODES.length; m++) {
+            headCosts[m] = (MODE_INDICATOR_BITS + QrCodeSpec.getCharCountBits(MODES[m], version)) * 6;
+        }
+        return headCosts;
+    }
+
+    /**
+     * Computes the optimal mode of each character, given the cost of the header of a segment of each mode (negative
+     * for the modes that are not available).
+     *
+     * @return The modes, or {@code null} if a character cannot be encoded by any available mode.
+     */
+    private static byte[] computeModes(byte[] payload, int[] starts, int[] kanjiValues, int[] headCosts) {
+        int n = starts.length - 1;
+        // charModes[i][j]: mode of character i when the encoding of the prefix ending at i is in state j
+        byte[][] charModes = new byte[n][MODES.length];
+        int[] prevCosts = headCosts.clone();
+        int[] curCosts = new int[MODES.length];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(curCosts, INFINITE);
+            Arrays.fill(charModes[i], (byte) -1);
+            int length = starts[i + 1] - starts[i];
+            if (headCosts[BYTE] >= 0) {
+                curCosts[BYTE] = prevCosts[BYTE] + length * BYTE_COST;
+                charModes[i][BYTE] = BYTE;
+            }
+            if (length == 1) {
+                int c = payload[starts[i]];
+                if (headCosts[ALPHANUMERIC] >= 0 && c >= 0 && ALPHANUMERIC_CHARSET.indexOf(c) >= 0) {
+                    curCosts[ALPHANUMERIC] = prevCosts[ALPHANUMERIC] + ALPHANUMERIC_COST;
+                    charModes[i][ALPHANUMERIC] = ALPHANUMERIC;
+                }
+                if (headCosts[NUMERIC] >= 0 && c >= '0' && c <= '9') {
+                    curCosts[NUMERIC] = prevCosts[NUMERIC] + NUMERIC_COST;
+                    charModes[i][NUMERIC] = NUMERIC;
+                }
+            }
+            if (headCosts[KANJI] >= 0 && kanjiValues != null && kanjiValues[i] >= 0) {
+                curCosts[KANJI] = prevCosts[KANJI] + KANJI_COST;
+                charModes[i][KANJI] = KANJI;
+            }
+            if (charModes[i][BYTE] < 0 && charModes[i][ALPHANUMERIC] < 0 && charModes[i][NUMERIC] < 0
+                    && charModes[i][KANJI] < 0) {
+                return null;
+            }
+            // Start a new segment after this character to switch to mode j
+            for (int j = 0; j < MODES.length; j++) {
+                if (headCosts[j] < 0) {
+                    continue;
+                }
+                for (int k = 0; k < MODES.length; k++) {
+                    if (charModes[i][k] < 0) {
+                        continue;
+                    }
+                    int newCost = (curCosts[k] + 5) / 6 * 6 + headCosts[j];
+                    if (charModes[i][j] < 0 || newCost < curCosts[j]) {
+                        curCosts[j] = newCost;
+                        charModes[i][j] = charModes[i][k];
+                    }
+                }
+            }
+            int[] swap = prevCosts;
+            prevCosts = curCosts;
+            curCosts = swap;
+        }
+        int state = 0;
+        for (int m = 1; m < MODES.length; m++) {
+            if (prevCosts[m] < prevCosts[state]) {
+                state = m;
+            }
+        }
+        byte[] modes = new byte[n];
+        for (int i = n - 1; i >= 0; i--) {
+            modes[i] = charModes[i][state];
+            state = modes[i];
+        }
+        return modes;
+    }
+
+    /**
+     * Counts the bits of the segments described by the character modes, given the widths of the character count
+     * fields by mode and of the mode indicators, or returns {@link #INFINITE} if a segment is too long for its
+     * character count field.
+     */
+    private static int countBits(int[] starts, byte[] modes, int[] charCountBits, int indicatorBits) {
+        int bits = 0;
+        int i = 0;
+        while (i < modes.length) {
+            int end = runEnd(modes, i);
+            Mode mode = MODES[modes[i]];
+            int count = mode == Mode.BYTE ? starts[end] - starts[i] : end - i;
+            int countBits = charCountBits[modes[i]];
+            if (count >= 1 << countBits) {
+                return INFINITE;
+            }
+            bits += indicatorBits + countBits + QrCodeSpec.getDataBits(mode, count);
+            i = end;
+        }
+        return bits;
+    }
+
+    /**
+     * Builds the segments described by the character modes.
+     */
+    private static List<QrSegment> makeSegments(byte[] payload, int[] starts, int[] kanjiValues, byte[] modes) {
+        List<QrSegment> segments = new ArrayList<>();
+        int i = 0;
+        while (i < modes.length) {
+            int end = runEnd(modes, i);
+            int from = starts[i];
+            int to = starts[end];
+            switch (modes[i]) {
+                case NUMERIC:
+                    segments.add(QrSegment.makeNumeric(new String(payload, from, to - from, StandardCharsets.US_ASCII)));
+                    break;
+                case ALPHANUMERIC:
+                    segments.add(QrSegment.makeAlphanumeric(
+                            new String(payload, from, to - from, StandardCharsets.US_ASCII)));
+                    break;
+                case KANJI:
+                    BitBuffer data = new BitBuffer();
+                    for (int k = i; k < end; k++) {
+                        data.appendBits(kanjiValues[k], 13);
+                    }
+                    segments.add(new QrSegment(Mode.KANJI, end - i, data));
+                    break;
+                default:
+                    segments.add(QrSegment.makeBytes(Arrays.copyOfRange(payload, from, to)));
+                    break;
+            }
+            i = end;
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the end (exclusive) of the run of characters sharing the mode of character {@code start}.
+     */
+    private static int runEnd(byte[] modes, int start) {
+        int end = start + 1;
+        while (end < modes.length && modes[end] == modes[start]) {
+            end++;
+        }
+        return end;
+    }
+}
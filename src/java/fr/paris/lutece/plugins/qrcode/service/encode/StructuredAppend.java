@@ -0,0 +1,289 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import io.nayuki.qrcodegen.BitBuffer;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Splits a payload too long for one symbol into a Structured Append sequence of up to 16 symbols.
+ * <p>
+ * Each symbol of the sequence starts with a 20-bit header (mode indicator {@code 0011}, position of the symbol,
+ * number of symbols minus one, and parity of the whole message as encoded), so that readers supporting Structured
+ * Append put the parts back together. The payload is split on character boundaries, so that each part is valid UTF-8 on its
+ * own. The number of symbols is the smallest one allowed by the maximum version; the parts are then balanced so
+ * that all the symbols share the smallest version holding them.
+ * </p>
+ */
+public final class StructuredAppend {
+
+    /**
+     * The largest number of symbols of a sequence.
+     */
+    public static final int MAX_SYMBOLS = 16;
+
+    /**
+     * The number of bits of the header of each symbol.
+     */
+    public static final int HEADER_BITS = 20;
+
+    /**
+     * The mode indicator of the header.
+     */
+    static final int MODE_INDICATOR = 0x3;
+
+    /**
+     * The characters of the alphanumeric mode, by value.
+     */
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private StructuredAppend() {
+    }
+
+    /**
+     * Computes the parity of a message: the exclusive or of all its bytes.
+     *
+     * @param payload The bytes of the whole message.
+     * @return The parity, between 0 and 255.
+     */
+    public static int parity(byte[] payload) {
+        int parity = 0;
+        for (byte b : payload) {
+            parity ^= b;
+        }
+        return parity & 0xFF;
+    }
+
+    /**
+     * Computes the parity of a message from the segments encoding it: the exclusive or of the bytes as they are
+     * encoded in the symbols. The characters of kanji segments count as their two Shift JIS bytes, the other
+     * characters as their bytes in the payload, so that the parity matches {@link #parity(byte[])} when no kanji
+     * mode segment is used.
+     *
+     * @param plans The plans of the parts of the message, as returned by
+     *        {@link #plan(byte[], CorrectionLevel, boolean, int)}.
+     * @return The parity, between 0 and 255.
+     */
+    public static int parity(List<SegmentPlan> plans) {
+        int parity = 0;
+        for (SegmentPlan plan : plans) {
+            for (QrSegment segment : plan.getSegments()) {
+                parity ^= parity(segment);
+            }
+        }
+        return parity & 0xFF;
+    }
+
+    /**
+     * Computes the exclusive or of the bytes of the characters of a segment, read back from its data bits.
+     */
+    private static int parity(QrSegment segment) {
+        BitBuffer data = segment.getData();
+        int parity = 0;
+        int position = 0;
+        switch (segment.mode) {
+            case NUMERIC:
+                for (int remaining = segment.numChars; remaining > 0; remaining -= 3) {
+                    int digits = Math.min(3, remaining);
+                    int value = bits(data, position, digits * 3 + 1);
+                    position += digits * 3 + 1;
+                    for (int i = 0; i < digits; i++, value /= 10) {
+                        parity ^= '0' + value % 10;
+                    }
+                }
+                break;
+            case ALPHANUMERIC:
+                for (int remaining = segment.numChars; remaining > 0; remaining -= 2) {
+                    int characters = Math.min(2, remaining);
+                    int value = bits(data, position, characters * 5 + 1);
+                    position += characters * 5 + 1;
+                    for (int i = 0; i < characters; i++, value /= ALPHANUMERIC.length()) {
+                        parity ^= ALPHANUMERIC.charAt(value % ALPHANUMERIC.length());
+                    }
+                }
+                break;
+            case KANJI:
+                for (int i = 0; i < segment.numChars; i++, position += 13) {
+                    int value = bits(data, position, 13);
+                    int code = (value / 0xC0) << 8 | value % 0xC0;
+                    code += code < 0x1F00 ? 0x8140 : 0xC140;
+                    parity ^= code >> 8 ^ code;
+                }
+                break;
+            case BYTE:
+                for (; position < data.bitLength(); position += 8) {
+                    parity ^= bits(data, position, 8);
+                }
+                break;
+            default:
+                // ECI designators are not part of the data
+                break;
+        }
+        return parity & 0xFF;
+    }
+
+    /**
+     * Reads an unsigned value from a bit buffer, most significant bit first.
+     */
+    private static int bits(BitBuffer data, int position, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 1 | data.getBit(position + i);
+        }
+        return value;
+    }
+
+    /**
+     * Plans the symbols of a payload. A payload fitting in one symbol of the maximum version gets a single plan,
+     * which is meant to be encoded as a plain symbol, without Structured Append header.
+     *
+     * @param payload The UTF-8 bytes of the payload.
+     * @param level The error correction level of the symbols.
+     * @param kanji {@code true} to allow the kanji mode for the characters of the Shift JIS kanji set.
+     * @param maxVersion The largest version of the symbols.
+     * @return The plans of the parts of the payload, in order.
+     * @throws QrCodeGeneratorException If the payload does not fit in 16 symbols of the maximum version.
+     */
+    public static List<SegmentPlan> plan(byte[] payload, CorrectionLevel level, boolean kanji, int maxVersion)
+            throws QrCodeGeneratorException {
+        if (maxVersion < QrCodeSpec.MIN_VERSION || maxVersion > QrCodeSpec.MAX_VERSION) {
+            throw new IllegalArgumentException("Version out of range: " + maxVersion);
+        }
+        SegmentPlan single = SegmentPlanner.plan(payload, level, kanji, QrCodeSpec.MIN_VERSION, maxVersion, 0);
+        if (single != null) {
+            return Collections.singletonList(single);
+        }
+        int[] starts = SegmentPlanner.characterStarts(payload);
+        int[] bounds = split(payload, starts, level, kanji, maxVersion, MAX_SYMBOLS);
+        if (bounds == null) {
+            throw new QrCodeGeneratorException("Payload too long for " + MAX_SYMBOLS + " QR codes of version "
+                    + maxVersion + ": " + payload.length + " bytes");
+        }
+        // The number of parts only grows when the version decreases: look for the smallest version keeping it. The
+        // parts cannot hold fewer bits than the whole payload in the versions with the shortest count fields.
+        int parts = bounds.length - 1;
+        int payloadBits = SegmentPlanner.countBits(payload, kanji, QrCodeSpec.MIN_VERSION);
+        int low = QrCodeSpec.MIN_VERSION;
+        while (low < maxVersion
+                && (long) parts * (QrCodeSpec.getNumDataCodewords(low, level) * 8 - HEADER_BITS) < payloadBits) {
+            low++;
+        }
+        int high = maxVersion;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int[] candidate = split(payload, starts, level, kanji, middle, parts);
+            if (candidate != null) {
+                bounds = candidate;
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        List<SegmentPlan> plans = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            plans.add(SegmentPlanner.plan(part(payload, starts, bounds[i], bounds[i + 1]), level, kanji,
+                    QrCodeSpec.MIN_VERSION, high, HEADER_BITS));
+        }
+        return plans;
+    }
+
+    /**
+     * Splits the characters of a payload greedily, each part taking as many characters as a symbol of the version
+     * holds.
+     *
+     * @return The character index of the start of each part, followed by the number of characters, or {@code null}
+     *         if more than {@code maxParts} parts are needed.
+     */
+    private static int[] split(byte[] payload, int[] starts, CorrectionLevel level, boolean kanji, int version,
+            int maxParts) {
+        int characters = starts.length - 1;
+        // No character takes less than the 10 bits of three digits
+        int maxCharacters = ((QrCodeSpec.getNumDataCodewords(version, level) * 8 - HEADER_BITS) * 3 + 9) / 10;
+        int[] bounds = new int[maxParts + 1];
+        int parts = 0;
+        int from = 0;
+        int length = maxCharacters / 2;
+        while (from < characters) {
+            if (parts == maxParts || !fits(payload, starts, from, from + 1, level, kanji, version)) {
+                return null;
+            }
+            int end = longestFit(payload, starts, from, Math.min(characters, from + maxCharacters),
+                    Math.min(characters, from + length), level, kanji, version);
+            bounds[++parts] = end;
+            // The parts of a payload tend to have similar lengths: the next search starts from this one
+            length = end - from;
+            from = end;
+        }
+        return Arrays.copyOf(bounds, parts + 1);
+    }
+
+    /**
+     * Finds the end of the longest range of characters fitting in a symbol, searching outwards from a guess and
+     * then by bisection, so that a close guess costs a few plans only.
+     *
+     * @param from The first character of the range, which is known to fit on its own.
+     * @param limit The largest possible end of the range.
+     * @param guess The first end tried.
+     * @return The largest end of a fitting range.
+     */
+    private static int longestFit(byte[] payload, int[] starts, int from, int limit, int guess,
+            CorrectionLevel level, boolean kanji, int version) {
+        int low = from + 1;
+        int high = limit;
+        int probe = Math.max(low, Math.min(high, guess));
+        if (probe > low && fits(payload, starts, from, probe, level, kanji, version)) {
+            low = probe;
+            for (int step = 1; low < high; step <<= 1) {
+                probe = (int) Math.min(high, (long) low + step);
+                if (!fits(payload, starts, from, probe, level, kanji, version)) {
+                    high = probe - 1;
+                    break;
+                }
+                low = probe;
+            }
+        } else if (probe > low) {
+            high = probe - 1;
+            for (int step = 1; low < high; step <<= 1) {
+                probe = Math.max(low + 1, high + 1 - step);
+                if (fits(payload, starts, from, probe, level, kanji, version)) {
+                    low = probe;
+                    break;
+                }
+                high = probe - 1;
+            }
+        }
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (fits(payload, starts, from, middle, level, kanji, version)) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns {@code true} if a range of characters fits in a symbol of the version, after the header.
+     */
+    private static boolean fits(byte[] payload, int[] starts, int from, int to, CorrectionLevel level,
+            boolean kanji, int version) {
+        return SegmentPlanner.plan(part(payload, starts, from, to), level, kanji, version, version,
+                HEADER_BITS) != null;
+    }
+
+    /**
+     * Returns the bytes of a range of characters.
+     */
+    private static byte[] part(byte[] payload, int[] starts, int from, int to) {
+        return Arrays.copyOfRange(payload, starts[from], starts[to]);
+    }
+}
@@ -0,0 +1,272 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The fixed parts of the symbols of one version, packed as bitboards for the {@link QrCodeEncoder}: the function
+ * patterns, the position of each data bit and the eight mask patterns.
+ * <p>
+ * Boards hold one row (or one column, for the transposed boards) per {@code wordsPerLine} consecutive {@code long}
+ * words, bit {@code x & 63} of word {@code x >>> 6} being the module of column {@code x} (or row {@code x}). Layouts
+ * are computed once per version and shared; they are immutable.
+ * </p>
+ */
+final class SymbolLayout {
+
+    private static final int MASKS = 8;
+
+    private static final AtomicReferenceArray<SymbolLayout> LAYOUTS =
+            new AtomicReferenceArray<>(QrCodeSpec.MAX_VERSION + 1);
+
+    final int version;
+    final int size;
+    final int wordsPerLine;
+
+    /**
+     * The dark modules of the function patterns (finders, timing, alignment, version information and the dark
+     * module), by row. The format information is not included: it depends on the mask.
+     */
+    final long[] patternRows;
+
+    /**
+     * The dark modules of the function patterns, by column.
+     */
+    final long[] patternColumns;
+
+    /**
+     * The modules flipped by each mask, by row, restricted to the data modules.
+     */
+    final long[][] maskRows;
+
+    /**
+     * The modules flipped by each mask, by column, restricted to the data modules.
+     */
+    final long[][] maskColumns;
+
+    /**
+     * The module of each bit of the interleaved codewords, in placement order, as a bit position in the boards by
+     * row: bit {@code p & 63} of word {@code p >>> 6}. Remainder bits are not included.
+     */
+    final int[] dataRows;
+
+    /**
+     * The module of each bit of the interleaved codewords, as a bit position in the boards by column.
+     */
+    final int[] dataColumns;
+
+    /**
+     * The modules of the first copy of the 15 format information bits, as {@code y * size + x}, least significant
+     * bit first.
+     */
+    final int[] formatModules;
+
+    /**
+     * The modules of the second copy of the 15 format information bits.
+     */
+    final int[] formatModulesCopy;
+
+    /**
+     * Builds the layout of a version.
+     */
+    private SymbolLayout(int version) {
+        this.version = version;
+        this.size = QrCodeSpec.getSize(version);
+        this.wordsPerLine = (size + 63) >>> 6;
+        boolean[] function = new boolean[size * size];
+        boolean[] dark = new boolean[size * size];
+        drawFunctionPatterns(function, dark);
+
+        formatModules = new int[15];
+        formatModulesCopy = new int[15];
+        for (int i = 0; i <= 5; i++) {
+            formatModules[i] = i * size + 8;
+        }
+        formatModules[6] = 7 * size + 8;
+        formatModules[7] = 8 * size + 8;
+        formatModules[8] = 8 * size + 7;
+        for (int i = 9; i < 15; i++) {
+            formatModules[i] = 8 * size + 14 - i;
+        }
+        for (int i = 0; i < 8; i++) {
+            formatModulesCopy[i] = 8 * size + size - 1 - i;
+        }
+        for (int i = 8; i < 15; i++) {
+            formatModulesCopy[i] = (size - 15 + i) * size + 8;
+        }
+        for (int i = 0; i < 15; i++) {
+            function[formatModules[i]] = true;
+            function[formatModulesCopy[i]] = true;
+        }
+
+        patternRows = new long[wordsPerLine * size];
+        patternColumns = new long[wordsPerLine * size];
+        for (int index = 0; index < dark.length; index++) {
+            if (dark[index]) {
+                set(patternRows, patternColumns, index);
+            }
+        }
+
+        dataRows = new int[QrCodeSpec.getNumCodewords(version) * 8];
+        dataColumns = new int[dataRows.length];
+        int bit = 0;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                right = 5;
+            }
+            boolean upward = ((right + 1) & 2) == 0;
+            for (int vert = 0; vert < size; vert++) {
+                int y = upward ? size - 1 - vert : vert;
+                for (int j = 0; j < 2; j++) {
+                    int x = right - j;
+                    if (!function[y * size + x] && bit < dataRows.length) {
+                        dataRows[bit] = (y * wordsPerLine << 6) + x;
+                        dataColumns[bit++] = (x * wordsPerLine << 6) + y;
+                    }
+                }
+            }
+        }
+
+        maskRows = new long[MASKS][wordsPerLine * size];
+        maskColumns = new long[MASKS][wordsPerLine * size];
+        for (int mask = 0; mask < MASKS; mask++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (!function[y * size + x] && isMasked(mask, x, y)) {
+                        set(maskRows[mask], maskColumns[mask], y * size + x);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the layout of a version, computing it on first use.
+     *
+     * @param version The version of the symbols.
+     * @return The shared layout of the version.
+     */
+    static SymbolLayout of(int version) {
+        SymbolLayout layout = LAYOUTS.get(version);
+        if (layout == null) {
+            layout = new SymbolLayout(version);
+            if (!LAYOUTS.compareAndSet(version, null, layout)) {
+                layout = LAYOUTS.get(version);
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Sets a module in a board by row and in a board by column.
+     *
+     * @param rows The board by row.
+     * @param columns The board by column.
+     * @param index The module, as {@code y * size + x}.
+     */
+    void set(long[] rows, long[] columns, int index) {
+        int y = index / size;
+        int x = index - y * size;
+        rows[y * wordsPerLine + (x >>> 6)] |= 1L << (x & 63);
+        columns[x * wordsPerLine + (y >>> 6)] |= 1L << (y & 63);
+    }
+
+    /**
+     * Draws the function patterns of the version, marking their modules as function modules.
+     */
+    private void drawFunctionPatterns(boolean[] function, boolean[] dark) {
+        // Timing patterns
+        for (int i = 0; i < size; i++) {
+            draw(function, dark, 6, i, i % 2 == 0);
+            draw(function, dark, i, 6, i % 2 == 0);
+        }
+        // Finder patterns with their separators
+        drawFinderPattern(function, dark, 3, 3);
+        drawFinderPattern(function, dark, size - 4, 3);
+        drawFinderPattern(function, dark, 3, size - 4);
+        // Alignment patterns, except over the finder patterns
+        int[] positions = QrCodeSpec.getAlignmentPatternPositions(version);
+        int last = positions.length - 1;
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j <= last; j++) {
+                if (!(i == 0 && j == 0 || i == 0 && j == last || i == last && j == 0)) {
+                    for (int dy = -2; dy <= 2; dy++) {
+                        for (int dx = -2; dx <= 2; dx++) {
+                            draw(function, dark, positions[i] + dx, positions[j] + dy,
+                                    Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+                        }
+                    }
+                }
+            }
+        }
+        // Version information
+        if (version >= 7) {
+            int remainder = version;
+            for (int i = 0; i < 12; i++) {
+                remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+            }
+            int bits = version << 12 | remainder;
+            for (int i = 0; i < 18; i++) {
+                boolean bit = ((bits >>> i) & 1) != 0;
+                int a = size - 11 + i % 3;
+                int b = i / 3;
+                draw(function, dark, a, b, bit);
+                draw(function, dark, b, a, bit);
+            }
+        }
+        // Dark module
+        draw(function, dark, 8, size - 8, true);
+    }
+
+    /**
+     * Draws a finder pattern and its separator, clipped to the symbol.
+     */
+    private void drawFinderPattern(boolean[] function, boolean[] dark, int x, int y) {
+        for (int dy = -4; dy <= 4; dy++) {
+            for (int dx = -4; dx <= 4; dx++) {
+                int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                int xx = x + dx;
+                int yy = y + dy;
+                if (0 <= xx && xx < size && 0 <= yy && yy < size) {
+                    draw(function, dark, xx, yy, distance != 2 && distance != 4);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws one function module.
+     */
+    private void draw(boolean[] function, boolean[] dark, int x, int y, boolean isDark) {
+        function[y * size + x] = true;
+        dark[y * size + x] = isDark;
+    }
+
+    /**
+     * Indicates whether a mask flips the module at the given coordinates (ISO/IEC 18004, table 10).
+     *
+     * @param mask The mask pattern, between 0 and 7.
+     * @param x The column of the module.
+     * @param y The row of the module.
+     * @return {@code true} if the module is flipped.
+     */
+    static boolean isMasked(int mask, int x, int y) {
+        switch (mask) {
+            case 0:
+                return (x + y) % 2 == 0;
+            case 1:
+                return y % 2 == 0;
+            case 2:
+                return x % 3 == 0;
+            case 3:
+                return (x + y) % 3 == 0;
+            case 4:
+                return (x / 3 + y / 2) % 2 == 0;
+            case 5:
+                return x * y % 2 + x * y % 3 == 0;
+            case 6:
+                return (x * y % 2 + x * y % 3) % 2 == 0;
+            default:
+                return ((x + y) % 2 + x * y % 3) % 2 == 0;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package fr.paris.lutece.plugins.qrcode.service.encode;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+
+/**
+ * The fixed parts of the symbols of one version and one error correction level, for the {@link QrCodeEncoder}: the
+ * {@link SymbolLayout} of the version, the block structure of the codewords, the Reed-Solomon generator of the
+ * blocks and the interleaved position of each codeword.
+ * <p>
+ * The generator is stored as a product table: row {@code f} holds the coefficients of the generator polynomial
+ * multiplied by {@code f}, so that each data codeword costs one row of XORs. Generators depend on the degree only
+ * and are shared by all the templates of that degree. Templates and generators are computed on first use, or by
+ * {@link QrCodeEncoder#warmUp(int[], CorrectionLevel[])}, and shared; they are immutable.
+ * </p>
+ */
+final class SymbolTemplate {
+
+    private static final int LEVELS = CorrectionLevel.values().length;
+    private static final int MAX_DEGREE = 30;
+
+    private static final AtomicReferenceArray<SymbolTemplate> TEMPLATES =
+            new AtomicReferenceArray<>((QrCodeSpec.MAX_VERSION + 1) * LEVELS);
+    private static final AtomicReferenceArray<byte[]> GENERATORS = new AtomicReferenceArray<>(MAX_DEGREE + 1);
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= 0x11D;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    final SymbolLayout layout;
+    final CorrectionLevel level;
+    final int dataCodewords;
+    final int numBlocks;
+    final int numShortBlocks;
+    final int shortBlockData;
+    final int eccLength;
+
+    /**
+     * The generator polynomial multiplied by each element of the field: {@code eccLength} coefficients per element,
+     * highest power first, the leading coefficient excluded.
+     */
+    final byte[] generator;
+
+    /**
+     * The interleaved position of each codeword, in block order: the data codewords of all the blocks, then the
+     * error correction codewords of the first block, of the second one, and so on.
+     */
+    final int[] positions;
+
+    /**
+     * Builds the template of a version and a correction level.
+     */
+    private SymbolTemplate(int version, CorrectionLevel level) {
+        this.layout = SymbolLayout.of(version);
+        this.level = level;
+        this.dataCodewords = QrCodeSpec.getNumDataCodewords(version, level);
+        this.numBlocks = QrCodeSpec.getNumBlocks(version, level);
+        this.eccLength = QrCodeSpec.getEccCodewordsPerBlock(version, level);
+        int numCodewords = QrCodeSpec.getNumCodewords(version);
+        this.numShortBlocks = numBlocks - numCodewords % numBlocks;
+        this.shortBlockData = numCodewords / numBlocks - eccLength;
+        this.generator = generator(eccLength);
+
+        positions = new int[numCodewords];
+        for (int block = 0, offset = 0; block < numBlocks; block++) {
+            int length = shortBlockData + (block < numShortBlocks ? 0 : 1);
+            for (int j = 0; j < length; j++) {
+                positions[offset + j] = j < shortBlockData ? j * numBlocks + block
+                        : shortBlockData * numBlocks + block - numShortBlocks;
+            }
+            offset += length;
+        }
+        for (int block = 0; block < numBlocks; block++) {
+            for (int j = 0; j < eccLength; j++) {
+                positions[dataCodewords + block * eccLength + j] = dataCodewords + j * numBlocks + block;
+            }
+        }
+    }
+
+    /**
+     * Returns the template of a version and a correction level, computing it on first use.
+     *
+     * @param version The version of the symbols.
+     * @param level The error correction level of the symbols.
+     * @return The shared template.
+     */
+    static SymbolTemplate of(int version, CorrectionLevel level) {
+        int index = version * LEVELS + level.ordinal();
+        SymbolTemplate template = TEMPLATES.get(index);
+        if (template == null) {
+            template = new SymbolTemplate(version, level);
+            if (!TEMPLATES.compareAndSet(index, null, template)) {
+                template = TEMPLATES.get(index);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Computes the error correction codewords of the data codewords.
+     *
+     * @param data The data codewords, in block order.
+     * @return The error correction codewords of each block in turn.
+     */
+    byte[] ecc(byte[] data) {
+        byte[] ecc = new byte[numBlocks * eccLength];
+        for (int block = 0, offset = 0; block < numBlocks; block++) {
+            int length = shortBlockData + (block < numShortBlocks ? 0 : 1);
+            remainder(data, offset, length, generator, eccLength, ecc, block * eccLength);
+            offset += length;
+        }
+        return ecc;
+    }
+
+    /**
+     * Computes the error correction codewords of a single block, as in the Micro QR symbols.
+     *
+     * @param data The data codewords of the block.
+     * @param degree The number of error correction codewords.
+     * @return The error correction codewords.
+     */
+    static byte[] ecc(byte[] data, int degree) {
+        byte[] ecc = new byte[degree];
+        remainder(data, 0, data.length, generator(degree), degree, ecc, 0);
+        return ecc;
+    }
+
+    /**
+     * Divides the codewords of a block by the generator polynomial; the remainder of the division is computed in
+     * place, in a slice of the error correction codewords.
+     */
+    private static void remainder(byte[] data, int offset, int length, byte[] generator, int degree, byte[] ecc,
+            int base) {
+        int last = base + degree - 1;
+        for (int j = 0; j < length; j++) {
+            int factor = (data[offset + j] ^ ecc[base]) & 0xFF;
+            System.arraycopy(ecc, base + 1, ecc, base, degree - 1);
+            ecc[last] = 0;
+            if (factor != 0) {
+                for (int i = 0, row = factor * degree; i < degree; i++) {
+                    ecc[base + i] ^= generator[row + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the product table of the generator polynomial of a degree, computing it on first use.
+     */
+    private static byte[] generator(int degree) {
+        byte[] products = GENERATORS.get(degree);
+        if (products != null) {
+            return products;
+        }
+        // The generator is the product of (x - 2^i) for i from 0 to degree - 1
+        int[] divisor = new int[degree];
+        divisor[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; i++) {
+            for (int j = 0; j < degree; j++) {
+                divisor[j] = multiply(divisor[j], root);
+                if (j + 1 < degree) {
+                    divisor[j] ^= divisor[j + 1];
+                }
+            }
+            root = multiply(root, 0x02);
+        }
+        products = new byte[256 * degree];
+        for (int factor = 1; factor < 256; factor++) {
+            for (int j = 0; j < degree; j++) {
+                if (divisor[j] != 0) {
+                    products[factor * degree + j] = (byte) EXP[LOG[factor] + LOG[divisor[j]]];
+                }
+            }
+        }
+        if (!GENERATORS.compareAndSet(degree, null, products)) {
+            products = GENERATORS.get(degree);
+        }
+        return products;
+    }
+
+    /**
+     * Multiplies two elements of GF(2^8/0x11D).
+     */
+    private static int multiply(int x, int y) {
+        int z = 0;
+        for (int i = 7; i >= 0; i--) {
+            z = (z << 1) ^ ((z >>> 7) * 0x11D);
+            z ^= ((y >>> i) & 1) * x;
+        }
+        return z;
+    }
+}
@@ -0,0 +1,59 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Receives the measures taken while QR codes are generated.
+ * <p>
+ * Listeners are called synchronously from the generating threads, possibly concurrently, so implementations must
+ * be thread-safe and fast. All the methods do nothing by default. When no listener is configured, no measure is
+ * taken at all.
+ * </p>
+ */
+public interface IQrCodeMetricsListener {
+
+    /**
+     * Called when a stage of the generation completes.
+     *
+     * @param stage The completed stage.
+     * @param nanos The duration of the stage, in nanoseconds.
+     */
+    default void onStage(QrCodeStage stage, long nanos) {
+    }
+
+    /**
+     * Called when a payload has been encoded, or found in the symbol cache.
+     *
+     * @param matrix The symbol: version, mask, correction level and size.
+     */
+    default void onSymbol(QrCodeMatrix matrix) {
+    }
+
+    /**
+     * Called when a symbol cache has been looked up.
+     *
+     * @param hit {@code true} if the symbol was found in the cache.
+     */
+    default void onCacheAccess(boolean hit) {
+    }
+
+    /**
+     * Called when a QR code has been serialized.
+     *
+     * @param format The output format.
+     * @param bytes The size of the serialized QR code, in bytes (in characters for SVG documents).
+     */
+    default void onOutput(OutputFormat format, long bytes) {
+    }
+
+    /**
+     * Called when the generation of a QR code fails.
+     *
+     * @param stage The stage that failed.
+     * @param exception The failure.
+     */
+    default void onFailure(QrCodeStage stage, QrCodeGeneratorException exception) {
+    }
+}
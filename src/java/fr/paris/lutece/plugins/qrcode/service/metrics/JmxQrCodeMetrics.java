@@ -0,0 +1,392 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+
+/**
+ * Metrics listener exposing its counters as a JMX MXBean, with no dependency beyond the JDK.
+ * <p>
+ * All the counters are lock-free ({@link LongAdder} and atomic arrays), so the listener can stay enabled under
+ * full load. Stage latencies are recorded in power of two buckets, from which the median and the 99th percentile
+ * are estimated.
+ * </p>
+ */
+public class JmxQrCodeMetrics implements IQrCodeMetricsListener, QrCodeMetricsMXBean {
+
+    /**
+     * The default name of the MXBean.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "fr.paris.lutece.plugins.qrcode:type=QrCodeMetrics";
+
+    private static final QrCodeStage[] STAGES = QrCodeStage.values();
+    private static final CorrectionLevel[] LEVELS = CorrectionLevel.values();
+    private static final int BUCKETS = 64;
+    private static final int MASKS = 8;
+
+    private final StageStatistics[] stages = new StageStatistics[STAGES.length];
+    private final AtomicLongArray versions = new AtomicLongArray(QrCodeSpec.MAX_VERSION + 1);
+    private final AtomicLongArray microVersions = new AtomicLongArray(MicroQrSpec.MAX_VERSION + 1);
+    private final AtomicLongArray masks = new AtomicLongArray(MASKS);
+    private final AtomicLongArray levels = new AtomicLongArray(LEVELS.length);
+    private final LongAdder symbols = new LongAdder();
+    private final LongAdder modules = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder outputs = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+
+    /**
+     * Constructs a listener with all its counters at zero. It is not registered.
+     */
+    public JmxQrCodeMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new StageStatistics();
+        }
+    }
+
+    /**
+     * Registers this listener in the platform MBean server under {@link #DEFAULT_OBJECT_NAME}.
+     *
+     * @return This listener, to be passed to the builders or to {@link QrCodeMetrics#setDefaultListener}.
+     * @throws JMException If the registration fails, e.g. if the name is already registered.
+     */
+    public JmxQrCodeMetrics register() throws JMException {
+        return register(DEFAULT_OBJECT_NAME);
+    }
+
+    /**
+     * Registers this listener in the platform MBean server.
+     *
+     * @param objectName The name of the MXBean.
+     * @return This listener, to be passed to the builders or to {@link QrCodeMetrics#setDefaultListener}.
+     * @throws JMException If the registration fails, e.g. if the name is already registered.
+     */
+    public JmxQrCodeMetrics register(String objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(objectName));
+        return this;
+    }
+
+    /**
+     * Unregisters an MXBean from the platform MBean server, if registered.
+     *
+     * @param objectName The name of the MXBean.
+     * @throws JMException If the name is malformed or the unregistration fails.
+     */
+    public static void unregister(String objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(objectName);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStage(QrCodeStage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSymbol(QrCodeMatrix matrix) {
+        symbols.increment();
+        modules.add((long) matrix.getSize() * matrix.getSize());
+        (matrix.isMicro() ? microVersions : versions).incrementAndGet(matrix.getVersion());
+        masks.incrementAndGet(matrix.getMask());
+        levels.incrementAndGet(matrix.getCorrectionLevel().ordinal());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCacheAccess(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOutput(OutputFormat format, long bytes) {
+        outputs.increment();
+        outputBytes.add(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFailure(QrCodeStage stage, QrCodeGeneratorException exception) {
+        failures.increment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSymbolCount() {
+        return symbols.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOutputCount() {
+        return outputs.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QrCodeStage stage : STAGES) {
+            result.put(stage.name(), stages[stage.ordinal()].count.sum());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getStageMeanNanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QrCodeStage stage : STAGES) {
+            StageStatistics statistics = stages[stage.ordinal()];
+            long count = statistics.count.sum();
+            result.put(stage.name(), count == 0 ? 0 : statistics.total.sum() / count);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getStageMedianNanos() {
+        return percentiles(0.5);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getStage99thPercentileNanos() {
+        return percentiles(0.99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getStageMaxNanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QrCodeStage stage : STAGES) {
+            result.put(stage.name(), stages[stage.ordinal()].max.get());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Long> getVersionCounts() {
+        return counts(versions, QrCodeSpec.MIN_VERSION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Long> getMicroVersionCounts() {
+        return counts(microVersions, MicroQrSpec.MIN_VERSION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Long> getMaskCounts() {
+        return counts(masks, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCorrectionLevelCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (CorrectionLevel level : LEVELS) {
+            result.put(level.name(), levels.get(level.ordinal()));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getModuleCount() {
+        return modules.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new StageStatistics();
+        }
+        resetArray(versions);
+        resetArray(microVersions);
+        resetArray(masks);
+        resetArray(levels);
+        symbols.reset();
+        modules.reset();
+        failures.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        outputs.reset();
+        outputBytes.reset();
+    }
+
+    /**
+     * Estimates a percentile of the duration of each stage.
+     */
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QrCodeStage stage : STAGES) {
+            result.put(stage.name(), stages[stage.ordinal()].percentile(percentile));
+        }
+        return result;
+    }
+
+    /**
+     * Collects the non-zero counts of an array, keyed by index.
+     */
+    private static Map<Integer, Long> counts(AtomicLongArray array, int from) {
+        Map<Integer, Long> result = new TreeMap<>();
+        for (int i = from; i < array.length(); i++) {
+            long count = array.get(i);
+            if (count > 0) {
+                result.put(i, count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets all the elements of an array to zero.
+     */
+    private static void resetArray(AtomicLongArray array) {
+        for (int i = 0; i < array.length(); i++) {
+            array.set(i, 0);
+        }
+    }
+
+    /**
+     * Latency statistics of one stage. Bucket {@code i} counts the durations below {@code 2^i} nanoseconds and at
+     * least {@code 2^(i-1)}.
+     */
+    private static final class StageStatistics {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(value)));
+        }
+
+        long percentile(double percentile) {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << Math.min(i, 62)) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics listener recording to a Micrometer {@link MeterRegistry}.
+ * <p>
+ * Micrometer is an optional dependency of this library: this class may only be used when
+ * {@code io.micrometer:micrometer-core} is on the classpath. All the meters are registered by the constructor, so
+ * recording a measure is a plain array lookup. The following meters are published:
+ * </p>
+ * <ul>
+ * <li>{@code qrcode.stage} timer, tagged by {@code stage}, with a percentile histogram;</li>
+ * <li>{@code qrcode.symbols} counter, tagged by {@code version} ({@code 1} to {@code 40}, or {@code M2} to
+ * {@code M4} for the Micro QR symbols) and {@code level};</li>
+ * <li>{@code qrcode.masks} counter, tagged by {@code mask};</li>
+ * <li>{@code qrcode.modules} summary of the number of modules of the symbols;</li>
+ * <li>{@code qrcode.cache} counter, tagged by {@code result} ({@code hit} or {@code miss});</li>
+ * <li>{@code qrcode.output} summary of the size of the serialized QR codes, in bytes, tagged by
+ * {@code format};</li>
+ * <li>{@code qrcode.failures} counter, tagged by {@code stage}.</li>
+ * </ul>
+ */
+public class MicrometerQrCodeMetrics implements IQrCodeMetricsListener {
+
+    private static final String TAG_STAGE = "stage";
+    private static final int MASKS = 8;
+
+    private final Timer[] stageTimers;
+    private final Counter[] failures;
+    private final Counter[][] symbols;
+    private final Counter[][] microSymbols;
+    private final Counter[] masks;
+    private final DistributionSummary modules;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final DistributionSummary[] outputs;
+
+    /**
+     * Constructs a listener and registers its meters.
+     *
+     * @param registry The registry of the meters.
+     */
+    public MicrometerQrCodeMetrics(MeterRegistry registry) {
+        QrCodeStage[] stages = QrCodeStage.values();
+        stageTimers = new Timer[stages.length];
+        failures = new Counter[stages.length];
+        for (QrCodeStage stage : stages) {
+            String name = stage.name().toLowerCase(Locale.ROOT);
+            stageTimers[stage.ordinal()] = Timer.builder("qrcode.stage")
+                    .description("Duration of the stages of the QR code generation")
+                    .tag(TAG_STAGE, name)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            failures[stage.ordinal()] = Counter.builder("qrcode.failures")
+                    .description("Failed QR code generations")
+                    .tag(TAG_STAGE, name)
+                    .register(registry);
+        }
+        CorrectionLevel[] levels = CorrectionLevel.values();
+        symbols = new Counter[QrCodeSpec.MAX_VERSION + 1][levels.length];
+        for (int version = QrCodeSpec.MIN_VERSION; version <= QrCodeSpec.MAX_VERSION; version++) {
+            for (CorrectionLevel level : levels) {
+                symbols[version][level.ordinal()] = Counter.builder("qrcode.symbols")
+                        .description("QR code symbols produced")
+                        .tag("version", Integer.toString(version))
+                        .tag("level", level.name())
+                        .register(registry);
+            }
+        }
+        microSymbols = new Counter[MicroQrSpec.MAX_VERSION + 1][levels.length];
+        for (int version = MicroQrSpec.MIN_VERSION; version <= MicroQrSpec.MAX_VERSION; version++) {
+            for (CorrectionLevel level : levels) {
+                if (MicroQrSpec.isSupported(version, level)) {
+                    microSymbols[version][level.ordinal()] = Counter.builder("qrcode.symbols")
+                            .description("QR code symbols produced")
+                            .tag("version", "M" + version)
+                            .tag("level", level.name())
+                            .register(registry);
+                }
+            }
+        }
+        masks = new Counter[MASKS];
+        for (int mask = 0; mask < MASKS; mask++) {
+            masks[mask] = Counter.builder("qrcode.masks")
+                    .description("Mask patterns of the QR code symbols")
+                    .tag("mask", Integer.toString(mask))
+                    .register(registry);
+        }
+        modules = DistributionSummary.builder("qrcode.modules")
+                .description("Number of modules of the QR code symbols")
+                .register(registry);
+        cacheHits = Counter.builder("qrcode.cache").tag("result", "hit").register(registry);
+        cacheMisses = Counter.builder("qrcode.cache").tag("result", "miss").register(registry);
+        OutputFormat[] formats = OutputFormat.values();
+        outputs = new DistributionSummary[formats.length];
+        for (OutputFormat format : formats) {
+            outputs[format.ordinal()] = DistributionSummary.builder("qrcode.output")
+                    .description("Size of the serialized QR codes")
+                    .baseUnit("bytes")
+                    .tag("format", format.getExtension())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStage(QrCodeStage stage, long nanos) {
+        stageTimers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSymbol(QrCodeMatrix matrix) {
+        Counter[][] counters = matrix.isMicro() ? microSymbols : symbols;
+        counters[matrix.getVersion()][matrix.getCorrectionLevel().ordinal()].increment();
+        masks[matrix.getMask()].increment();
+        modules.record((double) matrix.getSize() * matrix.getSize());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onCacheAccess(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOutput(OutputFormat format, long bytes) {
+        outputs[format.ordinal()].record(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFailure(QrCodeStage stage, QrCodeGeneratorException exception) {
+        failures[stage.ordinal()].increment();
+    }
+}
@@ -0,0 +1,38 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+/**
+ * Holds the metrics listener used by default by the QR code builders.
+ * <p>
+ * The default listener is read when a {@link fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder} is created, so
+ * setting it once at application startup, e.g. to a registered {@link JmxQrCodeMetrics}, instruments all the QR
+ * codes generated afterwards.
+ * </p>
+ */
+public final class QrCodeMetrics {
+
+    private static volatile IQrCodeMetricsListener defaultListener;
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private QrCodeMetrics() {
+    }
+
+    /**
+     * Returns the metrics listener used by default by the QR code builders.
+     *
+     * @return The default listener, or {@code null} if metrics are disabled by default.
+     */
+    public static IQrCodeMetricsListener getDefaultListener() {
+        return defaultListener;
+    }
+
+    /**
+     * Sets the metrics listener used by default by the QR code builders created afterwards.
+     *
+     * @param listener The default listener, or {@code null} to disable metrics by default.
+     */
+    public static void setDefaultListener(IQrCodeMetricsListener listener) {
+        defaultListener = listener;
+    }
+}
@@ -0,0 +1,136 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link JmxQrCodeMetrics}.
+ * <p>
+ * Latencies are kept in power of two buckets, so the percentiles are upper bounds accurate within a factor of two.
+ * </p>
+ */
+public interface QrCodeMetricsMXBean {
+
+    /**
+     * Returns the number of symbols produced (encoded or found in the symbol cache).
+     *
+     * @return The number of symbols.
+     */
+    long getSymbolCount();
+
+    /**
+     * Returns the number of failed generations.
+     *
+     * @return The number of failures.
+     */
+    long getFailureCount();
+
+    /**
+     * Returns the number of symbol cache hits.
+     *
+     * @return The number of hits.
+     */
+    long getCacheHitCount();
+
+    /**
+     * Returns the number of symbol cache misses.
+     *
+     * @return The number of misses.
+     */
+    long getCacheMissCount();
+
+    /**
+     * Returns the ratio of symbol cache hits to symbol cache accesses.
+     *
+     * @return The hit rate, between 0 and 1, or 0 if the cache was never accessed.
+     */
+    double getCacheHitRate();
+
+    /**
+     * Returns the total size of the serialized QR codes.
+     *
+     * @return The number of bytes written.
+     */
+    long getOutputBytes();
+
+    /**
+     * Returns the number of serialized QR codes.
+     *
+     * @return The number of outputs.
+     */
+    long getOutputCount();
+
+    /**
+     * Returns the number of completions of each stage.
+     *
+     * @return The counts, by stage name.
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * Returns the mean duration of each stage.
+     *
+     * @return The mean durations in nanoseconds, by stage name.
+     */
+    Map<String, Long> getStageMeanNanos();
+
+    /**
+     * Returns the median duration of each stage.
+     *
+     * @return The median durations in nanoseconds, by stage name.
+     */
+    Map<String, Long> getStageMedianNanos();
+
+    /**
+     * Returns the 99th percentile of the duration of each stage.
+     *
+     * @return The 99th percentiles in nanoseconds, by stage name.
+     */
+    Map<String, Long> getStage99thPercentileNanos();
+
+    /**
+     * Returns the longest duration of each stage.
+     *
+     * @return The maximum durations in nanoseconds, by stage name.
+     */
+    Map<String, Long> getStageMaxNanos();
+
+    /**
+     * Returns the number of QR code symbols of each version.
+     *
+     * @return The counts, by version.
+     */
+    Map<Integer, Long> getVersionCounts();
+
+    /**
+     * Returns the number of Micro QR symbols of each version.
+     *
+     * @return The counts, by version number (2 for M2 to 4 for M4).
+     */
+    Map<Integer, Long> getMicroVersionCounts();
+
+    /**
+     * Returns the number of symbols of each mask pattern.
+     *
+     * @return The counts, by mask.
+     */
+    Map<Integer, Long> getMaskCounts();
+
+    /**
+     * Returns the number of symbols of each error correction level.
+     *
+     * @return The counts, by correction level name.
+     */
+    Map<String, Long> getCorrectionLevelCounts();
+
+    /**
+     * Returns the total number of modules of the symbols produced.
+     *
+     * @return The number of modules.
+     */
+    long getModuleCount();
+
+    /**
+     * Resets all the counters.
+     */
+    void reset();
+}
@@ -0,0 +1,31 @@
+package fr.paris.lutece.plugins.qrcode.service.metrics;
+
+/**
+ * Enum representing the stages of the generation of a QR code, as reported to the metrics listeners.
+ */
+public enum QrCodeStage {
+    /**
+     * Assembly of the payload: message and query parameters.
+     */
+    PAYLOAD,
+
+    /**
+     * Segmentation and encoding of the payload into a symbol, or lookup in the symbol cache.
+     */
+    ENCODE,
+
+    /**
+     * Rasterisation of the symbol into an image.
+     */
+    RENDER,
+
+    /**
+     * Overlay of the logo on the image.
+     */
+    LOGO,
+
+    /**
+     * Serialization of the QR code into its output format (PNG, SVG, ...).
+     */
+    SERIALIZE
+}
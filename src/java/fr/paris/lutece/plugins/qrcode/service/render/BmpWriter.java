@@ -0,0 +1,92 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as an uncompressed 1-bit BMP image with a two color palette, straight from its module
+ * matrix.
+ * <p>
+ * The rows are stored bottom-up, as most readers expect. Each module row is expanded once into a packed scanline,
+ * which is written {@code scale} times; no {@link java.awt.image.BufferedImage} is built.
+ * </p>
+ */
+public final class BmpWriter {
+
+    private static final int FILE_HEADER_SIZE = 14;
+    private static final int INFO_HEADER_SIZE = 40;
+    private static final int PALETTE_SIZE = 8;
+
+    /**
+     * 72 dots per inch, in pixels per meter.
+     */
+    private static final int PIXELS_PER_METER = 2835;
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private BmpWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as a BMP image.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale, border and colors of the image.
+     * @param out The stream the BMP is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        int width = options.getImageSize(matrix.getSize());
+        int scale = options.getScale();
+        int border = options.getBorder();
+        // Rows are padded to a multiple of 4 bytes
+        int rowBytes = ((width + 31) >>> 5) << 2;
+        long imageSize = (long) rowBytes * width;
+        int offset = FILE_HEADER_SIZE + INFO_HEADER_SIZE + PALETTE_SIZE;
+        if (offset + imageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Scale or border too large");
+        }
+
+        byte[] header = new byte[offset];
+        header[0] = 'B';
+        header[1] = 'M';
+        putInt(header, 2, offset + (int) imageSize);
+        putInt(header, 10, offset);
+        putInt(header, 14, INFO_HEADER_SIZE);
+        putInt(header, 18, width);
+        putInt(header, 22, width);
+        header[26] = 1;
+        header[28] = 1;
+        putInt(header, 34, (int) imageSize);
+        putInt(header, 38, PIXELS_PER_METER);
+        putInt(header, 42, PIXELS_PER_METER);
+        putInt(header, 46, 2);
+        putInt(header, 50, 2);
+        // Palette entries are blue, green, red and a reserved byte; light pixels are cleared bits
+        putInt(header, 54, options.getBackground());
+        putInt(header, 58, options.getForeground());
+        out.write(header);
+
+        byte[] scanline = new byte[rowBytes];
+        int modules = matrix.getSize() + border * 2;
+        for (int row = modules - 1; row >= 0; row--) {
+            Scanlines.fill(matrix, row - border, scale, border, scanline, 0, rowBytes);
+            for (int i = 0; i < scale; i++) {
+                out.write(scanline);
+            }
+        }
+    }
+
+    /**
+     * Stores a little-endian integer.
+     */
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,109 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as an Encapsulated PostScript document, straight from its module matrix.
+ * <p>
+ * The drawing uses one unit per module, scaled to {@code scale} points per module. Horizontal runs of dark modules
+ * are filled as single rectangles, so the document grows with the number of runs rather than the number of modules.
+ * The document is written in chunks of a few kilobytes; no AWT class is used.
+ * </p>
+ */
+public final class EpsWriter {
+
+    /**
+     * The size of the text buffered before being written to the stream.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private EpsWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as an EPS document.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale (size of one module, in points), border and colors of the document.
+     * @param out The stream the document is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        int size = matrix.getSize();
+        int border = options.getBorder();
+        int side = size + border * 2;
+        int points = options.getImageSize(size);
+        StringBuilder text = new StringBuilder(BUFFER_SIZE + 64);
+        text.append("%!PS-Adobe-3.0 EPSF-3.0\n");
+        text.append("%%BoundingBox: 0 0 ").append(points).append(' ').append(points).append('\n');
+        text.append("%%LanguageLevel: 2\n");
+        text.append("%%EndComments\n");
+        text.append("gsave\n");
+        text.append(options.getScale()).append(' ').append(options.getScale()).append(" scale\n");
+        appendColor(text, options.getBackground());
+        text.append("0 0 ").append(side).append(' ').append(side).append(" rectfill\n");
+        appendColor(text, options.getForeground());
+        // Runs are given as x, y and width; PostScript rows go up from the bottom of the page
+        text.append("/R { 1 rectfill } bind def\n");
+        for (int y = 0; y < size; y++) {
+            int bottom = side - 1 - border - y;
+            int x = matrix.nextDark(y, 0);
+            while (x < size) {
+                int end = matrix.nextLight(y, x);
+                text.append(x + border).append(' ').append(bottom).append(' ').append(end - x).append(" R\n");
+                x = matrix.nextDark(y, end);
+            }
+            if (text.length() >= BUFFER_SIZE) {
+                flush(text, out);
+            }
+        }
+        text.append("grestore\n");
+        text.append("showpage\n");
+        text.append("%%EOF\n");
+        flush(text, out);
+    }
+
+    /**
+     * Appends the {@code setrgbcolor} command of an RGB color.
+     */
+    private static void appendColor(StringBuilder text, int rgb) {
+        appendComponent(text, (rgb >> 16) & 0xFF);
+        text.append(' ');
+        appendComponent(text, (rgb >> 8) & 0xFF);
+        text.append(' ');
+        appendComponent(text, rgb & 0xFF);
+        text.append(" setrgbcolor\n");
+    }
+
+    /**
+     * Appends a color component as a number between 0 and 1, with up to 3 decimals.
+     */
+    private static void appendComponent(StringBuilder text, int value) {
+        int thousandths = (value * 1000 + 127) / 255;
+        text.append(thousandths / 1000);
+        int decimals = thousandths % 1000;
+        if (decimals != 0) {
+            String digits = Integer.toString(1000 + decimals).substring(1);
+            int length = digits.length();
+            while (digits.charAt(length - 1) == '0') {
+                length--;
+            }
+            text.append('.').append(digits, 0, length);
+        }
+    }
+
+    /**
+     * Writes the buffered text to the stream and empties the buffer.
+     */
+    private static void flush(StringBuilder text, OutputStream out) throws IOException {
+        out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,242 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as a GIF image with a two color palette, straight from its module matrix.
+ * <p>
+ * The pixels are LZW-compressed as they are produced, one module row at a time. With only two colors, the
+ * dictionary is a plain array indexed by code and pixel, with no hashing. No {@link java.awt.image.BufferedImage}
+ * is built and {@link javax.imageio.ImageIO} is not involved. The working buffers are reused by the writing
+ * thread.
+ * </p>
+ */
+public final class GifWriter {
+
+    private static final byte[] SIGNATURE = { 'G', 'I', 'F', '8', '9', 'a' };
+    private static final int IMAGE_SEPARATOR = 0x2C;
+    private static final int TRAILER = 0x3B;
+
+    /**
+     * The largest width and height of a GIF image.
+     */
+    private static final int MAX_SIZE = 0xFFFF;
+
+    /**
+     * The smallest LZW code size allowed by the format, enough for two colors.
+     */
+    private static final int MIN_CODE_SIZE = 2;
+    private static final int CLEAR_CODE = 1 << MIN_CODE_SIZE;
+    private static final int END_CODE = CLEAR_CODE + 1;
+    private static final int MAX_BITS = 12;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+
+    /**
+     * The maximum length of a data sub-block.
+     */
+    private static final int BLOCK_SIZE = 255;
+
+    /**
+     * The working state reused by each writing thread.
+     */
+    private static final ThreadLocal<GifWriter> WRITERS = ThreadLocal.withInitial(GifWriter::new);
+
+    /**
+     * The dictionary: the code of the string extending code {@code c} with pixel {@code p} is at {@code 2c + p},
+     * zero when absent.
+     */
+    private final int[] dictionary = new int[MAX_CODES * 2];
+    private final byte[] block = new byte[BLOCK_SIZE + 1];
+    private byte[] pixels = new byte[0];
+    private int blockLength;
+    private int bits;
+    private int bitCount;
+    private int codeSize;
+    private int nextCode;
+    private int prefix;
+
+    /**
+     * Private constructor: instances are only used through {@link #write(QrCodeMatrix, RenderOptions, OutputStream)}.
+     */
+    private GifWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as a GIF image.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale, border and colors of the image.
+     * @param out The stream the GIF is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws IllegalArgumentException If the image is larger than 65535 pixels.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        int side = options.getImageSize(matrix.getSize());
+        if (side > MAX_SIZE) {
+            throw new IllegalArgumentException("Scale or border too large");
+        }
+        WRITERS.get().writeImage(matrix, options, side, out);
+    }
+
+    /**
+     * Writes the whole GIF image.
+     */
+    private void writeImage(QrCodeMatrix matrix, RenderOptions options, int side, OutputStream out)
+            throws IOException {
+        int scale = options.getScale();
+        int border = options.getBorder();
+        if (pixels.length < side) {
+            pixels = new byte[side];
+        }
+
+        // Logical screen descriptor with a global color table of two entries: light pixels first
+        byte[] header = new byte[13 + 6 + 10 + 1];
+        System.arraycopy(SIGNATURE, 0, header, 0, SIGNATURE.length);
+        putShort(header, 6, side);
+        putShort(header, 8, side);
+        header[10] = (byte) 0x80;
+        putColor(header, 13, options.getBackground());
+        putColor(header, 16, options.getForeground());
+        header[19] = IMAGE_SEPARATOR;
+        putShort(header, 24, side);
+        putShort(header, 26, side);
+        header[29] = MIN_CODE_SIZE;
+        out.write(header);
+
+        blockLength = 0;
+        bits = 0;
+        bitCount = 0;
+        prefix = -1;
+        reset();
+        emit(CLEAR_CODE, out);
+        int modules = matrix.getSize() + border * 2;
+        for (int row = 0; row < modules; row++) {
+            fillRow(matrix, row - border, scale, border, side);
+            for (int i = 0; i < scale; i++) {
+                compress(side, out);
+            }
+        }
+        emit(prefix, out);
+        emit(END_CODE, out);
+        if (bitCount > 0) {
+            appendByte(bits, out);
+        }
+        flushBlock(out);
+        out.write(0);
+        out.write(TRAILER);
+    }
+
+    /**
+     * Expands one module row into color indexes.
+     */
+    private void fillRow(QrCodeMatrix matrix, int y, int scale, int border, int side) {
+        Arrays.fill(pixels, 0, side, (byte) 0);
+        int size = matrix.getSize();
+        if (y < 0 || y >= size) {
+            return;
+        }
+        int x = matrix.nextDark(y, 0);
+        while (x < size) {
+            int end = matrix.nextLight(y, x);
+            Arrays.fill(pixels, (x + border) * scale, (end + border) * scale, (byte) 1);
+            x = matrix.nextDark(y, end);
+        }
+    }
+
+    /**
+     * Feeds one row of pixels to the LZW compressor.
+     */
+    private void compress(int side, OutputStream out) throws IOException {
+        int current = prefix;
+        for (int i = 0; i < side; i++) {
+            int pixel = pixels[i];
+            if (current < 0) {
+                current = pixel;
+                continue;
+            }
+            int index = current << 1 | pixel;
+            int code = dictionary[index];
+            if (code != 0) {
+                current = code;
+                continue;
+            }
+            emit(current, out);
+            if (nextCode < MAX_CODES) {
+                dictionary[index] = nextCode++;
+            } else {
+                // The dictionary is full: start over with a new one
+                emit(CLEAR_CODE, out);
+                reset();
+            }
+            current = pixel;
+        }
+        prefix = current;
+    }
+
+    /**
+     * Empties the dictionary.
+     */
+    private void reset() {
+        Arrays.fill(dictionary, 0);
+        codeSize = MIN_CODE_SIZE + 1;
+        nextCode = END_CODE + 1;
+    }
+
+    /**
+     * Writes one code, least significant bit first, and widens the codes once the next code no longer fits.
+     */
+    private void emit(int code, OutputStream out) throws IOException {
+        bits |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            appendByte(bits, out);
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        if (code != CLEAR_CODE && nextCode >= 1 << codeSize && codeSize < MAX_BITS) {
+            codeSize++;
+        }
+    }
+
+    /**
+     * Appends one byte of compressed data, emitting full sub-blocks as they fill up.
+     */
+    private void appendByte(int value, OutputStream out) throws IOException {
+        block[++blockLength] = (byte) value;
+        if (blockLength == BLOCK_SIZE) {
+            flushBlock(out);
+        }
+    }
+
+    /**
+     * Emits the pending data sub-block, if any.
+     */
+    private void flushBlock(OutputStream out) throws IOException {
+        if (blockLength > 0) {
+            block[0] = (byte) blockLength;
+            out.write(block, 0, blockLength + 1);
+            blockLength = 0;
+        }
+    }
+
+    /**
+     * Stores a little-endian 16-bit integer.
+     */
+    private static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+    }
+
+    /**
+     * Stores an RGB color as red, green and blue bytes.
+     */
+    private static void putColor(byte[] buffer, int offset, int rgb) {
+        buffer[offset] = (byte) (rgb >> 16);
+        buffer[offset + 1] = (byte) (rgb >> 8);
+        buffer[offset + 2] = (byte) rgb;
+    }
+}
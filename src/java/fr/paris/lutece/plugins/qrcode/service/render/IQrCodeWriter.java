@@ -0,0 +1,49 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Serializes QR code symbols in one output format, straight from their module matrix.
+ * <p>
+ * Writers are registered in the {@link QrCodeWriterRegistry} under their name. Additional writers can be plugged
+ * in by listing their class in a {@code META-INF/services/fr.paris.lutece.plugins.qrcode.service.render.IQrCodeWriter}
+ * resource; they need a public no-argument constructor. Implementations must be thread-safe.
+ * </p>
+ */
+public interface IQrCodeWriter {
+
+    /**
+     * Returns the name of the format, under which the writer is registered.
+     *
+     * @return The name of the format, in lower case, e.g. {@code gif}.
+     */
+    String getName();
+
+    /**
+     * Returns the MIME type of the documents written.
+     *
+     * @return The MIME type, e.g. {@code image/gif}.
+     */
+    String getContentType();
+
+    /**
+     * Returns the usual file extension of the documents written.
+     *
+     * @return The file extension without the dot, e.g. {@code gif}.
+     */
+    String getExtension();
+
+    /**
+     * Writes a QR code symbol. Logos are not drawn by the writers.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale, border and colors of the document; formats without colors or without pixels
+     *        ignore some of them.
+     * @param out The stream the document is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException;
+}
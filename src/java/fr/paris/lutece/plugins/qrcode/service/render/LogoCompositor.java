@@ -0,0 +1,205 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+
+/**
+ * Draws logos and their backing plates over rendered QR codes.
+ * <p>
+ * The {@link BufferedImage#TYPE_INT_RGB} and {@link BufferedImage#TYPE_BYTE_GRAY} images produced by the
+ * {@link QrCodeRasterizer} are written directly: the premultiplied pixels of the logo are blended into the raster
+ * of the destination, with the same two-channels-per-{@code int} arithmetic as the {@link LogoScaler}. Other images
+ * go through {@link Graphics2D}.
+ * </p>
+ */
+public final class LogoCompositor {
+
+    private static final int LANES = 0x00FF00FF;
+
+    /**
+     * Private constructor: static methods only.
+     */
+    private LogoCompositor() {
+    }
+
+    /**
+     * Draws a logo over an image, on its backing plate if any.
+     *
+     * @param image The destination image.
+     * @param logo The logo, already scaled.
+     * @param x The left edge of the logo in the destination.
+     * @param y The top edge of the logo in the destination.
+     * @param plate The backing plate drawn under the logo.
+     * @param plateColor The color of the plate, as {@code 0xRRGGBB}.
+     */
+    public static void drawLogo(BufferedImage image, BufferedImage logo, int x, int y, LogoPlate plate,
+            int plateColor) {
+        if (plate != LogoPlate.NONE) {
+            int padX = (int) Math.round(logo.getWidth() * LogoPlate.PADDING);
+            int padY = (int) Math.round(logo.getHeight() * LogoPlate.PADDING);
+            fillPlate(image, x - padX, y - padY, logo.getWidth() + 2 * padX, logo.getHeight() + 2 * padY, plateColor,
+                    plate == LogoPlate.ROUNDED);
+        }
+        blend(image, logo, x, y);
+    }
+
+    /**
+     * Fills a backing plate in a solid color.
+     *
+     * @param image The destination image.
+     * @param x The left edge of the plate.
+     * @param y The top edge of the plate.
+     * @param width The width of the plate.
+     * @param height The height of the plate.
+     * @param color The color of the plate, as {@code 0xRRGGBB}.
+     * @param rounded {@code true} to round the corners of the plate.
+     */
+    public static void fillPlate(BufferedImage image, int x, int y, int width, int height, int color,
+            boolean rounded) {
+        int radius = rounded ? (int) Math.round(Math.min(width, height) * LogoPlate.CORNER_RADIUS) : 0;
+        int[] ints = intPixels(image, BufferedImage.TYPE_INT_RGB);
+        byte[] bytes = ints == null ? bytePixels(image) : null;
+        if (ints == null && bytes == null) {
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(color));
+            g.fillRoundRect(x, y, width, height, 2 * radius, 2 * radius);
+            g.dispose();
+            return;
+        }
+        byte gray = (byte) luminance(color);
+        int imageWidth = image.getWidth();
+        int top = Math.max(0, y);
+        int bottom = Math.min(image.getHeight(), y + height);
+        for (int row = top; row < bottom; row++) {
+            int inset = inset(row - y, height, radius);
+            int from = Math.max(0, x + inset);
+            int to = Math.min(imageWidth, x + width - inset);
+            if (from >= to) {
+                continue;
+            }
+            if (ints != null) {
+                Arrays.fill(ints, row * imageWidth + from, row * imageWidth + to, color);
+            } else {
+                Arrays.fill(bytes, row * imageWidth + from, row * imageWidth + to, gray);
+            }
+        }
+    }
+
+    /**
+     * Blends a logo over an image.
+     *
+     * @param image The destination image.
+     * @param logo The logo; {@link BufferedImage#TYPE_INT_ARGB_PRE} logos, such as the ones built by
+     *        {@link LogoScaler#toImage(int[], int, int)}, are read without conversion.
+     * @param x The left edge of the logo in the destination.
+     * @param y The top edge of the logo in the destination.
+     */
+    public static void blend(BufferedImage image, BufferedImage logo, int x, int y) {
+        int[] ints = intPixels(image, BufferedImage.TYPE_INT_RGB);
+        byte[] bytes = ints == null ? bytePixels(image) : null;
+        if (ints == null && bytes == null) {
+            Graphics2D g = image.createGraphics();
+            g.drawImage(logo, x, y, null);
+            g.dispose();
+            return;
+        }
+        int logoWidth = logo.getWidth();
+        int[] source = intPixels(logo, BufferedImage.TYPE_INT_ARGB_PRE);
+        if (source == null) {
+            source = LogoScaler.toPremultiplied(logo);
+        }
+        int imageWidth = image.getWidth();
+        int fromX = Math.max(0, x);
+        int toX = Math.min(imageWidth, x + logoWidth);
+        int toY = Math.min(image.getHeight(), y + logo.getHeight());
+        for (int row = Math.max(0, y); row < toY; row++) {
+            int sourceOffset = (row - y) * logoWidth - x;
+            int offset = row * imageWidth;
+            for (int column = fromX; column < toX; column++) {
+                int pixel = source[sourceOffset + column];
+                int alpha = pixel >>> 24;
+                if (alpha == 0) {
+                    continue;
+                }
+                if (ints != null) {
+                    ints[offset + column] = alpha == 0xFF ? pixel & 0xFFFFFF : over(pixel, ints[offset + column]);
+                } else {
+                    int inverse = 0xFF - alpha;
+                    int background = bytes[offset + column] & 0xFF;
+                    bytes[offset + column] = (byte) (luminance(pixel) + LogoScaler.div255(background * inverse));
+                }
+            }
+        }
+    }
+
+    /**
+     * Composes a premultiplied pixel over an opaque RGB pixel.
+     */
+    private static int over(int pixel, int background) {
+        int inverse = 0xFF - (pixel >>> 24);
+        int rb = LogoScaler.div255((background & LANES) * inverse);
+        int g = LogoScaler.div255(((background >>> 8) & 0xFF) * inverse);
+        return ((pixel & LANES) + rb) | ((((pixel >>> 8) & 0xFF) + g) << 8);
+    }
+
+    /**
+     * Returns the luminance of a color, from its red, green and blue channels.
+     */
+    private static int luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29 + 128) >> 8;
+    }
+
+    /**
+     * Returns the horizontal inset of a row of a plate with rounded corners.
+     */
+    private static int inset(int row, int height, int radius) {
+        int fromEdge = Math.min(row, height - 1 - row);
+        if (fromEdge >= radius) {
+            return 0;
+        }
+        double dy = radius - fromEdge - 0.5;
+        return (int) Math.round(radius - Math.sqrt(Math.max(0, (double) radius * radius - dy * dy)));
+    }
+
+    /**
+     * Returns the pixels of an image of the given type holding one {@code int} per pixel with no padding, or
+     * {@code null}.
+     */
+    private static int[] intPixels(BufferedImage image, int type) {
+        if (image.getType() != type) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        if (raster.getParent() != null || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        return buffer.getOffset() == 0 ? buffer.getData() : null;
+    }
+
+    /**
+     * Returns the pixels of a grayscale image holding one {@code byte} per pixel with no padding, or {@code null}.
+     */
+    private static byte[] bytePixels(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        if (raster.getParent() != null || !(raster.getSampleModel() instanceof ComponentSampleModel)
+                || ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        return buffer.getOffset() == 0 ? buffer.getData() : null;
+    }
+}
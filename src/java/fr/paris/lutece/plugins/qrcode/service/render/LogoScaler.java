@@ -0,0 +1,225 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Resizes logos held as premultiplied ARGB pixels, one {@code int} per pixel.
+ * <p>
+ * Downscaling halves the image with a 2x2 box filter as long as it stays at least twice as large as the target,
+ * then finishes with a bilinear resampling, whose ratio is then below 2 so that every source pixel contributes.
+ * The four channels are processed two at a time in the halves of an {@code int}, and no {@link java.awt.Image} nor
+ * {@link java.awt.Graphics2D} is involved. Working on premultiplied pixels keeps the transparent areas from
+ * bleeding their color into the edges of the logo.
+ * </p>
+ */
+public final class LogoScaler {
+
+    private static final int LANES = 0x00FF00FF;
+
+    /**
+     * Private constructor: static methods only.
+     */
+    private LogoScaler() {
+    }
+
+    /**
+     * Reads the pixels of an image as premultiplied ARGB.
+     *
+     * @param image The image.
+     * @return A new array of {@code width * height} premultiplied pixels, row by row.
+     */
+    public static int[] toPremultiplied(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = premultiply(pixels[i]);
+        }
+        return pixels;
+    }
+
+    /**
+     * Premultiplies one ARGB pixel by its alpha.
+     *
+     * @param argb The pixel, with straight alpha.
+     * @return The premultiplied pixel.
+     */
+    static int premultiply(int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 0xFF) {
+            return argb;
+        }
+        if (alpha == 0) {
+            return 0;
+        }
+        int rb = div255((argb & LANES) * alpha);
+        int g = div255(((argb >>> 8) & 0xFF) * alpha);
+        return alpha << 24 | rb | g << 8;
+    }
+
+    /**
+     * Resizes premultiplied pixels.
+     *
+     * @param pixels The source pixels, row by row. The array is not modified.
+     * @param width The width of the source.
+     * @param height The height of the source.
+     * @param targetWidth The width of the result.
+     * @param targetHeight The height of the result.
+     * @return A new array of {@code targetWidth * targetHeight} premultiplied pixels.
+     */
+    public static int[] scale(int[] pixels, int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        int[] current = pixels;
+        int w = width;
+        int h = height;
+        while (w >= 2 * targetWidth && h >= 2 * targetHeight) {
+            current = halve(current, w, h);
+            w >>= 1;
+            h >>= 1;
+        }
+        if (w == targetWidth && h == targetHeight) {
+            return current == pixels ? pixels.clone() : current;
+        }
+        return bilinear(current, w, h, targetWidth, targetHeight);
+    }
+
+    /**
+     * Wraps premultiplied pixels in an image, without copying them.
+     *
+     * @param pixels The premultiplied pixels, row by row.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return A {@link BufferedImage#TYPE_INT_ARGB_PRE} image backed by the array.
+     */
+    public static BufferedImage toImage(int[] pixels, int width, int height) {
+        DirectColorModel model = new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), 32, 0x00FF0000,
+                0x0000FF00, 0x000000FF, 0xFF000000, true, DataBuffer.TYPE_INT);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height,
+                width, model.getMasks(), null);
+        return new BufferedImage(model, raster, true, null);
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. An odd last column or row is dropped.
+     */
+    private static int[] halve(int[] pixels, int width, int height) {
+        int w = width >> 1;
+        int h = height >> 1;
+        int[] result = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            int top = 2 * y * width;
+            int bottom = top + width;
+            int offset = y * w;
+            for (int x = 0; x < w; x++) {
+                int a = pixels[top + 2 * x];
+                int b = pixels[top + 2 * x + 1];
+                int c = pixels[bottom + 2 * x];
+                int d = pixels[bottom + 2 * x + 1];
+                int rb = (a & LANES) + (b & LANES) + (c & LANES) + (d & LANES) + 0x00020002;
+                int ag = ((a >>> 8) & LANES) + ((b >>> 8) & LANES) + ((c >>> 8) & LANES) + ((d >>> 8) & LANES)
+                        + 0x00020002;
+                result[offset + x] = ((ag >>> 2) & LANES) << 8 | ((rb >>> 2) & LANES);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resamples an image with a bilinear filter, sampling the source at the centers of the target pixels. The filter
+     * is separable: each source row is interpolated horizontally at most once, then the rows are blended vertically.
+     */
+    private static int[] bilinear(int[] pixels, int width, int height, int targetWidth, int targetHeight) {
+        int[] x0 = new int[targetWidth];
+        int[] x1 = new int[targetWidth];
+        int[] wx = new int[targetWidth];
+        sampling(width, targetWidth, x0, x1, wx);
+        int[] y0 = new int[targetHeight];
+        int[] y1 = new int[targetHeight];
+        int[] wy = new int[targetHeight];
+        sampling(height, targetHeight, y0, y1, wy);
+        int[] result = new int[targetWidth * targetHeight];
+        int[] upper = new int[targetWidth];
+        int[] lower = new int[targetWidth];
+        int upperRow = -1;
+        int lowerRow = -1;
+        for (int y = 0; y < targetHeight; y++) {
+            if (y0[y] != upperRow) {
+                if (y0[y] == lowerRow) {
+                    int[] swap = upper;
+                    upper = lower;
+                    lower = swap;
+                    lowerRow = -1;
+                } else {
+                    interpolateRow(pixels, y0[y] * width, x0, x1, wx, upper);
+                }
+                upperRow = y0[y];
+            }
+            if (y1[y] != lowerRow) {
+                interpolateRow(pixels, y1[y] * width, x0, x1, wx, lower);
+                lowerRow = y1[y];
+            }
+            int weight = wy[y];
+            int offset = y * targetWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                result[offset + x] = lerp(upper[x], lower[x], weight);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Interpolates one source row at the horizontal sampling positions.
+     */
+    private static void interpolateRow(int[] pixels, int rowStart, int[] x0, int[] x1, int[] wx, int[] row) {
+        for (int x = 0; x < row.length; x++) {
+            row[x] = lerp(pixels[rowStart + x0[x]], pixels[rowStart + x1[x]], wx[x]);
+        }
+    }
+
+    /**
+     * Computes the two source samples of each target position and the weight of the second one, out of 256.
+     */
+    private static void sampling(int size, int targetSize, int[] first, int[] second, int[] weights) {
+        double ratio = (double) size / targetSize;
+        for (int i = 0; i < targetSize; i++) {
+            double position = Math.max(0, Math.min(size - 1, (i + 0.5) * ratio - 0.5));
+            int index = (int) position;
+            first[i] = index;
+            second[i] = Math.min(index + 1, size - 1);
+            weights[i] = (int) Math.round((position - index) * 256);
+        }
+    }
+
+    /**
+     * Interpolates two premultiplied pixels, channel by channel.
+     *
+     * @param a The first pixel.
+     * @param b The second pixel.
+     * @param weight The weight of the second pixel, between 0 and 256.
+     */
+    private static int lerp(int a, int b, int weight) {
+        int inverse = 256 - weight;
+        int rb = ((a & LANES) * inverse + (b & LANES) * weight + 0x00800080) >>> 8;
+        int ag = (((a >>> 8) & LANES) * inverse + ((b >>> 8) & LANES) * weight + 0x00800080) >>> 8;
+        return (ag & LANES) << 8 | (rb & LANES);
+    }
+
+    /**
+     * Divides the two 16-bit lanes of a value by 255, rounding to the nearest.
+     *
+     * @param lanes Two products of 8-bit values, in bits 0 to 15 and 16 to 31.
+     * @return The two quotients, in bits 0 to 7 and 16 to 23.
+     */
+    static int div255(int lanes) {
+        int t = lanes + 0x00800080;
+        return ((t + ((t >>> 8) & LANES)) >>> 8) & LANES;
+    }
+}
@@ -0,0 +1,254 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as a 1-bit PNG, straight from its module matrix: grayscale for black on white symbols,
+ * indexed with a two color palette otherwise.
+ * <p>
+ * The image is produced one scanline at a time: each module row is expanded once into a packed scanline, and the
+ * {@code scale - 1} identical scanlines that follow are written with the PNG "Up" filter, which turns them into
+ * runs of zeros that deflate to almost nothing. No {@link java.awt.image.BufferedImage} is built and
+ * {@link javax.imageio.ImageIO} is not involved.
+ * </p>
+ * <p>
+ * The {@link Deflater} and the working buffers are taken from a bounded pool of idle writers, twice the number of
+ * processors, rather than kept per thread: the native memory of a {@link Deflater} is only released by
+ * {@link Deflater#end()}, which a thread-local writer would never reach on pools creating and dropping many threads.
+ * A writer returned to a full pool is ended at once.
+ * </p>
+ */
+public final class PngWriter {
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLTE = "PLTE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BIT_DEPTH = 1;
+    private static final int COLOR_TYPE_GRAYSCALE = 0;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_UP = 2;
+
+    /**
+     * Maximum size of the data of one IDAT chunk.
+     */
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The idle writers, reused by the writing threads.
+     */
+    private static final BlockingQueue<PngWriter> WRITERS = new ArrayBlockingQueue<>(
+            2 * Runtime.getRuntime().availableProcessors());
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final CRC32 crc = new CRC32();
+    private final byte[] deflated = new byte[CHUNK_SIZE];
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] header = new byte[8];
+    private int chunkLength;
+    private byte[] scanline = new byte[0];
+    private byte[] zeroScanline = new byte[0];
+
+    /**
+     * Private constructor: instances are only used through {@link #write(QrCodeMatrix, RenderOptions, OutputStream)}.
+     */
+    private PngWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as a PNG image with black dark modules and white light modules.
+     *
+     * @param matrix The symbol to write.
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, int scale, int border, OutputStream out) throws IOException {
+        write(matrix, new RenderOptions(scale, border, RenderOptions.BLACK, RenderOptions.WHITE), out);
+    }
+
+    /**
+     * Writes a QR code symbol as a PNG image.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale, border and colors of the image.
+     * @param out The stream the PNG is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        int side = options.getImageSize(matrix.getSize());
+        PngWriter writer = WRITERS.poll();
+        if (writer == null) {
+            writer = new PngWriter();
+        }
+        try {
+            writer.writeImage(matrix, options, side, out);
+        } finally {
+            if (!WRITERS.offer(writer)) {
+                writer.deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Writes the whole PNG image.
+     */
+    private void writeImage(QrCodeMatrix matrix, RenderOptions options, int width, OutputStream out)
+            throws IOException {
+        int scale = options.getScale();
+        int border = options.getBorder();
+        int rowBytes = (width + 7) >>> 3;
+        if (scanline.length < rowBytes + 1) {
+            scanline = new byte[rowBytes + 1];
+            zeroScanline = new byte[rowBytes + 1];
+            zeroScanline[0] = FILTER_UP;
+        }
+        out.write(SIGNATURE);
+        writeHeader(width, !options.isBlackOnWhite(), out);
+        if (!options.isBlackOnWhite()) {
+            writePalette(options, out);
+        }
+
+        deflater.reset();
+        chunkLength = 0;
+        int modules = matrix.getSize() + border * 2;
+        for (int row = 0; row < modules; row++) {
+            fillScanline(matrix, row - border, scale, border, width, rowBytes);
+            deflate(scanline, rowBytes + 1, out);
+            for (int i = 1; i < scale; i++) {
+                deflate(zeroScanline, rowBytes + 1, out);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            appendData(deflated, deflater.deflate(deflated), out);
+        }
+        flushChunk(out);
+        writeChunk(IEND, chunk, 0, out);
+    }
+
+    /**
+     * Writes the IHDR chunk.
+     */
+    private void writeHeader(int width, boolean indexed, OutputStream out) throws IOException {
+        byte[] data = new byte[13];
+        putInt(data, 0, width);
+        putInt(data, 4, width);
+        data[8] = BIT_DEPTH;
+        data[9] = (byte) (indexed ? COLOR_TYPE_INDEXED : COLOR_TYPE_GRAYSCALE);
+        writeChunk(IHDR, data, data.length, out);
+    }
+
+    /**
+     * Writes the PLTE chunk of an indexed image. The foreground comes first so that, as in grayscale, dark pixels
+     * are cleared bits and light pixels set bits.
+     */
+    private void writePalette(RenderOptions options, OutputStream out) throws IOException {
+        byte[] data = new byte[6];
+        int[] colors = { options.getForeground(), options.getBackground() };
+        for (int i = 0; i < colors.length; i++) {
+            data[i * 3] = (byte) (colors[i] >> 16);
+            data[i * 3 + 1] = (byte) (colors[i] >> 8);
+            data[i * 3 + 2] = (byte) colors[i];
+        }
+        writeChunk(PLTE, data, data.length, out);
+    }
+
+    /**
+     * Expands one module row into the packed scanline; light pixels are set bits.
+     */
+    private void fillScanline(QrCodeMatrix matrix, int y, int scale, int border, int width, int rowBytes) {
+        Arrays.fill(scanline, 1, rowBytes + 1, (byte) 0xFF);
+        scanline[0] = FILTER_NONE;
+        if (y < 0 || y >= matrix.getSize()) {
+            return;
+        }
+        int size = matrix.getSize();
+        int x = matrix.nextDark(y, 0);
+        while (x < size) {
+            int end = matrix.nextLight(y, x);
+            for (int px = (x + border) * scale; px < (end + border) * scale; px++) {
+                scanline[1 + (px >>> 3)] &= (byte) ~(0x80 >>> (px & 7));
+            }
+            x = matrix.nextDark(y, end);
+        }
+        if ((width & 7) != 0) {
+            // Padding bits of the last byte are not significant; keep them stable for better compression
+            scanline[rowBytes] &= (byte) (0xFF << (8 - (width & 7)));
+        }
+    }
+
+    /**
+     * Feeds one filtered scanline to the deflater and forwards the compressed output.
+     */
+    private void deflate(byte[] data, int length, OutputStream out) throws IOException {
+        deflater.setInput(data, 0, length);
+        while (!deflater.needsInput()) {
+            appendData(deflated, deflater.deflate(deflated), out);
+        }
+    }
+
+    /**
+     * Appends compressed data to the current IDAT chunk, emitting full chunks as they fill up.
+     */
+    private void appendData(byte[] data, int length, OutputStream out) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int n = Math.min(length - offset, CHUNK_SIZE - chunkLength);
+            System.arraycopy(data, offset, chunk, chunkLength, n);
+            chunkLength += n;
+            offset += n;
+            if (chunkLength == CHUNK_SIZE) {
+                flushChunk(out);
+            }
+        }
+    }
+
+    /**
+     * Emits the pending IDAT chunk, if any.
+     */
+    private void flushChunk(OutputStream out) throws IOException {
+        if (chunkLength > 0) {
+            writeChunk(IDAT, chunk, chunkLength, out);
+            chunkLength = 0;
+        }
+    }
+
+    /**
+     * Writes one PNG chunk: length, type, data and CRC.
+     */
+    private void writeChunk(byte[] type, byte[] data, int length, OutputStream out) throws IOException {
+        putInt(header, 0, length);
+        System.arraycopy(type, 0, header, 4, 4);
+        out.write(header, 0, 8);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type, 0, 4);
+        crc.update(data, 0, length);
+        putInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    /**
+     * Stores a big-endian integer.
+     */
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,181 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Registry of the {@link IQrCodeWriter} available for each output format, looked up by name.
+ * <p>
+ * A new registry holds one writer for each {@link OutputFormat}. The shared instance also holds the writers listed
+ * in the {@code META-INF/services/fr.paris.lutece.plugins.qrcode.service.render.IQrCodeWriter} resources of the
+ * class path, which may replace the built-in ones. The registry is thread-safe.
+ * </p>
+ */
+public final class QrCodeWriterRegistry {
+
+    /**
+     * The shared instance, loaded on first use.
+     */
+    private static volatile QrCodeWriterRegistry instance;
+
+    private final Map<String, IQrCodeWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a registry holding the built-in writers.
+     */
+    public QrCodeWriterRegistry() {
+        for (OutputFormat format : OutputFormat.values()) {
+            register(new FormatWriter(format));
+        }
+    }
+
+    /**
+     * Returns the shared registry, with the writers plugged in through the {@link ServiceLoader} mechanism.
+     *
+     * @return The shared {@link QrCodeWriterRegistry}.
+     */
+    public static QrCodeWriterRegistry getInstance() {
+        QrCodeWriterRegistry registry = instance;
+        if (registry == null) {
+            synchronized (QrCodeWriterRegistry.class) {
+                registry = instance;
+                if (registry == null) {
+                    registry = new QrCodeWriterRegistry();
+                    for (IQrCodeWriter writer : ServiceLoader.load(IQrCodeWriter.class,
+                            QrCodeWriterRegistry.class.getClassLoader())) {
+                        registry.register(writer);
+                    }
+                    instance = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Registers a writer under its name, replacing the writer previously registered under the same name.
+     *
+     * @param writer The writer.
+     * @return The replaced writer, or {@code null} if there was none.
+     */
+    public IQrCodeWriter register(IQrCodeWriter writer) {
+        return writers.put(writer.getName().toLowerCase(Locale.ROOT), writer);
+    }
+
+    /**
+     * Returns the writer registered under a name.
+     *
+     * @param name The name of the format, in any case, e.g. {@code gif}.
+     * @return The writer, or {@code null} if no writer has this name.
+     */
+    public IQrCodeWriter getWriter(String name) {
+        return writers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the writer registered for an output format.
+     *
+     * @param format The output format.
+     * @return The writer, which is the built-in one unless it has been replaced.
+     */
+    public IQrCodeWriter getWriter(OutputFormat format) {
+        return writers.get(format.getName());
+    }
+
+    /**
+     * Returns the names of the registered writers.
+     *
+     * @return The sorted names, as a read-only snapshot.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(writers.keySet()));
+    }
+
+    /**
+     * The built-in writer of an {@link OutputFormat}, delegating to the writer class of the format.
+     */
+    private static final class FormatWriter implements IQrCodeWriter {
+
+        private final OutputFormat format;
+
+        /**
+         * Constructs the writer of a format.
+         *
+         * @param format The output format.
+         */
+        FormatWriter(OutputFormat format) {
+            this.format = format;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return format.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getContentType() {
+            return format.getContentType();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getExtension() {
+            return format.getExtension();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+            switch (format) {
+                case PNG:
+                    PngWriter.write(matrix, options, out);
+                    break;
+                case SVG:
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    SvgWriter.write(matrix, options, null, 0, writer);
+                    writer.flush();
+                    break;
+                case GIF:
+                    GifWriter.write(matrix, options, out);
+                    break;
+                case BMP:
+                    BmpWriter.write(matrix, options, out);
+                    break;
+                case EPS:
+                    EpsWriter.write(matrix, options, out);
+                    break;
+                case ZPL:
+                    ZplWriter.write(matrix, options, out);
+                    break;
+                case TEXT:
+                    TextWriter.write(matrix, options, out);
+                    break;
+                default:
+                    throw new IllegalStateException("No writer for " + format);
+            }
+        }
+    }
+}
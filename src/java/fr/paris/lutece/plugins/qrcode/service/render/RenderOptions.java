@@ -0,0 +1,141 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+/**
+ * Immutable rendering options shared by all the renderers: module size, quiet zone and colors.
+ */
+public final class RenderOptions {
+
+    /**
+     * The default size of one module, in pixels.
+     */
+    public static final int DEFAULT_SCALE = 10;
+
+    /**
+     * The default size of the quiet zone, in modules.
+     */
+    public static final int DEFAULT_BORDER = 4;
+
+    /**
+     * Black, the default color of the dark modules.
+     */
+    public static final int BLACK = 0x000000;
+
+    /**
+     * White, the default color of the light modules and of the quiet zone.
+     */
+    public static final int WHITE = 0xFFFFFF;
+
+    /**
+     * The default options: black modules of 10 pixels on white, with a 4 module quiet zone.
+     */
+    public static final RenderOptions DEFAULT = new RenderOptions(DEFAULT_SCALE, DEFAULT_BORDER, BLACK, WHITE);
+
+    private final int scale;
+    private final int border;
+    private final int foreground;
+    private final int background;
+
+    /**
+     * Constructs rendering options.
+     *
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @param foreground The RGB color of the dark modules (e.g. {@code 0x000000}).
+     * @param background The RGB color of the light modules and of the quiet zone (e.g. {@code 0xFFFFFF}).
+     */
+    public RenderOptions(int scale, int border, int foreground, int background) {
+        if (scale <= 0 || border < 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.scale = scale;
+        this.border = border;
+        this.foreground = foreground & 0xFFFFFF;
+        this.background = background & 0xFFFFFF;
+    }
+
+    /**
+     * Returns the size of one module.
+     *
+     * @return The scale, in pixels.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns the size of the quiet zone.
+     *
+     * @return The border, in modules.
+     */
+    public int getBorder() {
+        return border;
+    }
+
+    /**
+     * Returns the color of the dark modules.
+     *
+     * @return The RGB color.
+     */
+    public int getForeground() {
+        return foreground;
+    }
+
+    /**
+     * Returns the color of the light modules and of the quiet zone.
+     *
+     * @return The RGB color.
+     */
+    public int getBackground() {
+        return background;
+    }
+
+    /**
+     * Indicates whether the colors are the default black on white.
+     *
+     * @return {@code true} for black modules on a white background.
+     */
+    public boolean isBlackOnWhite() {
+        return foreground == BLACK && background == WHITE;
+    }
+
+    /**
+     * Returns the width and height of the rendered symbol, quiet zone included.
+     *
+     * @param size The size of the symbol, in modules.
+     * @return The size of the image, in pixels.
+     * @throws IllegalArgumentException If the image would be too large.
+     */
+    public int getImageSize(int size) {
+        long side = (size + border * 2L) * scale;
+        if (side > Integer.MAX_VALUE / 4) {
+            throw new IllegalArgumentException("Scale or border too large");
+        }
+        return (int) side;
+    }
+
+    /**
+     * Returns the color of the dark modules as a CSS hexadecimal color.
+     *
+     * @return The color, e.g. {@code #000000}.
+     */
+    public String getForegroundHex() {
+        return toHex(foreground);
+    }
+
+    /**
+     * Returns the color of the light modules as a CSS hexadecimal color.
+     *
+     * @return The color, e.g. {@code #FFFFFF}.
+     */
+    public String getBackgroundHex() {
+        return toHex(background);
+    }
+
+    /**
+     * Formats an RGB color as a CSS hexadecimal color.
+     */
+    private static String toHex(int rgb) {
+        String hex = Integer.toHexString(0x1000000 | rgb).substring(1);
+        return "#" + hex.toUpperCase(java.util.Locale.ROOT);
+    }
+}
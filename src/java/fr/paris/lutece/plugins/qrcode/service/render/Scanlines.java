@@ -0,0 +1,59 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.util.Arrays;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Expands module rows into the packed 1-bit scanlines shared by the bitmap writers.
+ */
+final class Scanlines {
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private Scanlines() {
+    }
+
+    /**
+     * Expands one module row into a packed scanline, most significant bit first; dark pixels are set bits. The
+     * bytes of the scanline are cleared first, padding bits included.
+     *
+     * @param matrix The symbol.
+     * @param y The row of the symbol, negative or beyond its size in the quiet zone.
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @param line The destination buffer.
+     * @param offset The offset of the scanline in the buffer.
+     * @param length The length of the scanline, in bytes.
+     */
+    static void fill(QrCodeMatrix matrix, int y, int scale, int border, byte[] line, int offset, int length) {
+        Arrays.fill(line, offset, offset + length, (byte) 0);
+        int size = matrix.getSize();
+        if (y < 0 || y >= size) {
+            return;
+        }
+        int x = matrix.nextDark(y, 0);
+        while (x < size) {
+            int end = matrix.nextLight(y, x);
+            setBits(line, offset, (x + border) * scale, (end + border) * scale);
+            x = matrix.nextDark(y, end);
+        }
+    }
+
+    /**
+     * Sets the bits {@code from} (inclusive) to {@code to} (exclusive) of a scanline, whole bytes at a time in the
+     * middle of the range.
+     */
+    private static void setBits(byte[] line, int offset, int from, int to) {
+        int first = from >>> 3;
+        int last = (to - 1) >>> 3;
+        if (first == last) {
+            line[offset + first] |= (byte) ((0xFF >>> (from & 7)) & (0xFF << (7 - ((to - 1) & 7))));
+            return;
+        }
+        line[offset + first] |= (byte) (0xFF >>> (from & 7));
+        Arrays.fill(line, offset + first + 1, offset + last, (byte) 0xFF);
+        line[offset + last] |= (byte) (0xFF << (7 - ((to - 1) & 7)));
+    }
+}
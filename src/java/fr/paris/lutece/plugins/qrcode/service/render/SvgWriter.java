@@ -0,0 +1,137 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as an SVG document, straight from its module matrix.
+ * <p>
+ * The drawing uses one unit per module. Horizontal runs of dark modules are merged into a single path segment, so
+ * the document grows with the number of runs rather than the number of modules. No AWT class is used, which makes
+ * this writer suitable for headless environments.
+ * </p>
+ */
+public final class SvgWriter {
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private SvgWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as an SVG document.
+     *
+     * @param matrix The symbol to write.
+     * @param scale The size of one module in the {@code width} and {@code height} of the document, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @param logoDataUri The {@code data:} URI of a logo to place at the center of the symbol, or {@code null}.
+     * @param logoScale The size of the logo relative to the whole document (e.g. 0.2 for 20%).
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @throws IOException If appending to the destination fails.
+     */
+    public static void write(QrCodeMatrix matrix, int scale, int border, String logoDataUri, double logoScale,
+            Appendable out) throws IOException {
+        write(matrix, new RenderOptions(scale, border, RenderOptions.BLACK, RenderOptions.WHITE), logoDataUri,
+                logoScale, out);
+    }
+
+    /**
+     * Writes a QR code symbol as an SVG document.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale (size of one module in the {@code width} and {@code height} of the document), border
+     *        and colors of the document.
+     * @param logoDataUri The {@code data:} URI of a logo to place at the center of the symbol, or {@code null}.
+     * @param logoScale The size of the logo relative to the whole document (e.g. 0.2 for 20%).
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @throws IOException If appending to the destination fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, String logoDataUri, double logoScale,
+            Appendable out) throws IOException {
+        write(matrix, options, logoDataUri, logoScale, LogoPlate.NONE, out);
+    }
+
+    /**
+     * Writes a QR code symbol as an SVG document, with a backing plate under the logo.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale (size of one module in the {@code width} and {@code height} of the document), border
+     *        and colors of the document.
+     * @param logoDataUri The {@code data:} URI of a logo to place at the center of the symbol, or {@code null}.
+     * @param logoScale The size of the logo relative to the whole document (e.g. 0.2 for 20%).
+     * @param plate The backing plate drawn under the logo, in the background color.
+     * @param out The destination of the document, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+     * @throws IOException If appending to the destination fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, String logoDataUri, double logoScale,
+            LogoPlate plate, Appendable out) throws IOException {
+        int scale = options.getScale();
+        int border = options.getBorder();
+        int size = matrix.getSize();
+        long side = size + border * 2L;
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        out.append(" version=\"1.1\" viewBox=\"0 0 ").append(Long.toString(side)).append(' ')
+                .append(Long.toString(side)).append('"');
+        out.append(" width=\"").append(Long.toString(side * scale)).append("\" height=\"")
+                .append(Long.toString(side * scale)).append('"');
+        out.append(" shape-rendering=\"crispEdges\">\n");
+        out.append("<rect width=\"100%\" height=\"100%\" fill=\"").append(options.getBackgroundHex()).append("\"/>\n");
+        out.append("<path fill=\"").append(options.getForegroundHex()).append("\" d=\"");
+        for (int y = 0; y < size; y++) {
+            int x = matrix.nextDark(y, 0);
+            while (x < size) {
+                int end = matrix.nextLight(y, x);
+                int length = end - x;
+                out.append('M').append(Integer.toString(x + border)).append(',')
+                        .append(Integer.toString(y + border)).append('h').append(Integer.toString(length))
+                        .append("v1h-").append(Integer.toString(length)).append('z');
+                x = matrix.nextDark(y, end);
+            }
+        }
+        out.append("\"/>\n");
+        if (logoDataUri != null) {
+            double logoSize = side * logoScale;
+            double offset = (side - logoSize) / 2;
+            if (plate != LogoPlate.NONE) {
+                double plateSize = logoSize * plate.getCoverageFactor();
+                double plateOffset = (side - plateSize) / 2;
+                out.append("<rect x=\"").append(format(plateOffset)).append("\" y=\"").append(format(plateOffset))
+                        .append("\" width=\"").append(format(plateSize)).append("\" height=\"")
+                        .append(format(plateSize)).append('"');
+                if (plate == LogoPlate.ROUNDED) {
+                    out.append(" rx=\"").append(format(plateSize * LogoPlate.CORNER_RADIUS)).append('"');
+                }
+                out.append(" fill=\"").append(options.getBackgroundHex()).append("\"/>\n");
+            }
+            out.append("<image x=\"").append(format(offset)).append("\" y=\"").append(format(offset))
+                    .append("\" width=\"").append(format(logoSize)).append("\" height=\"").append(format(logoSize))
+                    .append("\" preserveAspectRatio=\"none\" xlink:href=\"").append(logoDataUri).append("\"/>\n");
+        }
+        out.append("</svg>\n");
+    }
+
+    /**
+     * Formats a coordinate with at most three decimals, independently of the default locale.
+     *
+     * @param value The coordinate.
+     * @return The formatted coordinate.
+     */
+    private static String format(double value) {
+        long thousandths = Math.round(value * 1000);
+        if (thousandths % 1000 == 0) {
+            return Long.toString(thousandths / 1000);
+        }
+        StringBuilder sb = new StringBuilder(Long.toString(Math.abs(thousandths) / 1000)).append('.');
+        String decimals = Long.toString(1000 + Math.abs(thousandths) % 1000).substring(1);
+        int end = decimals.length();
+        while (decimals.charAt(end - 1) == '0') {
+            end--;
+        }
+        sb.append(decimals, 0, end);
+        return thousandths < 0 ? "-" + sb : sb.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as UTF-8 text for terminals and logs, straight from its module matrix.
+ * <p>
+ * Each character holds two module rows, with the half block characters {@code U+2580} (upper half),
+ * {@code U+2584} (lower half) and {@code U+2588} (full block); a line holds one character per module. The scale is
+ * ignored. The glyphs draw the dark modules, unless the foreground of the options is lighter than its background:
+ * they then draw the light modules, which suits terminals printing light text on a dark background.
+ * </p>
+ */
+public final class TextWriter {
+
+    private static final byte[] SPACE = { ' ' };
+    private static final byte[] UPPER_HALF = "\u2580".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LOWER_HALF = "\u2584".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FULL_BLOCK = "\u2588".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The glyphs, indexed by the ink of the upper row (bit 1) and of the lower row (bit 0).
+     */
+    private static final byte[][] GLYPHS = { SPACE, LOWER_HALF, UPPER_HALF, FULL_BLOCK };
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private TextWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as text.
+     *
+     * @param matrix The symbol to write.
+     * @param options The border and colors of the text; the scale is ignored.
+     * @param out The stream the text is written to, in UTF-8. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        boolean inverted = luminance(options.getForeground()) > luminance(options.getBackground());
+        int border = options.getBorder();
+        int side = matrix.getSize() + border * 2;
+        byte[] line = new byte[side * FULL_BLOCK.length + 1];
+        for (int row = 0; row < side; row += 2) {
+            int length = 0;
+            for (int column = 0; column < side; column++) {
+                int upper = ink(matrix, row - border, column - border, inverted);
+                int lower = row + 1 < side ? ink(matrix, row + 1 - border, column - border, inverted) : 0;
+                byte[] glyph = GLYPHS[upper << 1 | lower];
+                System.arraycopy(glyph, 0, line, length, glyph.length);
+                length += glyph.length;
+            }
+            line[length++] = '\n';
+            out.write(line, 0, length);
+        }
+    }
+
+    /**
+     * Returns 1 if a module is drawn with a glyph, 0 otherwise. The quiet zone is made of light modules.
+     */
+    private static int ink(QrCodeMatrix matrix, int y, int x, boolean inverted) {
+        int size = matrix.getSize();
+        boolean dark = y >= 0 && y < size && x >= 0 && x < size && matrix.isDark(x, y);
+        return dark != inverted ? 1 : 0;
+    }
+
+    /**
+     * Returns the luminance of an RGB color, from 0 to 255.
+     */
+    private static int luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29 + 128) >> 8;
+    }
+}
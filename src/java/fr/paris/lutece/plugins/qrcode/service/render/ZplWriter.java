@@ -0,0 +1,125 @@
+package fr.paris.lutece.plugins.qrcode.service.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes a QR code symbol as a ZPL II label for Zebra printers, straight from its module matrix.
+ * <p>
+ * The symbol is sent as a {@code ^GF} graphic field rather than a {@code ^BQ} bar code command, so the printer
+ * prints exactly the modules encoded here (version, mask and correction level included). The bitmap uses the ASCII
+ * hexadecimal format with the ZPL compression: runs of the same digit are counted with the letters {@code G} to
+ * {@code z}, a row ending with light dots is closed by a comma, and a row identical to the previous one is a colon.
+ * One dot is printed per pixel, {@code scale} dots per module; the colors of the options are ignored.
+ * </p>
+ */
+public final class ZplWriter {
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The largest count of one repeat letter; greater counts add several letters.
+     */
+    private static final int MAX_REPEAT = 400;
+
+    /**
+     * Private constructor: this class only has static methods.
+     */
+    private ZplWriter() {
+    }
+
+    /**
+     * Writes a QR code symbol as a ZPL label, placed at the origin of the label.
+     *
+     * @param matrix The symbol to write.
+     * @param options The scale and border of the graphic field.
+     * @param out The stream the label is written to. It is neither flushed nor closed.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void write(QrCodeMatrix matrix, RenderOptions options, OutputStream out) throws IOException {
+        int side = options.getImageSize(matrix.getSize());
+        int scale = options.getScale();
+        int border = options.getBorder();
+        int rowBytes = (side + 7) >>> 3;
+        long totalBytes = (long) rowBytes * side;
+        out.write(("^XA\n^FO0,0^GFA," + totalBytes + ',' + totalBytes + ',' + rowBytes + ',')
+                .getBytes(StandardCharsets.US_ASCII));
+
+        byte[] scanline = new byte[rowBytes];
+        // A compressed run is never longer than the digits it replaces; one more byte for the closing comma
+        byte[] encoded = new byte[rowBytes * 2 + 1];
+        int modules = matrix.getSize() + border * 2;
+        for (int row = 0; row < modules; row++) {
+            Scanlines.fill(matrix, row - border, scale, border, scanline, 0, rowBytes);
+            out.write(encoded, 0, encodeRow(scanline, encoded));
+            for (int i = 1; i < scale; i++) {
+                out.write(':');
+            }
+        }
+        out.write("\n^FS\n^XZ\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Encodes one row of the bitmap as compressed hexadecimal digits.
+     *
+     * @param scanline The packed row.
+     * @param encoded The destination buffer.
+     * @return The length of the encoded row.
+     */
+    private static int encodeRow(byte[] scanline, byte[] encoded) {
+        int digits = scanline.length * 2;
+        int end = digits;
+        while (end > 0 && digit(scanline, end - 1) == 0) {
+            end--;
+        }
+        int length = 0;
+        int i = 0;
+        while (i < end) {
+            int value = digit(scanline, i);
+            int run = 1;
+            while (i + run < end && digit(scanline, i + run) == value) {
+                run++;
+            }
+            i += run;
+            if (run > 1) {
+                length = putRepeat(encoded, length, run);
+            }
+            encoded[length++] = HEX_DIGITS[value];
+        }
+        if (end < digits) {
+            encoded[length++] = ',';
+        }
+        return length;
+    }
+
+    /**
+     * Writes the repeat letters of a run: {@code g} to {@code z} count 20 to 400, {@code G} to {@code Y} count 1 to
+     * 19, and the counts of consecutive letters add up.
+     */
+    private static int putRepeat(byte[] encoded, int length, int run) {
+        int remaining = run;
+        while (remaining >= MAX_REPEAT) {
+            encoded[length++] = 'z';
+            remaining -= MAX_REPEAT;
+        }
+        if (remaining >= 20) {
+            encoded[length++] = (byte) ('g' + remaining / 20 - 1);
+            remaining %= 20;
+        }
+        if (remaining > 0) {
+            encoded[length++] = (byte) ('G' + remaining - 1);
+        }
+        return length;
+    }
+
+    /**
+     * Returns one hexadecimal digit of a packed row: the high nibble of each byte comes first.
+     */
+    private static int digit(byte[] scanline, int index) {
+        int value = scanline[index >>> 1];
+        return (index & 1) == 0 ? (value >>> 4) & 0xF : value & 0xF;
+    }
+}
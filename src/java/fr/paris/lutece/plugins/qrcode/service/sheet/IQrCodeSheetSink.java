@@ -0,0 +1,23 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+import java.io.IOException;
+
+/**
+ * Receives the pages of a QR code sheet rendered as images, one page at a time.
+ * <p>
+ * The sink is always called from the thread that composes the sheet, so implementations do not need to be
+ * thread-safe.
+ * </p>
+ */
+@FunctionalInterface
+public interface IQrCodeSheetSink {
+
+    /**
+     * Receives one page of the sheet.
+     *
+     * @param page The position of the page in the sheet, starting at 0.
+     * @param data The encoded page.
+     * @throws IOException If the page cannot be stored; the composition is then stopped.
+     */
+    void accept(int page, byte[] data) throws IOException;
+}
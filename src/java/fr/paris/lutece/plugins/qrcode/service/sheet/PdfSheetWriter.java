@@ -0,0 +1,443 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Writes the pages of a sheet as a PDF document, progressively.
+ * <p>
+ * The QR codes are drawn as vector paths, one rectangle per horizontal run of dark modules, and the captions use
+ * the standard Helvetica font, which needs no embedding. The logo is embedded once, as an image XObject shared by
+ * all the pages through a single resources dictionary. Each page is written as soon as it is complete: only the
+ * content stream of the current page and the offsets of the objects are kept in memory.
+ * </p>
+ */
+final class PdfSheetWriter implements SheetRenderer {
+
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int RESOURCES = 3;
+    private static final int FONT = 4;
+    private static final int LOGO = 5;
+    private static final int LOGO_MASK = 6;
+    private static final int FIRST_PAGE_OBJECT = 7;
+
+    private static final String LOGO_NAME = "/Logo";
+    private static final String FONT_NAME = "/F1";
+
+    /**
+     * The advance widths of the Helvetica glyphs of the printable ASCII characters, in thousandths of the font size.
+     */
+    private static final short[] HELVETICA_WIDTHS = { 278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584,
+        278, 333, 278, 278, 556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556, 1015, 667,
+        667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778, 667, 778, 722, 667, 611, 722, 667, 944,
+        667, 667, 611, 278, 278, 278, 469, 556, 333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833,
+        556, 556, 556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584 };
+
+    /**
+     * The width used for the characters outside the printable ASCII range.
+     */
+    private static final int DEFAULT_WIDTH = 556;
+
+    private static final String ELLIPSIS = "...";
+
+    /**
+     * The distance of the control points of the Bezier curves approximating a quarter circle, relative to its radius.
+     */
+    private static final double KAPPA = 0.5523;
+
+    private final CountingOutputStream out;
+    private final double pageHeight;
+    private final String mediaBox;
+    private final String foreground;
+    private final String background;
+    private final int border;
+    private final double captionSize;
+    private final double logoScale;
+    private final LogoPlate logoPlate;
+    private final StringBuilder content = new StringBuilder(64 * 1024);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(16 * 1024);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * The offset of each object in the document, indexed by object number.
+     */
+    private long[] offsets = new long[64];
+    private int nextObject = FIRST_PAGE_OBJECT;
+    private int pageCount;
+
+    /**
+     * Starts a document: writes the header, the catalog, the font, the logo and the shared resources.
+     *
+     * @param out The stream the document is written to. It is neither flushed nor closed.
+     * @param layout The layout of the pages.
+     * @param foreground The color of the dark modules and of the captions, as {@code 0xRRGGBB}.
+     * @param background The color of the light modules, as {@code 0xRRGGBB}.
+     * @param border The size of the quiet zone, in modules.
+     * @param captionSize The font size of the captions, in points.
+     * @param logo The logo drawn over the codes, or {@code null} for none.
+     * @param logoScale The side of the logo relative to the side of the codes.
+     * @param logoPlate The backing plate drawn under the logo.
+     * @throws IOException If writing to the stream fails.
+     */
+    PdfSheetWriter(OutputStream out, SheetLayout layout, int foreground, int background, int border,
+            double captionSize, BufferedImage logo, double logoScale, LogoPlate logoPlate) throws IOException {
+        this.out = new CountingOutputStream(out);
+        this.pageHeight = layout.getPageHeight();
+        this.mediaBox = "[0 0 " + format(layout.getPageWidth()) + ' ' + format(pageHeight) + ']';
+        this.foreground = color(foreground);
+        this.background = color(background);
+        this.border = border;
+        this.captionSize = captionSize;
+        this.logoScale = logo == null ? 0 : logoScale;
+        this.logoPlate = logoPlate;
+
+        // The binary comment tells transfer tools that the file is not plain text
+        write("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+        beginObject(CATALOG);
+        write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+        beginObject(FONT);
+        write("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n");
+        beginObject(RESOURCES);
+        write("<< /ProcSet [/PDF /Text /ImageC] /Font << " + FONT_NAME + ' ' + FONT + " 0 R >>");
+        if (logo != null) {
+            write(" /XObject << " + LOGO_NAME + ' ' + LOGO + " 0 R >>");
+        }
+        write(" >>\nendobj\n");
+        if (logo != null) {
+            writeLogo(logo);
+        }
+    }
+
+    /**
+     * Returns the number of pages written so far.
+     *
+     * @return The number of pages.
+     */
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginPage() {
+        content.setLength(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drawCode(QrCodeMatrix matrix, double x, double y, double side, String caption, double captionWidth) {
+        int size = matrix.getSize();
+        double unit = side / (size + 2 * border);
+        double bottom = pageHeight - y - side;
+        content.append("q\n").append(background).append(" rg\n");
+        content.append(format(x)).append(' ').append(format(bottom)).append(' ').append(format(side)).append(' ')
+                .append(format(side)).append(" re f\n");
+        // One unit per module, with the rows going down from the top of the symbol
+        content.append(foreground).append(" rg\n");
+        content.append(format(unit)).append(" 0 0 ").append(format(-unit)).append(' ')
+                .append(format(x + border * unit)).append(' ').append(format(bottom + side - border * unit))
+                .append(" cm\n");
+        for (int row = 0; row < size; row++) {
+            int column = matrix.nextDark(row, 0);
+            while (column < size) {
+                int end = matrix.nextLight(row, column);
+                content.append(column).append(' ').append(row).append(' ').append(end - column).append(" 1 re\n");
+                column = matrix.nextDark(row, end);
+            }
+        }
+        content.append("f\nQ\n");
+        if (logoScale > 0) {
+            double logoSide = side * logoScale;
+            if (logoPlate != LogoPlate.NONE) {
+                double plateSide = logoSide * logoPlate.getCoverageFactor();
+                appendPlate(x + (side - plateSide) / 2, bottom + (side - plateSide) / 2, plateSide);
+            }
+            content.append("q ").append(format(logoSide)).append(" 0 0 ").append(format(logoSide)).append(' ')
+                    .append(format(x + (side - logoSide) / 2)).append(' ')
+                    .append(format(bottom + (side - logoSide) / 2)).append(" cm ").append(LOGO_NAME)
+                    .append(" Do Q\n");
+        }
+        if (caption != null && !caption.isEmpty()) {
+            String text = fit(caption, captionWidth);
+            double textX = x + (side - textWidth(text)) / 2;
+            double baseline = bottom - captionSize * 1.1;
+            content.append("BT ").append(FONT_NAME).append(' ').append(format(captionSize)).append(" Tf ")
+                    .append(foreground).append(" rg ").append(format(textX)).append(' ').append(format(baseline))
+                    .append(" Td (");
+            appendText(text);
+            content.append(") Tj ET\n");
+        }
+    }
+
+    /**
+     * Appends the backing plate of the logo, filled in the background color.
+     */
+    private void appendPlate(double x, double y, double side) {
+        content.append(background).append(" rg\n");
+        if (logoPlate != LogoPlate.ROUNDED) {
+            content.append(format(x)).append(' ').append(format(y)).append(' ').append(format(side)).append(' ')
+                    .append(format(side)).append(" re f\n");
+            return;
+        }
+        double r = side * LogoPlate.CORNER_RADIUS;
+        double k = r * KAPPA;
+        double right = x + side;
+        double top = y + side;
+        content.append(format(x + r)).append(' ').append(format(y)).append(" m\n");
+        content.append(format(right - r)).append(' ').append(format(y)).append(" l\n");
+        curve(right - r + k, y, right, y + r - k, right, y + r);
+        content.append(format(right)).append(' ').append(format(top - r)).append(" l\n");
+        curve(right, top - r + k, right - r + k, top, right - r, top);
+        content.append(format(x + r)).append(' ').append(format(top)).append(" l\n");
+        curve(x + r - k, top, x, top - r + k, x, top - r);
+        content.append(format(x)).append(' ').append(format(y + r)).append(" l\n");
+        curve(x, y + r - k, x + r - k, y, x + r, y);
+        content.append("f\n");
+    }
+
+    /**
+     * Appends a cubic Bezier curve from the current point.
+     */
+    private void curve(double x1, double y1, double x2, double y2, double x3, double y3) {
+        content.append(format(x1)).append(' ').append(format(y1)).append(' ').append(format(x2)).append(' ')
+                .append(format(y2)).append(' ').append(format(x3)).append(' ').append(format(y3)).append(" c\n");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endPage() throws IOException {
+        compressed.reset();
+        deflater.reset();
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater, 8192)) {
+            deflating.write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        int contents = nextObject++;
+        beginObject(contents);
+        write("<< /Length " + compressed.size() + " /Filter /FlateDecode >>\nstream\n");
+        compressed.writeTo(out);
+        write("\nendstream\nendobj\n");
+        beginObject(nextObject++);
+        write("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox " + mediaBox + " /Resources " + RESOURCES
+                + " 0 R /Contents " + contents + " 0 R >>\nendobj\n");
+        pageCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void finish() throws IOException {
+        deflater.end();
+        beginObject(PAGES);
+        write("<< /Type /Pages /Count " + pageCount + " /Kids [");
+        for (int page = 0; page < pageCount; page++) {
+            write((page == 0 ? "" : " ") + (FIRST_PAGE_OBJECT + page * 2 + 1) + " 0 R");
+        }
+        write("] >>\nendobj\n");
+        long xref = out.count;
+        write("xref\n0 " + nextObject + "\n");
+        // The object numbers left unused (no logo) are chained in the list of free objects, headed by object 0
+        StringBuilder entries = new StringBuilder(20 * 64);
+        for (int object = 0; object < nextObject; object++) {
+            boolean free = object == 0 || offsets[object] == 0;
+            long value = free ? nextFree(object) : offsets[object];
+            String digits = Long.toString(value);
+            for (int i = digits.length(); i < 10; i++) {
+                entries.append('0');
+            }
+            entries.append(digits).append(object == 0 ? " 65535 f \n" : free ? " 00001 f \n" : " 00000 n \n");
+            if (entries.length() >= 20 * 64) {
+                write(entries.toString());
+                entries.setLength(0);
+            }
+        }
+        write(entries.toString());
+        write("trailer\n<< /Size " + nextObject + " /Root " + CATALOG + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+    }
+
+    /**
+     * Returns the next free object number after the given one, or 0 at the end of the list.
+     */
+    private int nextFree(int object) {
+        for (int next = object + 1; next < nextObject; next++) {
+            if (offsets[next] == 0) {
+                return next;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the logo as an RGB image XObject, with a soft mask when the logo is not opaque.
+     */
+    private void writeLogo(BufferedImage logo) throws IOException {
+        int width = logo.getWidth();
+        int height = logo.getHeight();
+        int[] argb = logo.getRGB(0, 0, width, height, null, 0, width);
+        byte[] rgb = new byte[argb.length * 3];
+        byte[] alpha = new byte[argb.length];
+        boolean opaque = true;
+        for (int i = 0; i < argb.length; i++) {
+            rgb[i * 3] = (byte) (argb[i] >> 16);
+            rgb[i * 3 + 1] = (byte) (argb[i] >> 8);
+            rgb[i * 3 + 2] = (byte) argb[i];
+            alpha[i] = (byte) (argb[i] >>> 24);
+            opaque &= alpha[i] == (byte) 0xFF;
+        }
+        String size = " /Width " + width + " /Height " + height + " /BitsPerComponent 8";
+        writeImage(LOGO, "/ColorSpace /DeviceRGB" + size + (opaque ? "" : " /SMask " + LOGO_MASK + " 0 R"), rgb);
+        if (!opaque) {
+            writeImage(LOGO_MASK, "/ColorSpace /DeviceGray" + size, alpha);
+        }
+    }
+
+    /**
+     * Writes the samples of an image XObject, compressed.
+     */
+    private void writeImage(int object, String attributes, byte[] samples) throws IOException {
+        compressed.reset();
+        deflater.reset();
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater, 8192)) {
+            deflating.write(samples);
+        }
+        beginObject(object);
+        write("<< /Type /XObject /Subtype /Image " + attributes + " /Length " + compressed.size()
+                + " /Filter /FlateDecode >>\nstream\n");
+        compressed.writeTo(out);
+        write("\nendstream\nendobj\n");
+    }
+
+    /**
+     * Records the offset of an object and writes its header.
+     */
+    private void beginObject(int object) throws IOException {
+        if (object >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(object + 1, offsets.length * 2));
+        }
+        offsets[object] = out.count;
+        write(object + " 0 obj\n");
+    }
+
+    /**
+     * Writes a piece of the document structure.
+     */
+    private void write(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Shortens a caption with an ellipsis until it fits in the given width.
+     */
+    private String fit(String caption, double maxWidth) {
+        if (textWidth(caption) <= maxWidth) {
+            return caption;
+        }
+        int end = caption.length();
+        while (end > 0 && textWidth(caption.substring(0, end) + ELLIPSIS) > maxWidth) {
+            end--;
+        }
+        return end == 0 ? "" : caption.substring(0, end) + ELLIPSIS;
+    }
+
+    /**
+     * Returns the width of a text written in Helvetica at the caption size.
+     */
+    private double textWidth(String text) {
+        long width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            width += c >= ' ' && c <= '~' ? HELVETICA_WIDTHS[c - ' '] : DEFAULT_WIDTH;
+        }
+        return width * captionSize / 1000;
+    }
+
+    /**
+     * Appends a text as the content of a PDF literal string. The characters outside the Latin-1 range, which the
+     * WinAnsi encoding of the font does not have, are replaced by question marks.
+     */
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(' || c == ')' || c == '\\') {
+                content.append('\\').append(c);
+            } else if (c < ' ' || c >= 0x7F && c < 0xA0 || c > 0xFF) {
+                content.append('?');
+            } else {
+                content.append(c);
+            }
+        }
+    }
+
+    /**
+     * Formats a color as the operands of the {@code rg} operator.
+     */
+    private static String color(int rgb) {
+        return format(((rgb >> 16) & 0xFF) / 255.0) + ' ' + format(((rgb >> 8) & 0xFF) / 255.0) + ' '
+                + format((rgb & 0xFF) / 255.0);
+    }
+
+    /**
+     * Formats a number with at most three decimals, independently of the default locale.
+     */
+    static String format(double value) {
+        long thousandths = Math.round(value * 1000);
+        StringBuilder sb = new StringBuilder(12);
+        if (thousandths < 0) {
+            sb.append('-');
+            thousandths = -thousandths;
+        }
+        sb.append(thousandths / 1000);
+        int decimals = (int) (thousandths % 1000);
+        if (decimals != 0) {
+            sb.append('.').append((char) ('0' + decimals / 100));
+            if (decimals % 100 != 0) {
+                sb.append((char) ('0' + decimals / 10 % 10));
+                if (decimals % 10 != 0) {
+                    sb.append((char) ('0' + decimals % 10));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Output stream counting the bytes written, for the cross-reference table.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
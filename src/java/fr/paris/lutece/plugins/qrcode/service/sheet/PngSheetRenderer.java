@@ -0,0 +1,177 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoCompositor;
+
+/**
+ * Renders the pages of a sheet as PNG images, one page at a time.
+ * <p>
+ * A single page raster is allocated and reused for all the pages. The modules are drawn with a whole number of
+ * pixels each, so the codes stay sharp at any resolution; a code is centered in the area the layout gives it.
+ * </p>
+ */
+final class PngSheetRenderer implements SheetRenderer {
+
+    private static final int WHITE = 0xFFFFFF;
+    private static final String ELLIPSIS = "...";
+
+    private final IQrCodeSheetSink sink;
+    private final double pixelsPerPoint;
+    private final int foreground;
+    private final int background;
+    private final int border;
+    private final LogoQrCode logo;
+    private final LogoPlate logoPlate;
+    private final BufferedImage page;
+    private final int[] pixels;
+    private final int width;
+    private final Font font;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(256 * 1024);
+    private Graphics2D graphics;
+    private int pageCount;
+
+    /**
+     * Constructs a renderer.
+     *
+     * @param sink The receiver of the pages.
+     * @param layout The layout of the pages.
+     * @param resolution The resolution of the pages, in dots per inch.
+     * @param foreground The color of the dark modules and of the captions, as {@code 0xRRGGBB}.
+     * @param background The color of the light modules, as {@code 0xRRGGBB}.
+     * @param border The size of the quiet zone, in modules.
+     * @param captionSize The font size of the captions, in points.
+     * @param logo The logo drawn over the codes, or {@code null} for none.
+     * @param logoPlate The backing plate drawn under the logo.
+     */
+    PngSheetRenderer(IQrCodeSheetSink sink, SheetLayout layout, int resolution, int foreground, int background,
+            int border, double captionSize, LogoQrCode logo, LogoPlate logoPlate) {
+        this.sink = sink;
+        this.pixelsPerPoint = resolution / 72.0;
+        this.foreground = foreground;
+        this.background = background;
+        this.border = border;
+        this.logo = logo;
+        this.logoPlate = logoPlate;
+        this.width = (int) Math.round(layout.getPageWidth() * pixelsPerPoint);
+        this.page = new BufferedImage(width, (int) Math.round(layout.getPageHeight() * pixelsPerPoint),
+                BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) page.getRaster().getDataBuffer()).getData();
+        this.font = new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(1, (int) Math.round(captionSize * pixelsPerPoint)));
+    }
+
+    /**
+     * Returns the number of pages rendered so far.
+     *
+     * @return The number of pages.
+     */
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginPage() {
+        Arrays.fill(pixels, WHITE);
+        graphics = page.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setFont(font);
+        graphics.setColor(new Color(foreground));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drawCode(QrCodeMatrix matrix, double x, double y, double side, String caption, double captionWidth)
+            throws QrCodeGeneratorException {
+        int size = matrix.getSize();
+        int modules = size + 2 * border;
+        int area = (int) (side * pixelsPerPoint);
+        int scale = Math.max(1, area / modules);
+        int codeSide = scale * modules;
+        int left = (int) Math.round(x * pixelsPerPoint) + (area - codeSide) / 2;
+        int top = (int) Math.round(y * pixelsPerPoint) + (area - codeSide) / 2;
+        for (int row = 0; row < codeSide; row++) {
+            int offset = (top + row) * width + left;
+            Arrays.fill(pixels, offset, offset + codeSide, background);
+        }
+        int origin = left + border * scale;
+        for (int row = 0; row < size; row++) {
+            int rowStart = (top + (border + row) * scale) * width;
+            int column = matrix.nextDark(row, 0);
+            while (column < size) {
+                int end = matrix.nextLight(row, column);
+                int from = rowStart + origin + column * scale;
+                Arrays.fill(pixels, from, from + (end - column) * scale, foreground);
+                column = matrix.nextDark(row, end);
+            }
+            for (int i = 1; i < scale; i++) {
+                System.arraycopy(pixels, rowStart + origin, pixels, rowStart + i * width + origin, size * scale);
+            }
+        }
+        if (logo != null) {
+            int logoSide = (int) (codeSide * logo.getScale());
+            BufferedImage scaledLogo = logo.getScaledLogo(logoSide, logoSide);
+            LogoCompositor.drawLogo(page, scaledLogo, left + (codeSide - logoSide) / 2,
+                    top + (codeSide - logoSide) / 2, logoPlate, background);
+        }
+        if (caption != null && !caption.isEmpty()) {
+            FontMetrics metrics = graphics.getFontMetrics();
+            String text = fit(metrics, caption, (int) (captionWidth * pixelsPerPoint));
+            int captionTop = (int) Math.round((y + side) * pixelsPerPoint);
+            graphics.drawString(text, left + (codeSide - metrics.stringWidth(text)) / 2,
+                    captionTop + metrics.getAscent());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endPage() throws IOException {
+        graphics.dispose();
+        encoded.reset();
+        ImageIO.write(page, "png", encoded);
+        sink.accept(pageCount++, encoded.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void finish() {
+        // Each page has been handed to the sink
+    }
+
+    /**
+     * Shortens a caption with an ellipsis until it fits in the given width.
+     */
+    private static String fit(FontMetrics metrics, String caption, int maxWidth) {
+        if (metrics.stringWidth(caption) <= maxWidth) {
+            return caption;
+        }
+        int end = caption.length();
+        while (end > 0 && metrics.stringWidth(caption.substring(0, end) + ELLIPSIS) > maxWidth) {
+            end--;
+        }
+        return end == 0 ? "" : caption.substring(0, end) + ELLIPSIS;
+    }
+}
@@ -0,0 +1,267 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+
+/**
+ * Lays out many QR codes sharing the same configuration on printable sheets, such as A4 pages of labels.
+ * <p>
+ * The payloads are consumed as the pages are written: each page is encoded, drawn and handed to the output before
+ * the next payloads are read, so the memory used does not depend on the number of codes. Sheets are written as a
+ * multi-page vector PDF document, or as one PNG image per page. The configuration of the codes (correction level,
+ * logo, border, colors, symbol cache, ...) is taken from a {@link QrCodeBuilder}; its scale is not used, the size
+ * of the codes being given by the {@link SheetLayout}.
+ * </p>
+ * <p>
+ * In a PDF document the logo is embedded once and referenced by every code. Instances can be reused for several
+ * sheets but are not thread-safe while being configured.
+ * </p>
+ */
+public class QrCodeSheetComposer {
+
+    /**
+     * The default font size of the captions, in points.
+     */
+    public static final double DEFAULT_CAPTION_SIZE = 8;
+
+    /**
+     * The default resolution of the PNG pages and of the logo embedded in PDF documents, in dots per inch.
+     */
+    public static final int DEFAULT_RESOLUTION = 300;
+
+    /**
+     * The height of the caption line, relative to the font size.
+     */
+    private static final double CAPTION_LINE_HEIGHT = 1.5;
+
+    private final QrCodeTemplate template;
+    private SheetLayout layout = SheetLayout.a4(4, 6);
+    private Function<QrCodePayload, String> captions;
+    private double captionSize = DEFAULT_CAPTION_SIZE;
+    private int resolution = DEFAULT_RESOLUTION;
+
+    /**
+     * Constructs a composer drawing the QR codes with the configuration of a builder. The message and the
+     * parameters of the builder are not used.
+     *
+     * @param builder The {@link QrCodeBuilder} holding the configuration of the codes.
+     */
+    public QrCodeSheetComposer(QrCodeBuilder builder) {
+        this.template = builder.buildTemplate();
+    }
+
+    /**
+     * Sets the layout of the pages. Defaults to A4 pages of 24 codes, on 4 columns and 6 rows.
+     *
+     * @param layout The layout of the pages.
+     * @return The current {@link QrCodeSheetComposer} instance for method chaining.
+     */
+    public QrCodeSheetComposer withLayout(SheetLayout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * Sets the captions written under the codes, with the default font size.
+     *
+     * @param captions The function returning the caption of a payload, or {@code null} for no captions. A
+     *        {@code null} or empty caption leaves the code without caption. Captions too wide for their cell are
+     *        shortened.
+     * @return The current {@link QrCodeSheetComposer} instance for method chaining.
+     */
+    public QrCodeSheetComposer withCaptions(Function<QrCodePayload, String> captions) {
+        return withCaptions(captions, DEFAULT_CAPTION_SIZE);
+    }
+
+    /**
+     * Sets the captions written under the codes.
+     *
+     * @param captions The function returning the caption of a payload, or {@code null} for no captions.
+     * @param fontSize The font size of the captions, in points.
+     * @return The current {@link QrCodeSheetComposer} instance for method chaining.
+     */
+    public QrCodeSheetComposer withCaptions(Function<QrCodePayload, String> captions, double fontSize) {
+        if (fontSize <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.captions = captions;
+        this.captionSize = fontSize;
+        return this;
+    }
+
+    /**
+     * Sets the resolution of the PNG pages, which is also the resolution of the logo embedded in PDF documents.
+     * Defaults to 300 dots per inch.
+     *
+     * @param resolution The resolution, in dots per inch.
+     * @return The current {@link QrCodeSheetComposer} instance for method chaining.
+     */
+    public QrCodeSheetComposer withResolution(int resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.resolution = resolution;
+        return this;
+    }
+
+    /**
+     * Writes the QR codes of the payloads as a PDF document.
+     *
+     * @param payloads The payloads, in page order.
+     * @param out The stream the document is written to. It is neither flushed nor closed.
+     * @return The number of pages of the document.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If a payload does not fit in a QR code or the logo cannot be read; the
+     *         document is then incomplete.
+     */
+    public int writePdf(Iterable<QrCodePayload> payloads, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        return writePdf(payloads.iterator(), out);
+    }
+
+    /**
+     * Writes the QR codes of the payloads as a PDF document, consuming the stream as the pages are written.
+     *
+     * @param payloads The payloads, in page order.
+     * @param out The stream the document is written to. It is neither flushed nor closed.
+     * @return The number of pages of the document.
+     * @throws IOException If writing to the stream fails.
+     * @throws QrCodeGeneratorException If a payload does not fit in a QR code or the logo cannot be read; the
+     *         document is then incomplete.
+     */
+    public int writePdf(Stream<QrCodePayload> payloads, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        return writePdf(payloads.iterator(), out);
+    }
+
+    /**
+     * Renders the QR codes of the payloads as PNG images, one per page.
+     *
+     * @param payloads The payloads, in page order.
+     * @param sink The receiver of the pages, called from the current thread.
+     * @return The number of pages.
+     * @throws IOException If the encoding of a page or the sink fails.
+     * @throws QrCodeGeneratorException If a payload does not fit in a QR code or the logo cannot be read.
+     */
+    public int writePng(Iterable<QrCodePayload> payloads, IQrCodeSheetSink sink)
+            throws IOException, QrCodeGeneratorException {
+        return writePng(payloads.iterator(), sink);
+    }
+
+    /**
+     * Renders the QR codes of the payloads as PNG images, one per page, consuming the stream as the pages are
+     * rendered.
+     *
+     * @param payloads The payloads, in page order.
+     * @param sink The receiver of the pages, called from the current thread.
+     * @return The number of pages.
+     * @throws IOException If the encoding of a page or the sink fails.
+     * @throws QrCodeGeneratorException If a payload does not fit in a QR code or the logo cannot be read.
+     */
+    public int writePng(Stream<QrCodePayload> payloads, IQrCodeSheetSink sink)
+            throws IOException, QrCodeGeneratorException {
+        return writePng(payloads.iterator(), sink);
+    }
+
+    /**
+     * Writes a PDF document, embedding the logo at the resolution of the codes.
+     */
+    private int writePdf(Iterator<QrCodePayload> payloads, OutputStream out)
+            throws IOException, QrCodeGeneratorException {
+        RenderOptions options = template.getRenderOptions();
+        LogoQrCode logo = template.getLogo();
+        BufferedImage logoImage = null;
+        if (logo != null) {
+            int logoSide = Math.max(1, (int) Math.ceil(getCodeSide() * logo.getScale() * resolution / 72));
+            logoImage = logo.getScaledLogo(logoSide, logoSide);
+        }
+        PdfSheetWriter writer = new PdfSheetWriter(out, layout, options.getForeground(), options.getBackground(),
+                options.getBorder(), captionSize, logoImage, logo == null ? 0 : logo.getScale(),
+                template.getLogoPlate());
+        compose(payloads, writer);
+        return writer.getPageCount();
+    }
+
+    /**
+     * Renders the PNG pages.
+     */
+    private int writePng(Iterator<QrCodePayload> payloads, IQrCodeSheetSink sink)
+            throws IOException, QrCodeGeneratorException {
+        RenderOptions options = template.getRenderOptions();
+        PngSheetRenderer renderer = new PngSheetRenderer(sink, layout, resolution, options.getForeground(),
+                options.getBackground(), options.getBorder(), captionSize, template.getLogo(),
+                template.getLogoPlate());
+        compose(payloads, renderer);
+        return renderer.getPageCount();
+    }
+
+    /**
+     * Fills the pages with the codes of the payloads, one cell after the other.
+     *
+     * @param payloads The payloads, in page order.
+     * @param renderer The renderer of the output format.
+     * @throws IOException If writing the output fails.
+     * @throws QrCodeGeneratorException If a payload does not fit in a QR code or the logo cannot be read.
+     */
+    private void compose(Iterator<QrCodePayload> payloads, SheetRenderer renderer)
+            throws IOException, QrCodeGeneratorException {
+        double side = getCodeSide();
+        double cellWidth = layout.getCellWidth();
+        int cellsPerPage = layout.getCellsPerPage();
+        int cell = 0;
+        long index = 0;
+        while (payloads.hasNext()) {
+            QrCodePayload payload = payloads.next();
+            QrCodeMatrix matrix;
+            try {
+                matrix = template.toMatrix(payload.getMessage(), payload.getParameters());
+            } catch (QrCodeGeneratorException e) {
+                throw new QrCodeGeneratorException("Unable to encode the QR code " + index + " of the sheet", e);
+            }
+            if (cell == 0) {
+                renderer.beginPage();
+            }
+            int column = cell % layout.getColumns();
+            int row = cell / layout.getColumns();
+            double x = layout.getCellX(column) + (cellWidth - side) / 2;
+            String caption = captions == null ? null : captions.apply(payload);
+            renderer.drawCode(matrix, x, layout.getCellY(row), side, caption, cellWidth);
+            index++;
+            if (++cell == cellsPerPage) {
+                renderer.endPage();
+                cell = 0;
+            }
+        }
+        if (cell != 0) {
+            renderer.endPage();
+        }
+        renderer.finish();
+    }
+
+    /**
+     * Returns the side of the codes, quiet zone included: the largest square fitting in a cell above the caption.
+     *
+     * @return The side of the codes, in points.
+     * @throws IllegalArgumentException If the cells are too small for the captions.
+     */
+    private double getCodeSide() {
+        double captionHeight = captions == null ? 0 : captionSize * CAPTION_LINE_HEIGHT;
+        double side = Math.min(layout.getCellWidth(), layout.getCellHeight() - captionHeight);
+        if (side <= 0) {
+            throw new IllegalArgumentException("The cells of the layout are too small for the captions");
+        }
+        return side;
+    }
+}
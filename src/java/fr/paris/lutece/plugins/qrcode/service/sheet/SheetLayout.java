@@ -0,0 +1,172 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+/**
+ * The layout of the pages of a QR code sheet: the page size, a grid of cells and the margins around and between
+ * the cells. All the dimensions are in PostScript points (1/72 inch). Instances are immutable.
+ * <p>
+ * Each cell holds one QR code, with its quiet zone, centered horizontally at the top of the cell; the caption, if
+ * any, is written under the code.
+ * </p>
+ */
+public final class SheetLayout {
+
+    /**
+     * The width of an A4 page, in points.
+     */
+    public static final double A4_WIDTH = 595.276;
+
+    /**
+     * The height of an A4 page, in points.
+     */
+    public static final double A4_HEIGHT = 841.89;
+
+    /**
+     * The default margin around the grid: 10 millimeters.
+     */
+    public static final double DEFAULT_MARGIN = 28.346;
+
+    private final double pageWidth;
+    private final double pageHeight;
+    private final int columns;
+    private final int rows;
+    private final double margin;
+    private final double spacing;
+
+    /**
+     * Constructs a layout.
+     *
+     * @param pageWidth The width of the pages, in points.
+     * @param pageHeight The height of the pages, in points.
+     * @param columns The number of cells of each row of the grid.
+     * @param rows The number of rows of the grid.
+     * @param margin The margin between the edges of the pages and the grid, in points.
+     * @param spacing The space between two adjacent cells, in points.
+     * @throws IllegalArgumentException If a dimension is negative or if the cells would be empty.
+     */
+    public SheetLayout(double pageWidth, double pageHeight, int columns, int rows, double margin, double spacing) {
+        if (columns <= 0 || rows <= 0 || margin < 0 || spacing < 0) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.columns = columns;
+        this.rows = rows;
+        this.margin = margin;
+        this.spacing = spacing;
+        if (getCellWidth() <= 0 || getCellHeight() <= 0) {
+            throw new IllegalArgumentException("The grid does not fit in the page");
+        }
+    }
+
+    /**
+     * Returns a layout of A4 portrait pages with the default margin and no space between the cells.
+     *
+     * @param columns The number of cells of each row of the grid.
+     * @param rows The number of rows of the grid.
+     * @return The layout.
+     */
+    public static SheetLayout a4(int columns, int rows) {
+        return new SheetLayout(A4_WIDTH, A4_HEIGHT, columns, rows, DEFAULT_MARGIN, 0);
+    }
+
+    /**
+     * Returns the width of the pages.
+     *
+     * @return The width, in points.
+     */
+    public double getPageWidth() {
+        return pageWidth;
+    }
+
+    /**
+     * Returns the height of the pages.
+     *
+     * @return The height, in points.
+     */
+    public double getPageHeight() {
+        return pageHeight;
+    }
+
+    /**
+     * Returns the number of cells of each row of the grid.
+     *
+     * @return The number of columns.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of rows of the grid.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of QR codes of a full page.
+     *
+     * @return The number of cells of the grid.
+     */
+    public int getCellsPerPage() {
+        return columns * rows;
+    }
+
+    /**
+     * Returns the margin between the edges of the pages and the grid.
+     *
+     * @return The margin, in points.
+     */
+    public double getMargin() {
+        return margin;
+    }
+
+    /**
+     * Returns the space between two adjacent cells.
+     *
+     * @return The spacing, in points.
+     */
+    public double getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Returns the width of one cell.
+     *
+     * @return The width, in points.
+     */
+    public double getCellWidth() {
+        return (pageWidth - 2 * margin - (columns - 1) * spacing) / columns;
+    }
+
+    /**
+     * Returns the height of one cell.
+     *
+     * @return The height, in points.
+     */
+    public double getCellHeight() {
+        return (pageHeight - 2 * margin - (rows - 1) * spacing) / rows;
+    }
+
+    /**
+     * Returns the left edge of a column of cells.
+     *
+     * @param column The column, starting at 0.
+     * @return The distance from the left edge of the page, in points.
+     */
+    public double getCellX(int column) {
+        return margin + column * (getCellWidth() + spacing);
+    }
+
+    /**
+     * Returns the top edge of a row of cells.
+     *
+     * @param row The row, starting at 0.
+     * @return The distance from the top edge of the page, in points.
+     */
+    public double getCellY(int row) {
+        return margin + row * (getCellHeight() + spacing);
+    }
+}
@@ -0,0 +1,49 @@
+package fr.paris.lutece.plugins.qrcode.service.sheet;
+
+import java.io.IOException;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+
+/**
+ * Draws the pages of a sheet in one output format. The cells are given in points, from the top left corner of the
+ * page; each renderer holds at most one page at a time.
+ */
+interface SheetRenderer {
+
+    /**
+     * Starts a new page.
+     *
+     * @throws IOException If writing the output fails.
+     */
+    void beginPage() throws IOException;
+
+    /**
+     * Draws one QR code, with its quiet zone, its logo if any and its caption.
+     *
+     * @param matrix The encoded symbol.
+     * @param x The left edge of the code, in points.
+     * @param y The top edge of the code, in points.
+     * @param side The side of the code, quiet zone included, in points.
+     * @param caption The caption written under the code, or {@code null} for none.
+     * @param captionWidth The maximum width of the caption, in points; it is centered under the code.
+     * @throws IOException If writing the output fails.
+     * @throws QrCodeGeneratorException If the logo cannot be read.
+     */
+    void drawCode(QrCodeMatrix matrix, double x, double y, double side, String caption, double captionWidth)
+            throws IOException, QrCodeGeneratorException;
+
+    /**
+     * Ends the current page and hands it to the output.
+     *
+     * @throws IOException If writing the output fails.
+     */
+    void endPage() throws IOException;
+
+    /**
+     * Completes the output after the last page.
+     *
+     * @throws IOException If writing the output fails.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,181 @@
+package fr.paris.lutece.plugins.qrcode.web;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+
+/**
+ * The QR code requested from the {@link QrCodeServlet}: the message, its query parameters and the rendering
+ * options of the image.
+ * <p>
+ * A request has a canonical form, a byte string holding all its fields without ambiguity. The canonical form is
+ * what the {@link QrCodeUrlSigner} signs and what the entity tag of the image is computed from, so that neither
+ * needs the QR code to be encoded. Instances are immutable.
+ * </p>
+ */
+public final class QrCodeRequest {
+
+    private final String message;
+    private final Map<String, String> parameters;
+    private final CorrectionLevel correctionLevel;
+    private final int scale;
+    private final int border;
+    private final OutputFormat format;
+
+    /**
+     * The canonical form, computed once.
+     */
+    private final byte[] canonicalForm;
+
+    /**
+     * Constructs a request.
+     *
+     * @param message The message to encode.
+     * @param parameters The query parameters appended to the message, in order.
+     * @param correctionLevel The error correction level of the QR code.
+     * @param scale The size of one module, in pixels.
+     * @param border The size of the quiet zone, in modules.
+     * @param format The output format of the image.
+     * @throws IllegalArgumentException If the name of a parameter contains {@code =}.
+     */
+    public QrCodeRequest(String message, Map<String, String> parameters, CorrectionLevel correctionLevel, int scale,
+            int border, OutputFormat format) {
+        this.message = Objects.requireNonNull(message);
+        for (String name : parameters.keySet()) {
+            if (name.indexOf('=') >= 0) {
+                throw new IllegalArgumentException("Invalid parameter name: " + name);
+            }
+        }
+        this.parameters = parameters.isEmpty() ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+        this.correctionLevel = Objects.requireNonNull(correctionLevel);
+        this.scale = scale;
+        this.border = border;
+        this.format = Objects.requireNonNull(format);
+        this.canonicalForm = canonicalize();
+    }
+
+    /**
+     * Returns the message to encode.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the query parameters appended to the message.
+     *
+     * @return An unmodifiable map of the parameters, in order.
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the error correction level of the QR code.
+     *
+     * @return The error correction level.
+     */
+    public CorrectionLevel getCorrectionLevel() {
+        return correctionLevel;
+    }
+
+    /**
+     * Returns the size of one module.
+     *
+     * @return The scale, in pixels.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns the size of the quiet zone.
+     *
+     * @return The border, in modules.
+     */
+    public int getBorder() {
+        return border;
+    }
+
+    /**
+     * Returns the output format of the image.
+     *
+     * @return The output format.
+     */
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the canonical form of the request.
+     *
+     * @return A copy of the canonical form.
+     */
+    public byte[] getCanonicalForm() {
+        return canonicalForm.clone();
+    }
+
+    /**
+     * Returns the canonical form without copying it, for the classes of this package.
+     */
+    byte[] canonicalForm() {
+        return canonicalForm;
+    }
+
+    /**
+     * Builds the canonical form: the fields in a fixed order, each string preceded by its length so that no
+     * character of a value can be taken for a separator.
+     */
+    private byte[] canonicalize() {
+        StringBuilder text = new StringBuilder(message.length() + 64);
+        append(text, message);
+        text.append(correctionLevel.name()).append('\n');
+        text.append(scale).append('\n');
+        text.append(border).append('\n');
+        text.append(format.getName()).append('\n');
+        text.append(parameters.size()).append('\n');
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            append(text, parameter.getKey());
+            append(text, parameter.getValue());
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a string preceded by its length.
+     */
+    private static void append(StringBuilder text, String value) {
+        text.append(value.length()).append(':').append(value).append('\n');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof QrCodeRequest)) {
+            return false;
+        }
+        return Arrays.equals(canonicalForm, ((QrCodeRequest) object).canonicalForm);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(canonicalForm);
+    }
+}
@@ -0,0 +1,393 @@
+package fr.paris.lutece.plugins.qrcode.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+
+/**
+ * Servlet rendering the QR codes described by signed queries, with HTTP caching.
+ * <p>
+ * The query holds the {@code message}, the {@code param} values appended to it (one {@code name=value} per
+ * parameter, in order), the correction {@code level}, the {@code scale}, the {@code border}, the {@code format} and
+ * the {@code signature} computed by a {@link QrCodeUrlSigner} sharing the secret of the servlet; the URLs are built
+ * with {@link QrCodeUrlSigner#toQueryString(QrCodeRequest)}. The strong entity tag of the image is derived from the
+ * canonical form of the request and the configuration of the servlet, without encoding the QR code: a request whose
+ * {@code If-None-Match} header holds it is answered with {@code 304 Not Modified}, and {@code HEAD} requests never
+ * encode either. The images are streamed to the response as they are written, and may be cached for a long time
+ * since a given URL always gives the same image.
+ * </p>
+ * <p>
+ * Init parameters: {@code secret} (required, at least 16 bytes), {@code foreground} and {@code background} (RGB colors
+ * in hexadecimal, black on white by default), {@code max-scale} (40 by default), {@code max-border} (16 by default),
+ * both below 2<sup>20</sup>, {@code max-message-length} (4096 characters by default) and {@code max-age} (the lifetime
+ * of the images in the caches, one year by default).
+ * </p>
+ */
+public class QrCodeServlet extends HttpServlet {
+
+    /**
+     * The init parameter holding the secret of the signatures.
+     */
+    public static final String INIT_SECRET = "secret";
+
+    /**
+     * The init parameter holding the color of the dark modules.
+     */
+    public static final String INIT_FOREGROUND = "foreground";
+
+    /**
+     * The init parameter holding the color of the light modules.
+     */
+    public static final String INIT_BACKGROUND = "background";
+
+    /**
+     * The init parameter holding the largest scale accepted.
+     */
+    public static final String INIT_MAX_SCALE = "max-scale";
+
+    /**
+     * The init parameter holding the largest border accepted.
+     */
+    public static final String INIT_MAX_BORDER = "max-border";
+
+    /**
+     * The init parameter holding the largest number of characters of a message.
+     */
+    public static final String INIT_MAX_MESSAGE_LENGTH = "max-message-length";
+
+    /**
+     * The init parameter holding the lifetime of the images in the caches, in seconds.
+     */
+    public static final String INIT_MAX_AGE = "max-age";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_MAX_SCALE = 40;
+    private static final int DEFAULT_MAX_BORDER = 16;
+    private static final int DEFAULT_MAX_MESSAGE_LENGTH = 4096;
+    private static final long DEFAULT_MAX_AGE = 365L * 24 * 3600;
+
+    /**
+     * The largest scale or border that fits in its 20 bits of the template keys.
+     */
+    private static final int MAX_KEY_FIELD = (1 << 20) - 1;
+
+    /**
+     * Version of the entity tags, to change when the rendering of a given request changes.
+     */
+    private static final int ETAG_VERSION = 1;
+
+    /**
+     * The number of bytes of the SHA-256 digest kept in the entity tags.
+     */
+    private static final int ETAG_BYTES = 16;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_CONTENT_TYPE_OPTIONS = "X-Content-Type-Options";
+
+    /**
+     * The digests computing the entity tags, reused by each thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private transient QrCodeUrlSigner signer;
+    private transient int foreground = RenderOptions.BLACK;
+    private transient int background = RenderOptions.WHITE;
+    private transient int maxScale = DEFAULT_MAX_SCALE;
+    private transient int maxBorder = DEFAULT_MAX_BORDER;
+    private transient int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+    private transient String cacheControl;
+
+    /**
+     * The templates, by correction level, scale, border and format.
+     */
+    private transient Map<Long, QrCodeTemplate> templates;
+
+    /**
+     * Constructs a servlet configured by its init parameters.
+     */
+    public QrCodeServlet() {
+        this(null);
+    }
+
+    /**
+     * Constructs a servlet with a signer, for containers registering servlets programmatically. The
+     * {@code secret} init parameter is then ignored.
+     *
+     * @param signer The signer checking the queries, or {@code null} to create it from the init parameters.
+     */
+    public QrCodeServlet(QrCodeUrlSigner signer) {
+        this.signer = signer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init() throws ServletException {
+        try {
+            if (signer == null) {
+                String secret = getInitParameter(INIT_SECRET);
+                if (secret == null) {
+                    throw new ServletException("Missing init parameter: " + INIT_SECRET);
+                }
+                signer = new QrCodeUrlSigner(secret.getBytes(StandardCharsets.UTF_8));
+            }
+            foreground = parseColor(getInitParameter(INIT_FOREGROUND), RenderOptions.BLACK);
+            background = parseColor(getInitParameter(INIT_BACKGROUND), RenderOptions.WHITE);
+            maxScale = parsePositive(getInitParameter(INIT_MAX_SCALE), DEFAULT_MAX_SCALE, MAX_KEY_FIELD);
+            maxBorder = parsePositive(getInitParameter(INIT_MAX_BORDER), DEFAULT_MAX_BORDER, MAX_KEY_FIELD);
+            maxMessageLength = parsePositive(getInitParameter(INIT_MAX_MESSAGE_LENGTH), DEFAULT_MAX_MESSAGE_LENGTH,
+                    Integer.MAX_VALUE);
+            String maxAge = getInitParameter(INIT_MAX_AGE);
+            cacheControl = "public, max-age=" + (maxAge == null ? DEFAULT_MAX_AGE : Long.parseLong(maxAge.trim()))
+                    + ", immutable";
+        } catch (IllegalArgumentException e) {
+            throw new ServletException("Invalid configuration of the QR code servlet", e);
+        }
+        templates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        serve(request, response, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The headers are those of a {@code GET} request, found without encoding the QR code.
+     * </p>
+     */
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        serve(request, response, false);
+    }
+
+    /**
+     * Answers a request: checks its signature, then either answers a matching {@code If-None-Match} with
+     * {@code 304 Not Modified} or renders the QR code.
+     *
+     * @param request The HTTP request.
+     * @param response The HTTP response.
+     * @param body {@code true} to render the QR code, {@code false} for the headers only.
+     * @throws ServletException If the QR code fails after the response has been committed.
+     * @throws IOException If writing the response fails.
+     */
+    private void serve(HttpServletRequest request, HttpServletResponse response, boolean body)
+            throws ServletException, IOException {
+        QrCodeRequest qrCodeRequest;
+        try {
+            qrCodeRequest = parse(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid QR code request");
+            return;
+        }
+        if (!signer.verify(qrCodeRequest, request.getParameter(QrCodeUrlSigner.PARAMETER_SIGNATURE))) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid signature");
+            return;
+        }
+
+        String etag = getETag(qrCodeRequest);
+        response.setHeader(HEADER_ETAG, etag);
+        response.setHeader(HEADER_CACHE_CONTROL, cacheControl);
+        if (matches(request.getHeaders(HEADER_IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(qrCodeRequest.getFormat().getContentType());
+        response.setHeader(HEADER_CONTENT_TYPE_OPTIONS, "nosniff");
+        if (!body) {
+            return;
+        }
+
+        Map<String, String> parameters = qrCodeRequest.getParameters();
+        try {
+            getTemplate(qrCodeRequest).render(qrCodeRequest.getMessage(), parameters.isEmpty() ? null : parameters,
+                    response.getOutputStream());
+        } catch (QrCodeGeneratorException e) {
+            if (response.isCommitted()) {
+                throw new ServletException(e);
+            }
+            response.reset();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Message too long for a QR code");
+        }
+    }
+
+    /**
+     * Returns the strong entity tag of the image of a request: a digest of its canonical form and of the
+     * configuration of the servlet.
+     *
+     * @param request The request.
+     * @return The quoted entity tag.
+     */
+    public String getETag(QrCodeRequest request) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update((byte) ETAG_VERSION);
+        digest.update(intBytes(foreground));
+        digest.update(intBytes(background));
+        byte[] hash = digest.digest(request.canonicalForm());
+        return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, ETAG_BYTES))
+                + '"';
+    }
+
+    /**
+     * Reads the QR code request from the query.
+     *
+     * @param request The HTTP request.
+     * @return The QR code request.
+     * @throws IllegalArgumentException If a parameter is missing or invalid.
+     */
+    QrCodeRequest parse(HttpServletRequest request) {
+        String message = request.getParameter(QrCodeUrlSigner.PARAMETER_MESSAGE);
+        if (message == null || message.length() > maxMessageLength) {
+            throw new IllegalArgumentException("Missing or too long message");
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        String[] values = request.getParameterValues(QrCodeUrlSigner.PARAMETER_PARAM);
+        if (values != null) {
+            for (String value : values) {
+                int separator = value.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Invalid parameter");
+                }
+                parameters.put(value.substring(0, separator), value.substring(separator + 1));
+            }
+        }
+        CorrectionLevel level = parseLevel(request.getParameter(QrCodeUrlSigner.PARAMETER_LEVEL));
+        int scale = parseInt(request.getParameter(QrCodeUrlSigner.PARAMETER_SCALE), RenderOptions.DEFAULT_SCALE, 1,
+                maxScale);
+        int border = parseInt(request.getParameter(QrCodeUrlSigner.PARAMETER_BORDER), RenderOptions.DEFAULT_BORDER,
+                0, maxBorder);
+        String formatName = request.getParameter(QrCodeUrlSigner.PARAMETER_FORMAT);
+        OutputFormat format = formatName == null ? OutputFormat.PNG : OutputFormat.forName(formatName);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown format");
+        }
+        return new QrCodeRequest(message, parameters, level, scale, border, format);
+    }
+
+    /**
+     * Returns the template rendering a request, built on first use.
+     */
+    private QrCodeTemplate getTemplate(QrCodeRequest request) {
+        long key = ((long) request.getFormat().ordinal() << 48) | ((long) request.getCorrectionLevel().ordinal() << 40)
+                | ((long) request.getBorder() << 20) | request.getScale();
+        return templates.computeIfAbsent(key, k -> new QrCodeBuilder()
+                .withCorrectionLevel(request.getCorrectionLevel())
+                .withScale(request.getScale())
+                .withBorder(request.getBorder())
+                .withColors(foreground, background)
+                .withFormat(request.getFormat())
+                .buildTemplate());
+    }
+
+    /**
+     * Returns {@code true} if an {@code If-None-Match} header matches an entity tag, with the weak comparison
+     * required for this header.
+     */
+    private static boolean matches(Enumeration<String> headers, String etag) {
+        if (headers == null) {
+            return false;
+        }
+        while (headers.hasMoreElements()) {
+            for (String candidate : headers.nextElement().split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a correction level given by its name or its initial, e.g. {@code QUARTILE} or {@code Q}.
+     */
+    private static CorrectionLevel parseLevel(String value) {
+        if (value == null) {
+            return CorrectionLevel.MEDIUM;
+        }
+        for (CorrectionLevel level : CorrectionLevel.values()) {
+            if (level.name().equalsIgnoreCase(value)
+                    || value.length() == 1 && Character.toUpperCase(value.charAt(0)) == level.name().charAt(0)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown correction level");
+    }
+
+    /**
+     * Parses an integer in a range, or returns the default value if there is none.
+     */
+    private static int parseInt(String value, int defaultValue, int min, int max) {
+        if (value == null) {
+            return defaultValue;
+        }
+        int result = Integer.parseInt(value);
+        if (result < min || result > max) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        return result;
+    }
+
+    /**
+     * Parses a positive integer init parameter, or returns the default value if there is none.
+     */
+    private static int parsePositive(String value, int defaultValue, int max) {
+        return value == null ? defaultValue : parseInt(value.trim(), defaultValue, 1, max);
+    }
+
+    /**
+     * Parses an RGB color in hexadecimal, with or without a leading {@code #}.
+     */
+    private static int parseColor(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        String digits = value.trim();
+        return Integer.parseInt(digits.startsWith("#") ? digits.substring(1) : digits, 16) & 0xFFFFFF;
+    }
+
+    /**
+     * Returns the big-endian bytes of an integer.
+     */
+    private static byte[] intBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+}
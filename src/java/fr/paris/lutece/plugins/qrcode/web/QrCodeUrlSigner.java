@@ -0,0 +1,133 @@
+package fr.paris.lutece.plugins.qrcode.web;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs the queries of the {@link QrCodeServlet}, so that it only renders the QR codes requested by the application.
+ * <p>
+ * The signature is the HMAC-SHA256 of the canonical form of the request (see {@link QrCodeRequest}), in unpadded
+ * URL-safe Base64. The same secret must be given to the servlet and to the code building its URLs. Instances are
+ * thread-safe.
+ * </p>
+ */
+public final class QrCodeUrlSigner {
+
+    /**
+     * The MAC algorithm of the signatures.
+     */
+    public static final String ALGORITHM = "HmacSHA256";
+
+    static final String PARAMETER_MESSAGE = "message";
+    static final String PARAMETER_PARAM = "param";
+    static final String PARAMETER_LEVEL = "level";
+    static final String PARAMETER_SCALE = "scale";
+    static final String PARAMETER_BORDER = "border";
+    static final String PARAMETER_FORMAT = "format";
+    static final String PARAMETER_SIGNATURE = "signature";
+
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+    private static final String UTF_8 = "UTF-8";
+
+    private final SecretKeySpec key;
+
+    /**
+     * The MAC of each thread, initialized with the key.
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Constructs a signer.
+     *
+     * @param secret The secret key, at least 16 bytes long.
+     * @throws IllegalArgumentException If the key is too short.
+     */
+    public QrCodeUrlSigner(byte[] secret) {
+        if (secret.length < 16) {
+            throw new IllegalArgumentException("Secret too short: " + secret.length + " bytes");
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Computes the signature of a request.
+     *
+     * @param request The request.
+     * @return The signature, in unpadded URL-safe Base64.
+     */
+    public String sign(QrCodeRequest request) {
+        return BASE64.encodeToString(macs.get().doFinal(request.canonicalForm()));
+    }
+
+    /**
+     * Checks the signature of a request, in constant time.
+     *
+     * @param request The request.
+     * @param signature The signature received with the request, or {@code null} if there is none.
+     * @return {@code true} if the signature is the one of the request.
+     */
+    public boolean verify(QrCodeRequest request, String signature) {
+        if (signature == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(request).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Builds the signed query string of a request, to append to the URL of the {@link QrCodeServlet} after a
+     * {@code ?}.
+     *
+     * @param request The request.
+     * @return The query string, parameters included, ending with the signature.
+     */
+    public String toQueryString(QrCodeRequest request) {
+        StringBuilder query = new StringBuilder(request.getMessage().length() + 128);
+        append(query, PARAMETER_MESSAGE, request.getMessage());
+        for (Map.Entry<String, String> parameter : request.getParameters().entrySet()) {
+            append(query, PARAMETER_PARAM, parameter.getKey() + '=' + parameter.getValue());
+        }
+        append(query, PARAMETER_LEVEL, request.getCorrectionLevel().name());
+        append(query, PARAMETER_SCALE, Integer.toString(request.getScale()));
+        append(query, PARAMETER_BORDER, Integer.toString(request.getBorder()));
+        append(query, PARAMETER_FORMAT, request.getFormat().getName());
+        append(query, PARAMETER_SIGNATURE, sign(request));
+        return query.toString();
+    }
+
+    /**
+     * Appends a URL-encoded parameter to a query string.
+     */
+    private static void append(StringBuilder query, String name, String value) {
+        if (query.length() > 0) {
+            query.append('&');
+        }
+        try {
+            query.append(name).append('=').append(URLEncoder.encode(value, UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a MAC initialized with the key.
+     */
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
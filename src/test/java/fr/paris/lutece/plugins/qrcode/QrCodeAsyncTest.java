@@ -0,0 +1,186 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.async.QrCodeAsyncGenerator;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolKey;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the asynchronous generation of QR codes.
+ */
+public class QrCodeAsyncTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr";
+
+    public void testRender( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).buildTemplate( );
+        QrCodeAsyncGenerator generator = new QrCodeAsyncGenerator( template ).withMaxPending( 100 );
+        List<CompletableFuture<byte [ ]>> futures = new ArrayList<>( );
+        for ( int i = 0; i < 50; i++ )
+        {
+            futures.add( generator.render( MESSAGE, null ) );
+        }
+        byte [ ] expected = template.render( MESSAGE, null );
+        for ( CompletableFuture<byte [ ]> future : futures )
+        {
+            assertTrue( Arrays.equals( expected, future.get( 10, TimeUnit.SECONDS ) ) );
+        }
+        assertEquals( 0, generator.getPendingCount( ) );
+        assertEquals( template.toImage( MESSAGE, null ).getWidth( ), generator.toImage( MESSAGE, null ).get( ).getWidth( ) );
+    }
+
+    public void testTypedFailure( ) throws Exception
+    {
+        StringBuilder tooLong = new StringBuilder( );
+        for ( int i = 0; i < 8000; i++ )
+        {
+            tooLong.append( (char) ( 'a' + i % 26 ) );
+        }
+        try
+        {
+            new QrCodeAsyncGenerator( new QrCodeBuilder( ).buildTemplate( ) ).render( tooLong.toString( ), null ).get( );
+            fail( "The payload should not fit" );
+        }
+        catch( ExecutionException e )
+        {
+            assertTrue( e.getCause( ) instanceof QrCodeGeneratorException );
+        }
+    }
+
+    public void testErrorFailsFuture( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolCache( new SymbolCache( )
+        {
+            @Override
+            public QrCodeMatrix get( SymbolKey key )
+            {
+                throw new AssertionError( "failing cache" );
+            }
+        } ).buildTemplate( );
+        QrCodeAsyncGenerator generator = new QrCodeAsyncGenerator( template );
+        try
+        {
+            generator.render( MESSAGE, null ).get( 10, TimeUnit.SECONDS );
+            fail( "Expected ExecutionException" );
+        }
+        catch( ExecutionException e )
+        {
+            assertTrue( e.getCause( ) instanceof AssertionError );
+        }
+        assertEquals( 0, generator.getPendingCount( ) );
+    }
+
+    public void testRejectedByExecutor( ) throws Exception
+    {
+        final AtomicInteger calls = new AtomicInteger( );
+        ExecutorService pool = Executors.newSingleThreadExecutor( );
+        try
+        {
+            // Rejects the first task, then runs the others on the pool
+            QrCodeAsyncGenerator generator = new QrCodeAsyncGenerator( new QrCodeBuilder( ).buildTemplate( ) ).withExecutor( task -> {
+                if ( calls.getAndIncrement( ) == 0 )
+                {
+                    throw new RejectedExecutionException( "saturated" );
+                }
+                pool.execute( task );
+            } );
+            CompletableFuture<byte [ ]> rejected = generator.render( MESSAGE, null );
+            // Failed at once, not run on the calling thread
+            assertTrue( rejected.isCompletedExceptionally( ) );
+            try
+            {
+                rejected.get( );
+                fail( "The request should be rejected" );
+            }
+            catch( ExecutionException e )
+            {
+                assertEquals( "saturated", e.getCause( ).getMessage( ) );
+            }
+            assertEquals( 0, generator.getPendingCount( ) );
+
+            // The slots were released
+            assertNotNull( generator.render( MESSAGE, null ).get( 10, TimeUnit.SECONDS ) );
+            assertEquals( 0, generator.getPendingCount( ) );
+        }
+        finally
+        {
+            pool.shutdown( );
+        }
+    }
+
+    public void testBoundedConcurrency( ) throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger running = new AtomicInteger( );
+        final AtomicInteger maxRunning = new AtomicInteger( );
+        ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            QrCodeAsyncGenerator generator = new QrCodeAsyncGenerator( new QrCodeBuilder( ).buildTemplate( ) )
+                    .withExecutor( task -> pool.execute( ( ) -> {
+                        maxRunning.accumulateAndGet( running.incrementAndGet( ), Math::max );
+                        try
+                        {
+                            release.await( );
+                        }
+                        catch( InterruptedException e )
+                        {
+                            Thread.currentThread( ).interrupt( );
+                        }
+                        running.decrementAndGet( );
+                        task.run( );
+                    } ) )
+                    .withMaxConcurrency( 2 ).withMaxPending( 5 );
+            List<CompletableFuture<byte [ ]>> accepted = new ArrayList<>( );
+            for ( int i = 0; i < 5; i++ )
+            {
+                accepted.add( generator.render( MESSAGE, null ) );
+            }
+            CompletableFuture<byte [ ]> rejected = generator.render( MESSAGE, null );
+            assertTrue( rejected.isCompletedExceptionally( ) );
+            try
+            {
+                rejected.get( );
+                fail( "The request should be rejected" );
+            }
+            catch( ExecutionException e )
+            {
+                assertTrue( e.getCause( ) instanceof RejectedExecutionException );
+            }
+
+            for ( int i = 0; i < 500 && running.get( ) < 2; i++ )
+            {
+                Thread.sleep( 10 );
+            }
+            release.countDown( );
+            for ( CompletableFuture<byte [ ]> future : accepted )
+            {
+                assertNotNull( future.get( 10, TimeUnit.SECONDS ) );
+            }
+            assertEquals( 2, maxRunning.get( ) );
+            assertEquals( 0, generator.getPendingCount( ) );
+        }
+        finally
+        {
+            pool.shutdown( );
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.cli.QrCodeBatchCommand;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the command line batch generator.
+ */
+public class QrCodeBatchCommandTest extends TestCase
+{
+
+    private Path directory;
+    private ByteArrayOutputStream log;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        directory = Files.createTempDirectory( "qrcode-batch" );
+        log = new ByteArrayOutputStream( );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        try ( Stream<Path> files = Files.walk( directory ) )
+        {
+            for ( Path file : files.sorted( Comparator.reverseOrder( ) ).collect( Collectors.toList( ) ) )
+            {
+                Files.delete( file );
+            }
+        }
+    }
+
+    private int run( String... args )
+    {
+        return QrCodeBatchCommand.run( args, new PrintStream( log, true ) );
+    }
+
+    private Path csv( String... lines ) throws IOException
+    {
+        Path input = directory.resolve( "input.csv" );
+        Files.write( input, Arrays.asList( lines ), StandardCharsets.UTF_8 );
+        return input;
+    }
+
+    private static String tooLong( )
+    {
+        char [ ] message = new char [ 3000 ];
+        Arrays.fill( message, 'x' );
+        return new String( message );
+    }
+
+    public void testZipVolumes( ) throws Exception
+    {
+        List<String> lines = new ArrayList<>( );
+        lines.add( "url,id,name" );
+        for ( int i = 0; i < 25; i++ )
+        {
+            lines.add( "https://www.paris.fr/ticket," + i + ",\"Dupont, \"\"Jean\"\"\"" );
+        }
+        Path input = csv( lines.toArray( new String [ 0 ] ) );
+        Path output = directory.resolve( "codes.zip" );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--input", input.toString( ), "--output", output.toString( ), "--volume-rows",
+                "10", "--threads", "2", "--scale", "2" ) );
+
+        for ( int volume = 0; volume < 3; volume++ )
+        {
+            try ( ZipFile zip = new ZipFile( directory.resolve( "codes-0000" + volume + ".zip" ).toFile( ) ) )
+            {
+                assertEquals( volume < 2 ? 10 : 5, zip.size( ) );
+            }
+        }
+        assertFalse( Files.exists( directory.resolve( "codes-00003.zip" ) ) );
+
+        // Each row is its message with the other columns as parameters
+        Map<String, String> parameters = new LinkedHashMap<>( );
+        parameters.put( "id", "12" );
+        parameters.put( "name", "Dupont, \"Jean\"" );
+        byte [ ] expected = new QrCodeBuilder( ).withScale( 2 ).buildTemplate( ).render( "https://www.paris.fr/ticket", parameters );
+        try ( ZipFile zip = new ZipFile( directory.resolve( "codes-00001.zip" ).toFile( ) ) )
+        {
+            ZipEntry entry = zip.getEntry( "000000013.png" );
+            assertNotNull( entry );
+            assertEquals( ZipEntry.STORED, entry.getMethod( ) );
+            byte [ ] data = new byte [ (int) entry.getSize( ) ];
+            new DataInputStream( zip.getInputStream( entry ) ).readFully( data );
+            assertTrue( Arrays.equals( expected, data ) );
+        }
+    }
+
+    public void testDirectoryWithRejectedRows( ) throws Exception
+    {
+        Path input = csv( "id;message", "a/1;HELLO", "b2;" + tooLong( ), "", "c3;\"multi", "line\"" );
+        Path output = directory.resolve( "codes" );
+        assertEquals( QrCodeBatchCommand.EXIT_REJECTED, run( "--input", input.toString( ), "--output", output.toString( ), "--delimiter",
+                ";", "--message-column", "message", "--id-column", "id", "--format", "svg", "--shards", "1" ) );
+
+        List<String> names;
+        try ( Stream<Path> files = Files.walk( output ) )
+        {
+            names = files.filter( Files::isRegularFile ).map( file -> output.relativize( file ).toString( ) ).sorted( )
+                    .collect( Collectors.toList( ) );
+        }
+        assertEquals( 2, names.size( ) );
+        for ( String name : names )
+        {
+            assertTrue( name, name.matches( "[0-9a-f]{2}/(a_1|c3)\\.svg" ) );
+        }
+        assertEquals( Arrays.asList( "id;message", "b2;" + tooLong( ) ),
+                Files.readAllLines( directory.resolve( "codes.rejects.csv" ), StandardCharsets.UTF_8 ) );
+        assertTrue( log.toString( "UTF-8" ).contains( "Row 2 rejected" ) );
+
+        // A complete batch has nothing to resume
+        assertEquals( QrCodeBatchCommand.EXIT_REJECTED, run( "--input", input.toString( ), "--output", output.toString( ), "--resume" ) );
+    }
+
+    public void testDuplicateIds( ) throws Exception
+    {
+        Path input = csv( "message,id", "A,a/b", "B,a_b", "C,a_b", "D,a_b-2" );
+        Path output = directory.resolve( "codes.zip" );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--input", input.toString( ), "--output", output.toString( ), "--id-column", "id",
+                "--volume-rows", "0" ) );
+        List<String> names = new ArrayList<>( );
+        try ( ZipFile zip = new ZipFile( output.toFile( ) ) )
+        {
+            zip.stream( ).forEach( entry -> names.add( entry.getName( ) ) );
+        }
+        assertEquals( Arrays.asList( "a_b.png", "a_b-2.png", "a_b-3.png", "a_b-2-4.png" ), names );
+
+        // The directory sink gives the same names, without overwriting
+        Path tree = directory.resolve( "codes" );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--input", input.toString( ), "--output", tree.toString( ), "--id-column", "id",
+                "--shards", "0" ) );
+        try ( Stream<Path> files = Files.list( tree ) )
+        {
+            assertEquals( Arrays.asList( "a_b-2-4.png", "a_b-2.png", "a_b-3.png", "a_b.png" ),
+                    files.map( file -> file.getFileName( ).toString( ) ).sorted( ).collect( Collectors.toList( ) ) );
+        }
+
+        // A resumed run gives the same names as an uninterrupted one
+        Path resumed = directory.resolve( "resumed" );
+        Files.write( directory.resolve( "resumed.checkpoint" ), Arrays.asList( "rows=2", "generated=2", "rejected=0", "rejects.size=0",
+                "complete=false" ), StandardCharsets.ISO_8859_1 );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--input", input.toString( ), "--output", resumed.toString( ), "--id-column", "id",
+                "--shards", "0", "--resume" ) );
+        try ( Stream<Path> files = Files.list( resumed ) )
+        {
+            assertEquals( Arrays.asList( "a_b-2-4.png", "a_b-3.png" ),
+                    files.map( file -> file.getFileName( ).toString( ) ).sorted( ).collect( Collectors.toList( ) ) );
+        }
+    }
+
+    public void testResume( ) throws Exception
+    {
+        Path input = csv( "message", "A", tooLong( ), "B", "C", "D" );
+        Path output = directory.resolve( "codes" );
+        Path rejects = directory.resolve( "codes.rejects.csv" );
+
+        // State of a run interrupted after the second row, with a rejected row written after the checkpoint
+        Files.write( rejects, ( "message\n" + tooLong( ) + "\nD\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        Files.write( directory.resolve( "codes.checkpoint" ), Arrays.asList( "rows=2", "generated=1", "rejected=1",
+                "rejects.size=" + ( "message\n".length( ) + tooLong( ).length( ) + 1 ), "complete=false" ), StandardCharsets.ISO_8859_1 );
+
+        assertEquals( QrCodeBatchCommand.EXIT_REJECTED, run( "--input", input.toString( ), "--output", output.toString( ), "--shards",
+                "0", "--resume" ) );
+        try ( Stream<Path> files = Files.list( output ) )
+        {
+            assertEquals( Arrays.asList( "000000003.png", "000000004.png", "000000005.png" ),
+                    files.map( file -> file.getFileName( ).toString( ) ).sorted( ).collect( Collectors.toList( ) ) );
+        }
+        assertEquals( Arrays.asList( "message", tooLong( ) ), Files.readAllLines( rejects, StandardCharsets.UTF_8 ) );
+        String report = log.toString( "UTF-8" );
+        assertTrue( report, report.contains( "Resuming after row 2" ) );
+        assertTrue( report, report.contains( "Done: 4 codes, 1 rejected rows" ) );
+    }
+
+    public void testSymbolType( ) throws Exception
+    {
+        Path input = csv( "message", "12345", "https://www.paris.fr/ticket" );
+        Path output = directory.resolve( "codes" );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--input", input.toString( ), "--output", output.toString( ), "--shards", "0",
+                "--symbol", "smallest", "--scale", "1" ) );
+
+        // A Micro QR symbol of version M2 with its quiet zone of 2 modules, then a QR code with 4 modules
+        assertEquals( 13 + 4, ImageIO.read( output.resolve( "000000001.png" ).toFile( ) ).getWidth( ) );
+        int size = new QrCodeBuilder( ).buildTemplate( ).toMatrix( "https://www.paris.fr/ticket", null ).getSize( );
+        assertEquals( size + 8, ImageIO.read( output.resolve( "000000002.png" ).toFile( ) ).getWidth( ) );
+    }
+
+    public void testInvalidArguments( ) throws Exception
+    {
+        assertEquals( QrCodeBatchCommand.EXIT_ERROR, run( "--output", "codes.zip" ) );
+        assertEquals( QrCodeBatchCommand.EXIT_ERROR, run( "--input", "in.csv", "--output", "codes", "--level", "X" ) );
+        assertEquals( QrCodeBatchCommand.EXIT_ERROR, run( "--input", "in.csv", "--output", "codes", "--symbol", "rmqr" ) );
+        assertEquals( QrCodeBatchCommand.EXIT_ERROR, run( "--input", directory.resolve( "missing.csv" ).toString( ), "--output",
+                directory.resolve( "codes" ).toString( ) ) );
+        assertEquals( QrCodeBatchCommand.EXIT_SUCCESS, run( "--help" ) );
+        assertTrue( log.toString( "UTF-8" ).contains( "--volume-rows" ) );
+    }
+}
@@ -0,0 +1,104 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+import fr.paris.lutece.plugins.qrcode.service.batch.QrCodeBatchGenerator;
+import fr.paris.lutece.plugins.qrcode.service.batch.QrCodeBatchResult;
+import fr.paris.lutece.plugins.qrcode.service.cache.ISymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolKey;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the batch generation of QR codes.
+ */
+public class QrCodeBatchTest extends TestCase
+{
+
+    private static List<QrCodePayload> payloads( int count )
+    {
+        List<QrCodePayload> payloads = new ArrayList<>( );
+        for ( int i = 0; i < count; i++ )
+        {
+            payloads.add( new QrCodePayload( "https://www.paris.fr/ticket",
+                    Collections.singletonMap( "id", Integer.toString( i ) ) ) );
+        }
+        return payloads;
+    }
+
+    public void testOrderedBatch( ) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            List<QrCodeBatchResult> results = new ArrayList<>( );
+            new QrCodeBatchGenerator( ).withExecutor( executor ).withMaxInFlight( 8 ).withSize( 2, 2 )
+                    .generate( payloads( 200 ), results::add );
+            assertEquals( 200, results.size( ) );
+            for ( int i = 0; i < results.size( ); i++ )
+            {
+                QrCodeBatchResult result = results.get( i );
+                assertEquals( i, result.getIndex( ) );
+                assertTrue( result.isSuccess( ) );
+                assertEquals( (byte) 0x89, result.getData( )[0] );
+            }
+        }
+        finally
+        {
+            executor.shutdown( );
+        }
+    }
+
+    public void testErrorOnWorker( ) throws Exception
+    {
+        ISymbolCache failing = new SymbolCache( )
+        {
+            @Override
+            public QrCodeMatrix get( SymbolKey key )
+            {
+                throw new AssertionError( "failing cache" );
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            new QrCodeBatchGenerator( ).withExecutor( executor ).withSymbolCache( failing ).generate( payloads( 10 ), result -> {
+            } );
+            fail( "Expected AssertionError" );
+        }
+        catch( AssertionError e )
+        {
+            assertEquals( "failing cache", e.getMessage( ) );
+        }
+        finally
+        {
+            executor.shutdown( );
+        }
+    }
+
+    public void testUnorderedStream( )
+    {
+        List<QrCodeBatchResult> results = new QrCodeBatchGenerator( ).withFormat( OutputFormat.SVG )
+                .withOrderedResults( false )
+                .generate( IntStream.range( 0, 100 ).mapToObj( i -> new QrCodePayload( "code " + i ) ) )
+                .collect( Collectors.toList( ) );
+        BitSet seen = new BitSet( );
+        for ( QrCodeBatchResult result : results )
+        {
+            assertTrue( result.isSuccess( ) );
+            assertTrue( new String( result.getData( ) ).contains( "<svg" ) );
+            seen.set( (int) result.getIndex( ) );
+        }
+        assertEquals( 100, seen.cardinality( ) );
+    }
+}
@@ -0,0 +1,144 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.benchmark.ConcurrencyStressHarness;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the whole pipeline, from the builder to the PNG bytes, run by concurrent threads.
+ */
+public class QrCodeConcurrencyTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr/ticket";
+    private static final int THREADS = 8;
+    private static final int COUNT = 40;
+
+    private static byte [ ] png( int id, LogoQrCode logo ) throws Exception
+    {
+        QrCodeBuilder builder = new QrCodeBuilder( MESSAGE ).addParameter( "id", Integer.toString( id ) ).withScale( 3 );
+        if ( logo != null )
+        {
+            builder.addLogoHandler( logo );
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ( (QrCodeGenerator) builder.build( ) ).writePng( out );
+        return out.toByteArray( );
+    }
+
+    private static LogoQrCode logo( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 64, 64, BufferedImage.TYPE_INT_ARGB );
+        for ( int y = 0; y < 64; y++ )
+        {
+            for ( int x = 0; x < 64; x++ )
+            {
+                image.setRGB( x, y, 0xFF000000 | x << 18 | y << 10 );
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", out );
+        return new LogoQrCode( new ByteArrayInputStream( out.toByteArray( ) ) );
+    }
+
+    /**
+     * Renders the same codes on concurrent threads, started together, each in a different order, and compares them
+     * with the codes rendered by a single thread.
+     */
+    private static void assertSameAsSequential( final LogoQrCode logo ) throws Exception
+    {
+        final byte [ ] [ ] expected = new byte [ COUNT ] [ ];
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            expected [i] = png( i, logo );
+        }
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<>( );
+            for ( int t = 0; t < THREADS; t++ )
+            {
+                final int offset = t * 5;
+                results.add( executor.submit( new Callable<Integer>( )
+                {
+                    @Override
+                    public Integer call( ) throws Exception
+                    {
+                        start.await( );
+                        for ( int i = 0; i < COUNT; i++ )
+                        {
+                            int id = ( i + offset ) % COUNT;
+                            if ( !Arrays.equals( expected [id], png( id, logo ) ) )
+                            {
+                                return id;
+                            }
+                        }
+                        return -1;
+                    }
+                } ) );
+            }
+            start.countDown( );
+            for ( Future<Integer> result : results )
+            {
+                assertEquals( -1, result.get( ).intValue( ) );
+            }
+        }
+        finally
+        {
+            executor.shutdown( );
+        }
+    }
+
+    public void testConcurrentPng( ) throws Exception
+    {
+        assertSameAsSequential( null );
+    }
+
+    public void testConcurrentPngWithSharedLogo( ) throws Exception
+    {
+        assertSameAsSequential( logo( ) );
+    }
+
+    public void testStressHarness( ) throws Exception
+    {
+        ByteArrayOutputStream report = new ByteArrayOutputStream( );
+        int status = ConcurrencyStressHarness.run( new String [ ] {
+                "--threads", "3", "--warmup", "0.1", "--duration", "0.2", "--payload-size", "50", "--min-efficiency", "0"
+        }, new PrintStream( report, true, "UTF-8" ) );
+        String text = report.toString( "UTF-8" );
+        assertEquals( text, 0, status );
+        for ( String pipeline : new String [ ] {
+                "PNG pipeline", "IMAGEIO pipeline", "LOGO pipeline"
+        } )
+        {
+            assertTrue( text, text.contains( pipeline ) );
+        }
+        assertTrue( text, text.contains( "p999 us" ) );
+
+        // Levels of 1, 2 and 3 threads
+        assertEquals( text, 3, text.split( "\n3 ", -1 ).length - 1 );
+
+        report.reset( );
+        assertEquals( 2, ConcurrencyStressHarness.run( new String [ ] {
+                "--threads", "0"
+        }, new PrintStream( report, true, "UTF-8" ) ) );
+    }
+}
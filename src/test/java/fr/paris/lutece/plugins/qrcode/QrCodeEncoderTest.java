@@ -0,0 +1,182 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.EncoderBackend;
+import fr.paris.lutece.plugins.qrcode.service.MaskSelection;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import io.nayuki.qrcodegen.QrCode;
+import io.nayuki.qrcodegen.QrSegment;
+import junit.framework.TestCase;
+
+/**
+ * Conformance tests of the bitboard encoder against the reference encoder.
+ */
+public class QrCodeEncoderTest extends TestCase
+{
+
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ abcdefghijklmnopqrstuvwxyz/:?&=.-_%";
+
+    /**
+     * Builds a payload filling about two thirds of a version, mixing digits, upper case and other characters.
+     */
+    private static SegmentPlan plan( Random random, int version, CorrectionLevel level ) throws Exception
+    {
+        int length = Math.max( 1, QrCodeSpec.getNumDataCodewords( version, level ) * 2 / 3 - 3 );
+        byte [ ] payload = new byte [ length ];
+        for ( int i = 0; i < length; i++ )
+        {
+            payload [i] = (byte) ALPHABET.charAt( random.nextInt( i % 40 < 20 ? 10 : ALPHABET.length( ) ) );
+        }
+        return SegmentPlanner.plan( payload, level, false, version );
+    }
+
+    private static void assertSameSymbol( String message, QrCode expected, QrCodeMatrix actual )
+    {
+        assertEquals( message, expected.version, actual.getVersion( ) );
+        assertEquals( message, expected.mask, actual.getMask( ) );
+        assertEquals( message, expected.errorCorrectionLevel.name( ), actual.getCorrectionLevel( ).name( ) );
+        for ( int y = 0; y < expected.size; y++ )
+        {
+            for ( int x = 0; x < expected.size; x++ )
+            {
+                if ( expected.getModule( x, y ) != actual.isDark( x, y ) )
+                {
+                    fail( message + ": module " + x + "," + y + " differs" );
+                }
+            }
+        }
+    }
+
+    public void testSameSymbolsAsReference( ) throws Exception
+    {
+        Random random = new Random( 42 );
+        for ( int version = QrCodeSpec.MIN_VERSION; version <= QrCodeSpec.MAX_VERSION; version++ )
+        {
+            for ( CorrectionLevel level : CorrectionLevel.values( ) )
+            {
+                SegmentPlan plan = plan( random, version, level );
+                QrCode.Ecc ecc = QrCode.Ecc.valueOf( level.name( ) );
+                QrCode expected = QrCode.encodeSegments( plan.getSegments( ), ecc, plan.getVersion( ), plan.getVersion( ), -1, true );
+                String message = "version " + plan.getVersion( ) + " " + level;
+                assertSameSymbol( message, expected, QrCodeEncoder.encodeSegments( plan.getSegments( ), level, plan.getVersion( ),
+                        QrCodeEncoder.AUTO_MASK, true, MaskSelection.PENALTY ) );
+                assertSameSymbol( message, expected, QrCodeEncoder.encodeSegments( plan.getSegments( ), level, plan.getVersion( ),
+                        QrCodeEncoder.AUTO_MASK, true, MaskSelection.PARALLEL ) );
+            }
+        }
+    }
+
+    public void testFixedMasks( ) throws Exception
+    {
+        Random random = new Random( 7 );
+        for ( int version : new int [ ] { 1, 2, 6, 7, 13, 27, 40 } )
+        {
+            SegmentPlan plan = plan( random, version, CorrectionLevel.QUARTILE );
+            for ( int mask = 0; mask < 8; mask++ )
+            {
+                QrCode expected = QrCode.encodeSegments( plan.getSegments( ), QrCode.Ecc.QUARTILE, plan.getVersion( ),
+                        plan.getVersion( ), mask, false );
+                assertSameSymbol( "version " + version + " mask " + mask, expected, QrCodeEncoder.encodeSegments( plan.getSegments( ),
+                        CorrectionLevel.QUARTILE, plan.getVersion( ), mask, false, MaskSelection.PENALTY ) );
+            }
+        }
+    }
+
+    public void testFastSelectionKeepsSymbolValid( ) throws Exception
+    {
+        Random random = new Random( 3 );
+        for ( int version : new int [ ] { 3, 10, 25, 40 } )
+        {
+            SegmentPlan plan = plan( random, version, CorrectionLevel.MEDIUM );
+            QrCodeMatrix fast = QrCodeEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.MEDIUM, plan.getVersion( ),
+                    QrCodeEncoder.AUTO_MASK, false, MaskSelection.FAST );
+            QrCode expected = QrCode.encodeSegments( plan.getSegments( ), QrCode.Ecc.MEDIUM, plan.getVersion( ), plan.getVersion( ),
+                    fast.getMask( ), false );
+            assertSameSymbol( "version " + version, expected, fast );
+        }
+    }
+
+    public void testEciAndKanjiSegments( ) throws Exception
+    {
+        List<QrSegment> segments = Arrays.asList( QrSegment.makeEci( 26 ), QrSegment.makeBytes( "Paris".getBytes( "UTF-8" ) ) );
+        QrCode expected = QrCode.encodeSegments( segments, QrCode.Ecc.LOW, 1, 40, -1, true );
+        assertSameSymbol( "eci", expected, QrCodeEncoder.encodeSegments( segments, CorrectionLevel.LOW, expected.version,
+                QrCodeEncoder.AUTO_MASK, true, MaskSelection.PENALTY ) );
+
+        SegmentPlan kanji = SegmentPlanner.plan( "点茗点茗点茗".getBytes( "UTF-8" ), CorrectionLevel.HIGH, true );
+        expected = QrCode.encodeSegments( kanji.getSegments( ), QrCode.Ecc.HIGH, kanji.getVersion( ), kanji.getVersion( ), -1, true );
+        assertSameSymbol( "kanji", expected, QrCodeEncoder.encodeSegments( kanji.getSegments( ), CorrectionLevel.HIGH,
+                kanji.getVersion( ), QrCodeEncoder.AUTO_MASK, true, MaskSelection.PENALTY ) );
+    }
+
+    public void testBuilderBackend( ) throws Exception
+    {
+        String message = "https://www.paris.fr/demarches?id=0123456789";
+        QrCodeMatrix reference = new QrCodeBuilder( ).buildTemplate( ).toMatrix( message, null );
+        QrCodeMatrix nativeMatrix = new QrCodeBuilder( ).withEncoderBackend( EncoderBackend.NATIVE ).buildTemplate( )
+                .toMatrix( message, null );
+        QrCodeMatrix fixed = new QrCodeBuilder( ).withEncoderBackend( EncoderBackend.NATIVE ).withMask( 5 ).buildTemplate( )
+                .toMatrix( message, Collections.<String, String> emptyMap( ) );
+        assertEquals( reference.getMask( ), nativeMatrix.getMask( ) );
+        for ( int y = 0; y < reference.getSize( ); y++ )
+        {
+            for ( int x = 0; x < reference.getSize( ); x++ )
+            {
+                assertEquals( reference.isDark( x, y ), nativeMatrix.isDark( x, y ) );
+            }
+        }
+        assertEquals( 5, fixed.getMask( ) );
+
+        try
+        {
+            new QrCodeBuilder( ).withMaskSelection( MaskSelection.FAST ).buildTemplate( );
+            fail( "The fast mask selection needs the native encoder" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    public void testWarmUp( ) throws Exception
+    {
+        QrCodeEncoder.warmUp( new int [ ] { 1, 7, 40 }, CorrectionLevel.values( ) );
+        new QrCodeBuilder( ).withEncoderBackend( EncoderBackend.NATIVE ).withCorrectionLevel( CorrectionLevel.QUARTILE ).buildTemplate( )
+                .warmUp( 2, 27 );
+        new QrCodeBuilder( ).withFormat( OutputFormat.SVG ).buildTemplate( ).warmUp( 5 );
+
+        // The symbols encoded with the templates computed by the warm-up are still those of the reference encoder
+        Random random = new Random( 7 );
+        for ( int version : new int [ ] { 1, 7, 40 } )
+        {
+            SegmentPlan plan = plan( random, version, CorrectionLevel.MEDIUM );
+            QrCode expected = QrCode.encodeSegments( plan.getSegments( ), QrCode.Ecc.MEDIUM, plan.getVersion( ), plan.getVersion( ), -1, false );
+            assertSameSymbol( "version " + version, expected, QrCodeEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.MEDIUM,
+                    plan.getVersion( ), QrCodeEncoder.AUTO_MASK, false, MaskSelection.PENALTY ) );
+        }
+
+        for ( int version : new int [ ] { 0, 41 } )
+        {
+            try
+            {
+                QrCodeEncoder.warmUp( new int [ ] { version }, CorrectionLevel.values( ) );
+                fail( "Version " + version + " does not exist" );
+            }
+            catch( IllegalArgumentException e )
+            {
+                // expected
+            }
+        }
+    }
+}
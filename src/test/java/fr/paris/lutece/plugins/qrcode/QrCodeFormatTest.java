@@ -0,0 +1,294 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.render.BmpWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.EpsWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.GifWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.IQrCodeWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeWriterRegistry;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+import fr.paris.lutece.plugins.qrcode.service.render.TextWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.ZplWriter;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the writers of the output formats and of their registry.
+ */
+public class QrCodeFormatTest extends TestCase
+{
+
+    private static final RenderOptions COLORED = new RenderOptions( 3, 2, 0x112233, 0xFFEEDD );
+
+    private static QrCodeMatrix matrix( int length ) throws Exception
+    {
+        char [ ] message = new char [ length ];
+        for ( int i = 0; i < length; i++ )
+        {
+            message [ i ] = (char) ( 'a' + ( i * 7 ) % 26 );
+        }
+        return new QrCodeBuilder( new String( message ) ).withCorrectionLevel( CorrectionLevel.MEDIUM ).build( ).toMatrix( );
+    }
+
+    private static void assertSamePixels( QrCodeMatrix matrix, RenderOptions options, BufferedImage image )
+    {
+        BufferedImage expected = matrix.toImage( options.getScale( ), options.getBorder( ) );
+        assertEquals( expected.getWidth( ), image.getWidth( ) );
+        assertEquals( expected.getHeight( ), image.getHeight( ) );
+        for ( int y = 0; y < image.getHeight( ); y++ )
+        {
+            for ( int x = 0; x < image.getWidth( ); x++ )
+            {
+                boolean dark = ( expected.getRGB( x, y ) & 0xFFFFFF ) == 0;
+                int color = dark ? options.getForeground( ) : options.getBackground( );
+                assertEquals( "pixel " + x + "," + y, color, image.getRGB( x, y ) & 0xFFFFFF );
+            }
+        }
+    }
+
+    private static byte [ ] write( IQrCodeWriter writer, QrCodeMatrix matrix, RenderOptions options ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        writer.write( matrix, options, out );
+        return out.toByteArray( );
+    }
+
+    public void testGif( ) throws Exception
+    {
+        for ( int length : new int [ ] { 10, 300, 1500 } )
+        {
+            QrCodeMatrix matrix = matrix( length );
+            for ( RenderOptions options : new RenderOptions [ ] { RenderOptions.DEFAULT, COLORED } )
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream( );
+                GifWriter.write( matrix, options, out );
+                assertSamePixels( matrix, options, ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) ) );
+            }
+        }
+    }
+
+    public void testBmp( ) throws Exception
+    {
+        for ( int length : new int [ ] { 10, 300 } )
+        {
+            QrCodeMatrix matrix = matrix( length );
+            for ( RenderOptions options : new RenderOptions [ ] { RenderOptions.DEFAULT, COLORED, new RenderOptions( 1, 0, 0, 0xFFFFFF ) } )
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream( );
+                BmpWriter.write( matrix, options, out );
+                assertSamePixels( matrix, options, ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) ) );
+            }
+        }
+    }
+
+    public void testEps( ) throws Exception
+    {
+        QrCodeMatrix matrix = matrix( 40 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        EpsWriter.write( matrix, COLORED, out );
+        String document = new String( out.toByteArray( ), StandardCharsets.US_ASCII );
+        int points = COLORED.getImageSize( matrix.getSize( ) );
+        assertTrue( document.startsWith( "%!PS-Adobe-3.0 EPSF-3.0\n" ) );
+        assertTrue( document.contains( "%%BoundingBox: 0 0 " + points + " " + points + "\n" ) );
+        assertTrue( document.contains( "1 0.933 0.867 setrgbcolor\n" ) );
+        assertTrue( document.contains( "0.067 0.133 0.2 setrgbcolor\n" ) );
+        assertTrue( document.endsWith( "%%EOF\n" ) );
+        int [ ] runs = new int [ 1 ];
+        matrix.forEachDarkRun( ( y, x, length ) -> runs [ 0 ]++ );
+        assertEquals( runs [ 0 ], document.split( " R\n" ).length - 1 );
+    }
+
+    public void testZpl( ) throws Exception
+    {
+        QrCodeMatrix matrix = matrix( 300 );
+        RenderOptions options = new RenderOptions( 4, 3, 0, 0xFFFFFF );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ZplWriter.write( matrix, options, out );
+        String label = new String( out.toByteArray( ), StandardCharsets.US_ASCII );
+        assertTrue( label.startsWith( "^XA\n^FO0,0^GFA," ) );
+        assertTrue( label.endsWith( "\n^FS\n^XZ\n" ) );
+
+        String [ ] fields = label.substring( label.indexOf( "^GFA," ) + 5, label.indexOf( "\n^FS" ) ).split( ",", 4 );
+        int total = Integer.parseInt( fields [ 0 ] );
+        int rowBytes = Integer.parseInt( fields [ 2 ] );
+        int side = options.getImageSize( matrix.getSize( ) );
+        assertEquals( ( side + 7 ) / 8, rowBytes );
+        assertEquals( rowBytes * side, total );
+        byte [ ] bitmap = decodeZpl( fields [ 3 ], rowBytes, side );
+        for ( int y = 0; y < side; y++ )
+        {
+            for ( int x = 0; x < side; x++ )
+            {
+                int my = y / 4 - 3;
+                int mx = x / 4 - 3;
+                boolean dark = my >= 0 && my < matrix.getSize( ) && mx >= 0 && mx < matrix.getSize( ) && matrix.isDark( mx, my );
+                boolean printed = ( bitmap [ y * rowBytes + ( x >> 3 ) ] & ( 0x80 >> ( x & 7 ) ) ) != 0;
+                assertEquals( "dot " + x + "," + y, dark, printed );
+            }
+        }
+        // The compression keeps the label much smaller than the plain hexadecimal bitmap
+        assertTrue( fields [ 3 ].length( ) * 4 < total * 2 );
+    }
+
+    /**
+     * Decodes the compressed ASCII hexadecimal data of a ZPL graphic field.
+     */
+    private static byte [ ] decodeZpl( String data, int rowBytes, int rows )
+    {
+        byte [ ] bitmap = new byte [ rowBytes * rows ];
+        char [ ] row = new char [ rowBytes * 2 ];
+        char [ ] previous = null;
+        int filled = 0;
+        int y = 0;
+        int count = 0;
+        for ( char c : data.toCharArray( ) )
+        {
+            if ( c >= 'G' && c <= 'Y' )
+            {
+                count += c - 'G' + 1;
+                continue;
+            }
+            if ( c >= 'g' && c <= 'z' )
+            {
+                count += ( c - 'g' + 1 ) * 20;
+                continue;
+            }
+            if ( c == ':' )
+            {
+                row = previous.clone( );
+                filled = row.length;
+            }
+            else if ( c == ',' )
+            {
+                Arrays.fill( row, filled, row.length, '0' );
+                filled = row.length;
+            }
+            else
+            {
+                for ( int i = 0; i < Math.max( 1, count ); i++ )
+                {
+                    row [ filled++ ] = c;
+                }
+                count = 0;
+            }
+            if ( filled == row.length )
+            {
+                for ( int i = 0; i < rowBytes; i++ )
+                {
+                    bitmap [ y * rowBytes + i ] = (byte) Integer.parseInt( new String( row, i * 2, 2 ), 16 );
+                }
+                previous = row.clone( );
+                filled = 0;
+                y++;
+            }
+        }
+        assertEquals( rows, y );
+        return bitmap;
+    }
+
+    public void testText( ) throws Exception
+    {
+        QrCodeMatrix matrix = matrix( 10 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        TextWriter.write( matrix, new RenderOptions( 10, 1, 0, 0xFFFFFF ), out );
+        String [ ] lines = new String( out.toByteArray( ), StandardCharsets.UTF_8 ).split( "\n" );
+        int side = matrix.getSize( ) + 2;
+        assertEquals( ( side + 1 ) / 2, lines.length );
+        for ( String line : lines )
+        {
+            assertEquals( side, line.length( ) );
+        }
+        // Quiet zone row above the top of the finder pattern, then its top two rows
+        assertEquals( ' ', lines [ 0 ].charAt( 0 ) );
+        assertEquals( '\u2584', lines [ 0 ].charAt( 1 ) );
+        assertEquals( '\u2588', lines [ 1 ].charAt( 1 ) );
+        assertEquals( ' ', lines [ 1 ].charAt( 2 ) );
+        assertEquals( '\u2584', lines [ 1 ].charAt( 3 ) );
+
+        // Light text on a dark background: the glyphs draw the light modules
+        out.reset( );
+        TextWriter.write( matrix, new RenderOptions( 1, 1, 0xFFFFFF, 0 ), out );
+        String [ ] inverted = new String( out.toByteArray( ), StandardCharsets.UTF_8 ).split( "\n" );
+        assertEquals( '\u2588', inverted [ 0 ].charAt( 0 ) );
+        assertEquals( '\u2580', inverted [ 0 ].charAt( 1 ) );
+    }
+
+    public void testRegistry( ) throws Exception
+    {
+        QrCodeWriterRegistry registry = new QrCodeWriterRegistry( );
+        for ( OutputFormat format : OutputFormat.values( ) )
+        {
+            IQrCodeWriter writer = registry.getWriter( format.getName( ).toUpperCase( ) );
+            assertNotNull( writer );
+            assertEquals( format.getContentType( ), writer.getContentType( ) );
+            assertEquals( format.getExtension( ), writer.getExtension( ) );
+            assertSame( format, OutputFormat.forName( writer.getName( ) ) );
+            assertTrue( write( writer, matrix( 10 ), RenderOptions.DEFAULT ).length > 0 );
+        }
+        assertNull( registry.getWriter( "webp" ) );
+        assertEquals( OutputFormat.values( ).length, registry.getNames( ).size( ) );
+
+        IQrCodeWriter custom = new IQrCodeWriter( )
+        {
+            public String getName( )
+            {
+                return "Version";
+            }
+
+            public String getContentType( )
+            {
+                return "text/plain";
+            }
+
+            public String getExtension( )
+            {
+                return "txt";
+            }
+
+            public void write( QrCodeMatrix matrix, RenderOptions options, OutputStream out )
+            {
+                throw new UnsupportedOperationException( );
+            }
+        };
+        assertNull( registry.register( custom ) );
+        assertSame( custom, registry.getWriter( "version" ) );
+        assertTrue( registry.getNames( ).contains( "version" ) );
+        assertNull( QrCodeWriterRegistry.getInstance( ).getWriter( "version" ) );
+    }
+
+    public void testGeneratorAndTemplate( ) throws Exception
+    {
+        QrCodeGenerator generator = (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" ).build( );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        generator.write( out, "gif" );
+        BufferedImage gif = ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) );
+        assertSamePixels( generator.toMatrix( ), RenderOptions.DEFAULT, gif );
+        try
+        {
+            generator.write( out, "webp" );
+            fail( "Unknown formats are rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // Expected
+        }
+
+        QrCodeTemplate template = new QrCodeBuilder( ).withFormat( OutputFormat.BMP ).buildTemplate( );
+        byte [ ] bmp = template.render( "https://www.paris.fr", null );
+        assertSamePixels( template.toMatrix( "https://www.paris.fr", null ), RenderOptions.DEFAULT,
+                ImageIO.read( new ByteArrayInputStream( bmp ) ) );
+    }
+}
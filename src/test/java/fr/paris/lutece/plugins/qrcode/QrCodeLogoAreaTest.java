@@ -0,0 +1,109 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.encode.LogoCoverage;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the correction level escalation under a logo.
+ */
+public class QrCodeLogoAreaTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr/ticket?id=1234567890";
+
+    private static LogoQrCode logo( double scale )
+    {
+        return new LogoQrCode( scale, new ByteArrayInputStream( new byte [ 0 ] ) );
+    }
+
+    public void testFullCoverage( ) throws Exception
+    {
+        for ( int version : new int [ ] { 1, 2, 6, 7, 14, 32, 40 } )
+        {
+            for ( CorrectionLevel level : CorrectionLevel.values( ) )
+            {
+                LogoCoverage coverage = LogoCoverage.compute( version, level, 4, 1.0 );
+                int size = QrCodeSpec.getSize( version );
+                int numCodewords = QrCodeSpec.getNumCodewords( version );
+                int numBlocks = QrCodeSpec.getNumBlocks( version, level );
+                assertEquals( size * size, coverage.getCoveredModules( ) );
+                assertEquals( numCodewords, coverage.getDamagedCodewords( ) );
+                assertEquals( ( numCodewords + numBlocks - 1 ) / numBlocks, coverage.getMaxDamagedCodewordsPerBlock( ) );
+                assertFalse( coverage.isPatternsClear( ) );
+                assertFalse( coverage.isDecodable( ) );
+            }
+        }
+        LogoCoverage none = LogoCoverage.compute( 10, CorrectionLevel.LOW, 4, 0 );
+        assertEquals( 0, none.getCoveredModules( ) );
+        assertTrue( none.isDecodable( ) );
+    }
+
+    public void testEscalation( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW ).addLogoHandler( logo( 0.2 ) )
+                .buildTemplate( );
+        QrCodeMatrix matrix = template.toMatrix( MESSAGE, null );
+        assertTrue( LogoCoverage.compute( matrix.getVersion( ), matrix.getCorrectionLevel( ), 4, 0.2 ).isDecodable( ) );
+        assertTrue( matrix.getCorrectionLevel( ) != CorrectionLevel.LOW );
+
+        // The segment plan is the escalated one the symbol was encoded with
+        SegmentPlan plan = template.getSegmentPlan( MESSAGE, null );
+        assertEquals( matrix.getVersion( ), plan.getVersion( ) );
+        assertEquals( matrix.getCorrectionLevel( ), plan.getCorrectionLevel( ) );
+        plan = ( (QrCodeGenerator) new QrCodeBuilder( MESSAGE ).withCorrectionLevel( CorrectionLevel.LOW ).addLogoHandler( logo( 0.2 ) )
+                .build( ) ).getSegmentPlan( );
+        assertEquals( matrix.getVersion( ), plan.getVersion( ) );
+        assertEquals( matrix.getCorrectionLevel( ), plan.getCorrectionLevel( ) );
+
+        // No smaller symbol holding the payload would stay decodable
+        byte [ ] payload = MESSAGE.getBytes( StandardCharsets.UTF_8 );
+        for ( CorrectionLevel level : CorrectionLevel.values( ) )
+        {
+            int minVersion = SegmentPlanner.plan( payload, level, false ).getVersion( );
+            for ( int version = minVersion; version < matrix.getVersion( ); version++ )
+            {
+                assertFalse( LogoCoverage.compute( version, level, 4, 0.2 ).isDecodable( ) );
+            }
+        }
+
+        // Same symbol as a template asking for the escalated level directly
+        QrCodeMatrix direct = new QrCodeBuilder( ).withCorrectionLevel( matrix.getCorrectionLevel( ) )
+                .addLogoHandler( logo( 0.2 ) ).buildTemplate( ).toMatrix( MESSAGE, null );
+        assertEquals( matrix.getVersion( ), direct.getVersion( ) );
+        assertEquals( matrix.getCorrectionLevel( ), direct.getCorrectionLevel( ) );
+    }
+
+    public void testSmallLogoKeepsVersion( ) throws Exception
+    {
+        QrCodeMatrix plain = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW ).buildTemplate( )
+                .toMatrix( MESSAGE, null );
+        QrCodeMatrix withLogo = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW ).addLogoHandler( logo( 0.05 ) )
+                .buildTemplate( ).toMatrix( MESSAGE, null );
+        assertEquals( plain.getVersion( ), withLogo.getVersion( ) );
+    }
+
+    public void testOversizedLogoRejected( )
+    {
+        try
+        {
+            new QrCodeBuilder( ).addLogoHandler( logo( 0.6 ) ).buildTemplate( );
+            fail( "A logo hiding most of the symbol must be rejected" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            assertTrue( e.getMessage( ).contains( "Logo too large" ) );
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoCompositor;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoScaler;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the scaling and compositing of the logos.
+ */
+public class QrCodeLogoTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr/ticket?id=1234567890";
+
+    private static byte [ ] png( BufferedImage image ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", out );
+        return out.toByteArray( );
+    }
+
+    private static String dataUri( byte [ ] content ) throws Exception
+    {
+        return new LogoQrCode( new ByteArrayInputStream( content ) ).toDataUri( );
+    }
+
+    private static BufferedImage checkerboard( int size )
+    {
+        BufferedImage image = new BufferedImage( size, size, BufferedImage.TYPE_INT_ARGB );
+        for ( int y = 0; y < size; y++ )
+        {
+            for ( int x = 0; x < size; x++ )
+            {
+                image.setRGB( x, y, ( ( x + y ) & 1 ) == 0 ? 0xFFFF0000 : 0xFF0000FF );
+            }
+        }
+        return image;
+    }
+
+    public void testScale( ) throws Exception
+    {
+        int [ ] pixels = LogoScaler.toPremultiplied( checkerboard( 256 ) );
+        for ( int target : new int [ ] { 1, 7, 33, 64, 100, 256, 300 } )
+        {
+            int [ ] scaled = LogoScaler.scale( pixels, 256, 256, target, target );
+            assertEquals( target * target, scaled.length );
+            if ( target >= 256 )
+            {
+                continue;
+            }
+            // Downscaling a fine checkerboard averages it to purple
+            int pixel = scaled [ target * target / 2 ];
+            assertEquals( 0xFF, pixel >>> 24 );
+            assertEquals( 0x80, ( pixel >> 16 ) & 0xFF, 2 );
+            assertEquals( 0, ( pixel >> 8 ) & 0xFF );
+            assertEquals( 0x80, pixel & 0xFF, 2 );
+        }
+        assertEquals( 256 * 256, pixels.length );
+        assertEquals( 0xFFFF0000, pixels [ 0 ] );
+    }
+
+    public void testPremultipliedEdges( ) throws Exception
+    {
+        // Transparent white around an opaque black square: the edges must not lighten the black
+        BufferedImage logo = new BufferedImage( 64, 64, BufferedImage.TYPE_INT_ARGB );
+        for ( int y = 0; y < 64; y++ )
+        {
+            for ( int x = 0; x < 64; x++ )
+            {
+                logo.setRGB( x, y, x >= 16 && x < 48 && y >= 16 && y < 48 ? 0xFF000000 : 0x00FFFFFF );
+            }
+        }
+        int [ ] scaled = LogoScaler.scale( LogoScaler.toPremultiplied( logo ), 64, 64, 10, 10 );
+        for ( int pixel : scaled )
+        {
+            assertEquals( 0, pixel & 0xFFFFFF );
+        }
+        assertEquals( 0, scaled [ 0 ] >>> 24 );
+        assertEquals( 0xFF, scaled [ 55 ] >>> 24 );
+    }
+
+    public void testBlend( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 4, 1, BufferedImage.TYPE_INT_RGB );
+        image.setRGB( 0, 0, 4, 1, new int [ ] { 0xFFFFFF, 0xFFFFFF, 0x000000, 0x204060 }, 0, 4 );
+        // Transparent, half white, opaque red, transparent
+        int [ ] logo = { 0, 0x80808080, 0xFFFF0000, 0 };
+        LogoCompositor.blend( image, LogoScaler.toImage( logo, 4, 1 ), 0, 0 );
+        assertEquals( 0xFFFFFF, image.getRGB( 0, 0 ) & 0xFFFFFF );
+        assertEquals( 0xFFFFFF, image.getRGB( 1, 0 ) & 0xFFFFFF );
+        assertEquals( 0xFF0000, image.getRGB( 2, 0 ) & 0xFFFFFF );
+        assertEquals( 0x204060, image.getRGB( 3, 0 ) & 0xFFFFFF );
+
+        // Same result through Graphics2D for the other image types
+        BufferedImage direct = new BufferedImage( 16, 16, BufferedImage.TYPE_INT_RGB );
+        BufferedImage generic = new BufferedImage( 16, 16, BufferedImage.TYPE_INT_ARGB );
+        BufferedImage source = LogoScaler.toImage( LogoScaler.toPremultiplied( checkerboard( 8 ) ), 8, 8 );
+        LogoCompositor.blend( direct, source, 4, 4 );
+        LogoCompositor.blend( generic, source, 4, 4 );
+        for ( int y = 0; y < 16; y++ )
+        {
+            for ( int x = 0; x < 16; x++ )
+            {
+                int expected = generic.getRGB( x, y ) >>> 24 == 0 ? 0 : generic.getRGB( x, y ) & 0xFFFFFF;
+                assertEquals( "pixel " + x + "," + y, expected, direct.getRGB( x, y ) & 0xFFFFFF );
+            }
+        }
+    }
+
+    public void testBlendClipped( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 4, 4, BufferedImage.TYPE_BYTE_GRAY );
+        BufferedImage logo = LogoScaler.toImage( LogoScaler.toPremultiplied( checkerboard( 4 ) ), 4, 4 );
+        LogoCompositor.blend( image, logo, -2, 2 );
+        assertEquals( 0, image.getRaster( ).getSample( 2, 2, 0 ) );
+        assertTrue( image.getRaster( ).getSample( 0, 2, 0 ) > 0 );
+        assertTrue( image.getRaster( ).getSample( 1, 3, 0 ) > 0 );
+        assertEquals( 0, image.getRaster( ).getSample( 0, 0, 0 ) );
+    }
+
+    public void testPlate( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 40, 40, BufferedImage.TYPE_INT_RGB );
+        BufferedImage logo = LogoScaler.toImage( new int [ 20 * 20 ], 20, 20 );
+        LogoCompositor.drawLogo( image, logo, 10, 10, LogoPlate.SQUARE, 0xFFFFFF );
+        assertEquals( 0xFFFFFF, image.getRGB( 8, 8 ) & 0xFFFFFF );
+        assertEquals( 0xFFFFFF, image.getRGB( 31, 31 ) & 0xFFFFFF );
+        assertEquals( 0, image.getRGB( 7, 8 ) & 0xFFFFFF );
+        assertEquals( 0, image.getRGB( 32, 31 ) & 0xFFFFFF );
+
+        image = new BufferedImage( 40, 40, BufferedImage.TYPE_INT_RGB );
+        LogoCompositor.drawLogo( image, logo, 10, 10, LogoPlate.ROUNDED, 0xFFFFFF );
+        assertEquals( 0, image.getRGB( 8, 8 ) & 0xFFFFFF );
+        assertEquals( 0xFFFFFF, image.getRGB( 20, 8 ) & 0xFFFFFF );
+        assertEquals( 0xFFFFFF, image.getRGB( 12, 12 ) & 0xFFFFFF );
+    }
+
+    public void testLogoPlateOnQrCode( ) throws Exception
+    {
+        byte [ ] logo = png( checkerboard( 64 ) );
+        QrCodeBuilder builder = new QrCodeBuilder( MESSAGE ).withCorrectionLevel( CorrectionLevel.LOW )
+                .addLogoHandler( new LogoQrCode( 0.2, new ByteArrayInputStream( logo ) ) ).withLogoPlate( LogoPlate.SQUARE );
+        QrCodeGenerator generator = (QrCodeGenerator) builder.build( );
+        BufferedImage image = generator.toImage( 10, 4 );
+        int side = image.getWidth( );
+        int logoSide = (int) ( side * 0.2 );
+        int pad = (int) Math.round( logoSide * LogoPlate.PADDING );
+        int left = ( side - logoSide ) / 2;
+        for ( int i = 0; i < logoSide + 2 * pad; i++ )
+        {
+            assertEquals( 0xFFFFFF, image.getRGB( left - pad + i, left - pad ) & 0xFFFFFF );
+        }
+
+        StringBuilder svg = new StringBuilder( );
+        generator.writeSvg( svg );
+        assertTrue( svg.toString( ).contains( "<rect" ) );
+        assertTrue( svg.indexOf( "<rect" ) < svg.indexOf( "<image" ) );
+    }
+
+    public void testPlateCoverage( ) throws Exception
+    {
+        byte [ ] logo = png( checkerboard( 8 ) );
+        QrCodeTemplate bare = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW )
+                .addLogoHandler( new LogoQrCode( 0.25, new ByteArrayInputStream( logo ) ) ).buildTemplate( );
+        QrCodeTemplate plated = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW )
+                .addLogoHandler( new LogoQrCode( 0.25, new ByteArrayInputStream( logo ) ) ).withLogoPlate( LogoPlate.ROUNDED )
+                .buildTemplate( );
+        QrCodeMatrix bareMatrix = bare.toMatrix( MESSAGE, null );
+        QrCodeMatrix platedMatrix = plated.toMatrix( MESSAGE, null );
+        assertTrue( platedMatrix.getVersion( ) > bareMatrix.getVersion( )
+                || platedMatrix.getCorrectionLevel( ).ordinal( ) > bareMatrix.getCorrectionLevel( ).ordinal( ) );
+        assertEquals( LogoPlate.ROUNDED, plated.getLogoPlate( ) );
+    }
+
+    public void testDataUriMimeType( ) throws Exception
+    {
+        BufferedImage image = checkerboard( 8 );
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream( );
+        ImageIO.write( new BufferedImage( 8, 8, BufferedImage.TYPE_INT_RGB ), "jpeg", jpeg );
+        ByteArrayOutputStream gif = new ByteArrayOutputStream( );
+        ImageIO.write( image, "gif", gif );
+        String svg = "\ufeff<?xml version=\"1.0\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"8\" height=\"8\"/>";
+
+        assertTrue( dataUri( png( image ) ).startsWith( "data:image/png;base64," ) );
+        assertTrue( dataUri( jpeg.toByteArray( ) ).startsWith( "data:image/jpeg;base64," ) );
+        assertTrue( dataUri( gif.toByteArray( ) ).startsWith( "data:image/gif;base64," ) );
+        assertTrue( dataUri( svg.getBytes( StandardCharsets.UTF_8 ) ).startsWith( "data:image/svg+xml;base64," ) );
+        // Unknown formats are not announced as SVG
+        assertTrue( dataUri( "not an image".getBytes( StandardCharsets.UTF_8 ) ).startsWith( "data:application/octet-stream;base64," ) );
+        assertTrue( dataUri( new byte [ 0 ] ).startsWith( "data:application/octet-stream;base64," ) );
+    }
+}
@@ -0,0 +1,100 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.metrics.JmxQrCodeMetrics;
+import fr.paris.lutece.plugins.qrcode.service.metrics.MicrometerQrCodeMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the metrics of the QR code generation.
+ */
+public class QrCodeMetricsTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr";
+
+    public void testJmxMetrics( ) throws Exception
+    {
+        JmxQrCodeMetrics metrics = new JmxQrCodeMetrics( );
+        QrCodeTemplate template = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW )
+                .withSymbolCache( new SymbolCache( ) ).withMetricsListener( metrics ).buildTemplate( );
+
+        byte [ ] png = template.render( MESSAGE, null );
+        template.render( MESSAGE, null );
+        template.toImage( MESSAGE, null );
+
+        assertEquals( 3, metrics.getSymbolCount( ) );
+        assertEquals( 1, metrics.getCacheMissCount( ) );
+        assertEquals( 2, metrics.getCacheHitCount( ) );
+        assertEquals( 2, metrics.getOutputCount( ) );
+        assertEquals( 2L * png.length, metrics.getOutputBytes( ) );
+        Map<String, Long> counts = metrics.getStageCounts( );
+        assertEquals( Long.valueOf( 3 ), counts.get( "ENCODE" ) );
+        assertEquals( Long.valueOf( 2 ), counts.get( "SERIALIZE" ) );
+        assertEquals( Long.valueOf( 1 ), counts.get( "RENDER" ) );
+        assertEquals( Long.valueOf( 0 ), counts.get( "LOGO" ) );
+        QrCodeMatrix matrix = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.LOW ).buildTemplate( ).toMatrix( MESSAGE, null );
+        assertEquals( Long.valueOf( 3 ), metrics.getVersionCounts( ).get( matrix.getVersion( ) ) );
+        assertEquals( Long.valueOf( 3 ), metrics.getCorrectionLevelCounts( ).get( matrix.getCorrectionLevel( ).name( ) ) );
+        assertTrue( metrics.getStage99thPercentileNanos( ).get( "ENCODE" ) <= metrics.getStageMaxNanos( ).get( "ENCODE" ) );
+
+        StringBuilder tooLong = new StringBuilder( );
+        for ( int i = 0; i < 8000; i++ )
+        {
+            tooLong.append( (char) ( 'a' + i % 26 ) );
+        }
+        try
+        {
+            template.render( tooLong.toString( ), null );
+            fail( "The payload should not fit" );
+        }
+        catch( QrCodeGeneratorException e )
+        {
+            assertEquals( 1, metrics.getFailureCount( ) );
+        }
+
+        metrics.reset( );
+        assertEquals( 0, metrics.getSymbolCount( ) );
+    }
+
+    public void testJmxRegistration( ) throws Exception
+    {
+        String name = "fr.paris.lutece.plugins.qrcode:type=QrCodeMetrics,name=test";
+        JmxQrCodeMetrics metrics = new JmxQrCodeMetrics( ).register( name );
+        try
+        {
+            new QrCodeBuilder( ).withMetricsListener( metrics ).buildTemplate( ).render( MESSAGE, null );
+            Object count = ManagementFactory.getPlatformMBeanServer( ).getAttribute( new ObjectName( name ), "SymbolCount" );
+            assertEquals( Long.valueOf( 1 ), count );
+        }
+        finally
+        {
+            JmxQrCodeMetrics.unregister( name );
+        }
+    }
+
+    public void testMicrometerMetrics( ) throws Exception
+    {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry( );
+        QrCodeTemplate template = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.HIGH )
+                .withMetricsListener( new MicrometerQrCodeMetrics( registry ) ).buildTemplate( );
+        byte [ ] png = template.render( MESSAGE, null );
+        QrCodeMatrix matrix = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.HIGH ).buildTemplate( ).toMatrix( MESSAGE, null );
+        String version = Integer.toString( matrix.getVersion( ) );
+
+        assertEquals( 1, registry.get( "qrcode.stage" ).tag( "stage", "encode" ).timer( ).count( ) );
+        assertEquals( 1.0, registry.get( "qrcode.symbols" ).tag( "level", "HIGH" ).tag( "version", version ).counter( ).count( ) );
+        assertEquals( (double) png.length, registry.get( "qrcode.output" ).tag( "format", "png" ).summary( ).totalAmount( ) );
+    }
+}
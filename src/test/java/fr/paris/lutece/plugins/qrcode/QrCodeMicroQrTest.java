@@ -0,0 +1,338 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.SymbolType;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.MicroQrSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import fr.paris.lutece.plugins.qrcode.service.metrics.JmxQrCodeMetrics;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the Micro QR symbols.
+ */
+public class QrCodeMicroQrTest extends TestCase
+{
+
+    private static final String LONG_MESSAGE = "https://www.paris.fr/ticket";
+
+    /**
+     * Indicates whether a Micro QR mask inverts a module, as defined by ISO/IEC 18004 (i the row, j the column).
+     */
+    private static boolean masked( int mask, int i, int j )
+    {
+        switch( mask )
+        {
+            case 0:
+                return i % 2 == 0;
+            case 1:
+                return ( i / 2 + j / 3 ) % 2 == 0;
+            case 2:
+                return ( i * j % 2 + i * j % 3 ) % 2 == 0;
+            default:
+                return ( ( i + j ) % 2 + i * j % 3 ) % 2 == 0;
+        }
+    }
+
+    /**
+     * Reads the 15 format information bits of a symbol, unmasked.
+     */
+    private static int readFormat( QrCodeMatrix matrix )
+    {
+        int format = 0;
+        for ( int i = 0; i < 8; i++ )
+        {
+            format |= ( matrix.isDark( 8, i + 1 ) ? 1 : 0 ) << i;
+            format |= ( matrix.isDark( i + 1, 8 ) ? 1 : 0 ) << ( 14 - i );
+        }
+        return format ^ 0x4445;
+    }
+
+    /**
+     * Reads the codeword bits of a symbol, unmasked, in placement order.
+     */
+    private static byte [ ] readBits( QrCodeMatrix matrix, int mask )
+    {
+        int size = matrix.getSize( );
+        byte [ ] bits = new byte [ size * size ];
+        int count = 0;
+        boolean upward = true;
+        for ( int right = size - 1; right >= 1; right -= 2 )
+        {
+            for ( int vertical = 0; vertical < size; vertical++ )
+            {
+                int y = upward ? size - 1 - vertical : vertical;
+                for ( int x = right; x >= right - 1; x-- )
+                {
+                    if ( x > 8 || y > 8 )
+                    {
+                        if ( x > 0 && y > 0 )
+                        {
+                            bits [count++] = (byte) ( matrix.isDark( x, y ) ^ masked( mask, y, x ) ? 1 : 0 );
+                        }
+                    }
+                }
+            }
+            upward = !upward;
+        }
+        byte [ ] result = new byte [ count ];
+        System.arraycopy( bits, 0, result, 0, count );
+        return result;
+    }
+
+    private static int readValue( byte [ ] bits, int offset, int length )
+    {
+        int value = 0;
+        for ( int i = 0; i < length; i++ )
+        {
+            value = value << 1 | bits [offset + i];
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a symbol holding a single byte segment.
+     */
+    private static String decodeBytes( QrCodeMatrix matrix )
+    {
+        int version = matrix.getVersion( );
+        byte [ ] bits = readBits( matrix, readFormat( matrix ) >>> 10 & 3 );
+        int indicatorBits = version - 1;
+        assertEquals( 2, readValue( bits, 0, indicatorBits ) );
+        int countBits = version + 1;
+        int count = readValue( bits, indicatorBits, countBits );
+        byte [ ] data = new byte [ count ];
+        for ( int i = 0; i < count; i++ )
+        {
+            data [i] = (byte) readValue( bits, indicatorBits + countBits + i * 8, 8 );
+        }
+        return new String( data, StandardCharsets.UTF_8 );
+    }
+
+    private static LogoQrCode logo( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 32, 32, BufferedImage.TYPE_INT_RGB );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", out );
+        return new LogoQrCode( new ByteArrayInputStream( out.toByteArray( ) ) );
+    }
+
+    public void testReferenceSymbol( ) throws Exception
+    {
+        // Annex of ISO/IEC 18004: "01234567" in a version M2-L symbol
+        SegmentPlan plan = SegmentPlanner.planMicro( "01234567".getBytes( StandardCharsets.US_ASCII ), CorrectionLevel.LOW, false );
+        assertTrue( plan.isMicro( ) );
+        assertEquals( 2, plan.getVersion( ) );
+        QrCodeMatrix matrix = MicroQrEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.LOW, 2, 1, false );
+        assertTrue( matrix.isMicro( ) );
+        assertEquals( 13, matrix.getSize( ) );
+        assertEquals( 0x5099, readFormat( matrix ) ^ 0x4445 );
+
+        int [ ] expected = {
+                0x40, 0x18, 0xAC, 0xC3, 0x00, 0x86, 0x0D, 0x22, 0xAE, 0x30
+        };
+        byte [ ] bits = readBits( matrix, 1 );
+        assertEquals( expected.length * 8, bits.length );
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( "codeword " + i, expected [i], readValue( bits, i * 8, 8 ) );
+        }
+
+        // The mask leaving the most dark modules along the edges
+        assertEquals( 1, MicroQrEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.LOW, 2, MicroQrEncoder.AUTO_MASK, false ).getMask( ) );
+    }
+
+    public void testVersions( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).withCorrectionLevel( CorrectionLevel.LOW ).buildTemplate( );
+        String [ ] messages = {
+                "12345", "HELLO", "abcdefgh", "abcdefghijklmno"
+        };
+        int [ ] versions = {
+                2, 2, 3, 4
+        };
+        for ( int m = 0; m < messages.length; m++ )
+        {
+            QrCodeMatrix matrix = template.toMatrix( messages [m], null );
+            assertTrue( matrix.isMicro( ) );
+            assertEquals( messages [m], versions [m], matrix.getVersion( ) );
+            assertEquals( MicroQrSpec.getSize( versions [m] ), matrix.getSize( ) );
+            assertEquals( MicroQrSpec.QUIET_ZONE, matrix.getQuietZone( ) );
+
+            // Finder pattern and timing patterns
+            int size = matrix.getSize( );
+            for ( int i = 0; i < 7; i++ )
+            {
+                assertTrue( matrix.isDark( i, 0 ) && matrix.isDark( 0, i ) && matrix.isDark( i, 6 ) && matrix.isDark( 6, i ) );
+            }
+            assertFalse( matrix.isDark( 7, 7 ) );
+            for ( int i = 8; i < size; i++ )
+            {
+                assertEquals( i % 2 == 0, matrix.isDark( i, 0 ) );
+                assertEquals( i % 2 == 0, matrix.isDark( 0, i ) );
+            }
+
+            // The format information matches the symbol
+            int format = readFormat( matrix ) >>> 10;
+            assertEquals( MicroQrSpec.getSymbolNumber( matrix.getVersion( ), matrix.getCorrectionLevel( ) ), format >>> 2 );
+            assertEquals( matrix.getMask( ), format & 3 );
+        }
+        assertEquals( "abcdefgh", decodeBytes( template.toMatrix( "abcdefgh", null ) ) );
+        assertEquals( "abcdefghijklmno", decodeBytes( template.toMatrix( "abcdefghijklmno", null ) ) );
+    }
+
+    public void testAllMasks( ) throws Exception
+    {
+        SegmentPlan plan = SegmentPlanner.planMicro( "lutece".getBytes( StandardCharsets.US_ASCII ), CorrectionLevel.MEDIUM, false );
+        for ( int mask = 0; mask < 4; mask++ )
+        {
+            QrCodeMatrix matrix = MicroQrEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.MEDIUM, plan.getVersion( ), mask, false );
+            assertEquals( mask, matrix.getMask( ) );
+            assertEquals( "lutece", decodeBytes( matrix ) );
+        }
+    }
+
+    public void testCorrectionLevel( ) throws Exception
+    {
+        // Raised as long as the payload fits
+        QrCodeMatrix matrix = new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).withCorrectionLevel( CorrectionLevel.LOW ).buildTemplate( )
+                .toMatrix( "12345", null );
+        assertEquals( CorrectionLevel.MEDIUM, matrix.getCorrectionLevel( ) );
+
+        // Version M4 is the only one with the QUARTILE level
+        matrix = new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).withCorrectionLevel( CorrectionLevel.QUARTILE ).buildTemplate( )
+                .toMatrix( "12345", null );
+        assertEquals( 4, matrix.getVersion( ) );
+        assertEquals( CorrectionLevel.QUARTILE, matrix.getCorrectionLevel( ) );
+
+        try
+        {
+            new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).withCorrectionLevel( CorrectionLevel.HIGH ).buildTemplate( );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+
+        // The smallest symbol at the HIGH level is a QR code
+        matrix = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).withCorrectionLevel( CorrectionLevel.HIGH ).buildTemplate( )
+                .toMatrix( "12345", null );
+        assertFalse( matrix.isMicro( ) );
+    }
+
+    public void testSmallest( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).buildTemplate( );
+        assertTrue( template.toMatrix( "12345", null ).isMicro( ) );
+        assertTrue( template.getSegmentPlan( "12345", null ).isMicro( ) );
+
+        QrCodeMatrix matrix = template.toMatrix( LONG_MESSAGE, null );
+        assertFalse( matrix.isMicro( ) );
+        assertEquals( new QrCodeBuilder( ).buildTemplate( ).toMatrix( LONG_MESSAGE, null ).getVersion( ), matrix.getVersion( ) );
+        assertFalse( template.getSegmentPlan( LONG_MESSAGE, null ).isMicro( ) );
+
+        assertFalse( new QrCodeBuilder( ).buildTemplate( ).toMatrix( "12345", null ).isMicro( ) );
+    }
+
+    public void testMicroOnly( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).buildTemplate( );
+        try
+        {
+            template.toMatrix( LONG_MESSAGE, null );
+            fail( "Expected QrCodeGeneratorException" );
+        }
+        catch( QrCodeGeneratorException e )
+        {
+            // expected
+        }
+        try
+        {
+            template.getSegmentPlan( LONG_MESSAGE, null );
+            fail( "Expected QrCodeGeneratorException" );
+        }
+        catch( QrCodeGeneratorException e )
+        {
+            // expected
+        }
+        try
+        {
+            new QrCodeBuilder( ).withSymbolType( SymbolType.MICRO_QR ).addLogoHandler( logo( ) ).buildTemplate( );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    public void testSmallestWithLogo( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).addLogoHandler( logo( ) ).buildTemplate( );
+        assertFalse( template.toMatrix( "12345", null ).isMicro( ) );
+    }
+
+    public void testQuietZone( ) throws Exception
+    {
+        int scale = 3;
+        QrCodeTemplate template = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).withScale( scale ).buildTemplate( );
+        int micro = ( 13 + 2 * MicroQrSpec.QUIET_ZONE ) * scale;
+
+        BufferedImage image = template.toImage( "12345", null );
+        assertEquals( micro, image.getWidth( ) );
+        assertEquals( micro, image.getHeight( ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        template.writePng( "12345", null, out );
+        assertEquals( micro, ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) ).getWidth( ) );
+        assertEquals( micro, ImageIO.read( new ByteArrayInputStream( template.render( "12345", null ) ) ).getWidth( ) );
+
+        StringBuilder svg = new StringBuilder( );
+        template.writeSvg( "12345", null, svg );
+        assertTrue( svg.toString( ), svg.toString( ).contains( "viewBox=\"0 0 17 17\"" ) );
+
+        // QR codes keep their 4 modules
+        int size = template.toMatrix( LONG_MESSAGE, null ).getSize( );
+        assertEquals( ( size + 8 ) * scale, template.toImage( LONG_MESSAGE, null ).getWidth( ) );
+
+        // An explicit border is kept
+        template = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).withScale( scale ).withBorder( 4 ).buildTemplate( );
+        assertEquals( ( 13 + 8 ) * scale, template.toImage( "12345", null ).getWidth( ) );
+    }
+
+    public void testSymbolCacheAndMetrics( ) throws Exception
+    {
+        SymbolCache cache = new SymbolCache( );
+        JmxQrCodeMetrics metrics = new JmxQrCodeMetrics( );
+        QrCodeTemplate qr = new QrCodeBuilder( ).withSymbolCache( cache ).withMetricsListener( metrics ).buildTemplate( );
+        QrCodeTemplate smallest = new QrCodeBuilder( ).withSymbolType( SymbolType.SMALLEST ).withSymbolCache( cache ).withMetricsListener( metrics )
+                .buildTemplate( );
+
+        assertFalse( qr.toMatrix( "12345", null ).isMicro( ) );
+        assertTrue( smallest.toMatrix( "12345", null ).isMicro( ) );
+        assertFalse( qr.toMatrix( "12345", null ).isMicro( ) );
+
+        Map<Integer, Long> micro = metrics.getMicroVersionCounts( );
+        assertEquals( 1, micro.size( ) );
+        assertEquals( Long.valueOf( 1 ), micro.get( 2 ) );
+        assertEquals( Long.valueOf( 2 ), metrics.getVersionCounts( ).get( 1 ) );
+        metrics.reset( );
+        assertTrue( metrics.getMicroVersionCounts( ).isEmpty( ) );
+    }
+}
@@ -0,0 +1,146 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.cache.DiskRenderCache;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the on-disk render cache.
+ */
+public class QrCodeRenderCacheTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr/ticket";
+
+    private Path _directory;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _directory = Files.createTempDirectory( "qrcode-render-cache" );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        Files.walkFileTree( _directory, new SimpleFileVisitor<Path>( )
+        {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException
+            {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory( Path dir, IOException exc ) throws IOException
+            {
+                Files.delete( dir );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+        super.tearDown( );
+    }
+
+    public void testHitServesSameBytes( ) throws Exception
+    {
+        DiskRenderCache cache = new DiskRenderCache( _directory );
+        QrCodeTemplate cached = new QrCodeBuilder( ).withScale( 3 ).withRenderCache( cache ).buildTemplate( );
+        byte [ ] expected = new QrCodeBuilder( ).withScale( 3 ).buildTemplate( ).render( MESSAGE, null );
+
+        assertTrue( Arrays.equals( expected, cached.render( MESSAGE, null ) ) );
+        assertEquals( 0, cache.getHitCount( ) );
+        assertEquals( 1, cache.getMissCount( ) );
+        assertEquals( 1, cache.size( ) );
+        assertEquals( expected.length, cache.getSizeInBytes( ) );
+
+        assertTrue( Arrays.equals( expected, cached.render( MESSAGE, null ) ) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        cached.render( MESSAGE, null, Channels.newChannel( out ) );
+        assertTrue( Arrays.equals( expected, out.toByteArray( ) ) );
+        assertEquals( 2, cache.getHitCount( ) );
+
+        // Another configuration is another key
+        QrCodeTemplate svg = new QrCodeBuilder( ).withScale( 3 ).withFormat( OutputFormat.SVG ).withRenderCache( cache )
+                .buildTemplate( );
+        svg.render( MESSAGE, null );
+        cached.render( MESSAGE, Collections.singletonMap( "id", "1" ) );
+        assertEquals( 3, cache.size( ) );
+        assertEquals( 3, cache.getMissCount( ) );
+    }
+
+    public void testEncodingOptionsInKey( ) throws Exception
+    {
+        DiskRenderCache cache = new DiskRenderCache( _directory );
+        QrCodeTemplate masked = new QrCodeBuilder( ).withScale( 3 ).withMask( 2 ).withRenderCache( cache ).buildTemplate( );
+        QrCodeTemplate automatic = new QrCodeBuilder( ).withScale( 3 ).withRenderCache( cache ).buildTemplate( );
+        assertFalse( automatic.toMatrix( MESSAGE, null ).getMask( ) == 2 );
+
+        byte [ ] expectedMasked = new QrCodeBuilder( ).withScale( 3 ).withMask( 2 ).buildTemplate( ).render( MESSAGE, null );
+        byte [ ] expectedAutomatic = new QrCodeBuilder( ).withScale( 3 ).buildTemplate( ).render( MESSAGE, null );
+        assertFalse( Arrays.equals( expectedMasked, expectedAutomatic ) );
+
+        // Templates differing only by their mask do not share their renders
+        assertTrue( Arrays.equals( expectedMasked, masked.render( MESSAGE, null ) ) );
+        assertTrue( Arrays.equals( expectedAutomatic, automatic.render( MESSAGE, null ) ) );
+        assertEquals( 2, cache.size( ) );
+        assertEquals( 2, cache.getMissCount( ) );
+        assertTrue( Arrays.equals( expectedMasked, masked.render( MESSAGE, null ) ) );
+        assertEquals( 1, cache.getHitCount( ) );
+    }
+
+    public void testEvictionBySize( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withScale( 2 ).buildTemplate( );
+        int size = template.render( MESSAGE, Collections.singletonMap( "id", "0" ) ).length;
+        DiskRenderCache cache = new DiskRenderCache( _directory, size * 3L + size / 2 );
+        QrCodeTemplate cached = new QrCodeBuilder( ).withScale( 2 ).withRenderCache( cache ).buildTemplate( );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cached.render( MESSAGE, Collections.singletonMap( "id", Integer.toString( i ) ) );
+            assertTrue( cache.getSizeInBytes( ) <= cache.getMaxBytes( ) );
+        }
+        assertTrue( cache.size( ) < 10 );
+
+        // The most recent render is kept, the first one was evicted
+        long misses = cache.getMissCount( );
+        cached.render( MESSAGE, Collections.singletonMap( "id", "9" ) );
+        assertEquals( misses, cache.getMissCount( ) );
+        cached.render( MESSAGE, Collections.singletonMap( "id", "0" ) );
+        assertEquals( misses + 1, cache.getMissCount( ) );
+    }
+
+    public void testSurvivesRestart( ) throws Exception
+    {
+        DiskRenderCache cache = new DiskRenderCache( _directory );
+        QrCodeTemplate template = new QrCodeBuilder( ).withRenderCache( cache ).buildTemplate( );
+        byte [ ] expected = template.render( MESSAGE, null );
+
+        DiskRenderCache reopened = new DiskRenderCache( _directory );
+        assertEquals( 1, reopened.size( ) );
+        QrCodeTemplate restarted = new QrCodeBuilder( ).withRenderCache( reopened ).buildTemplate( );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        restarted.render( MESSAGE, null, out );
+        assertTrue( Arrays.equals( expected, out.toByteArray( ) ) );
+        assertEquals( 1, reopened.getHitCount( ) );
+        assertEquals( 0, reopened.getMissCount( ) );
+
+        reopened.clear( );
+        assertEquals( 0, reopened.size( ) );
+        assertEquals( 0, reopened.getSizeInBytes( ) );
+    }
+}
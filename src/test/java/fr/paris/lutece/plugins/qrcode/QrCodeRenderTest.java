@@ -0,0 +1,271 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.LongBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.ImageType;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.render.QrCodeRasterizer;
+import fr.paris.lutece.plugins.qrcode.service.render.RenderOptions;
+import io.nayuki.qrcodegen.QrCode;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the output formats of the QR code generator.
+ */
+public class QrCodeRenderTest extends TestCase
+{
+
+    private static QrCodeGenerator generator( )
+    {
+        return (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" )
+                .withCorrectionLevel( CorrectionLevel.MEDIUM )
+                .addParameter( "id", "42" )
+                .build( );
+    }
+
+    private static void assertSamePixels( BufferedImage expected, BufferedImage actual )
+    {
+        assertEquals( expected.getWidth( ), actual.getWidth( ) );
+        assertEquals( expected.getHeight( ), actual.getHeight( ) );
+        for ( int y = 0; y < expected.getHeight( ); y++ )
+        {
+            for ( int x = 0; x < expected.getWidth( ); x++ )
+            {
+                assertEquals( "pixel " + x + "," + y, expected.getRGB( x, y ) | 0xFF000000, actual.getRGB( x, y ) | 0xFF000000 );
+            }
+        }
+    }
+
+    public void testWritePng( ) throws Exception
+    {
+        for ( int scale : new int[] { 1, 3, 10 } )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( );
+            generator( ).writePng( out, scale, 4 );
+            BufferedImage png = ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) );
+            assertSamePixels( generator( ).toImage( scale, 4 ), png );
+        }
+    }
+
+    public void testWritePngIsSmallerThanImageIO( ) throws Exception
+    {
+        ByteArrayOutputStream direct = new ByteArrayOutputStream( );
+        generator( ).writePng( direct );
+        ByteArrayOutputStream imageIO = new ByteArrayOutputStream( );
+        ImageIO.write( generator( ).toImage( ), "png", imageIO );
+        assertTrue( direct.size( ) < imageIO.size( ) );
+    }
+
+    public void testWriteSvg( ) throws Exception
+    {
+        StringBuilder svg = new StringBuilder( );
+        generator( ).writeSvg( svg );
+        String document = svg.toString( );
+        assertTrue( document.startsWith( "<?xml" ) );
+        assertTrue( document.contains( "viewBox=\"0 0 33 33\"" ) );
+        assertEquals( 1, document.split( "<path" ).length - 1 );
+        assertFalse( document.contains( "<image" ) );
+    }
+
+    public void testWriteSvgWithLogo( ) throws Exception
+    {
+        ByteArrayOutputStream logo = new ByteArrayOutputStream( );
+        ImageIO.write( new BufferedImage( 4, 4, BufferedImage.TYPE_INT_ARGB ), "png", logo );
+        QrCodeGenerator qr = (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" )
+                .addLogoHandler( new LogoQrCode( new ByteArrayInputStream( logo.toByteArray( ) ) ) )
+                .build( );
+        StringBuilder svg = new StringBuilder( );
+        qr.writeSvg( svg );
+        assertTrue( svg.toString( ).contains( "xlink:href=\"data:image/png;base64," ) );
+        svg.setLength( 0 );
+        qr.writeSvg( svg, 10, 4, false );
+        assertFalse( svg.toString( ).contains( "<image" ) );
+    }
+
+    public void testRasterizer( ) throws Exception
+    {
+        QrCodeMatrix matrix = QrCodeMatrix.of( QrCode.encodeText( "https://www.paris.fr", QrCode.Ecc.LOW ) );
+        for ( int scale : new int[] { 1, 3, 7 } )
+        {
+            for ( ImageType type : ImageType.values( ) )
+            {
+                RenderOptions options = new RenderOptions( scale, 2, 0x102030, 0xF0E0D0 );
+                BufferedImage image = QrCodeRasterizer.render( matrix, options, type );
+                int side = ( matrix.getSize( ) + 4 ) * scale;
+                assertEquals( side, image.getWidth( ) );
+                int dark = image.getRGB( 2 * scale, 2 * scale ) | 0xFF000000;
+                int light = image.getRGB( 0, 0 ) | 0xFF000000;
+                assertTrue( dark != light );
+                for ( int y = 0; y < side; y++ )
+                {
+                    for ( int x = 0; x < side; x++ )
+                    {
+                        boolean isDark = matrix.isDark( x / scale - 2, y / scale - 2 );
+                        assertEquals( type + " pixel " + x + "," + y, isDark ? dark : light, image.getRGB( x, y ) | 0xFF000000 );
+                    }
+                }
+                if ( type != ImageType.GRAY )
+                {
+                    assertEquals( 0xFF102030, dark );
+                    assertEquals( 0xFFF0E0D0, light );
+                }
+            }
+        }
+    }
+
+    public void testImageTypes( ) throws Exception
+    {
+        BufferedImage rgb = generator( ).toImage( );
+        QrCodeGenerator gray = (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" ).addParameter( "id", "42" )
+                .withImageType( ImageType.GRAY ).build( );
+        QrCodeGenerator binary = (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" ).addParameter( "id", "42" )
+                .withImageType( ImageType.BINARY ).build( );
+        assertEquals( BufferedImage.TYPE_INT_RGB, rgb.getType( ) );
+        assertEquals( BufferedImage.TYPE_BYTE_GRAY, gray.toImage( ).getType( ) );
+        assertEquals( BufferedImage.TYPE_BYTE_BINARY, binary.toImage( ).getType( ) );
+        assertSamePixels( rgb, gray.toImage( ) );
+        assertSamePixels( rgb, binary.toImage( ) );
+    }
+
+    public void testColorsAndSize( ) throws Exception
+    {
+        QrCodeGenerator qr = (QrCodeGenerator) new QrCodeBuilder( "https://www.paris.fr" ).addParameter( "id", "42" )
+                .withColors( 0x003366, 0xFFFFCC ).withScale( 3 ).withBorder( 1 ).build( );
+        BufferedImage image = qr.toImage( );
+        assertEquals( ( 25 + 2 ) * 3, image.getWidth( ) );
+        assertEquals( 0xFFFFFFCC, image.getRGB( 0, 0 ) );
+        assertEquals( 0xFF003366, image.getRGB( 3, 3 ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        qr.writePng( out );
+        assertSamePixels( image, ImageIO.read( new ByteArrayInputStream( out.toByteArray( ) ) ) );
+
+        StringBuilder svg = new StringBuilder( );
+        qr.writeSvg( svg );
+        assertTrue( svg.toString( ).contains( "fill=\"#003366\"" ) );
+        assertTrue( svg.toString( ).contains( "fill=\"#FFFFCC\"" ) );
+    }
+
+    public void testMatrixRuns( ) throws Exception
+    {
+        StringBuilder text = new StringBuilder( );
+        while ( text.length( ) < 1500 )
+        {
+            text.append( "https://www.paris.fr/" ).append( text.length( ) );
+        }
+        QrCodeMatrix small = generator( ).toMatrix( );
+        QrCodeMatrix large = QrCodeMatrix.of( QrCode.encodeText( text.toString( ), QrCode.Ecc.LOW ) );
+        assertTrue( large.getWordsPerRow( ) > 1 );
+        for ( QrCodeMatrix matrix : new QrCodeMatrix[] { small, large } )
+        {
+            final int size = matrix.getSize( );
+            final boolean[] dark = new boolean[size * size];
+            final int[] previous = { -1, -1 };
+            matrix.forEachDarkRun( ( y, x, length ) ->
+            {
+                assertTrue( y > previous[0] || x > previous[1] );
+                assertTrue( length > 0 && x + length <= size );
+                for ( int i = x; i < x + length; i++ )
+                {
+                    dark[y * size + i] = true;
+                }
+                previous[0] = y;
+                previous[1] = x + length;
+            } );
+            for ( int y = 0; y < size; y++ )
+            {
+                int nextDark = size;
+                int nextLight = size;
+                for ( int x = size - 1; x >= 0; x-- )
+                {
+                    assertEquals( matrix.isDark( x, y ), dark[y * size + x] );
+                    if ( matrix.isDark( x, y ) )
+                    {
+                        nextDark = x;
+                    }
+                    else
+                    {
+                        nextLight = x;
+                    }
+                    assertEquals( nextDark, matrix.nextDark( y, x ) );
+                    assertEquals( nextLight, matrix.nextLight( y, x ) );
+                }
+                assertEquals( size, matrix.nextDark( y, size ) );
+                assertEquals( size, matrix.nextLight( y, size ) );
+            }
+
+            LongBuffer modules = matrix.getModules( );
+            assertEquals( matrix.getWordsPerRow( ) * size, modules.remaining( ) );
+            assertEquals( matrix.getSizeInBytes( ), modules.remaining( ) * Long.BYTES );
+            try
+            {
+                modules.put( 0, 0L );
+                fail( "The modules must be read-only" );
+            }
+            catch( ReadOnlyBufferException e )
+            {
+                // expected
+            }
+        }
+        assertEquals( small.getSize( ), generator( ).toImage( 1, 0 ).getWidth( ) );
+    }
+
+    public void testGeneratorWithoutMatrix( ) throws Exception
+    {
+        // An implementation written against the interface before toMatrix and toSequence were added
+        IQrCodeGenerator legacy = new IQrCodeGenerator( )
+        {
+            @Override
+            public String getMessage( )
+            {
+                return "https://www.paris.fr/";
+            }
+
+            @Override
+            public boolean isWithParameters( )
+            {
+                return false;
+            }
+
+            @Override
+            public CorrectionLevel getCorrectionLevel( )
+            {
+                return CorrectionLevel.MEDIUM;
+            }
+
+            @Override
+            public BufferedImage toImage( )
+            {
+                return new BufferedImage( 1, 1, BufferedImage.TYPE_INT_RGB );
+            }
+        };
+        try
+        {
+            legacy.toMatrix( );
+            fail( "Expected UnsupportedOperationException" );
+        }
+        catch( UnsupportedOperationException e )
+        {
+            // expected
+        }
+        try
+        {
+            legacy.toSequence( );
+            fail( "Expected UnsupportedOperationException" );
+        }
+        catch( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.web.QrCodeRequest;
+import fr.paris.lutece.plugins.qrcode.web.QrCodeServlet;
+import fr.paris.lutece.plugins.qrcode.web.QrCodeUrlSigner;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the QR code servlet, with mock requests and responses.
+ */
+public class QrCodeServletTest extends TestCase
+{
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+    private static final QrCodeUrlSigner SIGNER = new QrCodeUrlSigner( SECRET.getBytes( StandardCharsets.UTF_8 ) );
+
+    /**
+     * The response recorded by the mock.
+     */
+    private static final class Response
+    {
+        private int status = HttpServletResponse.SC_OK;
+        private final Map<String, String> headers = new HashMap<>( );
+        private String contentType;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream( );
+
+        private HttpServletResponse mock( )
+        {
+            ServletOutputStream out = new ServletOutputStream( )
+            {
+                @Override
+                public void write( int b )
+                {
+                    body.write( b );
+                }
+
+                @Override
+                public boolean isReady( )
+                {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener( WriteListener listener )
+                {
+                }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance( getClass( ).getClassLoader( ), new Class<?> [ ] { HttpServletResponse.class },
+                    ( proxy, method, args ) -> {
+                        switch( method.getName( ) )
+                        {
+                            case "setStatus":
+                            case "sendError":
+                                status = (Integer) args [0];
+                                return null;
+                            case "setHeader":
+                            case "addHeader":
+                                headers.put( (String) args [0], (String) args [1] );
+                                return null;
+                            case "containsHeader":
+                                return headers.containsKey( args [0] );
+                            case "setContentType":
+                                contentType = (String) args [0];
+                                return null;
+                            case "getOutputStream":
+                                return out;
+                            case "isCommitted":
+                                return false;
+                            case "reset":
+                                headers.clear( );
+                                body.reset( );
+                                return null;
+                            default:
+                                return null;
+                        }
+                    } );
+        }
+    }
+
+    private static HttpServletRequest request( String method, String query, String ifNoneMatch ) throws Exception
+    {
+        Map<String, List<String>> parameters = new LinkedHashMap<>( );
+        for ( String pair : query.split( "&" ) )
+        {
+            int separator = pair.indexOf( '=' );
+            String name = URLDecoder.decode( pair.substring( 0, separator ), "UTF-8" );
+            parameters.computeIfAbsent( name, k -> new ArrayList<>( ) ).add( URLDecoder.decode( pair.substring( separator + 1 ), "UTF-8" ) );
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance( QrCodeServletTest.class.getClassLoader( ), new Class<?> [ ] { HttpServletRequest.class },
+                ( proxy, m, args ) -> {
+                    switch( m.getName( ) )
+                    {
+                        case "getMethod":
+                            return method;
+                        case "getParameter":
+                            List<String> values = parameters.get( args [0] );
+                            return values == null ? null : values.get( 0 );
+                        case "getParameterValues":
+                            List<String> all = parameters.get( args [0] );
+                            return all == null ? null : all.toArray( new String [ 0 ] );
+                        case "getHeader":
+                            return "If-None-Match".equals( args [0] ) ? ifNoneMatch : null;
+                        case "getHeaders":
+                            return "If-None-Match".equals( args [0] ) && ifNoneMatch != null ? Collections.enumeration( Arrays.asList( ifNoneMatch ) )
+                                    : Collections.emptyEnumeration( );
+                        default:
+                            return null;
+                    }
+                } );
+    }
+
+    private static QrCodeServlet servlet( Map<String, String> initParameters ) throws Exception
+    {
+        QrCodeServlet servlet = new QrCodeServlet( );
+        servlet.init( (ServletConfig) Proxy.newProxyInstance( QrCodeServletTest.class.getClassLoader( ), new Class<?> [ ] { ServletConfig.class },
+                ( proxy, method, args ) -> "getInitParameter".equals( method.getName( ) ) ? initParameters.get( args [0] ) : null ) );
+        return servlet;
+    }
+
+    private static Response serve( QrCodeServlet servlet, String method, String query, String ifNoneMatch ) throws Exception
+    {
+        Response response = new Response( );
+        servlet.service( request( method, query, ifNoneMatch ), response.mock( ) );
+        return response;
+    }
+
+    private static Map<String, String> secret( )
+    {
+        Map<String, String> initParameters = new HashMap<>( );
+        initParameters.put( QrCodeServlet.INIT_SECRET, SECRET );
+        return initParameters;
+    }
+
+    private static QrCodeRequest sample( int scale )
+    {
+        Map<String, String> parameters = new LinkedHashMap<>( );
+        parameters.put( "id", "42" );
+        parameters.put( "name", "h\u00f4tel & co" );
+        return new QrCodeRequest( "https://www.paris.fr/", parameters, CorrectionLevel.QUARTILE, scale, 2, OutputFormat.PNG );
+    }
+
+    public void testGet( ) throws Exception
+    {
+        QrCodeServlet servlet = servlet( secret( ) );
+        QrCodeRequest request = sample( 3 );
+        Response response = serve( servlet, "GET", SIGNER.toQueryString( request ), null );
+        assertEquals( HttpServletResponse.SC_OK, response.status );
+        assertEquals( "image/png", response.contentType );
+        assertEquals( servlet.getETag( request ), response.headers.get( "ETag" ) );
+        assertTrue( response.headers.get( "ETag" ).startsWith( "\"" ) );
+        assertTrue( response.headers.get( "Cache-Control" ).contains( "max-age=31536000" ) );
+
+        byte [ ] expected = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.QUARTILE ).withScale( 3 ).withBorder( 2 ).buildTemplate( )
+                .render( request.getMessage( ), request.getParameters( ) );
+        assertTrue( Arrays.equals( expected, response.body.toByteArray( ) ) );
+        assertNotNull( ImageIO.read( new ByteArrayInputStream( response.body.toByteArray( ) ) ) );
+    }
+
+    public void testFormatAndColors( ) throws Exception
+    {
+        Map<String, String> initParameters = secret( );
+        initParameters.put( QrCodeServlet.INIT_FOREGROUND, "#102030" );
+        QrCodeServlet servlet = servlet( initParameters );
+        QrCodeRequest request = new QrCodeRequest( "HELLO", Collections.<String, String> emptyMap( ), CorrectionLevel.LOW, 2, 1, OutputFormat.SVG );
+        Response response = serve( servlet, "GET", SIGNER.toQueryString( request ), null );
+        assertEquals( HttpServletResponse.SC_OK, response.status );
+        assertEquals( OutputFormat.SVG.getContentType( ), response.contentType );
+        assertTrue( new String( response.body.toByteArray( ), StandardCharsets.UTF_8 ).contains( "#102030" ) );
+
+        // The colors of the servlet are part of the entity tag
+        assertFalse( servlet.getETag( request ).equals( servlet( secret( ) ).getETag( request ) ) );
+    }
+
+    public void testNotModified( ) throws Exception
+    {
+        QrCodeServlet servlet = servlet( secret( ) );
+        String query = SIGNER.toQueryString( sample( 3 ) );
+        String etag = serve( servlet, "GET", query, null ).headers.get( "ETag" );
+
+        for ( String ifNoneMatch : new String [ ] { etag, "\"other\", W/" + etag, "*" } )
+        {
+            Response response = serve( servlet, "GET", query, ifNoneMatch );
+            assertEquals( HttpServletResponse.SC_NOT_MODIFIED, response.status );
+            assertEquals( etag, response.headers.get( "ETag" ) );
+            assertEquals( 0, response.body.size( ) );
+        }
+        Response changed = serve( servlet, "GET", SIGNER.toQueryString( sample( 4 ) ), etag );
+        assertEquals( HttpServletResponse.SC_OK, changed.status );
+        assertFalse( etag.equals( changed.headers.get( "ETag" ) ) );
+    }
+
+    public void testNoEncodingForCachedImages( ) throws Exception
+    {
+        // Too long for any QR code: encoding it fails, so only the requests that never encode succeed
+        char [ ] digits = new char [ 4000 ];
+        Arrays.fill( digits, 'x' );
+        QrCodeRequest request = new QrCodeRequest( new String( digits ), Collections.<String, String> emptyMap( ), CorrectionLevel.HIGH, 1, 0,
+                OutputFormat.PNG );
+        QrCodeServlet servlet = servlet( secret( ) );
+        String query = SIGNER.toQueryString( request );
+
+        Response head = serve( servlet, "HEAD", query, null );
+        assertEquals( HttpServletResponse.SC_OK, head.status );
+        String etag = head.headers.get( "ETag" );
+        assertNotNull( etag );
+        assertEquals( HttpServletResponse.SC_NOT_MODIFIED, serve( servlet, "GET", query, etag ).status );
+        assertEquals( HttpServletResponse.SC_BAD_REQUEST, serve( servlet, "GET", query, null ).status );
+    }
+
+    public void testRejectedRequests( ) throws Exception
+    {
+        QrCodeServlet servlet = servlet( secret( ) );
+        String query = SIGNER.toQueryString( sample( 3 ) );
+        assertEquals( HttpServletResponse.SC_FORBIDDEN, serve( servlet, "GET", query.replace( "id%3D42", "id%3D43" ), null ).status );
+        assertEquals( HttpServletResponse.SC_FORBIDDEN, serve( servlet, "GET", query.substring( 0, query.indexOf( "&signature=" ) ), null ).status );
+        assertEquals( HttpServletResponse.SC_BAD_REQUEST, serve( servlet, "GET", "scale=3", null ).status );
+        assertEquals( HttpServletResponse.SC_BAD_REQUEST, serve( servlet, "GET", "message=a&scale=x", null ).status );
+        assertEquals( HttpServletResponse.SC_BAD_REQUEST, serve( servlet, "GET", "message=a&format=tiff", null ).status );
+        assertEquals( HttpServletResponse.SC_BAD_REQUEST, serve( servlet, "GET", SIGNER.toQueryString( sample( 41 ) ), null ).status );
+
+        QrCodeServlet other = new QrCodeServlet( new QrCodeUrlSigner( "another secret, long enough".getBytes( StandardCharsets.UTF_8 ) ) );
+        other.init( (ServletConfig) Proxy.newProxyInstance( getClass( ).getClassLoader( ), new Class<?> [ ] { ServletConfig.class },
+                ( proxy, method, args ) -> null ) );
+        assertEquals( HttpServletResponse.SC_FORBIDDEN, serve( other, "GET", query, null ).status );
+    }
+
+    public void testInvalidConfiguration( ) throws Exception
+    {
+        // The scale and the border share a packed template key: larger values would overlap the other fields
+        for ( String name : new String [ ] { QrCodeServlet.INIT_MAX_SCALE, QrCodeServlet.INIT_MAX_BORDER } )
+        {
+            Map<String, String> initParameters = secret( );
+            initParameters.put( name, String.valueOf( ( 1 << 20 ) - 1 ) );
+            servlet( initParameters );
+            initParameters.put( name, String.valueOf( 1 << 20 ) );
+            try
+            {
+                servlet( initParameters );
+                fail( "Expected ServletException for " + name );
+            }
+            catch( ServletException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    public void testSigner( ) throws Exception
+    {
+        QrCodeRequest request = sample( 3 );
+        String signature = SIGNER.sign( request );
+        assertTrue( SIGNER.verify( request, signature ) );
+        assertFalse( SIGNER.verify( sample( 4 ), signature ) );
+        assertFalse( SIGNER.verify( request, null ) );
+        assertEquals( request, sample( 3 ) );
+
+        // The parameters are ordered, and no value can be mistaken for another field
+        Map<String, String> swapped = new LinkedHashMap<>( );
+        swapped.put( "name", "h\u00f4tel & co" );
+        swapped.put( "id", "42" );
+        assertFalse( signature.equals( SIGNER.sign( new QrCodeRequest( "https://www.paris.fr/", swapped, CorrectionLevel.QUARTILE, 3, 2,
+                OutputFormat.PNG ) ) ) );
+        try
+        {
+            new QrCodeUrlSigner( new byte [ 8 ] );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodePayload;
+import fr.paris.lutece.plugins.qrcode.service.sheet.QrCodeSheetComposer;
+import fr.paris.lutece.plugins.qrcode.service.sheet.SheetLayout;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the composition of QR code sheets.
+ */
+public class QrCodeSheetTest extends TestCase
+{
+
+    private static List<QrCodePayload> payloads( int count )
+    {
+        List<QrCodePayload> payloads = new ArrayList<>( );
+        for ( int i = 0; i < count; i++ )
+        {
+            payloads.add( new QrCodePayload( "https://www.paris.fr/ticket?id=" + i ) );
+        }
+        return payloads;
+    }
+
+    private static int count( String text, String pattern )
+    {
+        int count = 0;
+        for ( int i = text.indexOf( pattern ); i >= 0; i = text.indexOf( pattern, i + 1 ) )
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private static LogoQrCode logo( ) throws Exception
+    {
+        BufferedImage image = new BufferedImage( 32, 32, BufferedImage.TYPE_INT_ARGB );
+        image.setRGB( 4, 4, 0xFFFF0000 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", out );
+        return new LogoQrCode( 0.2, new ByteArrayInputStream( out.toByteArray( ) ) );
+    }
+
+    public void testPdfDocument( ) throws Exception
+    {
+        QrCodeSheetComposer composer = new QrCodeSheetComposer( new QrCodeBuilder( ).addLogoHandler( logo( ) ) )
+                .withCaptions( payload -> "Ticket (" + payload.getMessage( ).substring( 31 ) + ")" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        assertEquals( 3, composer.writePdf( payloads( 50 ), out ) );
+        String pdf = new String( out.toByteArray( ), StandardCharsets.ISO_8859_1 );
+
+        assertTrue( pdf.startsWith( "%PDF-1.4\n" ) );
+        assertTrue( pdf.endsWith( "%%EOF\n" ) );
+        assertEquals( 3, count( pdf, "/Type /Page " ) );
+        assertTrue( pdf.contains( "/Type /Pages /Count 3 " ) );
+        // The logo and its mask are embedded once for the whole document
+        assertEquals( 2, count( pdf, "/Subtype /Image" ) );
+
+        // Every object of the cross-reference table starts at its offset
+        Matcher startxref = Pattern.compile( "startxref\n(\\d+)\n" ).matcher( pdf );
+        assertTrue( startxref.find( ) );
+        int xref = Integer.parseInt( startxref.group( 1 ) );
+        assertTrue( pdf.startsWith( "xref\n0 ", xref ) );
+        Matcher entries = Pattern.compile( "(\\d{10}) 00000 n \n" ).matcher( pdf );
+        int object = 1;
+        int position = xref;
+        while ( entries.find( position ) )
+        {
+            int offset = Integer.parseInt( entries.group( 1 ) );
+            assertTrue( "object " + object, pdf.startsWith( object + " 0 obj\n", offset ) );
+            position = entries.end( );
+            object++;
+        }
+        assertTrue( pdf.contains( "/Size " + object + " " ) );
+    }
+
+    public void testPngPages( ) throws Exception
+    {
+        SheetLayout layout = new SheetLayout( 200, 100, 2, 1, 10, 20 );
+        QrCodeSheetComposer composer = new QrCodeSheetComposer( new QrCodeBuilder( ) ).withLayout( layout )
+                .withResolution( 144 );
+        List<BufferedImage> pages = new ArrayList<>( );
+        int count = composer.writePng( IntStream.range( 0, 3 ).mapToObj( i -> new QrCodePayload( "code " + i ) ),
+                ( page, data ) ->
+                {
+                    assertEquals( pages.size( ), page );
+                    pages.add( ImageIO.read( new ByteArrayInputStream( data ) ) );
+                } );
+        assertEquals( 2, count );
+        assertEquals( 2, pages.size( ) );
+        BufferedImage first = pages.get( 0 );
+        assertEquals( 400, first.getWidth( ) );
+        assertEquals( 200, first.getHeight( ) );
+
+        // Cells of 160 x 160 pixels at (20, 20) and (220, 20); the last page only has its first cell
+        assertTrue( hasDarkPixel( first, 20, 180 ) );
+        assertTrue( hasDarkPixel( first, 220, 380 ) );
+        assertTrue( hasDarkPixel( pages.get( 1 ), 20, 180 ) );
+        assertFalse( hasDarkPixel( pages.get( 1 ), 220, 380 ) );
+        assertFalse( hasDarkPixel( first, 180, 220 ) );
+    }
+
+    public void testLayout( )
+    {
+        SheetLayout layout = SheetLayout.a4( 3, 8 );
+        assertEquals( 24, layout.getCellsPerPage( ) );
+        assertEquals( layout.getPageWidth( ) - layout.getMargin( ), layout.getCellX( 2 ) + layout.getCellWidth( ), 1e-9 );
+        assertEquals( layout.getPageHeight( ) - layout.getMargin( ), layout.getCellY( 7 ) + layout.getCellHeight( ), 1e-9 );
+        try
+        {
+            new SheetLayout( 100, 100, 2, 2, 60, 0 );
+            fail( "A grid larger than the page must be rejected" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    private static boolean hasDarkPixel( BufferedImage image, int fromX, int toX )
+    {
+        for ( int y = 0; y < image.getHeight( ); y++ )
+        {
+            for ( int x = fromX; x < toX; x++ )
+            {
+                if ( ( image.getRGB( x, y ) & 0xFF ) < 0x80 )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,279 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.MaskSelection;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeSequence;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import fr.paris.lutece.plugins.qrcode.service.encode.StructuredAppend;
+import io.nayuki.qrcodegen.BitBuffer;
+import io.nayuki.qrcodegen.QrCode;
+import io.nayuki.qrcodegen.QrSegment;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the splitting of long payloads over Structured Append sequences.
+ */
+public class QrCodeStructuredAppendTest extends TestCase
+{
+
+    private static String message( int words )
+    {
+        StringBuilder message = new StringBuilder( );
+        for ( int i = 0; i < words; i++ )
+        {
+            message.append( i % 3 == 0 ? "caf\u00e9 " : "cr\u00e8me br\u00fbl\u00e9e " ).append( (char) ( 'a' + i % 26 ) );
+        }
+        return message.toString( );
+    }
+
+    private static int modeIndicator( QrSegment.Mode mode )
+    {
+        switch( mode )
+        {
+            case NUMERIC:
+                return 1;
+            case ALPHANUMERIC:
+                return 2;
+            case BYTE:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * Builds the data codewords of a Structured Append symbol bit by bit, as described by ISO/IEC 18004.
+     */
+    private static byte [ ] referenceCodewords( List<QrSegment> segments, int index, int total, int parity, int version, CorrectionLevel level )
+    {
+        BitBuffer bits = new BitBuffer( );
+        bits.appendBits( 3, 4 );
+        bits.appendBits( index, 4 );
+        bits.appendBits( total - 1, 4 );
+        bits.appendBits( parity, 8 );
+        for ( QrSegment segment : segments )
+        {
+            bits.appendBits( modeIndicator( segment.mode ), 4 );
+            bits.appendBits( segment.numChars, QrCodeSpec.getCharCountBits( segment.mode, version ) );
+            bits.appendData( segment.getData( ) );
+        }
+        int capacity = QrCodeSpec.getNumDataCodewords( version, level ) * 8;
+        bits.appendBits( 0, Math.min( 4, capacity - bits.bitLength( ) ) );
+        bits.appendBits( 0, ( 8 - bits.bitLength( ) % 8 ) % 8 );
+        for ( int pad = 0xEC; bits.bitLength( ) < capacity; pad ^= 0xEC ^ 0x11 )
+        {
+            bits.appendBits( pad, 8 );
+        }
+        byte [ ] data = new byte [ capacity / 8 ];
+        for ( int i = 0; i < bits.bitLength( ); i++ )
+        {
+            data [i >>> 3] |= bits.getBit( i ) << ( 7 - ( i & 7 ) );
+        }
+        return data;
+    }
+
+    public void testHeaderMatchesReference( ) throws Exception
+    {
+        byte [ ] payload = "HELLO 12345 h\u00e9llo".getBytes( StandardCharsets.UTF_8 );
+        for ( int version : new int [ ] { 2, 12, 30 } )
+        {
+            SegmentPlan plan = SegmentPlanner.plan( payload, CorrectionLevel.QUARTILE, false, version );
+            QrCodeMatrix matrix = QrCodeEncoder.encodeStructuredAppend( plan.getSegments( ), 2, 5, 0xA7, CorrectionLevel.QUARTILE, version, 3, false,
+                    MaskSelection.PENALTY );
+            assertEquals( plan.getBitCount( ) + StructuredAppend.HEADER_BITS, matrix.getDataBitCount( ) );
+
+            byte [ ] data = referenceCodewords( plan.getSegments( ), 2, 5, 0xA7, version, CorrectionLevel.QUARTILE );
+            QrCode expected = new QrCode( version, QrCode.Ecc.QUARTILE, data, 3 );
+            for ( int y = 0; y < expected.size; y++ )
+            {
+                for ( int x = 0; x < expected.size; x++ )
+                {
+                    if ( expected.getModule( x, y ) != matrix.isDark( x, y ) )
+                    {
+                        fail( "version " + version + ": module " + x + "," + y + " differs" );
+                    }
+                }
+            }
+        }
+    }
+
+    public void testHeaderOutOfRange( ) throws Exception
+    {
+        List<QrSegment> segments = QrSegment.makeSegments( "HELLO" );
+        int [ ] [ ] headers = { { 0, 0, 0 }, { 0, 17, 0 }, { 3, 3, 0 }, { -1, 3, 0 }, { 0, 3, 256 } };
+        for ( int [ ] header : headers )
+        {
+            try
+            {
+                QrCodeEncoder.encodeStructuredAppend( segments, header [0], header [1], header [2], CorrectionLevel.LOW, 1, QrCodeEncoder.AUTO_MASK, true,
+                        MaskSelection.PENALTY );
+                fail( "Expected IllegalArgumentException" );
+            }
+            catch( IllegalArgumentException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    public void testParity( ) throws Exception
+    {
+        assertEquals( 0, StructuredAppend.parity( new byte [ 0 ] ) );
+        assertEquals( 'A' ^ 'B' ^ 0xE9, StructuredAppend.parity( new byte [ ] { 'A', 'B', (byte) 0xE9 } ) );
+
+        // Numeric, alphanumeric and byte segments: the bytes of the payload
+        byte [ ] payload = ( "0123456789012345 HTTPS://EXAMPLE.COM/$%*+-./: " + message( 40 ) ).getBytes( StandardCharsets.UTF_8 );
+        List<SegmentPlan> plans = StructuredAppend.plan( payload, CorrectionLevel.MEDIUM, false, 3 );
+        assertTrue( plans.size( ) > 1 );
+        assertEquals( StructuredAppend.parity( payload ), StructuredAppend.parity( plans ) );
+    }
+
+    public void testKanjiParity( ) throws Exception
+    {
+        StringBuilder builder = new StringBuilder( );
+        // An odd number of pairs, so that the parities do not cancel out
+        for ( int i = 0; i < 101; i++ )
+        {
+            builder.append( "\u70b9\u8317" );
+        }
+        String message = builder.toString( );
+        List<SegmentPlan> plans = StructuredAppend.plan( message.getBytes( StandardCharsets.UTF_8 ), CorrectionLevel.MEDIUM, true, 5 );
+        assertTrue( plans.size( ) > 1 );
+        assertEquals( QrSegment.Mode.KANJI, plans.get( 0 ).getSegments( ).get( 0 ).mode );
+
+        // The kanji segments carry Shift JIS bytes, not UTF-8
+        int expected = StructuredAppend.parity( message.getBytes( "Shift_JIS" ) );
+        assertFalse( expected == StructuredAppend.parity( message.getBytes( StandardCharsets.UTF_8 ) ) );
+        assertEquals( expected, StructuredAppend.parity( plans ) );
+        QrCodeSequence sequence = new QrCodeBuilder( message ).withKanjiMode( true ).withMaxVersion( 5 ).build( ).toSequence( );
+        assertEquals( plans.size( ), sequence.size( ) );
+        assertEquals( expected, sequence.getParity( ) );
+    }
+
+    public void testPlanSplitsOnCharacters( ) throws Exception
+    {
+        byte [ ] payload = message( 100 ).getBytes( StandardCharsets.UTF_8 );
+        List<SegmentPlan> plans = StructuredAppend.plan( payload, CorrectionLevel.MEDIUM, false, 8 );
+        assertTrue( plans.size( ) > 1 );
+        assertTrue( plans.size( ) <= StructuredAppend.MAX_SYMBOLS );
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream( );
+        for ( SegmentPlan plan : plans )
+        {
+            assertTrue( plan.getVersion( ) <= 8 );
+            assertTrue( plan.getBitCount( ) + StructuredAppend.HEADER_BITS <= QrCodeSpec.getNumDataCodewords( plan.getVersion( ), CorrectionLevel.MEDIUM ) * 8 );
+            ByteArrayOutputStream part = new ByteArrayOutputStream( );
+            for ( QrSegment segment : plan.getSegments( ) )
+            {
+                assertEquals( QrSegment.Mode.BYTE, segment.mode );
+                BitBuffer bits = segment.getData( );
+                for ( int i = 0; i < bits.bitLength( ); i += 8 )
+                {
+                    int value = 0;
+                    for ( int j = 0; j < 8; j++ )
+                    {
+                        value = value << 1 | bits.getBit( i + j );
+                    }
+                    part.write( value );
+                }
+            }
+            try
+            {
+                StandardCharsets.UTF_8.newDecoder( ).decode( ByteBuffer.wrap( part.toByteArray( ) ) );
+            }
+            catch( CharacterCodingException e )
+            {
+                fail( "Part split inside a character" );
+            }
+            joined.write( part.toByteArray( ) );
+        }
+        assertTrue( Arrays.equals( payload, joined.toByteArray( ) ) );
+
+        // Balanced: one version lower would need more symbols
+        int version = plans.get( 0 ).getVersion( );
+        for ( SegmentPlan plan : plans )
+        {
+            assertTrue( plan.getVersion( ) <= version );
+        }
+        if ( version > 1 )
+        {
+            try
+            {
+                assertTrue( StructuredAppend.plan( payload, CorrectionLevel.MEDIUM, false, version - 1 ).size( ) > plans.size( ) );
+            }
+            catch( QrCodeGeneratorException e )
+            {
+                // more than 16 symbols
+            }
+        }
+    }
+
+    public void testSequence( ) throws Exception
+    {
+        String message = message( 150 );
+        QrCodeSequence sequence = new QrCodeBuilder( message ).withMaxVersion( 10 ).build( ).toSequence( );
+        assertTrue( sequence.isStructuredAppend( ) );
+        assertTrue( sequence.size( ) > 1 );
+        assertEquals( StructuredAppend.parity( message.getBytes( StandardCharsets.UTF_8 ) ), sequence.getParity( ) );
+        for ( QrCodeMatrix symbol : sequence.getSymbols( ) )
+        {
+            assertTrue( symbol.getVersion( ) <= 10 );
+        }
+
+        List<SegmentPlan> plans = StructuredAppend.plan( message.getBytes( StandardCharsets.UTF_8 ), CorrectionLevel.MEDIUM, false, 10 );
+        assertEquals( plans.size( ), sequence.size( ) );
+        for ( int i = 0; i < plans.size( ); i++ )
+        {
+            SegmentPlan plan = plans.get( i );
+            QrCodeMatrix expected = QrCodeEncoder.encodeStructuredAppend( plan.getSegments( ), i, plans.size( ), sequence.getParity( ),
+                    CorrectionLevel.MEDIUM, plan.getVersion( ), QrCodeEncoder.AUTO_MASK, true, MaskSelection.PENALTY );
+            QrCodeMatrix actual = sequence.getSymbols( ).get( i );
+            assertEquals( expected.getModules( ), actual.getModules( ) );
+        }
+    }
+
+    public void testSingleSymbol( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withMaxVersion( 5 ).buildTemplate( );
+        QrCodeSequence sequence = template.toSequence( "https://example.com/", null );
+        assertEquals( 1, sequence.size( ) );
+        assertFalse( sequence.isStructuredAppend( ) );
+        assertEquals( template.toMatrix( "https://example.com/", null ).getModules( ), sequence.getSymbols( ).get( 0 ).getModules( ) );
+    }
+
+    public void testTooLong( ) throws Exception
+    {
+        try
+        {
+            new QrCodeBuilder( message( 200 ) ).withMaxVersion( 1 ).build( ).toSequence( );
+            fail( "Expected QrCodeGeneratorException" );
+        }
+        catch( QrCodeGeneratorException e )
+        {
+            // expected
+        }
+        try
+        {
+            new QrCodeBuilder( ).withMaxVersion( 41 );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
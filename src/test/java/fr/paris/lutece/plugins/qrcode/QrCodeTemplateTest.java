@@ -0,0 +1,106 @@
+package fr.paris.lutece.plugins.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.OutputFormat;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeTemplate;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the reusable QR code templates.
+ */
+public class QrCodeTemplateTest extends TestCase
+{
+
+    private static final String MESSAGE = "https://www.paris.fr/ticket";
+
+    public void testSameOutputAsGenerator( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withCorrectionLevel( CorrectionLevel.QUARTILE ).withScale( 4 )
+                .buildTemplate( );
+        QrCodeGenerator generator = (QrCodeGenerator) new QrCodeBuilder( MESSAGE )
+                .withCorrectionLevel( CorrectionLevel.QUARTILE ).withScale( 4 ).addParameter( "id", "7" ).build( );
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream( );
+        generator.writePng( expected );
+        assertTrue( Arrays.equals( expected.toByteArray( ), template.render( MESSAGE, Collections.singletonMap( "id", "7" ) ) ) );
+        assertEquals( OutputFormat.PNG, template.getFormat( ) );
+    }
+
+    public void testSvgFormat( ) throws Exception
+    {
+        QrCodeTemplate template = new QrCodeBuilder( ).withFormat( OutputFormat.SVG ).buildTemplate( );
+        String svg = new String( template.render( MESSAGE, null ), "UTF-8" );
+        assertTrue( svg.startsWith( "<?xml" ) );
+        assertTrue( svg.endsWith( "</svg>\n" ) );
+    }
+
+    public void testGeneratorIsolatedFromBuilder( ) throws Exception
+    {
+        QrCodeBuilder builder = new QrCodeBuilder( MESSAGE ).addParameter( "id", "1" );
+        QrCodeGenerator generator = (QrCodeGenerator) builder.build( );
+        StringBuilder before = new StringBuilder( );
+        generator.writeSvg( before );
+        builder.addParameter( "other", "a long value that changes the symbol" );
+        StringBuilder after = new StringBuilder( );
+        generator.writeSvg( after );
+        assertEquals( before.toString( ), after.toString( ) );
+    }
+
+    public void testConcurrentRendering( ) throws Exception
+    {
+        final QrCodeTemplate template = new QrCodeBuilder( ).withScale( 2 ).buildTemplate( );
+        final int count = 200;
+        final byte [ ] [ ] expected = new byte [ count ] [ ];
+        for ( int i = 0; i < count; i++ )
+        {
+            expected [i] = template.render( MESSAGE, Collections.singletonMap( "id", Integer.toString( i ) ) );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<>( );
+            for ( int t = 0; t < 8; t++ )
+            {
+                results.add( executor.submit( new Callable<Boolean>( )
+                {
+                    @Override
+                    public Boolean call( ) throws Exception
+                    {
+                        Map<String, String> parameters = new HashMap<>( );
+                        for ( int i = 0; i < count; i++ )
+                        {
+                            parameters.put( "id", Integer.toString( i ) );
+                            if ( !Arrays.equals( expected [i], template.render( MESSAGE, parameters ) ) )
+                            {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                } ) );
+            }
+            for ( Future<Boolean> result : results )
+            {
+                assertTrue( result.get( ) );
+            }
+        }
+        finally
+        {
+            executor.shutdown( );
+        }
+    }
+}
@@ -6,9 +6,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
@@ -16,7 +20,11 @@ import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
 import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
 import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
 import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.cache.LogoCache;
+import fr.paris.lutece.plugins.qrcode.service.cache.SymbolCache;
+import fr.paris.lutece.plugins.qrcode.service.encode.PayloadEncoder;
 import fr.paris.lutece.test.LuteceTestCase;
+import io.nayuki.qrcodegen.QrCode;
 import junit.framework.TestCase;
 
 /**
@@ -137,4 +145,67 @@ public class QrCodeTest
         assertTrue( file.length() != 0L );
         file.delete();
     }
+
+    public void testQrCodeWithLogoRenderedTwice() throws Exception
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(generatesRandomLogo(), "png", os);
+        QrCodeGenerator qr = (QrCodeGenerator) new QrCodeBuilder("Hello World")
+                .withCorrectionLevel(CorrectionLevel.HIGH)
+                .addLogoHandler(new LogoQrCode(new ByteArrayInputStream(os.toByteArray())))
+                .build();
+        BufferedImage first = qr.toImage();
+        BufferedImage second = qr.toImage();
+        assertEquals(first.getWidth(), second.getWidth());
+        assertEquals(first.getRGB(first.getWidth() / 2, first.getHeight() / 2),
+                second.getRGB(second.getWidth() / 2, second.getHeight() / 2));
+    }
+
+    public void testLogoCacheEviction()
+    {
+        LogoCache cache = new LogoCache(2 * 10 * 10 * 4);
+        cache.get("a", 10, 10, () -> new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+        cache.get("b", 10, 10, () -> new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+        cache.get("a", 10, 10, () -> null);
+        cache.get("c", 10, 10, () -> new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", 10, 10, () -> null));
+        assertEquals(800, cache.getSizeInBytes());
+    }
+
+    public void testQrCodeWithSymbolCache() throws Exception
+    {
+        SymbolCache cache = new SymbolCache(10, 1, TimeUnit.HOURS);
+        BufferedImage reference = QrCode.encodeText("Hello World", QrCode.Ecc.HIGH).toImage(10, 4);
+        for (int i = 0; i < 3; i++) {
+            BufferedImage image = ((QrCodeGenerator) new QrCodeBuilder("Hello World")
+                    .withCorrectionLevel(CorrectionLevel.HIGH)
+                    .withSymbolCache(cache)
+                    .build()).toImage();
+            assertEquals(reference.getWidth(), image.getWidth());
+            for (int y = 0; y < image.getHeight(); y += 3) {
+                for (int x = 0; x < image.getWidth(); x += 3) {
+                    assertEquals(reference.getRGB(x, y), image.getRGB(x, y));
+                }
+            }
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    public void testPayloadEncoding() throws Exception
+    {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("id", "42");
+        parameters.put("name", "Hôtel de Ville & mairie");
+        parameters.put("emoji*", "\uD83D\uDE00 a.b-c_d~e+f/g?h");
+        String expected = "https://www.paris.fr/é?id=42"
+                + "&name=" + URLEncoder.encode("Hôtel de Ville & mairie", "UTF-8")
+                + "&" + URLEncoder.encode("emoji*", "UTF-8") + "=" + URLEncoder.encode("\uD83D\uDE00 a.b-c_d~e+f/g?h", "UTF-8");
+        byte[] payload = PayloadEncoder.encode("https://www.paris.fr/é", parameters);
+        assertEquals(expected, new String(payload, StandardCharsets.UTF_8));
+        assertEquals("https://www.paris.fr?", new String(PayloadEncoder.encode("https://www.paris.fr", new HashMap<String, String>()), StandardCharsets.UTF_8));
+        assertEquals("https://www.paris.fr", new String(PayloadEncoder.encode("https://www.paris.fr", null), StandardCharsets.UTF_8));
+    }
 }
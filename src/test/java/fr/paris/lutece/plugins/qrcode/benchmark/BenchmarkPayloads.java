@@ -0,0 +1,84 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Realistic payloads shared by the benchmarks: a service URL followed by query parameters made of numeric ids,
+ * upper case tokens and free text, up to the requested size.
+ */
+final class BenchmarkPayloads
+{
+    static final String BASE_URL = "https://teleservices.paris.fr/rdv/ticket";
+
+    private static final String TOKEN_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final String[] WORDS = { "Hôtel", "de", "Ville", "mairie", "rendez-vous", "Paris", "état", "civil" };
+
+    private BenchmarkPayloads( )
+    {
+    }
+
+    /**
+     * Builds parameters so that the whole payload is about {@code size} bytes long.
+     */
+    static Map<String, String> parameters( int size )
+    {
+        Random random = new Random( size );
+        Map<String, String> parameters = new LinkedHashMap<>( );
+        int length = BASE_URL.length( ) + 1;
+        int i = 0;
+        while ( length < size )
+        {
+            String key = "p" + i;
+            String value;
+            switch ( i++ % 3 )
+            {
+                case 0:
+                    value = Long.toString( Math.abs( random.nextLong( ) ) );
+                    break;
+                case 1:
+                    StringBuilder token = new StringBuilder( );
+                    for ( int c = 0; c < 12; c++ )
+                    {
+                        token.append( TOKEN_CHARS.charAt( random.nextInt( TOKEN_CHARS.length( ) ) ) );
+                    }
+                    value = token.toString( );
+                    break;
+                default:
+                    value = WORDS[random.nextInt( WORDS.length )] + " " + WORDS[random.nextInt( WORDS.length )];
+                    break;
+            }
+            int remaining = size - length - key.length( ) - 2;
+            if ( remaining <= 0 )
+            {
+                break;
+            }
+            if ( value.length( ) > remaining )
+            {
+                value = value.substring( 0, remaining );
+            }
+            parameters.put( key, value );
+            length += key.length( ) + value.length( ) + 2;
+        }
+        return parameters;
+    }
+
+    /**
+     * Builds a plain text payload of exactly {@code size} characters, with the same mix as {@link #parameters(int)}.
+     */
+    static String text( int size )
+    {
+        StringBuilder sb = new StringBuilder( BASE_URL ).append( '?' );
+        for ( Map.Entry<String, String> entry : parameters( size ).entrySet( ) )
+        {
+            sb.append( entry.getKey( ) ).append( '=' ).append( entry.getValue( ).replace( ' ', '+' ) ).append( '&' );
+        }
+        while ( sb.length( ) < size )
+        {
+            sb.append( 'x' );
+        }
+        sb.setLength( size );
+        return sb.toString( );
+    }
+}
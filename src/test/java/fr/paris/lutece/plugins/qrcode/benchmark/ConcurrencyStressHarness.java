@@ -0,0 +1,577 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+
+/**
+ * Concurrency stress and scalability harness of the whole pipeline, from the {@link QrCodeBuilder} to the PNG bytes.
+ * <p>
+ * Each pipeline is run by 1, 2, 4, ... up to the requested number of platform threads, each thread building and
+ * rendering QR codes with distinct payloads in a loop, then by as many virtual threads when the JVM has them (Java
+ * 21 and later). For each level it reports the throughput, the speedup and the scaling efficiency (throughput over
+ * the single thread throughput times the number of threads), the p50, p99 and p999 latencies, and the time the
+ * threads spent blocked on monitors or parked on locks. A sampler records the locks the threads wait for, and the
+ * most contended ones are listed for the highest level, so that the serialization points show up with the code
+ * waiting on them (e.g. the {@code IIORegistry} lookups of {@link ImageIO}, or a {@code synchronized} method of
+ * the library).
+ * </p>
+ * <p>
+ * The run fails (exit status 1) when the efficiency of a level using at most one thread per core is below
+ * {@code --min-efficiency}. Run it with the {@code stress} profile:
+ * </p>
+ *
+ * <pre>
+ * mvn -Pstress verify -DskipTests -Dstress.args="--threads 16 --duration 5 --min-efficiency 0.7"
+ * </pre>
+ */
+public final class ConcurrencyStressHarness
+{
+    /**
+     * The pipelines driven by the harness.
+     */
+    enum Pipeline
+    {
+        /**
+         * Builder, then PNG streamed from the module matrix.
+         */
+        PNG,
+
+        /**
+         * Builder, image, then PNG encoded by {@link ImageIO}.
+         */
+        IMAGEIO,
+
+        /**
+         * Builder with a logo shared by all the threads, then PNG encoded by {@link ImageIO}.
+         */
+        LOGO
+    }
+
+    private static final String USAGE = "Options: [--threads N] [--warmup SECONDS] [--duration SECONDS] [--min-efficiency RATIO]"
+            + " [--pipelines png,imageio,logo] [--payload-size BYTES] [--no-virtual-threads]";
+
+    private static final int SAMPLE_DEPTH = 12;
+    private static final long SAMPLE_INTERVAL_MILLIS = 1;
+    private static final int TOP_LOCKS = 8;
+    private static final int PHASE_WARMUP = 0;
+    private static final int PHASE_MEASURE = 1;
+    private static final int PHASE_STOP = 2;
+
+    private int maxThreads = Runtime.getRuntime( ).availableProcessors( );
+    private long warmupNanos = TimeUnit.SECONDS.toNanos( 2 );
+    private long durationNanos = TimeUnit.SECONDS.toNanos( 3 );
+    private double minEfficiency = 0.7;
+    private List<Pipeline> pipelines = Arrays.asList( Pipeline.values( ) );
+    private int payloadSize = 200;
+    private boolean virtualThreads = true;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean( );
+    private byte [ ] logo;
+    private volatile int phase;
+
+    /**
+     * The measures of one level.
+     */
+    static final class Level
+    {
+        final String name;
+        final int threads;
+        final long operations;
+        final double seconds;
+        final long [ ] latencies;
+        final long blockedMillis;
+        final long waitedMillis;
+        final Map<String, Integer> locks;
+
+        Level( String name, int threads, long operations, double seconds, long [ ] latencies, long blockedMillis, long waitedMillis,
+                Map<String, Integer> locks )
+        {
+            this.name = name;
+            this.threads = threads;
+            this.operations = operations;
+            this.seconds = seconds;
+            this.latencies = latencies;
+            this.blockedMillis = blockedMillis;
+            this.waitedMillis = waitedMillis;
+            this.locks = locks;
+        }
+
+        double throughput( )
+        {
+            return operations / seconds;
+        }
+
+        double percentile( double fraction )
+        {
+            if ( latencies.length == 0 )
+            {
+                return 0;
+            }
+            int index = (int) Math.min( latencies.length - 1, Math.ceil( fraction * latencies.length ) - 1 );
+            return latencies [Math.max( index, 0 )] / 1e3;
+        }
+    }
+
+    /**
+     * The latencies recorded by one worker, in nanoseconds.
+     */
+    private static final class Recorder
+    {
+        private long [ ] latencies = new long [ 1024 ];
+        private int count;
+
+        void record( long latency )
+        {
+            if ( count == latencies.length )
+            {
+                latencies = Arrays.copyOf( latencies, count * 2 );
+            }
+            latencies [count++] = latency;
+        }
+    }
+
+    private ConcurrencyStressHarness( )
+    {
+    }
+
+    /**
+     * Runs the harness with the options of the command line, and exits with its status.
+     *
+     * @param args
+     *            The options, see {@link #run(String[], PrintStream)}.
+     * @throws Exception
+     *             If a pipeline fails.
+     */
+    public static void main( String [ ] args ) throws Exception
+    {
+        System.exit( run( args, System.out ) );
+    }
+
+    /**
+     * Runs the harness.
+     *
+     * @param args
+     *            {@code --threads N} (default: number of cores), {@code --warmup} and {@code --duration} (seconds per level, decimals allowed),
+     *            {@code --min-efficiency} (default 0.7), {@code --pipelines} (default {@code png,imageio,logo}), {@code --payload-size} (default 200
+     *            bytes) and {@code --no-virtual-threads}.
+     * @param out
+     *            The stream of the report.
+     * @return 0 if every level scales well enough, 1 otherwise, 2 for invalid options.
+     * @throws Exception
+     *             If a pipeline fails.
+     */
+    public static int run( String [ ] args, PrintStream out ) throws Exception
+    {
+        ConcurrencyStressHarness harness = new ConcurrencyStressHarness( );
+        try
+        {
+            harness.parse( args );
+        }
+        catch( IllegalArgumentException e )
+        {
+            out.println( e.getMessage( ) );
+            out.println( USAGE );
+            return 2;
+        }
+        return harness.run( out );
+    }
+
+    private void parse( String [ ] args )
+    {
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( "--no-virtual-threads".equals( args [i] ) )
+            {
+                virtualThreads = false;
+                continue;
+            }
+            if ( i + 1 == args.length )
+            {
+                throw new IllegalArgumentException( "Missing value of " + args [i] );
+            }
+            String value = args [++i];
+            switch( args [i - 1] )
+            {
+                case "--threads":
+                    maxThreads = Integer.parseInt( value );
+                    break;
+                case "--warmup":
+                    warmupNanos = (long) ( Double.parseDouble( value ) * 1e9 );
+                    break;
+                case "--duration":
+                    durationNanos = (long) ( Double.parseDouble( value ) * 1e9 );
+                    break;
+                case "--min-efficiency":
+                    minEfficiency = Double.parseDouble( value );
+                    break;
+                case "--payload-size":
+                    payloadSize = Integer.parseInt( value );
+                    break;
+                case "--pipelines":
+                    List<Pipeline> selected = new ArrayList<>( );
+                    for ( String name : value.split( "," ) )
+                    {
+                        selected.add( Pipeline.valueOf( name.trim( ).toUpperCase( Locale.ROOT ) ) );
+                    }
+                    pipelines = selected;
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown option: " + args [i - 1] );
+            }
+        }
+        if ( maxThreads < 1 || durationNanos <= 0 || warmupNanos < 0 )
+        {
+            throw new IllegalArgumentException( "Value out of range" );
+        }
+    }
+
+    private int run( PrintStream out ) throws Exception
+    {
+        if ( threadBean.isThreadContentionMonitoringSupported( ) )
+        {
+            threadBean.setThreadContentionMonitoringEnabled( true );
+        }
+        logo = logo( );
+        int cores = Runtime.getRuntime( ).availableProcessors( );
+        out.println( String.format( Locale.ROOT, "%d cores, Java %s, %s, payloads of %d bytes, minimum efficiency %.2f", cores,
+                System.getProperty( "java.version" ), System.getProperty( "java.vm.name" ), payloadSize, minEfficiency ) );
+
+        List<Integer> levels = new ArrayList<>( );
+        for ( int threads = 1; threads < maxThreads; threads *= 2 )
+        {
+            levels.add( threads );
+        }
+        levels.add( maxThreads );
+
+        List<String> failures = new ArrayList<>( );
+        for ( Pipeline pipeline : pipelines )
+        {
+            out.println( );
+            out.println( pipeline + " pipeline" );
+            out.println( String.format( Locale.ROOT, "%-10s %12s %8s %10s %10s %10s %10s %12s %12s", "threads", "ops/s", "speedup", "efficiency",
+                    "p50 us", "p99 us", "p999 us", "blocked ms", "parked ms" ) );
+            Level single = null;
+            Level last = null;
+            for ( int threads : levels )
+            {
+                Level level = measure( pipeline, threads, false );
+                if ( single == null )
+                {
+                    single = level;
+                }
+                double efficiency = level.throughput( ) / ( threads * single.throughput( ) );
+                print( out, level, single, efficiency );
+                if ( threads <= cores && efficiency < minEfficiency )
+                {
+                    failures.add( String.format( Locale.ROOT, "%s pipeline: efficiency %.2f with %d threads", pipeline, efficiency, threads ) );
+                }
+                last = level;
+            }
+            if ( virtualThreads && hasVirtualThreads( ) )
+            {
+                Level level = measure( pipeline, maxThreads, true );
+                print( out, level, single, level.throughput( ) / ( Math.min( maxThreads, cores ) * single.throughput( ) ) );
+            }
+            else if ( virtualThreads )
+            {
+                out.println( "virtual    skipped: no virtual threads before Java 21" );
+            }
+            printLocks( out, last );
+        }
+
+        out.println( );
+        if ( failures.isEmpty( ) )
+        {
+            out.println( "Scaling efficiency above " + minEfficiency + " at every level" );
+            return 0;
+        }
+        for ( String failure : failures )
+        {
+            out.println( "FAILED: " + failure );
+        }
+        return 1;
+    }
+
+    private static void print( PrintStream out, Level level, Level single, double efficiency )
+    {
+        out.println( String.format( Locale.ROOT, "%-10s %12.0f %8.2f %10.2f %10.1f %10.1f %10.1f %12s %12s", level.name, level.throughput( ),
+                level.throughput( ) / single.throughput( ), efficiency, level.percentile( 0.5 ), level.percentile( 0.99 ),
+                level.percentile( 0.999 ), level.blockedMillis < 0 ? "n/a" : Long.toString( level.blockedMillis ),
+                level.waitedMillis < 0 ? "n/a" : Long.toString( level.waitedMillis ) ) );
+    }
+
+    private static void printLocks( PrintStream out, Level level )
+    {
+        if ( level.locks.isEmpty( ) )
+        {
+            out.println( "No lock contention sampled with " + level.threads + " threads" );
+            return;
+        }
+        int total = 0;
+        for ( int count : level.locks.values( ) )
+        {
+            total += count;
+        }
+        out.println( "Most contended locks with " + level.threads + " threads (" + total + " samples of waiting threads):" );
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>( level.locks.entrySet( ) );
+        entries.sort( ( a, b ) -> b.getValue( ) - a.getValue( ) );
+        for ( Map.Entry<String, Integer> entry : entries.subList( 0, Math.min( TOP_LOCKS, entries.size( ) ) ) )
+        {
+            out.println( String.format( Locale.ROOT, "  %6d  %s", entry.getValue( ), entry.getKey( ) ) );
+        }
+    }
+
+    /**
+     * Runs a pipeline on a number of threads: warm-up, then measure.
+     */
+    private Level measure( Pipeline pipeline, int threads, boolean virtual ) throws Exception
+    {
+        phase = PHASE_WARMUP;
+        Recorder [ ] recorders = new Recorder [ threads ];
+        long [ ] threadIds = new long [ threads ];
+        CountDownLatch started = new CountDownLatch( threads );
+        CountDownLatch finished = new CountDownLatch( threads );
+        AtomicReference<Exception> failure = new AtomicReference<>( );
+        ExecutorService executor = virtual ? newVirtualThreadExecutor( ) : Executors.newFixedThreadPool( threads );
+        try
+        {
+            for ( int t = 0; t < threads; t++ )
+            {
+                int worker = t;
+                recorders [t] = new Recorder( );
+                executor.execute( ( ) -> {
+                    threadIds [worker] = Thread.currentThread( ).getId( );
+                    started.countDown( );
+                    try
+                    {
+                        work( pipeline, worker, recorders [worker] );
+                    }
+                    catch( Exception e )
+                    {
+                        failure.compareAndSet( null, e );
+                        phase = PHASE_STOP;
+                    }
+                    finally
+                    {
+                        finished.countDown( );
+                    }
+                } );
+            }
+            started.await( );
+            Thread.sleep( TimeUnit.NANOSECONDS.toMillis( warmupNanos ) );
+
+            long [ ] blocked = virtual ? null : blockedTimes( threadIds );
+            long [ ] waited = virtual ? null : waitedTimes( threadIds );
+            Map<String, Integer> locks = new HashMap<>( );
+            long start = System.nanoTime( );
+            phase = PHASE_MEASURE;
+            while ( System.nanoTime( ) - start < durationNanos && phase == PHASE_MEASURE )
+            {
+                if ( !virtual )
+                {
+                    sampleLocks( threadIds, locks );
+                }
+                Thread.sleep( SAMPLE_INTERVAL_MILLIS );
+            }
+            phase = PHASE_STOP;
+            double seconds = ( System.nanoTime( ) - start ) / 1e9;
+            long blockedMillis = virtual ? -1 : sum( blockedTimes( threadIds ) ) - sum( blocked );
+            long waitedMillis = virtual ? -1 : sum( waitedTimes( threadIds ) ) - sum( waited );
+            finished.await( );
+            if ( failure.get( ) != null )
+            {
+                throw failure.get( );
+            }
+
+            int count = 0;
+            for ( Recorder recorder : recorders )
+            {
+                count += recorder.count;
+            }
+            long [ ] latencies = new long [ count ];
+            int offset = 0;
+            for ( Recorder recorder : recorders )
+            {
+                System.arraycopy( recorder.latencies, 0, latencies, offset, recorder.count );
+                offset += recorder.count;
+            }
+            Arrays.sort( latencies );
+            return new Level( ( virtual ? "virtual " : "" ) + threads, threads, count, seconds, latencies,
+                    threadBean.isThreadContentionMonitoringEnabled( ) ? blockedMillis : -1, waitedMillis, locks );
+        }
+        finally
+        {
+            phase = PHASE_STOP;
+            executor.shutdownNow( );
+            executor.awaitTermination( 1, TimeUnit.MINUTES );
+        }
+    }
+
+    /**
+     * The loop of a worker: builds and renders QR codes until the end of the measure, recording the latencies of the
+     * measure phase only.
+     */
+    private void work( Pipeline pipeline, int worker, Recorder recorder ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 1 << 16 );
+        Map<String, String> parameters = BenchmarkPayloads.parameters( payloadSize );
+        LogoQrCode sharedLogo = pipeline == Pipeline.LOGO ? new LogoQrCode( new ByteArrayInputStream( logo ) ) : null;
+        long sequence = 0;
+        int current;
+        while ( ( current = phase ) != PHASE_STOP )
+        {
+            String id = worker + "-" + sequence++;
+            long start = System.nanoTime( );
+            out.reset( );
+            QrCodeBuilder builder = new QrCodeBuilder( BenchmarkPayloads.BASE_URL ).withCorrectionLevel( CorrectionLevel.MEDIUM )
+                    .addParameters( parameters ).addParameter( "id", id );
+            switch( pipeline )
+            {
+                case IMAGEIO:
+                    BufferedImage image = builder.build( ).toImage( );
+                    ImageIO.write( image, "png", out );
+                    break;
+                case LOGO:
+                    ( (QrCodeGenerator) builder.addLogoHandler( sharedLogo ).build( ) ).writePng( out );
+                    break;
+                case PNG:
+                default:
+                    ( (QrCodeGenerator) builder.build( ) ).writePng( out );
+                    break;
+            }
+            if ( current == PHASE_MEASURE )
+            {
+                recorder.record( System.nanoTime( ) - start );
+            }
+        }
+    }
+
+    /**
+     * Records the lock each waiting worker waits for, with the first frame of the code waiting on it.
+     */
+    private void sampleLocks( long [ ] threadIds, Map<String, Integer> locks )
+    {
+        for ( ThreadInfo info : threadBean.getThreadInfo( threadIds, SAMPLE_DEPTH ) )
+        {
+            if ( info == null || info.getLockName( ) == null )
+            {
+                continue;
+            }
+            Thread.State state = info.getThreadState( );
+            if ( state != Thread.State.BLOCKED && state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING )
+            {
+                continue;
+            }
+            String lock = info.getLockName( );
+            int hash = lock.indexOf( '@' );
+            StringBuilder key = new StringBuilder( state == Thread.State.BLOCKED ? "monitor " : "parked on " );
+            key.append( hash < 0 ? lock : lock.substring( 0, hash ) );
+            for ( StackTraceElement frame : info.getStackTrace( ) )
+            {
+                String className = frame.getClassName( );
+                if ( !className.startsWith( "java.util.concurrent.locks." ) && !className.startsWith( "sun.misc." )
+                        && !className.startsWith( "jdk.internal.misc." ) )
+                {
+                    key.append( " in " ).append( className ).append( '.' ).append( frame.getMethodName( ) );
+                    break;
+                }
+            }
+            locks.merge( key.toString( ), 1, Integer::sum );
+        }
+    }
+
+    private long [ ] blockedTimes( long [ ] threadIds )
+    {
+        ThreadInfo [ ] infos = threadBean.getThreadInfo( threadIds );
+        long [ ] times = new long [ infos.length ];
+        for ( int i = 0; i < infos.length; i++ )
+        {
+            times [i] = infos [i] == null ? 0 : infos [i].getBlockedTime( );
+        }
+        return times;
+    }
+
+    private long [ ] waitedTimes( long [ ] threadIds )
+    {
+        ThreadInfo [ ] infos = threadBean.getThreadInfo( threadIds );
+        long [ ] times = new long [ infos.length ];
+        for ( int i = 0; i < infos.length; i++ )
+        {
+            times [i] = infos [i] == null ? 0 : infos [i].getWaitedTime( );
+        }
+        return times;
+    }
+
+    private static long sum( long [ ] values )
+    {
+        long sum = 0;
+        for ( long value : values )
+        {
+            sum += Math.max( value, 0 );
+        }
+        return sum;
+    }
+
+    /**
+     * Indicates whether the JVM has virtual threads (Java 21 and later).
+     */
+    private static boolean hasVirtualThreads( )
+    {
+        try
+        {
+            Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return true;
+        }
+        catch( NoSuchMethodException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, through reflection since the library targets Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor( ) throws ReflectiveOperationException
+    {
+        return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+    }
+
+    private static byte [ ] logo( ) throws IOException
+    {
+        BufferedImage image = new BufferedImage( 128, 128, BufferedImage.TYPE_INT_ARGB );
+        for ( int y = 0; y < image.getHeight( ); y++ )
+        {
+            for ( int x = 0; x < image.getWidth( ); x++ )
+            {
+                image.setRGB( x, y, 0xFF000000 | ( x * 2 ) << 16 | ( y * 2 ) << 8 | ( x ^ y ) );
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        ImageIO.write( image, "png", out );
+        return out.toByteArray( );
+    }
+}
@@ -0,0 +1,82 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Measures the encoding of a payload into a QR code symbol, at each correction level.
+ * Payloads of 2000 bytes do not fit a version 40 symbol at the QUARTILE and HIGH levels, hence the 1200 bytes upper
+ * bound.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class EncodeBenchmark
+{
+    @Param( { "20", "200", "1200" } )
+    public int payloadSize;
+
+    @Param( { "LOW", "MEDIUM", "QUARTILE", "HIGH" } )
+    public CorrectionLevel correctionLevel;
+
+    private String text;
+    private byte[] payload;
+    private QrCode.Ecc ecc;
+
+    @Setup
+    public void setUp( )
+    {
+        text = BenchmarkPayloads.text( payloadSize );
+        payload = text.getBytes( StandardCharsets.UTF_8 );
+        ecc = QrCode.Ecc.valueOf( correctionLevel.name( ) );
+    }
+
+    /**
+     * The reference encoder, as called by the original implementation.
+     */
+    @Benchmark
+    public QrCode encodeText( )
+    {
+        return QrCode.encodeText( text, ecc );
+    }
+
+    /**
+     * Mixed-mode segment planning alone.
+     */
+    @Benchmark
+    public SegmentPlan planSegments( ) throws QrCodeGeneratorException
+    {
+        return SegmentPlanner.plan( payload, correctionLevel, false );
+    }
+
+    /**
+     * Mixed-mode segment planning followed by the encoding of the planned segments.
+     */
+    @Benchmark
+    public QrCode planAndEncode( ) throws QrCodeGeneratorException
+    {
+        SegmentPlan plan = SegmentPlanner.plan( payload, correctionLevel, false );
+        return QrCode.encodeSegments( plan.getSegments( ), ecc, plan.getVersion( ), plan.getVersion( ), -1, true );
+    }
+}
@@ -0,0 +1,143 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.qrcode.service.LogoPlate;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoCompositor;
+import fr.paris.lutece.plugins.qrcode.service.render.LogoScaler;
+
+/**
+ * Measures the compositing of a logo over a rendered QR code: the legacy {@link Image#getScaledInstance} path
+ * against the {@link LogoScaler} and {@link LogoCompositor}, for a cold logo (scaled for each QR code) and for a
+ * cached logo (already scaled, as served by the logo cache).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LogoBenchmark
+{
+    @Param( { "512" } )
+    public int logoSize;
+
+    @Param( { "60", "200" } )
+    public int targetSize;
+
+    private BufferedImage logo;
+    private int[] pixels;
+    private BufferedImage image;
+    private BufferedImage legacyScaled;
+    private BufferedImage scaled;
+
+    @Setup
+    public void setUp( )
+    {
+        logo = new BufferedImage( logoSize, logoSize, BufferedImage.TYPE_INT_ARGB );
+        Random random = new Random( 0 );
+        for ( int y = 0; y < logoSize; y++ )
+        {
+            for ( int x = 0; x < logoSize; x++ )
+            {
+                logo.setRGB( x, y, random.nextInt( ) );
+            }
+        }
+        pixels = LogoScaler.toPremultiplied( logo );
+        image = new BufferedImage( 2 * targetSize, 2 * targetSize, BufferedImage.TYPE_INT_RGB );
+        legacyScaled = new BufferedImage( targetSize, targetSize, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g = legacyScaled.createGraphics( );
+        g.drawImage( logo.getScaledInstance( targetSize, targetSize, Image.SCALE_SMOOTH ), 0, 0, null );
+        g.dispose( );
+        scaled = LogoScaler.toImage( LogoScaler.scale( pixels, logoSize, logoSize, targetSize, targetSize ), targetSize, targetSize );
+    }
+
+    /**
+     * Former path: smooth scaling through the {@link java.awt.image.AreaAveragingScaleFilter}, an intermediate ARGB
+     * image, then a draw over the code.
+     */
+    @Benchmark
+    public BufferedImage legacy( )
+    {
+        Image scaled = logo.getScaledInstance( targetSize, targetSize, Image.SCALE_SMOOTH );
+        BufferedImage buffered = new BufferedImage( targetSize, targetSize, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g = buffered.createGraphics( );
+        g.drawImage( scaled, 0, 0, null );
+        g.dispose( );
+        g = image.createGraphics( );
+        g.drawImage( buffered, targetSize / 2, targetSize / 2, null );
+        g.dispose( );
+        return image;
+    }
+
+    /**
+     * Former path with a cached logo: a single draw of the scaled ARGB logo over the code.
+     */
+    @Benchmark
+    public BufferedImage legacyCached( )
+    {
+        Graphics2D g = image.createGraphics( );
+        g.drawImage( legacyScaled, targetSize / 2, targetSize / 2, null );
+        g.dispose( );
+        return image;
+    }
+
+    /**
+     * Scaling of the premultiplied pixels alone, without compositing.
+     */
+    @Benchmark
+    public int [ ] scaleOnly( )
+    {
+        return LogoScaler.scale( pixels, logoSize, logoSize, targetSize, targetSize );
+    }
+
+    /**
+     * Blend of a cached premultiplied logo straight into the raster.
+     */
+    @Benchmark
+    public BufferedImage scalerCached( )
+    {
+        LogoCompositor.blend( image, scaled, targetSize / 2, targetSize / 2 );
+        return image;
+    }
+
+    /**
+     * Box halving and bilinear scaling of the premultiplied pixels, blended straight into the raster.
+     */
+    @Benchmark
+    public BufferedImage scaler( )
+    {
+        int[] scaled = LogoScaler.scale( pixels, logoSize, logoSize, targetSize, targetSize );
+        LogoCompositor.blend( image, LogoScaler.toImage( scaled, targetSize, targetSize ), targetSize / 2,
+                targetSize / 2 );
+        return image;
+    }
+
+    /**
+     * Same as {@link #scaler()}, on a rounded backing plate.
+     */
+    @Benchmark
+    public BufferedImage scalerWithPlate( )
+    {
+        int[] scaled = LogoScaler.scale( pixels, logoSize, logoSize, targetSize, targetSize );
+        LogoCompositor.drawLogo( image, LogoScaler.toImage( scaled, targetSize, targetSize ), targetSize / 2,
+                targetSize / 2, LogoPlate.ROUNDED, 0xFFFFFF );
+        return image;
+    }
+}
@@ -0,0 +1,103 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.MaskSelection;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeEncoder;
+import fr.paris.lutece.plugins.qrcode.service.encode.QrCodeSpec;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlanner;
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Compares the reference encoder with the bitboard encoder and its mask selections, for symbols of versions 10 to 40.
+ * The payload fills the version at the MEDIUM level; segment planning is done once in the setup.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MaskSelectionBenchmark
+{
+    @Param( { "10", "20", "30", "40" } )
+    public int version;
+
+    private SegmentPlan plan;
+
+    @Setup
+    public void setUp( ) throws QrCodeGeneratorException
+    {
+        int size = QrCodeSpec.getNumDataCodewords( version, CorrectionLevel.MEDIUM ) - 3;
+        byte [ ] payload = BenchmarkPayloads.text( size ).getBytes( StandardCharsets.UTF_8 );
+        plan = SegmentPlanner.plan( payload, CorrectionLevel.MEDIUM, false, version );
+    }
+
+    /**
+     * The reference encoder, scoring the eight masks module by module.
+     */
+    @Benchmark
+    public QrCode reference( )
+    {
+        return QrCode.encodeSegments( plan.getSegments( ), QrCode.Ecc.MEDIUM, plan.getVersion( ), plan.getVersion( ), -1, false );
+    }
+
+    /**
+     * The bitboard encoder with the full penalty rules: same symbol as the reference.
+     */
+    @Benchmark
+    public QrCodeMatrix penalty( )
+    {
+        return encode( QrCodeEncoder.AUTO_MASK, MaskSelection.PENALTY );
+    }
+
+    /**
+     * The bitboard encoder scoring the masks in parallel.
+     */
+    @Benchmark
+    public QrCodeMatrix parallel( )
+    {
+        return encode( QrCodeEncoder.AUTO_MASK, MaskSelection.PARALLEL );
+    }
+
+    /**
+     * The bitboard encoder scoring the masks over the rows only.
+     */
+    @Benchmark
+    public QrCodeMatrix fast( )
+    {
+        return encode( QrCodeEncoder.AUTO_MASK, MaskSelection.FAST );
+    }
+
+    /**
+     * The bitboard encoder with a fixed mask: the cost of the encoding without any mask selection.
+     */
+    @Benchmark
+    public QrCodeMatrix fixedMask( )
+    {
+        return encode( 0, MaskSelection.PENALTY );
+    }
+
+    private QrCodeMatrix encode( int mask, MaskSelection selection )
+    {
+        return QrCodeEncoder.encodeSegments( plan.getSegments( ), CorrectionLevel.MEDIUM, plan.getVersion( ), mask, false,
+                selection );
+    }
+}
@@ -0,0 +1,88 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fr.paris.lutece.plugins.qrcode.service.encode.PayloadEncoder;
+
+/**
+ * Compares the payload assembly of {@link PayloadEncoder} with the former {@link URLEncoder} based implementation.
+ * <p>
+ * Run with {@code -prof gc} (as {@link #main(String[])} does) to compare the allocation rates.
+ * </p>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PayloadEncoderBenchmark
+{
+    @Param( { "1", "4", "16" } )
+    public int parameterCount;
+
+    private String message;
+    private Map<String, String> parameters;
+
+    @Setup
+    public void setUp( )
+    {
+        message = "https://teleservices.paris.fr/rdv/ticket";
+        parameters = new LinkedHashMap<>( );
+        for ( int i = 0; i < parameterCount; i++ )
+        {
+            parameters.put( "param" + i, "Valeur n°" + i + " & co" );
+        }
+    }
+
+    /**
+     * The former implementation: a {@link StringBuilder}, two {@link URLEncoder} calls per parameter, then the UTF-8
+     * conversion done by {@code QrCode.encodeText}.
+     */
+    @Benchmark
+    public byte[] urlEncoder( ) throws UnsupportedEncodingException
+    {
+        StringBuilder sb = new StringBuilder( );
+        sb.append( message );
+        sb.append( "?" );
+        for ( Map.Entry<String, String> entry : parameters.entrySet( ) )
+        {
+            sb.append( URLEncoder.encode( entry.getKey( ), "UTF-8" ) );
+            sb.append( "=" );
+            sb.append( URLEncoder.encode( entry.getValue( ), "UTF-8" ) );
+            sb.append( "&" );
+        }
+        return sb.toString( ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    @Benchmark
+    public byte[] payloadEncoder( )
+    {
+        return PayloadEncoder.encode( message, parameters );
+    }
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder( ).include( PayloadEncoderBenchmark.class.getSimpleName( ) ).addProfiler( "gc" ).build( ) ).run( );
+    }
+}
@@ -0,0 +1,157 @@
+package fr.paris.lutece.plugins.qrcode.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.qrcode.service.CorrectionLevel;
+import fr.paris.lutece.plugins.qrcode.service.LogoQrCode;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeBuilder;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGenerator;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeGeneratorException;
+import fr.paris.lutece.plugins.qrcode.service.QrCodeMatrix;
+import fr.paris.lutece.plugins.qrcode.service.encode.SegmentPlan;
+import fr.paris.lutece.plugins.qrcode.service.render.PngWriter;
+import fr.paris.lutece.plugins.qrcode.service.render.SvgWriter;
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Measures the rendering stages of an already encoded symbol: rasterisation, logo overlay and serialisation.
+ * The cost of the logo overlay is the difference between {@link #toImageWithLogo()} and {@link #toImage()}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RenderBenchmark
+{
+    @Param( { "20", "200", "2000" } )
+    public int payloadSize;
+
+    @Param( { "1", "4", "10" } )
+    public int scale;
+
+    private static final int BORDER = 4;
+
+    private QrCodeMatrix matrix;
+    private BufferedImage image;
+    private QrCodeGenerator generator;
+    private QrCodeGenerator generatorWithLogo;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream( 1 << 20 );
+    private final StringBuilder svg = new StringBuilder( 1 << 16 );
+
+    @Setup
+    public void setUp( ) throws IOException, QrCodeGeneratorException
+    {
+        String message = BenchmarkPayloads.BASE_URL;
+        generator = (QrCodeGenerator) new QrCodeBuilder( message ).withCorrectionLevel( CorrectionLevel.LOW )
+                .addParameters( BenchmarkPayloads.parameters( payloadSize ) ).build( );
+        generatorWithLogo = (QrCodeGenerator) new QrCodeBuilder( message ).withCorrectionLevel( CorrectionLevel.LOW )
+                .addParameters( BenchmarkPayloads.parameters( payloadSize ) )
+                .addLogoHandler( new LogoQrCode( new ByteArrayInputStream( logo( ) ) ) ).build( );
+        matrix = toMatrix( generator );
+        image = matrix.toImage( scale, BORDER );
+    }
+
+    private static QrCodeMatrix toMatrix( QrCodeGenerator generator ) throws QrCodeGeneratorException
+    {
+        SegmentPlan plan = generator.getSegmentPlan( );
+        return QrCodeMatrix.of( QrCode.encodeSegments( plan.getSegments( ), QrCode.Ecc.LOW, plan.getVersion( ),
+                plan.getVersion( ), -1, true ) );
+    }
+
+    private static byte[] logo( ) throws IOException
+    {
+        BufferedImage logo = new BufferedImage( 256, 256, BufferedImage.TYPE_INT_ARGB );
+        Random random = new Random( 0 );
+        for ( int y = 0; y < logo.getHeight( ); y++ )
+        {
+            for ( int x = 0; x < logo.getWidth( ); x++ )
+            {
+                logo.setRGB( x, y, random.nextInt( ) );
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream( );
+        ImageIO.write( logo, "png", os );
+        return os.toByteArray( );
+    }
+
+    /**
+     * Rasterisation of the module matrix.
+     */
+    @Benchmark
+    public BufferedImage rasterize( )
+    {
+        return matrix.toImage( scale, BORDER );
+    }
+
+    /**
+     * Full pipeline without logo: payload, encoding and rasterisation.
+     */
+    @Benchmark
+    public BufferedImage toImage( ) throws Exception
+    {
+        return generator.toImage( scale, BORDER );
+    }
+
+    /**
+     * Full pipeline with a logo overlay.
+     */
+    @Benchmark
+    public BufferedImage toImageWithLogo( ) throws Exception
+    {
+        return generatorWithLogo.toImage( scale, BORDER );
+    }
+
+    /**
+     * PNG serialisation of a rendered image through {@link ImageIO}.
+     */
+    @Benchmark
+    public int imageIoPng( ) throws IOException
+    {
+        out.reset( );
+        ImageIO.write( image, "png", out );
+        return out.size( );
+    }
+
+    /**
+     * PNG serialisation streamed from the module matrix.
+     */
+    @Benchmark
+    public int directPng( ) throws IOException
+    {
+        out.reset( );
+        PngWriter.write( matrix, scale, BORDER, out );
+        return out.size( );
+    }
+
+    /**
+     * SVG serialisation from the module matrix.
+     */
+    @Benchmark
+    public int svg( ) throws IOException
+    {
+        svg.setLength( 0 );
+        SvgWriter.write( matrix, scale, BORDER, null, 0, svg );
+        return svg.length( );
+    }
+}